@@ -53,6 +53,7 @@ import org.micromanager.data.internal.CommentsHelper;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.StorageOffHeap;
 import org.micromanager.data.internal.StorageRAM;
 import org.micromanager.data.internal.StorageSinglePlaneTiffSeries;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
@@ -147,6 +148,8 @@ public final class MMAcquisition extends DataViewerListener {
             callbacks_.stop(true);
             return;
          }
+      } else if (StorageOffHeap.getShouldUseOffHeap()) {
+         store_.setStorage(new StorageOffHeap(store_));
       } else {
          store_.setStorage(new StorageRAM(store_));
       }
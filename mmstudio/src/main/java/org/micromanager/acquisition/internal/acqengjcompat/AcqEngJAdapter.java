@@ -24,10 +24,12 @@ package org.micromanager.acquisition.internal.acqengjcompat;
 import com.google.common.eventbus.Subscribe;
 import java.awt.Component;
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -72,6 +74,7 @@ import org.micromanager.display.DisplayWindow;
 import org.micromanager.events.NewPositionListEvent;
 import org.micromanager.events.internal.InternalShutdownCommencingEvent;
 import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.dialogs.AcqControlDlg;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.AcqOrderMode;
 import org.micromanager.internal.utils.MMException;
@@ -95,17 +98,20 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
    public static final String ACQ_IDENTIFIER = "Acq_Identifier";
    private static final SimpleDateFormat DATE_FORMATTER =
             new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS Z");
+   private static final String HOOK_TIMINGS_FILE_NAME = "HookTimings";
    private Acquisition currentAcquisition_;
    private CMMCore core_;
    protected Studio studio_;
    private PositionList posList_;
    private HashMap<String, MultiStagePosition> positionMap_;
+   private int[] positionVisitOrder_;
    private String zStage_;
    private SequenceSettings sequenceSettings_;
    protected JSONObject summaryMetadataJSON_;
    private Datastore curStore_;
    private Pipeline curPipeline_;
    private long nextWakeTime_ = -1;
+   private HookTimer hookTimer_;
    private ArrayList<RunnablePlusIndices> runnables_ = new ArrayList<>();
 
    private class RunnablePlusIndices {
@@ -188,6 +194,8 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       }
       posList_ = posListToUse;
       positionMap_ = new HashMap<>(posList_ == null ? 0 : posList_.getNumberOfPositions());
+      positionVisitOrder_ = sequenceSettings.usePositionList()
+            ? planPositionOrder(posList_) : null;
 
       // The clojure acquisition engine always uses numFrames, and customIntervals
       // unless they are null.
@@ -239,6 +247,7 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
          AcqEngJMDADataSink sink = new AcqEngJMDADataSink(studio_.events(), this);
          currentAcquisition_ = new Acquisition(sink);
          currentAcquisition_.setDebugMode(core_.debugLogEnabled());
+         startHookTimer();
 
          loadRunnables(acquisitionSettings);
 
@@ -270,26 +279,29 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                || sequenceSettings_.acqOrderMode() == AcqOrderMode.POS_TIME_SLICE_CHANNEL) {
             // Pos_time ordered acquisitions need their timelapse minimum start time to be
             // adjusted for each position.  The only place to do that seems to be a hardware hook.
-            currentAcquisition_.addHook(timeLapseHook(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Time lapse",
+                  timeLapseHook(acquisitionSettings)),
                   AcquisitionAPI.BEFORE_HARDWARE_HOOK);
          }
 
          // Hook to move back the ZStage to its original position after a Z stack
          if (sequenceSettings.useSlices()) {
-            currentAcquisition_.addHook(zPositionHook(acquisitionSettings,
-                  Acquisition.BEFORE_HARDWARE_HOOK, null),
+            currentAcquisition_.addHook(hookTimer_.wrap("Z position (before hardware)",
+                  zPositionHook(acquisitionSettings, Acquisition.BEFORE_HARDWARE_HOOK, null)),
                   AcquisitionAPI.BEFORE_HARDWARE_HOOK);
-            currentAcquisition_.addHook(zPositionHook(acquisitionSettings,
-                        Acquisition.AFTER_EXPOSURE_HOOK, null),
+            currentAcquisition_.addHook(hookTimer_.wrap("Z position (after exposure)",
+                  zPositionHook(acquisitionSettings, Acquisition.AFTER_EXPOSURE_HOOK, null)),
                   AcquisitionAPI.AFTER_EXPOSURE_HOOK);
          }
 
          // These hooks make sure that continuous-focus is off when running a Z stack.
          if (studio_.core().isContinuousFocusEnabled()
                  && ((MMStudio) studio_).settings().getUnlockAutofocusDuringZStack()) {
-            currentAcquisition_.addHook(continuousFocusHookBefore(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Continuous focus (before)",
+                  continuousFocusHookBefore(acquisitionSettings)),
                   AcquisitionAPI.BEFORE_HARDWARE_HOOK);
-            currentAcquisition_.addHook(continuousFocusHookAfter(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Continuous focus (after)",
+                  continuousFocusHookAfter(acquisitionSettings)),
                   AcquisitionAPI.AFTER_EXPOSURE_HOOK);
          }
 
@@ -299,27 +311,32 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
          // AcqEngJ does not have hooks for this, so move the XY stage and other stages in the
          // positionlist ourselves inside the autofocusHookBefore function.
          if (sequenceSettings_.useAutofocus()) {
-            currentAcquisition_.addHook(autofocusHook(sequenceSettings_.skipAutofocusCount()),
+            currentAcquisition_.addHook(hookTimer_.wrap("Autofocus",
+                  autofocusHook(sequenceSettings_.skipAutofocusCount())),
                   AcquisitionAPI.BEFORE_Z_DRIVE_HOOK);
             // add a hook to update the Z drive positions based on the position found in the i
             // previous round after autofocussing.
-            currentAcquisition_.addHook(adjustZDrivesHook(), AcquisitionAPI.BEFORE_HARDWARE_HOOK);
+            currentAcquisition_.addHook(hookTimer_.wrap("Adjust Z drives", adjustZDrivesHook()),
+                  AcquisitionAPI.BEFORE_HARDWARE_HOOK);
          }
 
          // Hooks to keep shutter open between channel and/or slices if desired
          if (((sequenceSettings.useChannels() && sequenceSettings.keepShutterOpenChannels())
                || (sequenceSettings.useSlices() && sequenceSettings.keepShutterOpenSlices()))
                && core_.getAutoShutter()) {
-            currentAcquisition_.addHook(shutterHookBefore(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Shutter (before)",
+                  shutterHookBefore(acquisitionSettings)),
                   AcquisitionAPI.AFTER_HARDWARE_HOOK);
-            currentAcquisition_.addHook(shutterHookAfter(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Shutter (after)",
+                  shutterHookAfter(acquisitionSettings)),
                   AcquisitionAPI.AFTER_EXPOSURE_HOOK);
          }
 
          if (sequenceSettings.useChannels()) {
             String channelGroup = core_.getChannelGroup();
             String channel = core_.getCurrentConfig(channelGroup);
-            currentAcquisition_.addHook(restoreChannelHook(channelGroup, channel),
+            currentAcquisition_.addHook(hookTimer_.wrap("Restore channel",
+                  restoreChannelHook(channelGroup, channel)),
                   AcquisitionAPI.AFTER_EXPOSURE_HOOK);
          }
 
@@ -353,13 +370,14 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                   }
                }
             }
-            currentAcquisition_.addHook(restorePositionHook(msp),
-                    AcquisitionAPI.AFTER_EXPOSURE_HOOK);
+            currentAcquisition_.addHook(hookTimer_.wrap("Restore position",
+                  restorePositionHook(msp)), AcquisitionAPI.AFTER_EXPOSURE_HOOK);
          }
 
          // This hook is used to update the time of the next wake up call
          if (sequenceSettings.useFrames()) {
-            currentAcquisition_.addHook(updateNextWakeHook(acquisitionSettings),
+            currentAcquisition_.addHook(hookTimer_.wrap("Update next wake",
+                  updateNextWakeHook(acquisitionSettings)),
                   AcquisitionAPI.AFTER_HARDWARE_HOOK);
          }
 
@@ -381,6 +399,78 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
       }
    }
 
+   /**
+    * If the user asked for it, plans the order in which to visit the positions
+    * so as to minimize stage travel, and reports the planned travel.
+    *
+    * @param positionList Positions to be visited
+    * @return visiting order, or null to visit the positions in list order
+    */
+   protected int[] planPositionOrder(PositionList positionList) {
+      if (positionList == null || !AcqControlDlg.getShouldOptimizePositionOrder()) {
+         return null;
+      }
+      CMMCore core = studio_.core();
+      String xyStage = core.getXYStageDevice();
+      double[] startXY = null;
+      if (xyStage != null && !xyStage.isEmpty()) {
+         try {
+            startXY = new double[] {core.getXPosition(xyStage), core.getYPosition(xyStage)};
+         } catch (Exception ex) {
+            studio_.logs().logError(ex, "Failed to get XY stage position");
+         }
+      }
+      PositionOrderOptimizer.Plan plan = PositionOrderOptimizer.plan(positionList,
+            xyStage, core.getFocusDevice(), AcqControlDlg.getPositionOrderZWeight(), startXY);
+      studio_.logs().logMessage(plan.toString() + "; visiting order: "
+            + Arrays.toString(plan.getOrder()));
+      studio_.alerts().postAlert("Position Order", AcqEngJAdapter.class, plan.toString());
+      return plan.getOrder();
+   }
+
+   /**
+    * Starts timing hooks for a new acquisition.  Hooks should be wrapped
+    * with the returned timer before being added to the acquisition.
+    *
+    * @return the new timer, also returned by {@link #getHookTimer()}
+    */
+   protected HookTimer startHookTimer() {
+      hookTimer_ = new HookTimer();
+      return hookTimer_;
+   }
+
+   /**
+    * Returns the latency statistics of the hooks of the current (or last)
+    * acquisition.
+    *
+    * @return the hook timer, or null if no acquisition was run
+    */
+   public HookTimer getHookTimer() {
+      return hookTimer_;
+   }
+
+   /**
+    * Saves the hook timings of an acquisition next to its data, if the user
+    * asked for it.
+    */
+   protected void exportHookTimings(Datastore store) {
+      HookTimer hookTimer = hookTimer_;
+      if (hookTimer == null || store == null || store.getSavePath() == null
+            || !HookTimingFrame.getShouldExportHookTimings()) {
+         return;
+      }
+      File dir = new File(store.getSavePath());
+      if (!dir.isDirectory()) {
+         dir = dir.getParentFile();
+      }
+      try {
+         hookTimer.exportCsv(new File(dir, HOOK_TIMINGS_FILE_NAME + ".csv"));
+         hookTimer.exportJson(new File(dir, HOOK_TIMINGS_FILE_NAME + ".json"));
+      } catch (IOException ex) {
+         studio_.logs().logError(ex, "Failed to save hook timings");
+      }
+   }
+
    /**
     * Higher level stuff in MM may depend on many hidden, poorly documented
     * ways on summary metadata generated by the acquisition engine.
@@ -490,6 +580,11 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                if (tags.has(AcqEngMetadata.POS_NAME)) {
                   imageMD.put(PropertyKey.POSITION_NAME.key(), tags.get(AcqEngMetadata.POS_NAME));
                }
+               // Unknown flat keys end up in the image's user data
+               if (tags.has(MDAAcqEventModules.POSITION_VISIT_INDEX)) {
+                  imageMD.put(MDAAcqEventModules.POSITION_VISIT_INDEX,
+                        tags.get(MDAAcqEventModules.POSITION_VISIT_INDEX));
+               }
             }
          }
          if (AcqEngMetadata.hasStageX(imageMD)) {
@@ -522,6 +617,7 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
     * @param acquisitionSettings Object with settings for the acquisition
     */
    private void loadRunnables(SequenceSettings acquisitionSettings) {
+      final HookTimer hookTimer = hookTimer_;
       for (RunnablePlusIndices r : runnables_) {
          currentAcquisition_.addHook(new AcquisitionHook() {
             @Override
@@ -550,7 +646,8 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
                   //        + r.position_ + "( " + p + ") "
                   //        + r.channel_ + "( " + event.getConfigPreset() + ") "
                   //        + r.slice_ + "( " + z + ")");
-                  r.runnable_.run();
+                  hookTimer.run(HookTimer.attachedRunnableName(
+                        r.frame_, r.position_, r.channel_, r.slice_), event, r.runnable_);
                }
                return event;
             }
@@ -604,7 +701,7 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
 
       Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions = null;
       if (acquisitionSettings.usePositionList()) {
-         positions = MDAAcqEventModules.positions(posList_, null, core_);
+         positions = MDAAcqEventModules.positions(posList_, positionVisitOrder_, null, core_);
          // TODO: is acq engine supposed to move multiple stages?
          // Yes: when moving to a new position, all stages in the MultiStagePosition instance
          // should be moved to the desired location
@@ -1797,6 +1894,10 @@ public class AcqEngJAdapter implements AcquisitionEngine, MMAcquistionControlCal
    @Subscribe
    public void onAcquisitionEnded(AcquisitionEndedEvent event) {
       if (event.getStore().equals(curStore_)) {
+         if (hookTimer_ != null) {
+            studio_.logs().logMessage("Acquisition hook timing:\n" + hookTimer_);
+         }
+         exportHookTimings(curStore_);
          curStore_ = null;
          curPipeline_ = null;
          if (currentAcquisition_ != null) {
@@ -0,0 +1,681 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import org.micromanager.PositionList;
+import org.micromanager.acquisition.ChannelSpec;
+import org.micromanager.acquisition.SequenceSettings;
+import org.micromanager.internal.utils.AcqOrderMode;
+
+/**
+ * Predicts how long an acquisition will take, and whether saving will keep
+ * up, without touching the hardware.
+ *
+ * <p>The simulator enumerates the same events, in the same order, as
+ * {@code AcqEngJAdapter} builds from {@code MDAAcqEventModules} (including
+ * skipped frames, channels without Z stacks, channel Z offsets, autofocus
+ * and the position visiting order), and plays them against a
+ * {@link HardwareModel} describing device latencies, a simulated camera and
+ * the writer throughput.  Consecutive events at the same time point and
+ * position that only differ in hardware-sequenceable axes are taken as a
+ * single hardware sequence, in which frames follow each other without
+ * device moves.  Images wait in the sequence buffer until written, which
+ * gives the buffer high-water mark.</p>
+ *
+ * <p>This only uses {@link SequenceSettings} and {@link PositionList}, so it
+ * can be used without a Core (e.g. from unit tests).</p>
+ */
+public final class AcquisitionTimingSimulator {
+   /**
+    * Storage is said to fall behind when writing is not done within this
+    * long after the last image was acquired.
+    */
+   public static final double STORAGE_LAG_TOLERANCE_MS = 1000.0;
+
+   /**
+    * What the time of a simulated acquisition is spent on.
+    */
+   public enum Phase {
+      INTERVAL_WAIT("Waiting for time points"),
+      XY_MOVE("XY stage moves"),
+      AUTOFOCUS("Autofocus"),
+      CHANNEL_SWITCH("Channel switches"),
+      Z_MOVE("Z moves"),
+      HOOKS("Hooks"),
+      EXPOSURE("Exposure"),
+      READOUT("Readout");
+
+      private final String label_;
+
+      Phase(String label) {
+         label_ = label;
+      }
+
+      public String getLabel() {
+         return label_;
+      }
+   }
+
+   /**
+    * Latencies and capacities of the simulated hardware.
+    */
+   public static final class HardwareModel {
+      private final double exposureMs_;
+      private final double readoutMs_;
+      private final long bytesPerImage_;
+      private final double channelSwitchMs_;
+      private final double zMoveMsPerUm_;
+      private final double zSettleMs_;
+      private final double xyMoveMsPerUm_;
+      private final double xySettleMs_;
+      private final double autofocusMs_;
+      private final double hookMs_;
+      private final boolean zSequenceable_;
+      private final boolean channelsSequenceable_;
+      private final double writerBytesPerS_;
+      private final long bufferCapacityBytes_;
+
+      /**
+       * Builder for HardwareModel.  Defaults describe a typical sCMOS setup
+       * with a motorized stage and a fast disk.
+       */
+      public static final class Builder {
+         private double exposureMs_ = 10.0;
+         private double readoutMs_ = 10.0;
+         private long bytesPerImage_ = 2048L * 2048L * 2L;
+         private double channelSwitchMs_ = 20.0;
+         private double zMoveMsPerUm_ = 1.0;
+         private double zSettleMs_ = 10.0;
+         private double xyMoveMsPerUm_ = 0.1;
+         private double xySettleMs_ = 50.0;
+         private double autofocusMs_ = 1000.0;
+         private double hookMs_ = 0.5;
+         private boolean zSequenceable_ = false;
+         private boolean channelsSequenceable_ = false;
+         private double writerBytesPerS_ = 200e6;
+         private long bufferCapacityBytes_ = 250L * 1024L * 1024L;
+
+         public Builder() {
+         }
+
+         /**
+          * Exposure used when the acquisition does not use channels.
+          */
+         public Builder exposureMs(double exposureMs) {
+            exposureMs_ = exposureMs;
+            return this;
+         }
+
+         /**
+          * Time between the end of an exposure and the image being available,
+          * when frames are not overlapped by a hardware sequence.
+          */
+         public Builder readoutMs(double readoutMs) {
+            readoutMs_ = readoutMs;
+            return this;
+         }
+
+         public Builder bytesPerImage(long bytesPerImage) {
+            bytesPerImage_ = bytesPerImage;
+            return this;
+         }
+
+         /**
+          * Time to apply a channel preset (and exposure) that is not
+          * sequenced.
+          */
+         public Builder channelSwitchMs(double channelSwitchMs) {
+            channelSwitchMs_ = channelSwitchMs;
+            return this;
+         }
+
+         public Builder zMove(double msPerUm, double settleMs) {
+            zMoveMsPerUm_ = msPerUm;
+            zSettleMs_ = settleMs;
+            return this;
+         }
+
+         /**
+          * Speed of the XY stage, taking the larger of the X and Y travel
+          * since both axes move together.
+          */
+         public Builder xyMove(double msPerUm, double settleMs) {
+            xyMoveMsPerUm_ = msPerUm;
+            xySettleMs_ = settleMs;
+            return this;
+         }
+
+         public Builder autofocusMs(double autofocusMs) {
+            autofocusMs_ = autofocusMs;
+            return this;
+         }
+
+         /**
+          * Time spent in acquisition hooks for each hardware sequence (or
+          * single image).
+          */
+         public Builder hookMs(double hookMs) {
+            hookMs_ = hookMs;
+            return this;
+         }
+
+         public Builder zSequenceable(boolean zSequenceable) {
+            zSequenceable_ = zSequenceable;
+            return this;
+         }
+
+         public Builder channelsSequenceable(boolean channelsSequenceable) {
+            channelsSequenceable_ = channelsSequenceable;
+            return this;
+         }
+
+         /**
+          * Sustained write speed of the storage; 0 or less for storage that
+          * always keeps up (e.g. when not saving).
+          */
+         public Builder writerBytesPerS(double writerBytesPerS) {
+            writerBytesPerS_ = writerBytesPerS;
+            return this;
+         }
+
+         public Builder bufferCapacityBytes(long bufferCapacityBytes) {
+            bufferCapacityBytes_ = bufferCapacityBytes;
+            return this;
+         }
+
+         public HardwareModel build() {
+            return new HardwareModel(this);
+         }
+      }
+
+      private HardwareModel(Builder b) {
+         exposureMs_ = b.exposureMs_;
+         readoutMs_ = b.readoutMs_;
+         bytesPerImage_ = b.bytesPerImage_;
+         channelSwitchMs_ = b.channelSwitchMs_;
+         zMoveMsPerUm_ = b.zMoveMsPerUm_;
+         zSettleMs_ = b.zSettleMs_;
+         xyMoveMsPerUm_ = b.xyMoveMsPerUm_;
+         xySettleMs_ = b.xySettleMs_;
+         autofocusMs_ = b.autofocusMs_;
+         hookMs_ = b.hookMs_;
+         zSequenceable_ = b.zSequenceable_;
+         channelsSequenceable_ = b.channelsSequenceable_;
+         writerBytesPerS_ = b.writerBytesPerS_;
+         bufferCapacityBytes_ = b.bufferCapacityBytes_;
+      }
+   }
+
+   /**
+    * Outcome of a simulation.
+    */
+   public static final class Prediction {
+      private final double durationMs_;
+      private final double storageDoneMs_;
+      private final Map<Phase, Double> phaseMs_;
+      private final int imageCount_;
+      private final int sequenceCount_;
+      private final int lateTimePoints_;
+      private final int bufferHighWaterImages_;
+      private final long bytesPerImage_;
+      private final long bufferCapacityBytes_;
+
+      private Prediction(double durationMs, double storageDoneMs,
+                         Map<Phase, Double> phaseMs, int imageCount,
+                         int sequenceCount, int lateTimePoints,
+                         int bufferHighWaterImages, HardwareModel model) {
+         durationMs_ = durationMs;
+         storageDoneMs_ = storageDoneMs;
+         phaseMs_ = phaseMs;
+         imageCount_ = imageCount;
+         sequenceCount_ = sequenceCount;
+         lateTimePoints_ = lateTimePoints;
+         bufferHighWaterImages_ = bufferHighWaterImages;
+         bytesPerImage_ = model.bytesPerImage_;
+         bufferCapacityBytes_ = model.bufferCapacityBytes_;
+      }
+
+      /**
+       * @return time from the start of the acquisition until the last image
+       *     has been acquired, in milliseconds
+       */
+      public double getDurationMs() {
+         return durationMs_;
+      }
+
+      /**
+       * @return time from the start of the acquisition until the last image
+       *     has been written, in milliseconds
+       */
+      public double getStorageDoneMs() {
+         return storageDoneMs_;
+      }
+
+      public double getStorageLagMs() {
+         return storageDoneMs_ - durationMs_;
+      }
+
+      public double getPhaseMs(Phase phase) {
+         return phaseMs_.get(phase);
+      }
+
+      public int getImageCount() {
+         return imageCount_;
+      }
+
+      /**
+       * @return the number of hardware sequences (a single image counts as
+       *     a sequence of one)
+       */
+      public int getSequenceCount() {
+         return sequenceCount_;
+      }
+
+      /**
+       * @return the number of time points that started later than their
+       *     interval asked for
+       */
+      public int getLateTimePoints() {
+         return lateTimePoints_;
+      }
+
+      /**
+       * @return the largest number of images waiting to be written
+       */
+      public int getBufferHighWaterImages() {
+         return bufferHighWaterImages_;
+      }
+
+      public long getBufferHighWaterBytes() {
+         return bufferHighWaterImages_ * bytesPerImage_;
+      }
+
+      /**
+       * @return whether images waiting to be written would not fit in the
+       *     sequence buffer
+       */
+      public boolean bufferOverflows() {
+         return getBufferHighWaterBytes() > bufferCapacityBytes_;
+      }
+
+      /**
+       * @return whether the sequence buffer overflows, or writing finishes
+       *     more than {@link #STORAGE_LAG_TOLERANCE_MS} after acquisition
+       */
+      public boolean storageFallsBehind() {
+         return bufferOverflows() || getStorageLagMs() > STORAGE_LAG_TOLERANCE_MS;
+      }
+
+      @Override
+      public String toString() {
+         StringBuilder sb = new StringBuilder();
+         sb.append(String.format("Predicted duration: %.1f s (%d images in %d sequences)%n",
+               durationMs_ / 1000.0, imageCount_, sequenceCount_));
+         for (Phase phase : Phase.values()) {
+            double ms = phaseMs_.get(phase);
+            if (ms > 0.0) {
+               sb.append(String.format("  %s: %.1f s (%.0f%%)%n", phase.getLabel(),
+                     ms / 1000.0, durationMs_ > 0.0 ? 100.0 * ms / durationMs_ : 0.0));
+            }
+         }
+         if (lateTimePoints_ > 0) {
+            sb.append(String.format("%d time points start later than the interval%n",
+                  lateTimePoints_));
+         }
+         sb.append(String.format("Buffer high-water mark: %d images (%.0f of %.0f MB)%n",
+               bufferHighWaterImages_, getBufferHighWaterBytes() / 1048576.0,
+               bufferCapacityBytes_ / 1048576.0));
+         if (bufferOverflows()) {
+            sb.append("Sequence buffer overflows: storage cannot keep up");
+         } else if (storageFallsBehind()) {
+            sb.append(String.format("Storage falls behind: writing finishes %.1f s "
+                  + "after acquisition", getStorageLagMs() / 1000.0));
+         } else {
+            sb.append("Storage keeps up");
+         }
+         return sb.toString();
+      }
+   }
+
+   private enum Axis {
+      TIME, POSITION, CHANNEL, SLICE
+   }
+
+   /**
+    * The parts of an AcquisitionEvent that matter for timing.
+    */
+   static final class Event {
+      Integer t;
+      Integer p;
+      Integer c;
+      Integer z;
+      Double zUm;
+      double exposureMs;
+
+      Event copy() {
+         Event e = new Event();
+         e.t = t;
+         e.p = p;
+         e.c = c;
+         e.z = z;
+         e.zUm = zUm;
+         e.exposureMs = exposureMs;
+         return e;
+      }
+   }
+
+   private AcquisitionTimingSimulator() {
+   }
+
+   /**
+    * Simulates an acquisition.
+    *
+    * @param settings           Acquisition settings
+    * @param positionList       Positions to visit, used when the settings use
+    *                           a position list; may be null
+    * @param positionVisitOrder Order in which to visit the positions (as from
+    *                           {@link PositionOrderOptimizer}), or null for
+    *                           list order
+    * @param model              Simulated hardware
+    * @return the prediction
+    */
+   public static Prediction simulate(SequenceSettings settings,
+                                     PositionList positionList,
+                                     int[] positionVisitOrder,
+                                     HardwareModel model) {
+      int mode = settings.acqOrderMode();
+      boolean positionsFirst = mode == AcqOrderMode.POS_TIME_CHANNEL_SLICE
+            || mode == AcqOrderMode.POS_TIME_SLICE_CHANNEL;
+      Simulation simulation = new Simulation(settings, getUsedChannels(settings),
+            positionList, positionsFirst, model);
+      forEachEvent(settings, positionList, positionVisitOrder, simulation);
+      return simulation.finish();
+   }
+
+   private static List<ChannelSpec> getUsedChannels(SequenceSettings settings) {
+      List<ChannelSpec> chSpecs = new ArrayList<>();
+      if (settings.useChannels() && settings.channels() != null) {
+         for (ChannelSpec chSpec : settings.channels()) {
+            if (chSpec.useChannel()) {
+               chSpecs.add(chSpec);
+            }
+         }
+      }
+      return chSpecs;
+   }
+
+   /**
+    * Passes the events of an acquisition to the sink, in acquisition order.
+    * Package-private so that tests can compare them with the events that
+    * AcqEngJ builds from {@code MDAAcqEventModules}.
+    */
+   static void forEachEvent(SequenceSettings settings, PositionList positionList,
+                            int[] positionVisitOrder, Consumer<Event> sink) {
+      List<ChannelSpec> chSpecs = getUsedChannels(settings);
+      boolean useSlices = settings.useSlices() && !settings.slices().isEmpty();
+      boolean usePositions = settings.usePositionList() && positionList != null;
+      boolean useChannels = !chSpecs.isEmpty();
+
+      List<Axis> axes = new ArrayList<>();
+      int mode = settings.acqOrderMode();
+      boolean positionsFirst = mode == AcqOrderMode.POS_TIME_CHANNEL_SLICE
+            || mode == AcqOrderMode.POS_TIME_SLICE_CHANNEL;
+      boolean slicesFirst = mode == AcqOrderMode.TIME_POS_SLICE_CHANNEL
+            || mode == AcqOrderMode.POS_TIME_SLICE_CHANNEL;
+      if (positionsFirst && usePositions) {
+         axes.add(Axis.POSITION);
+      }
+      if (settings.useFrames()) {
+         axes.add(Axis.TIME);
+      }
+      if (!positionsFirst && usePositions) {
+         axes.add(Axis.POSITION);
+      }
+      if (slicesFirst && useSlices) {
+         axes.add(Axis.SLICE);
+      }
+      if (useChannels) {
+         axes.add(Axis.CHANNEL);
+      }
+      if (!slicesFirst && useSlices) {
+         axes.add(Axis.SLICE);
+      }
+
+      new EventGenerator(settings, chSpecs, positionList, positionVisitOrder, axes)
+            .generate(0, new Event(), sink);
+   }
+
+   /**
+    * Enumerates events the way the MDAAcqEventModules functions, nested in
+    * acquisition order, do.
+    */
+   private static final class EventGenerator {
+      private final SequenceSettings settings_;
+      private final List<ChannelSpec> chSpecs_;
+      private final int numPositions_;
+      private final int[] visitOrder_;
+      private final List<Axis> axes_;
+      private final boolean hasZOffsets_;
+
+      EventGenerator(SequenceSettings settings, List<ChannelSpec> chSpecs,
+                     PositionList positionList, int[] visitOrder, List<Axis> axes) {
+         settings_ = settings;
+         chSpecs_ = chSpecs;
+         numPositions_ = positionList == null ? 0 : positionList.getNumberOfPositions();
+         visitOrder_ = visitOrder;
+         axes_ = axes;
+         hasZOffsets_ = chSpecs.stream().anyMatch(c -> c.zOffset() != 0);
+      }
+
+      void generate(int level, Event event, Consumer<Event> sink) {
+         if (level == axes_.size()) {
+            sink.accept(event);
+            return;
+         }
+         switch (axes_.get(level)) {
+            case TIME:
+               int numFrames = settings_.useCustomIntervals()
+                     ? settings_.customIntervalsMs().size() : settings_.numFrames();
+               for (int t = 0; t == 0 || t < numFrames; ++t) {
+                  Event e = event.copy();
+                  e.t = t;
+                  generate(level + 1, e, sink);
+               }
+               break;
+            case POSITION:
+               if (numPositions_ == 0) {
+                  // Empty position list: acquire at the current position
+                  generate(level + 1, event, sink);
+                  break;
+               }
+               for (int k = 0; k < numPositions_; ++k) {
+                  Event e = event.copy();
+                  e.p = visitOrder_ == null ? k : visitOrder_[k];
+                  generate(level + 1, e, sink);
+               }
+               break;
+            case CHANNEL:
+               int middleSliceIndex = (settings_.slices().size() - 1) / 2;
+               for (int c = 0; c < chSpecs_.size(); ++c) {
+                  ChannelSpec chSpec = chSpecs_.get(c);
+                  if (!chSpec.doZStack() && event.z != null && event.z != middleSliceIndex) {
+                     continue;
+                  }
+                  if (chSpec.skipFactorFrame() != 0 && event.t != null
+                        && event.t % (chSpec.skipFactorFrame() + 1) != 0) {
+                     continue;
+                  }
+                  Event e = event.copy();
+                  e.c = c;
+                  if (e.zUm != null) {
+                     e.zUm += chSpec.zOffset();
+                  } else if (hasZOffsets_) {
+                     // Relative to the current focus position
+                     e.zUm = chSpec.zOffset();
+                  }
+                  e.exposureMs = chSpec.exposure();
+                  generate(level + 1, e, sink);
+               }
+               break;
+            case SLICE:
+               int numSlices = settings_.slices().size();
+               double origin = settings_.slices().get(0);
+               double step = settings_.sliceZStepUm();
+               boolean single = event.c != null && !chSpecs_.get(event.c).doZStack();
+               for (int z = 0; single ? z == 0 : z < numSlices; ++z) {
+                  Event e = event.copy();
+                  double zPos = single ? origin + ((numSlices - 1) / 2) * step
+                        : z * step + origin;
+                  e.z = z;
+                  e.zUm = (e.zUm == null ? 0.0 : e.zUm) + zPos;
+                  generate(level + 1, e, sink);
+               }
+               break;
+            default:
+               throw new AssertionError(axes_.get(level).name());
+         }
+      }
+   }
+
+   /**
+    * Plays events against the hardware model, in simulated time.
+    */
+   private static final class Simulation implements Consumer<Event> {
+      private final HardwareModel model_;
+      private final boolean useChannels_;
+      private final double defaultExposureMs_;
+      private final double intervalMs_;
+      private final int autofocusSkip_;
+      private final boolean useAutofocus_;
+      private final boolean positionsFirst_;
+      private final double[] xs_;
+      private final double[] ys_;
+      private final double writeMs_;
+
+      private final Map<Phase, Double> phaseMs_ = new EnumMap<>(Phase.class);
+      private final ArrayDeque<Double> writesPending_ = new ArrayDeque<>();
+      private double nowMs_ = 0.0;
+      private double positionStartMs_ = 0.0;
+      private double writerFreeMs_ = 0.0;
+      private Event previous_;
+      private Double lastZUm_;
+      private int imageCount_ = 0;
+      private int sequenceCount_ = 0;
+      private int lateTimePoints_ = 0;
+      private int bufferHighWater_ = 0;
+
+      Simulation(SequenceSettings settings, List<ChannelSpec> chSpecs,
+                 PositionList positionList, boolean positionsFirst,
+                 HardwareModel model) {
+         model_ = model;
+         useChannels_ = !chSpecs.isEmpty();
+         defaultExposureMs_ = model.exposureMs_;
+         intervalMs_ = settings.intervalMs();
+         autofocusSkip_ = settings.skipAutofocusCount();
+         useAutofocus_ = settings.useAutofocus();
+         positionsFirst_ = positionsFirst;
+         int n = positionList == null ? 0 : positionList.getNumberOfPositions();
+         xs_ = new double[n];
+         ys_ = new double[n];
+         for (int i = 0; i < n; ++i) {
+            xs_[i] = positionList.getPosition(i).getX();
+            ys_[i] = positionList.getPosition(i).getY();
+         }
+         writeMs_ = model.writerBytesPerS_ > 0.0
+               ? 1000.0 * model.bytesPerImage_ / model.writerBytesPerS_ : 0.0;
+         for (Phase phase : Phase.values()) {
+            phaseMs_.put(phase, 0.0);
+         }
+      }
+
+      private void spend(Phase phase, double ms) {
+         phaseMs_.put(phase, phaseMs_.get(phase) + ms);
+         nowMs_ += ms;
+      }
+
+      @Override
+      public void accept(Event e) {
+         if (!useChannels_) {
+            e.exposureMs = defaultExposureMs_;
+         }
+         Event prev = previous_;
+         boolean newTimePoint = prev == null || !Objects.equals(e.t, prev.t);
+         boolean newPosition = prev == null || !Objects.equals(e.p, prev.p);
+
+         // Minimum start times, as set by the timelapse module and (for
+         // position-first orders) the time-lapse hook
+         if (newPosition && positionsFirst_) {
+            positionStartMs_ = nowMs_;
+         }
+         if (e.t != null && newTimePoint) {
+            double dueMs = (positionsFirst_ ? positionStartMs_ : 0.0) + intervalMs_ * e.t;
+            if (nowMs_ < dueMs) {
+               spend(Phase.INTERVAL_WAIT, dueMs - nowMs_);
+            } else if (e.t > 0 && nowMs_ > dueMs) {
+               ++lateTimePoints_;
+            }
+         }
+
+         if (newPosition && prev != null && e.p != null && prev.p != null) {
+            double travelUm = Math.max(Math.abs(xs_[e.p] - xs_[prev.p]),
+                  Math.abs(ys_[e.p] - ys_[prev.p]));
+            if (travelUm > 0.0) {
+               spend(Phase.XY_MOVE, travelUm * model_.xyMoveMsPerUm_ + model_.xySettleMs_);
+            }
+         }
+
+         // Same condition as AcqEngJAdapter.autofocusHook
+         boolean autofocus = useAutofocus_
+               && (e.z == null || e.z == 0) && (e.c == null || e.c == 0)
+               && !(e.t != null && autofocusSkip_ != 0 && e.t % autofocusSkip_ != 0);
+         if (autofocus) {
+            spend(Phase.AUTOFOCUS, model_.autofocusMs_);
+         }
+
+         boolean sequenced = prev != null && !newTimePoint && !newPosition && !autofocus
+               && e.exposureMs == prev.exposureMs
+               && (Objects.equals(e.c, prev.c) || model_.channelsSequenceable_)
+               && (Objects.equals(e.z, prev.z) || model_.zSequenceable_);
+         if (!sequenced) {
+            ++sequenceCount_;
+            if (e.c != null && (prev == null || !Objects.equals(e.c, prev.c))) {
+               spend(Phase.CHANNEL_SWITCH, model_.channelSwitchMs_);
+            }
+            if (e.zUm != null && lastZUm_ != null && !e.zUm.equals(lastZUm_)) {
+               spend(Phase.Z_MOVE, Math.abs(e.zUm - lastZUm_) * model_.zMoveMsPerUm_
+                     + model_.zSettleMs_);
+            }
+            spend(Phase.HOOKS, model_.hookMs_);
+            spend(Phase.EXPOSURE, e.exposureMs);
+            spend(Phase.READOUT, model_.readoutMs_);
+         } else {
+            // Frames of a sequence overlap exposure and readout
+            spend(Phase.EXPOSURE, e.exposureMs);
+            spend(Phase.READOUT, Math.max(0.0, model_.readoutMs_ - e.exposureMs));
+         }
+         if (e.zUm != null) {
+            lastZUm_ = e.zUm;
+         }
+         ++imageCount_;
+
+         while (!writesPending_.isEmpty() && writesPending_.peekFirst() <= nowMs_) {
+            writesPending_.pollFirst();
+         }
+         writerFreeMs_ = Math.max(writerFreeMs_, nowMs_) + writeMs_;
+         writesPending_.addLast(writerFreeMs_);
+         bufferHighWater_ = Math.max(bufferHighWater_, writesPending_.size());
+
+         previous_ = e;
+      }
+
+      Prediction finish() {
+         return new Prediction(nowMs_, Math.max(nowMs_, writerFreeMs_), phaseMs_,
+               imageCount_, sequenceCount_, lateTimePoints_, bufferHighWater_, model_);
+      }
+   }
+}
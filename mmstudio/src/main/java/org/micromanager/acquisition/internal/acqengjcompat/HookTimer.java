@@ -0,0 +1,454 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import org.micromanager.acqj.api.AcquisitionHook;
+import org.micromanager.acqj.main.AcqEngMetadata;
+import org.micromanager.acqj.main.AcquisitionEvent;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+import org.micromanager.internal.utils.performance.SkipListRunningQuantile;
+
+/**
+ * Measures how long the acquisition hooks of an acquisition take.
+ *
+ * <p>Hooks are timed by wrapping them with {@link #wrap}, and Runnables
+ * attached to the acquisition by running them with {@link #run}.  For each
+ * hook,
+ * aggregate statistics (count, total, maximum, running median and 95th
+ * percentile, and a latency histogram) are kept, as well as the duration of
+ * each call, with the time, position, channel and slice indices of the
+ * event it was called for (up to {@link #MAX_EVENT_TIMINGS} calls).  The
+ * smoothed latency of each hook is also sampled into a
+ * {@link PerformanceMonitor}.</p>
+ *
+ * <p>Timing costs two calls to {@code System.nanoTime()} and an uncontended
+ * lock per hook call.  All methods may be called from any thread.</p>
+ */
+public final class HookTimer {
+   /**
+    * Upper bounds of the histogram bins, in milliseconds.  Histograms have
+    * one more bin, for latencies above the last bound.
+    */
+   public static final double[] HISTOGRAM_BIN_UPPER_MS =
+         {0.01, 0.03, 0.1, 0.3, 1.0, 3.0, 10.0, 30.0, 100.0, 300.0, 1000.0, 3000.0};
+
+   /**
+    * Maximum number of per-call timings kept; later calls only count toward
+    * the aggregate statistics.
+    */
+   public static final int MAX_EVENT_TIMINGS = 100_000;
+
+   private static final int QUANTILE_WINDOW = 1000;
+
+   private static volatile HookTimer latest_;
+
+   private final long startNs_ = System.nanoTime();
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   // Guarded by this
+   private final Map<String, Accumulator> accumulators_ = new LinkedHashMap<>();
+   private final List<EventTiming> eventTimings_ = new ArrayList<>();
+   private long droppedEventTimings_ = 0;
+
+   /**
+    * Aggregate latency statistics of a hook.
+    */
+   public static final class HookStats {
+      private final String name_;
+      private final long count_;
+      private final double totalMs_;
+      private final double maxMs_;
+      private final double medianMs_;
+      private final double percentile95Ms_;
+      private final long[] histogram_;
+
+      private HookStats(String name, long count, double totalMs, double maxMs,
+                        double medianMs, double percentile95Ms, long[] histogram) {
+         name_ = name;
+         count_ = count;
+         totalMs_ = totalMs;
+         maxMs_ = maxMs;
+         medianMs_ = medianMs;
+         percentile95Ms_ = percentile95Ms;
+         histogram_ = histogram;
+      }
+
+      public String getName() {
+         return name_;
+      }
+
+      public long getCount() {
+         return count_;
+      }
+
+      public double getTotalMs() {
+         return totalMs_;
+      }
+
+      public double getMeanMs() {
+         return count_ == 0 ? 0.0 : totalMs_ / count_;
+      }
+
+      public double getMaxMs() {
+         return maxMs_;
+      }
+
+      /**
+       * @return the median over the most recent calls
+       */
+      public double getMedianMs() {
+         return medianMs_;
+      }
+
+      /**
+       * @return the 95th percentile over the most recent calls
+       */
+      public double getPercentile95Ms() {
+         return percentile95Ms_;
+      }
+
+      /**
+       * @return number of calls in each bin of {@link #HISTOGRAM_BIN_UPPER_MS},
+       *     followed by the number of calls above the last bound
+       */
+      public long[] getHistogram() {
+         return histogram_.clone();
+      }
+   }
+
+   /**
+    * Duration of a single hook call.  Indices are null when the event did not
+    * have them (e.g. for the event that finishes the acquisition).
+    */
+   public static final class EventTiming {
+      private final String hook_;
+      private final Integer time_;
+      private final Integer position_;
+      private final Integer channel_;
+      private final Integer slice_;
+      private final double startMs_;
+      private final double durationMs_;
+
+      private EventTiming(String hook, Integer time, Integer position,
+                          Integer channel, Integer slice, double startMs, double durationMs) {
+         hook_ = hook;
+         time_ = time;
+         position_ = position;
+         channel_ = channel;
+         slice_ = slice;
+         startMs_ = startMs;
+         durationMs_ = durationMs;
+      }
+
+      public String getHook() {
+         return hook_;
+      }
+
+      public Integer getTime() {
+         return time_;
+      }
+
+      public Integer getPosition() {
+         return position_;
+      }
+
+      public Integer getChannel() {
+         return channel_;
+      }
+
+      public Integer getSlice() {
+         return slice_;
+      }
+
+      /**
+       * @return when the call started, relative to the creation of the timer
+       */
+      public double getStartMs() {
+         return startMs_;
+      }
+
+      public double getDurationMs() {
+         return durationMs_;
+      }
+   }
+
+   private static final class Accumulator {
+      long count_ = 0;
+      long totalNs_ = 0;
+      long maxNs_ = 0;
+      final SkipListRunningQuantile quantile_ =
+            SkipListRunningQuantile.create(QUANTILE_WINDOW);
+      final long[] histogram_ = new long[HISTOGRAM_BIN_UPPER_MS.length + 1];
+   }
+
+   /**
+    * Creates a timer, which becomes the one returned by {@link #getLatest}.
+    */
+   public HookTimer() {
+      latest_ = this;
+   }
+
+   /**
+    * @return the most recently created timer (normally that of the current or
+    *     last acquisition), or null if there is none
+    */
+   public static HookTimer getLatest() {
+      return latest_;
+   }
+
+   /**
+    * Wraps a hook so that its calls are timed.
+    *
+    * @param name Name under which to report the hook
+    * @param hook Hook to time
+    * @return a hook that runs the given hook and records how long it took
+    */
+   public AcquisitionHook wrap(final String name, final AcquisitionHook hook) {
+      return new AcquisitionHook() {
+         @Override
+         public AcquisitionEvent run(AcquisitionEvent event) {
+            // Read indices first, as the hook may change the event
+            Integer time = event.getTIndex();
+            Integer position = positionIndex(event);
+            Integer channel = channelIndex(event);
+            Integer slice = event.getZIndex();
+            long startNs = System.nanoTime();
+            try {
+               return hook.run(event);
+            } finally {
+               record(name, time, position, channel, slice, startNs, System.nanoTime());
+            }
+         }
+
+         @Override
+         public void close() {
+            hook.close();
+         }
+      };
+   }
+
+   /**
+    * Runs a Runnable attached to the acquisition, timing it like a hook.
+    *
+    * @param name     Name under which to report the Runnable
+    * @param event    Event for which the Runnable is run
+    * @param runnable Runnable to run and time
+    */
+   public void run(String name, AcquisitionEvent event, Runnable runnable) {
+      long startNs = System.nanoTime();
+      try {
+         runnable.run();
+      } finally {
+         record(name, event.getTIndex(), positionIndex(event), channelIndex(event),
+               event.getZIndex(), startNs, System.nanoTime());
+      }
+   }
+
+   /**
+    * Name under which to report a Runnable attached for the given indices
+    * (negative meaning any).
+    */
+   public static String attachedRunnableName(int frame, int position, int channel,
+                                             int slice) {
+      return String.format("Runnable (t=%s, p=%s, c=%s, z=%s)", anyIndex(frame),
+            anyIndex(position), anyIndex(channel), anyIndex(slice));
+   }
+
+   private static String anyIndex(int index) {
+      return index < 0 ? "*" : Integer.toString(index);
+   }
+
+   private static Integer positionIndex(AcquisitionEvent event) {
+      Object position = event.getAxisPosition(MDAAcqEventModules.POSITION_AXIS);
+      return position instanceof Integer ? (Integer) position : null;
+   }
+
+   private static Integer channelIndex(AcquisitionEvent event) {
+      Object channel = event.getAxisPosition(AcqEngMetadata.CHANNEL_AXIS);
+      return channel instanceof Integer ? (Integer) channel : null;
+   }
+
+   synchronized void record(String hook, Integer time, Integer position,
+                            Integer channel, Integer slice, long startNs, long endNs) {
+      long durationNs = endNs - startNs;
+      double durationMs = durationNs / 1e6;
+      Accumulator acc = accumulators_.get(hook);
+      if (acc == null) {
+         acc = new Accumulator();
+         accumulators_.put(hook, acc);
+      }
+      acc.count_++;
+      acc.totalNs_ += durationNs;
+      acc.maxNs_ = Math.max(acc.maxNs_, durationNs);
+      acc.quantile_.sample(durationMs);
+      int bin = 0;
+      while (bin < HISTOGRAM_BIN_UPPER_MS.length && durationMs > HISTOGRAM_BIN_UPPER_MS[bin]) {
+         ++bin;
+      }
+      acc.histogram_[bin]++;
+
+      if (eventTimings_.size() < MAX_EVENT_TIMINGS) {
+         eventTimings_.add(new EventTiming(hook, time, position, channel, slice,
+               (startNs - startNs_) / 1e6, durationMs));
+      } else {
+         ++droppedEventTimings_;
+      }
+      perfMon_.sample(hook + " (ms)", durationMs);
+   }
+
+   /**
+    * @return statistics of each hook, in the order in which they were first
+    *     called
+    */
+   public synchronized List<HookStats> getHookStats() {
+      List<HookStats> stats = new ArrayList<>(accumulators_.size());
+      for (Map.Entry<String, Accumulator> e : accumulators_.entrySet()) {
+         Accumulator acc = e.getValue();
+         stats.add(new HookStats(e.getKey(), acc.count_, acc.totalNs_ / 1e6,
+               acc.maxNs_ / 1e6, acc.quantile_.getQuantile(0.5),
+               acc.quantile_.getQuantile(0.95), acc.histogram_.clone()));
+      }
+      return stats;
+   }
+
+   /**
+    * @return the recorded hook calls, in the order in which they finished
+    */
+   public synchronized List<EventTiming> getEventTimings() {
+      return Collections.unmodifiableList(new ArrayList<>(eventTimings_));
+   }
+
+   /**
+    * @return the number of recorded hook calls, without copying them
+    */
+   public synchronized int getEventTimingCount() {
+      return eventTimings_.size();
+   }
+
+   /**
+    * @return the number of hook calls not recorded individually, because
+    *     {@link #MAX_EVENT_TIMINGS} was reached
+    */
+   public synchronized long getDroppedEventTimingCount() {
+      return droppedEventTimings_;
+   }
+
+   /**
+    * @return one line of statistics per hook, slowest (by total time) first
+    */
+   @Override
+   public String toString() {
+      List<HookStats> stats = getHookStats();
+      stats.sort((a, b) -> Double.compare(b.getTotalMs(), a.getTotalMs()));
+      StringBuilder sb = new StringBuilder();
+      for (HookStats s : stats) {
+         sb.append(String.format("%s: %d calls, total %.1f ms, mean %.3f ms, "
+                     + "median %.3f ms, 95%% %.3f ms, max %.3f ms%n",
+               s.getName(), s.getCount(), s.getTotalMs(), s.getMeanMs(),
+               s.getMedianMs(), s.getPercentile95Ms(), s.getMaxMs()));
+      }
+      return sb.toString().trim();
+   }
+
+   public PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
+   /**
+    * Writes the individual hook calls as comma-separated values.
+    */
+   public void exportCsv(File file) throws IOException {
+      try (Writer writer = new OutputStreamWriter(
+            new FileOutputStream(file), StandardCharsets.UTF_8)) {
+         writeCsv(writer);
+      }
+   }
+
+   /**
+    * Writes the statistics of each hook and the individual hook calls as
+    * JSON.
+    */
+   public void exportJson(File file) throws IOException {
+      try (Writer writer = new OutputStreamWriter(
+            new FileOutputStream(file), StandardCharsets.UTF_8)) {
+         writeJson(writer);
+      }
+   }
+
+   void writeCsv(Writer writer) {
+      PrintWriter out = new PrintWriter(writer);
+      out.println("Hook,Time,Position,Channel,Slice,StartMs,DurationMs");
+      for (EventTiming timing : getEventTimings()) {
+         out.printf(Locale.US, "\"%s\",%s,%s,%s,%s,%.3f,%.4f%n",
+               timing.getHook().replace("\"", "\"\""),
+               csvValue(timing.getTime()), csvValue(timing.getPosition()),
+               csvValue(timing.getChannel()), csvValue(timing.getSlice()),
+               timing.getStartMs(), timing.getDurationMs());
+      }
+      out.flush();
+   }
+
+   private static String csvValue(Integer index) {
+      return index == null ? "" : index.toString();
+   }
+
+   void writeJson(Writer writer) {
+      JsonObject root = new JsonObject();
+      JsonArray bins = new JsonArray();
+      for (double bound : HISTOGRAM_BIN_UPPER_MS) {
+         bins.add(new JsonPrimitive(bound));
+      }
+      root.add("HistogramBinUpperMs", bins);
+
+      JsonArray hooks = new JsonArray();
+      for (HookStats stats : getHookStats()) {
+         JsonObject hook = new JsonObject();
+         hook.addProperty("Name", stats.getName());
+         hook.addProperty("Count", stats.getCount());
+         hook.addProperty("TotalMs", stats.getTotalMs());
+         hook.addProperty("MeanMs", stats.getMeanMs());
+         hook.addProperty("MedianMs", stats.getMedianMs());
+         hook.addProperty("Percentile95Ms", stats.getPercentile95Ms());
+         hook.addProperty("MaxMs", stats.getMaxMs());
+         JsonArray histogram = new JsonArray();
+         for (long count : stats.getHistogram()) {
+            histogram.add(new JsonPrimitive(count));
+         }
+         hook.add("Histogram", histogram);
+         hooks.add(hook);
+      }
+      root.add("Hooks", hooks);
+
+      JsonArray events = new JsonArray();
+      for (EventTiming timing : getEventTimings()) {
+         JsonObject event = new JsonObject();
+         event.addProperty("Hook", timing.getHook());
+         event.addProperty("Time", timing.getTime());
+         event.addProperty("Position", timing.getPosition());
+         event.addProperty("Channel", timing.getChannel());
+         event.addProperty("Slice", timing.getSlice());
+         event.addProperty("StartMs", timing.getStartMs());
+         event.addProperty("DurationMs", timing.getDurationMs());
+         events.add(event);
+      }
+      root.add("Events", events);
+      root.addProperty("DroppedEvents", getDroppedEventTimingCount());
+
+      new GsonBuilder().setPrettyPrinting().create().toJson(root, writer);
+   }
+}
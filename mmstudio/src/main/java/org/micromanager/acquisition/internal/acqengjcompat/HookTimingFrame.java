@@ -0,0 +1,162 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import java.awt.Toolkit;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.JCheckBox;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JScrollPane;
+import javax.swing.JTable;
+import javax.swing.Timer;
+import javax.swing.table.AbstractTableModel;
+import net.miginfocom.swing.MigLayout;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.WindowPositioning;
+
+/**
+ * Shows the latency statistics of the acquisition hooks of the current (or
+ * last) acquisition, updated every second.
+ */
+public final class HookTimingFrame extends JFrame {
+   private static final String SHOULD_EXPORT_HOOK_TIMINGS =
+         "save hook timings with each acquisition";
+   private static final int UPDATE_INTERVAL_MS = 1000;
+
+   private static HookTimingFrame instance_;
+
+   private final StatsTableModel model_ = new StatsTableModel();
+   private final JLabel statusLabel_ = new JLabel(" ");
+   private final Timer timer_;
+
+   /**
+    * Shows the frame, creating it if needed.  Must be called on the EDT.
+    */
+   public static void showFrame() {
+      if (instance_ == null) {
+         instance_ = new HookTimingFrame();
+      }
+      instance_.timer_.start();
+      instance_.update();
+      instance_.setVisible(true);
+      instance_.toFront();
+   }
+
+   public static boolean getShouldExportHookTimings() {
+      return MMStudio.getInstance().profile().getSettings(HookTimingFrame.class)
+            .getBoolean(SHOULD_EXPORT_HOOK_TIMINGS, false);
+   }
+
+   public static void setShouldExportHookTimings(boolean shouldExport) {
+      MMStudio.getInstance().profile().getSettings(HookTimingFrame.class)
+            .putBoolean(SHOULD_EXPORT_HOOK_TIMINGS, shouldExport);
+   }
+
+   private HookTimingFrame() {
+      super("Acquisition Hook Timing");
+      super.setIconImage(Toolkit.getDefaultToolkit().getImage(
+            getClass().getResource("/org/micromanager/icons/microscope.gif")));
+      super.setLocation(200, 200);
+      WindowPositioning.setUpLocationMemory(this, this.getClass(), null);
+      super.setLayout(new MigLayout("fill, insets 4, flowy"));
+
+      JTable table = new JTable(model_);
+      table.setFillsViewportHeight(true);
+      super.add(new JScrollPane(table), "grow, w 640, h 240");
+      super.add(statusLabel_);
+
+      final JCheckBox exportCheckBox = new JCheckBox(
+            "Save timings (CSV and JSON) with each saved acquisition",
+            getShouldExportHookTimings());
+      exportCheckBox.addActionListener(e ->
+            setShouldExportHookTimings(exportCheckBox.isSelected()));
+      super.add(exportCheckBox);
+      super.pack();
+
+      timer_ = new Timer(UPDATE_INTERVAL_MS, e -> update());
+      super.addWindowListener(new WindowAdapter() {
+         @Override
+         public void windowClosing(WindowEvent e) {
+            timer_.stop();
+         }
+      });
+   }
+
+   private void update() {
+      HookTimer hookTimer = HookTimer.getLatest();
+      if (hookTimer == null) {
+         model_.setStats(new ArrayList<>());
+         statusLabel_.setText("No acquisition has run yet");
+         return;
+      }
+      model_.setStats(hookTimer.getHookStats());
+      long dropped = hookTimer.getDroppedEventTimingCount();
+      statusLabel_.setText(String.format("%d hook calls recorded%s",
+            hookTimer.getEventTimingCount(),
+            dropped > 0 ? String.format(" (%d more not recorded individually)", dropped)
+                  : ""));
+   }
+
+   private static final class StatsTableModel extends AbstractTableModel {
+      private static final String[] COLUMNS = {"Hook", "Calls", "Total (ms)",
+            "Mean (ms)", "Median (ms)", "95% (ms)", "Max (ms)"};
+      private List<HookTimer.HookStats> stats_ = new ArrayList<>();
+
+      void setStats(List<HookTimer.HookStats> stats) {
+         stats_ = stats;
+         fireTableDataChanged();
+      }
+
+      @Override
+      public int getRowCount() {
+         return stats_.size();
+      }
+
+      @Override
+      public int getColumnCount() {
+         return COLUMNS.length;
+      }
+
+      @Override
+      public String getColumnName(int column) {
+         return COLUMNS[column];
+      }
+
+      @Override
+      public Class<?> getColumnClass(int column) {
+         if (column == 0) {
+            return String.class;
+         }
+         return column == 1 ? Long.class : Double.class;
+      }
+
+      @Override
+      public Object getValueAt(int row, int column) {
+         HookTimer.HookStats stats = stats_.get(row);
+         switch (column) {
+            case 0:
+               return stats.getName();
+            case 1:
+               return stats.getCount();
+            case 2:
+               return round(stats.getTotalMs());
+            case 3:
+               return round(stats.getMeanMs());
+            case 4:
+               return round(stats.getMedianMs());
+            case 5:
+               return round(stats.getPercentile95Ms());
+            case 6:
+               return round(stats.getMaxMs());
+            default:
+               throw new IndexOutOfBoundsException();
+         }
+      }
+
+      private static double round(double ms) {
+         return Math.round(ms * 1000.0) / 1000.0;
+      }
+   }
+}
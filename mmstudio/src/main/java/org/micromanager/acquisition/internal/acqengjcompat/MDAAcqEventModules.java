@@ -26,6 +26,7 @@ public class MDAAcqEventModules {
     */
 
    public static final String POSITION_AXIS = "position";
+   public static final String POSITION_VISIT_INDEX = "PositionVisitIndex";
 
    /**
     * Translates desired Z stack settings into acquisition events.
@@ -216,12 +217,32 @@ public class MDAAcqEventModules {
     */
    public static Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions(
          PositionList positionList, HashMap<String, String> extraTags, CMMCore core) {
+      return positions(positionList, null, extraTags, core);
+   }
+
+   /**
+    * Iterate over an arbitrary list of positions in the given order. Position
+    * indices are still those of the list, so that data end up in the same
+    * place regardless of the order; the place of each position in the order
+    * is added as a tag.
+    *
+    * @param positionList MM PositionList used in this acquisition
+    * @param visitOrder Indices into positionList in the order in which to visit them,
+    *                   or null to visit them in list order
+    * @param extraTags - Key Value pairs that will be added to Image Metadata
+    * @return Function with AcquisitionEvent and Iterator
+    * @see PositionOrderOptimizer
+    */
+   public static Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions(
+         PositionList positionList, int[] visitOrder, HashMap<String, String> extraTags,
+         CMMCore core) {
       return (AcquisitionEvent event) -> {
          Stream.Builder<AcquisitionEvent> builder = Stream.builder();
          if (positionList == null || positionList.getNumberOfPositions() == 0) {
             builder.accept(event);
          } else {
-            for (int index = 0; index < positionList.getNumberOfPositions(); index++) {
+            for (int visit = 0; visit < positionList.getNumberOfPositions(); visit++) {
+               int index = visitOrder == null ? visit : visitOrder[visit];
                AcquisitionEvent posEvent = event.copy();
 
                MultiStagePosition msp = positionList.getPosition(index);
@@ -242,6 +263,9 @@ public class MDAAcqEventModules {
                }
                HashMap<String, String> tags = posEvent.getTags();
                tags.put(AcqEngMetadata.POS_NAME, msp.getLabel());
+               if (visitOrder != null) {
+                  tags.put(POSITION_VISIT_INDEX, Integer.toString(visit));
+               }
                if (extraTags != null) {
                   for (String key :  extraTags.keySet()) {
                      tags.put(key, extraTags.get(key));
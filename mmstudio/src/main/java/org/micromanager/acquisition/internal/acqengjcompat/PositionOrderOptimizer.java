@@ -0,0 +1,304 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.StagePosition;
+
+/**
+ * Plans the order in which to visit the positions of a position list, so as
+ * to reduce stage travel.
+ *
+ * <p>When every position has distinct grid coordinates (as with lists
+ * created by the tiling and HCS tools), the plan starts from a serpentine
+ * path through the grid; otherwise it starts from a nearest-neighbor path.
+ * The path is then improved by 2-opt exchanges.  The cost of a move is the
+ * larger of its X and Y travel (the axes move simultaneously), plus its Z
+ * travel multiplied by a weight.  The resulting order is never worse than the
+ * order of the list.</p>
+ *
+ * <p>Positions keep their index in the list as their position coordinate;
+ * only the order in which they are visited changes.</p>
+ */
+public final class PositionOrderOptimizer {
+   /**
+    * Stage speed assumed when reporting travel time.
+    */
+   public static final double NOMINAL_STAGE_SPEED_UM_PER_S = 10_000.0;
+
+   private static final long MAX_IMPROVEMENT_TIME_NS = 2_000_000_000L;
+
+   /**
+    * A visiting order and its travel.
+    */
+   public static final class Plan {
+      private final int[] order_;
+      private final double plannedTravelUm_;
+      private final double listOrderTravelUm_;
+
+      private Plan(int[] order, double plannedTravelUm, double listOrderTravelUm) {
+         order_ = order;
+         plannedTravelUm_ = plannedTravelUm;
+         listOrderTravelUm_ = listOrderTravelUm;
+      }
+
+      /**
+       * @return the indices of the positions in the list, in visiting order
+       */
+      public int[] getOrder() {
+         return order_.clone();
+      }
+
+      /**
+       * @return the (weighted) stage travel of the planned order, in microns
+       */
+      public double getPlannedTravelUm() {
+         return plannedTravelUm_;
+      }
+
+      /**
+       * @return the (weighted) stage travel when visiting the positions in
+       *     list order, in microns
+       */
+      public double getListOrderTravelUm() {
+         return listOrderTravelUm_;
+      }
+
+      /**
+       * Estimates the time spent moving between positions.
+       *
+       * @param stageSpeedUmPerS Stage speed; acceleration is ignored
+       * @return estimated travel time of the planned order, in seconds
+       */
+      public double getEstimatedTravelTimeS(double stageSpeedUmPerS) {
+         return plannedTravelUm_ / stageSpeedUmPerS;
+      }
+
+      @Override
+      public String toString() {
+         return String.format("Planned stage travel %.1f mm (%.1f mm in list order), "
+                     + "about %.0f s at %.0f mm/s",
+               plannedTravelUm_ / 1000.0, listOrderTravelUm_ / 1000.0,
+               getEstimatedTravelTimeS(NOMINAL_STAGE_SPEED_UM_PER_S),
+               NOMINAL_STAGE_SPEED_UM_PER_S / 1000.0);
+      }
+   }
+
+   private PositionOrderOptimizer() {
+   }
+
+   /**
+    * Plans the visiting order of a position list.
+    *
+    * @param positionList Positions to visit
+    * @param xyStage      XY stage whose positions to use; positions without
+    *                     it are taken to be at the origin
+    * @param zStage       Focus stage whose travel to take into account, or
+    *                     null
+    * @param zWeight      Cost of a micron of Z travel relative to a micron of
+    *                     XY travel
+    * @param startXY      Current XY stage position, or null if the first
+    *                     position can be chosen freely
+    * @return the plan
+    */
+   public static Plan plan(PositionList positionList, String xyStage,
+                           String zStage, double zWeight, double[] startXY) {
+      int n = positionList.getNumberOfPositions();
+      double[] xs = new double[n];
+      double[] ys = new double[n];
+      double[] zs = new double[n];
+      int[] rows = new int[n];
+      int[] columns = new int[n];
+      for (int i = 0; i < n; ++i) {
+         MultiStagePosition msp = positionList.getPosition(i);
+         StagePosition xy = xyStage == null ? null : msp.get(xyStage);
+         if (xy != null && xy.is2DStagePosition()) {
+            xs[i] = xy.get2DPositionX();
+            ys[i] = xy.get2DPositionY();
+         }
+         StagePosition z = zStage == null ? null : msp.get(zStage);
+         if (z != null && z.is1DStagePosition()) {
+            zs[i] = z.get1DPosition();
+         }
+         rows[i] = msp.getGridRow();
+         columns[i] = msp.getGridColumn();
+      }
+      return plan(xs, ys, zs, zWeight, rows, columns, startXY);
+   }
+
+   /**
+    * Plans the visiting order of positions given by their coordinates.
+    *
+    * @param rows    Grid row of each position, or null if not on a grid
+    * @param columns Grid column of each position, or null if not on a grid
+    * @see #plan(PositionList, String, String, double, double[])
+    */
+   static Plan plan(double[] xs, double[] ys, double[] zs, double zWeight,
+                    int[] rows, int[] columns, double[] startXY) {
+      Costs costs = new Costs(xs, ys, zs, zWeight, startXY);
+      int n = xs.length;
+      int[] listOrder = new int[n];
+      for (int i = 0; i < n; ++i) {
+         listOrder[i] = i;
+      }
+      double listOrderTravel = costs.pathCost(listOrder);
+      if (n < 3) {
+         return new Plan(listOrder, listOrderTravel, listOrderTravel);
+      }
+
+      int[] order = isGrid(rows, columns)
+            ? serpentine(rows, columns) : nearestNeighbor(costs);
+      improve(order, costs);
+      double travel = costs.pathCost(order);
+      if (travel >= listOrderTravel) {
+         return new Plan(listOrder, listOrderTravel, listOrderTravel);
+      }
+      return new Plan(order, travel, listOrderTravel);
+   }
+
+   private static boolean isGrid(int[] rows, int[] columns) {
+      if (rows == null || columns == null) {
+         return false;
+      }
+      Set<Long> cells = new HashSet<>();
+      for (int i = 0; i < rows.length; ++i) {
+         if (!cells.add(((long) rows[i] << 32) | (columns[i] & 0xffffffffL))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Orders grid positions row by row, alternating the column direction.
+    */
+   static int[] serpentine(final int[] rows, final int[] columns) {
+      Integer[] indices = new Integer[rows.length];
+      for (int i = 0; i < indices.length; ++i) {
+         indices[i] = i;
+      }
+      Arrays.sort(indices, (a, b) -> {
+         if (rows[a] != rows[b]) {
+            return Integer.compare(rows[a], rows[b]);
+         }
+         int c = Integer.compare(columns[a], columns[b]);
+         return (rows[a] & 1) == 0 ? c : -c;
+      });
+      int[] order = new int[indices.length];
+      for (int i = 0; i < order.length; ++i) {
+         order[i] = indices[i];
+      }
+      return order;
+   }
+
+   private static int[] nearestNeighbor(Costs costs) {
+      int n = costs.size();
+      int[] order = new int[n];
+      boolean[] visited = new boolean[n];
+      int current = Costs.START;
+      for (int k = 0; k < n; ++k) {
+         int best = -1;
+         double bestCost = Double.POSITIVE_INFINITY;
+         for (int i = 0; i < n; ++i) {
+            if (!visited[i]) {
+               double cost = costs.cost(current, i);
+               if (cost < bestCost) {
+                  best = i;
+                  bestCost = cost;
+               }
+            }
+         }
+         order[k] = best;
+         visited[best] = true;
+         current = best;
+      }
+      return order;
+   }
+
+   /**
+    * Applies 2-opt exchanges (reversing a stretch of the path) while they
+    * shorten the path, within a time limit.
+    */
+   private static void improve(int[] order, Costs costs) {
+      int n = order.length;
+      long deadline = System.nanoTime() + MAX_IMPROVEMENT_TIME_NS;
+      boolean improved = true;
+      while (improved) {
+         improved = false;
+         for (int i = 0; i < n - 1; ++i) {
+            int before = i == 0 ? Costs.START : order[i - 1];
+            for (int j = i + 1; j < n; ++j) {
+               double removed = costs.cost(before, order[i]);
+               double added = costs.cost(before, order[j]);
+               if (j < n - 1) {
+                  removed += costs.cost(order[j], order[j + 1]);
+                  added += costs.cost(order[i], order[j + 1]);
+               }
+               if (added < removed - 1e-9) {
+                  reverse(order, i, j);
+                  improved = true;
+               }
+            }
+            if (System.nanoTime() > deadline) {
+               return;
+            }
+         }
+      }
+   }
+
+   private static void reverse(int[] order, int from, int to) {
+      for (; from < to; ++from, --to) {
+         int tmp = order[from];
+         order[from] = order[to];
+         order[to] = tmp;
+      }
+   }
+
+   private static final class Costs {
+      // Pseudo-index of the starting point
+      static final int START = -1;
+
+      private final double[] xs_;
+      private final double[] ys_;
+      private final double[] zs_;
+      private final double zWeight_;
+      private final double[] startXY_;
+
+      Costs(double[] xs, double[] ys, double[] zs, double zWeight,
+            double[] startXY) {
+         xs_ = xs;
+         ys_ = ys;
+         zs_ = zs;
+         zWeight_ = zWeight;
+         startXY_ = startXY;
+      }
+
+      int size() {
+         return xs_.length;
+      }
+
+      double cost(int from, int to) {
+         if (from == START) {
+            if (startXY_ == null) {
+               return 0.0;
+            }
+            return Math.max(Math.abs(xs_[to] - startXY_[0]),
+                  Math.abs(ys_[to] - startXY_[1]));
+         }
+         return Math.max(Math.abs(xs_[to] - xs_[from]), Math.abs(ys_[to] - ys_[from]))
+               + zWeight_ * Math.abs(zs_[to] - zs_[from]);
+      }
+
+      double pathCost(int[] order) {
+         double total = 0.0;
+         int previous = START;
+         for (int index : order) {
+            total += cost(previous, index);
+            previous = index;
+         }
+         return total;
+      }
+   }
+}
@@ -53,6 +53,7 @@ import org.micromanager.acquisition.internal.DefaultAcquisitionSettingsChangedEv
 import org.micromanager.acquisition.internal.DefaultAcquisitionStartedEvent;
 import org.micromanager.acquisition.internal.MMAcquisition;
 import org.micromanager.acquisition.internal.acqengjcompat.AcqEngJAdapter;
+import org.micromanager.acquisition.internal.acqengjcompat.HookTimer;
 import org.micromanager.acquisition.internal.acqengjcompat.MDAAcqEventModules;
 import org.micromanager.acquisition.internal.acqengjcompat.multimda.MDASettingData;
 import org.micromanager.data.DataProvider;
@@ -212,7 +213,8 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
          currentMultiMDA_ = new Acquisition(sink);
          currentMultiMDA_.setDebugMode(core_.debugLogEnabled());
 
-         loadRunnables(sequenceSettings);
+         HookTimer hookTimer = startHookTimer();
+         loadRunnables(sequenceSettings, hookTimer);
 
          // This TaggedImageProcessor is used to divert images away from the optional
          // processing and saving of AcqEngJ, and into the system used by the studio API
@@ -255,18 +257,21 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
 
          // These hooks implement Autofocus
          if (basicSettings.useAutofocus()) {
-            currentMultiMDA_.addHook(autofocusHook(basicSettings.skipAutofocusCount()),
+            currentMultiMDA_.addHook(hookTimer.wrap("Autofocus",
+                  autofocusHook(basicSettings.skipAutofocusCount())),
                   AcquisitionAPI.BEFORE_HARDWARE_HOOK);
          }
 
          for (int i = 0; i < sequenceSettings.size(); i++) {
             // Hook to move back the ZStage to its original position after a Z stack
             if (sequenceSettings.get(i).useSlices()) {
-               currentMultiMDA_.addHook(zPositionHook(sequenceSettings.get(i),
-                           AcquisitionAPI.BEFORE_HARDWARE_HOOK, i),
+               currentMultiMDA_.addHook(hookTimer.wrap("Z position (before hardware)",
+                     zPositionHook(sequenceSettings.get(i),
+                           AcquisitionAPI.BEFORE_HARDWARE_HOOK, i)),
                      AcquisitionAPI.BEFORE_HARDWARE_HOOK);
-               currentMultiMDA_.addHook(zPositionHook(sequenceSettings.get(i),
-                           Acquisition.AFTER_EXPOSURE_HOOK, i),
+               currentMultiMDA_.addHook(hookTimer.wrap("Z position (after exposure)",
+                     zPositionHook(sequenceSettings.get(i),
+                           Acquisition.AFTER_EXPOSURE_HOOK, i)),
                      AcquisitionAPI.AFTER_EXPOSURE_HOOK);
             }
          }
@@ -274,6 +279,12 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
          // Read for events
          currentMultiMDA_.start();
 
+         List<int[]> positionVisitOrders = new ArrayList<>(sequenceSettings.size());
+         for (int i = 0; i < sequenceSettings.size(); i++) {
+            positionVisitOrders.add(sequenceSettings.get(i).usePositionList()
+                  ? planPositionOrder(positionLists.get(i)) : null);
+         }
+
          // Start the events and signal to finish when complete
          int nrFrames = 1;
          if (timeLapseSettings_.useFrames()) {
@@ -288,6 +299,7 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
                currentMultiMDA_.submitEventIterator(createAcqEventIterator(
                      sequenceSettings.get(i),
                      positionLists.get(i),
+                     positionVisitOrders.get(i),
                      i,
                      t,
                      (long) (t * timeLapseSettings_.intervalMs())));
@@ -312,8 +324,10 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
     * Attach Runnables as acquisition hooks.
     *
     * @param acquisitionSettingList List with object with settings for the acquisition
+    * @param hookTimer Timer that times the Runnables
     */
-   private void loadRunnables(List<SequenceSettings> acquisitionSettingList) {
+   private void loadRunnables(List<SequenceSettings> acquisitionSettingList,
+                              HookTimer hookTimer) {
       for (RunnablePlusIndices r : runnables_) {
          currentMultiMDA_.addHook(new AcquisitionHook() {
             @Override
@@ -338,7 +352,8 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
                      || ((Integer) event.getAxisPosition(MDAAcqEventModules.POSITION_AXIS))
                        == r.position_;
                if (pMatch && zMatch && tMatch && cMatch) {
-                  r.runnable_.run();
+                  hookTimer.run(HookTimer.attachedRunnableName(
+                        r.frame_, r.position_, r.channel_, r.slice_), event, r.runnable_);
                }
                return event;
             }
@@ -358,8 +373,8 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
     * AcquisitionEvents.
     */
    private Iterator<AcquisitionEvent> createAcqEventIterator(
-         SequenceSettings acquisitionSettings, PositionList positionList, int acqIndex,
-         int timeIndex, long minimumStartTime)
+         SequenceSettings acquisitionSettings, PositionList positionList,
+         int[] positionVisitOrder, int acqIndex, int timeIndex, long minimumStartTime)
          throws Exception {
       // Select channels that we are actually using
       List<ChannelSpec> chSpecs = new ArrayList<>();
@@ -397,7 +412,7 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
 
       Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions = null;
       if (acquisitionSettings.usePositionList()) {
-         positions = MDAAcqEventModules.positions(positionList, tag, core_);
+         positions = MDAAcqEventModules.positions(positionList, positionVisitOrder, tag, core_);
       }
 
       ArrayList<Function<AcquisitionEvent, Iterator<AcquisitionEvent>>> acqFunctions =
@@ -1110,6 +1125,9 @@ public class MultiAcqEngJAdapter extends AcqEngJAdapter {
     */
    @Subscribe
    public void onAcquisitionEnded(AcquisitionEndedEvent event) {
+      if (stores_ != null && stores_.contains(event.getStore())) {
+         exportHookTimings(event.getStore());
+      }
       if (event.getStore().equals(stores_)) {
          // Restore original Z position and autofocus if applicable.
          if (isFocusStageAvailable()) {
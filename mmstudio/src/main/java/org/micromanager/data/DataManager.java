@@ -322,6 +322,20 @@ public interface DataManager {
                    int bytesPerPixel, int numComponents, Coords coords,
                    Metadata metadata);
 
+   /**
+    * Provide the pool of pixel arrays that is shared by all pipelines.
+    * Borrowed arrays can be turned into Images without copying using
+    * wrapImage().
+    *
+    * <p>The default implementation returns a pool that allocates a new array
+    * for every request.</p>
+    *
+    * @return the shared PixelBufferPool
+    */
+   default PixelBufferPool pixelBufferPool() {
+      return PixelBufferPools.unpooled();
+   }
+
 
    /**
     * Given a TaggedImage input, output an Image based on the TaggedImage.
@@ -156,5 +156,23 @@ public interface DataProvider extends Closeable {
 
    void registerForEvents(Object obj);
 
+   /**
+    * Register for events, receiving {@link DataProviderHasNewImageEvent}s
+    * coalesced according to the given policy, on a separate thread. Use this
+    * for subscribers that do not need to see every image (e.g. to show the
+    * most recent image of each channel), so that they neither slow down
+    * nor fall behind the addition of images at high frame rates. Unregister
+    * using {@link #unregisterForEvents(Object)}.
+    *
+    * <p>The default implementation ignores the policy and delivers all
+    * events.</p>
+    *
+    * @param obj        Object with methods annotated with Subscribe
+    * @param coalescing How new-image events may be combined
+    */
+   default void registerForEvents(Object obj, ImageEventCoalescing coalescing) {
+      registerForEvents(obj);
+   }
+
    void unregisterForEvents(Object obj);
 }
\ No newline at end of file
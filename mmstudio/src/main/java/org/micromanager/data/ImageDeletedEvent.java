@@ -33,10 +33,24 @@ public interface ImageDeletedEvent extends MMEvent {
    /**
     * Provides the Image that was deleted.
     *
-    * @return the Image that was just deleted from the Datastore.
+    * <p>Storage that discards pixels as it goes, such as a RAM buffer that
+    * only keeps the most recent time points, does not keep the pixels of
+    * evicted images around for this event; use {@link #getCoords()}.</p>
+    *
+    * @return the Image that was just deleted from the Datastore, or null if
+    *     its pixels were discarded.
     */
    Image getImage();
 
+   /**
+    * Provides the coords of the image that was deleted.
+    *
+    * @return the coords of the image that was just deleted from the Datastore.
+    */
+   default Coords getCoords() {
+      return getImage().getCoords();
+   }
+
    /**
     * Provides the Datastore this image was added to; potentially useful for
     * code that listens to events from multiple Datastores.
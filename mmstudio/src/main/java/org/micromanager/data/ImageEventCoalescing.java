@@ -0,0 +1,152 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+import java.util.Arrays;
+
+/**
+ * Describes how {@link DataProviderHasNewImageEvent}s may be combined for a
+ * subscriber that does not need to see every image, e.g. one that only shows
+ * the most recent image of each channel.
+ *
+ * <p>Subscribe using
+ * {@link DataProvider#registerForEvents(Object, ImageEventCoalescing)}. Such
+ * subscribers receive their events on a thread of their own. While an event is
+ * waiting to be delivered, a newer new-image event with the same coalescing
+ * key (the image coordinates, restricted to the given axes) replaces it.
+ * Alternatively, images that differ only along given axes (e.g. the channels
+ * of one time point) form a group, whose events are all delivered, in order;
+ * the first event of a newer group drops the waiting events of older groups.
+ * Optionally, events are delivered at most at a given rate. All other events
+ * are delivered as usual, in order, but may be delayed by the rate limit.</p>
+ *
+ * <p>Instances are immutable.</p>
+ */
+public final class ImageEventCoalescing {
+   private final String[] axes_;
+   private final boolean grouped_;
+   private final long minIntervalMs_;
+
+   private ImageEventCoalescing(String[] axes, boolean grouped, long minIntervalMs) {
+      axes_ = axes;
+      grouped_ = grouped;
+      minIntervalMs_ = minIntervalMs;
+   }
+
+   /**
+    * Only the most recent image is delivered.
+    *
+    * @return the coalescing policy
+    */
+   public static ImageEventCoalescing latest() {
+      return new ImageEventCoalescing(new String[0], false, 0);
+   }
+
+   /**
+    * The most recent image of each channel is delivered.
+    *
+    * @return the coalescing policy
+    */
+   public static ImageEventCoalescing latestPerChannel() {
+      return latestPer(Coords.CHANNEL);
+   }
+
+   /**
+    * The most recent image for each combination of indices along the given
+    * axes is delivered.
+    *
+    * @param axes Axes that distinguish images that should not replace each
+    *             other
+    * @return the coalescing policy
+    */
+   public static ImageEventCoalescing latestPer(String... axes) {
+      return new ImageEventCoalescing(axes.clone(), false, 0);
+   }
+
+   /**
+    * All channels of the most recent image (time point, position and slice)
+    * are delivered together, in channel order. Use this for subscribers that
+    * combine the channels of an image, e.g. to compute ratios.
+    *
+    * @return the coalescing policy
+    */
+   public static ImageEventCoalescing latestChannelGroup() {
+      return latestGroupAlong(Coords.CHANNEL);
+   }
+
+   /**
+    * All images of the most recent group are delivered, where a group consists
+    * of the images that differ only along the given axes. Waiting events of a
+    * group are dropped once an image of another group arrives.
+    *
+    * @param axes Axes along which images belong to the same group
+    * @return the coalescing policy
+    */
+   public static ImageEventCoalescing latestGroupAlong(String... axes) {
+      return new ImageEventCoalescing(axes.clone(), true, 0);
+   }
+
+   /**
+    * Returns a copy of this policy that in addition delivers events at most
+    * the given number of times per second.
+    *
+    * @param hz Maximum delivery rate
+    * @return the coalescing policy
+    */
+   public ImageEventCoalescing atMostHz(double hz) {
+      if (hz <= 0) {
+         throw new IllegalArgumentException("Rate must be positive");
+      }
+      return new ImageEventCoalescing(axes_, grouped_, Math.round(1000.0 / hz));
+   }
+
+   /**
+    * Returns the key that determines which events replace each other, or,
+    * for grouping policies, which events belong to the same group.
+    *
+    * @param coords Coords of a new image
+    * @return Coords restricted to the axes of this policy, or for grouping
+    *     policies, without these axes
+    */
+   public Coords getCoalescingKey(Coords coords) {
+      return grouped_ ? coords.copyRemovingAxes(axes_) : coords.copyRetainingAxes(axes_);
+   }
+
+   /**
+    * @return Whether events with equal keys form a group that is delivered in
+    *     full, rather than replacing each other
+    */
+   public boolean isGrouped() {
+      return grouped_;
+   }
+
+   /**
+    * @return Minimum time between deliveries, in milliseconds (0 if there is
+    *     no rate limit)
+    */
+   public long getMinIntervalMs() {
+      return minIntervalMs_;
+   }
+
+   @Override
+   public String toString() {
+      return (grouped_ ? "latest group along " : "latest per ") + Arrays.toString(axes_)
+            + (minIntervalMs_ > 0 ? ", every " + minIntervalMs_ + " ms" : "");
+   }
+}
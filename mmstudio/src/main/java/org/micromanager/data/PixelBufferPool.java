@@ -0,0 +1,105 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+/**
+ * A pool of pixel arrays, used to avoid allocating a new array for every
+ * image produced by a Processor.
+ *
+ * <p>A Processor that creates new images borrows an array of the exact size
+ * it needs, fills it, and wraps it in an Image (using
+ * {@link DataManager#wrapImage}, which does not copy the array). Borrowed
+ * arrays are not cleared; every element has to be written. An array must only
+ * be recycled when nothing refers to it anymore. The pipeline does this for
+ * images passed between Processors: once a stateless Processor (see
+ * {@link Processor#isStateless()}) has processed an image with a borrowed
+ * array, and did not pass that array on, the array is recycled. Images that
+ * reach the Datastore are never recycled, so the last Processor of a pipeline
+ * is given a pool that simply allocates new arrays.</p>
+ *
+ * <p>Only arrays that were borrowed from the pool are accepted by
+ * {@link #recycle}, and each of them only once, so recycling an array that
+ * is still in use elsewhere is the only way to misuse the pool.</p>
+ */
+public interface PixelBufferPool {
+   /**
+    * Borrow a byte array, for 8-bit or RGB images.
+    *
+    * @param length Number of elements
+    * @return An array of exactly this length, with undefined content
+    */
+   byte[] borrowBytes(int length);
+
+   /**
+    * Borrow a short array, for 16-bit images.
+    *
+    * @param length Number of elements
+    * @return An array of exactly this length, with undefined content
+    */
+   short[] borrowShorts(int length);
+
+   /**
+    * Borrow a float array, e.g. for intermediate results.
+    *
+    * @param length Number of elements
+    * @return An array of exactly this length, with undefined content
+    */
+   float[] borrowFloats(int length);
+
+   /**
+    * Borrow an array of the same type and length as the pixels of the given
+    * image.
+    *
+    * @param image Image whose pixels should be matched
+    * @return byte[] or short[] (or float[]) of the same length as
+    *     image.getRawPixels()
+    */
+   Object borrowLike(Image image);
+
+   /**
+    * Return an array to the pool. Nothing may use the array afterwards.
+    *
+    * @param pixels Array obtained from one of the borrow methods
+    * @return true if the array was accepted; false if it was not borrowed from
+    *     this pool, or was already recycled
+    */
+   boolean recycle(Object pixels);
+
+   /**
+    * @param pixels An array
+    * @return true if the array was borrowed from this pool and not yet
+    *     recycled
+    */
+   boolean isBorrowed(Object pixels);
+
+   /**
+    * @return Number of borrow requests served with a recycled array
+    */
+   long getNumHits();
+
+   /**
+    * @return Number of borrow requests that required a new array
+    */
+   long getNumMisses();
+
+   /**
+    * @return Number of bytes in arrays currently waiting to be borrowed
+    */
+   long getPooledBytes();
+}
@@ -0,0 +1,103 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data;
+
+/**
+ * Static helper functions to obtain PixelBufferPools.
+ *
+ * <p>The pool shared by all pipelines is provided by
+ * {@link DataManager#pixelBufferPool()}.</p>
+ */
+public final class PixelBufferPools {
+   private PixelBufferPools() {
+   }
+
+   /**
+    * Returns a "pool" that allocates a new array for every request and never
+    * takes arrays back.
+    *
+    * <p>Use it where borrowed arrays would never come back, e.g., for the
+    * output of the last Processor of a pipeline, which goes to the
+    * Datastore.  It is also the default for implementations of the API that
+    * predate the pool.</p>
+    *
+    * @return the unpooled PixelBufferPool
+    */
+   public static PixelBufferPool unpooled() {
+      return Unpooled.INSTANCE;
+   }
+
+   private static final class Unpooled implements PixelBufferPool {
+      private static final Unpooled INSTANCE = new Unpooled();
+
+      @Override
+      public byte[] borrowBytes(int length) {
+         return new byte[length];
+      }
+
+      @Override
+      public short[] borrowShorts(int length) {
+         return new short[length];
+      }
+
+      @Override
+      public float[] borrowFloats(int length) {
+         return new float[length];
+      }
+
+      @Override
+      public Object borrowLike(Image image) {
+         Object pixels = image.getRawPixels();
+         if (pixels instanceof byte[]) {
+            return new byte[((byte[]) pixels).length];
+         } else if (pixels instanceof short[]) {
+            return new short[((short[]) pixels).length];
+         } else if (pixels instanceof float[]) {
+            return new float[((float[]) pixels).length];
+         }
+         throw new IllegalArgumentException("Unsupported pixel type "
+               + (pixels == null ? "null" : pixels.getClass().getName()));
+      }
+
+      @Override
+      public boolean recycle(Object pixels) {
+         return false;
+      }
+
+      @Override
+      public boolean isBorrowed(Object pixels) {
+         return false;
+      }
+
+      @Override
+      public long getNumHits() {
+         return 0;
+      }
+
+      @Override
+      public long getNumMisses() {
+         return 0;
+      }
+
+      @Override
+      public long getPooledBytes() {
+         return 0;
+      }
+   }
+}
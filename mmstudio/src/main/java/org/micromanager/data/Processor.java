@@ -65,4 +65,22 @@ public interface Processor {
     */
    default void cleanup(ProcessorContext context) {
    }
+
+   /**
+    * Whether this Processor is stateless, i.e. processes each Image
+    * independently of all other Images, and may therefore be called from
+    * several threads at the same time. Asynchronous pipelines may then
+    * process multiple Images concurrently; the output Images are still passed
+    * on in the order in which the input Images arrived. Only return true if
+    * processImage() is thread-safe, does not depend on previous Images, and
+    * does not keep a reference to the input Image (or its pixels) after it
+    * returns; the pipeline may then recycle the pixels of input Images that
+    * were not passed on (see {@link PixelBufferPool}).
+    * The default implementation returns false.
+    *
+    * @return true if processImage() may be called concurrently
+    */
+   default boolean isStateless() {
+      return false;
+   }
 }
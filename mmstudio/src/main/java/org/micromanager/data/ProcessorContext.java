@@ -20,6 +20,7 @@
 
 package org.micromanager.data;
 
+
 /**
  * A ProcessorContext is an object that allows Processors to communicate with
  * the ProcessorPipeline.
@@ -41,4 +42,17 @@ public interface ProcessorContext {
     * @return the SummaryMetadata of the Datastore of processed images.
     */
    SummaryMetadata getSummaryMetadata();
+
+   /**
+    * Access the pool from which Processors can borrow arrays for the pixels of
+    * the Images they output, instead of allocating new ones for every Image.
+    *
+    * <p>The default implementation returns a pool that allocates a new array
+    * for every request.</p>
+    *
+    * @return the shared PixelBufferPool
+    */
+   default PixelBufferPool getPixelBufferPool() {
+      return PixelBufferPools.unpooled();
+   }
 }
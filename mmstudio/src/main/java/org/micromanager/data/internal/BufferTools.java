@@ -1,10 +1,13 @@
 package org.micromanager.data.internal;
 
 import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
 import java.nio.ShortBuffer;
 import java.util.Arrays;
 import org.micromanager.internal.utils.ReportingUtils;
@@ -200,4 +203,42 @@ public final class BufferTools {
       return buffer;
    }
 
+   /**
+    * Releases a memory mapping right away, instead of when the buffer is
+    * garbage collected.
+    *
+    * <p>The buffer, and every view of it, must not be accessed afterwards;
+    * doing so can crash the JVM.  Callers must make sure that no views are
+    * reachable.</p>
+    *
+    * @param buffer Buffer returned by FileChannel.map()
+    * @return false if the mapping could not be released, and will only be
+    *     released by the garbage collector
+    */
+   public static boolean unmap(MappedByteBuffer buffer) {
+      try {
+         Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+         Method invokeCleaner;
+         try {
+            // Java 9 and later
+            invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+         } catch (NoSuchMethodException java8) {
+            Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+               cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+            return true;
+         }
+         Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+         theUnsafe.setAccessible(true);
+         invokeCleaner.invoke(theUnsafe.get(null), buffer);
+         return true;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+         ReportingUtils.logError(e, "Failed to release memory mapping");
+         return false;
+      }
+   }
+
 }
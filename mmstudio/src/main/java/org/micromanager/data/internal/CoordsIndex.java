@@ -0,0 +1,236 @@
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.micromanager.data.Coords;
+
+/**
+ * Index of the Coords held by a Storage, that answers "which Coords are equal
+ * to this one when ignoring these axes" in time proportional to the number of
+ * matches.
+ *
+ * <p>Every Coords is stored as a tuple of primitive ints, one per axis (the
+ * standard axes first, custom axes in order of appearance). Since a Coords
+ * never holds an axis with index 0, an absent axis is simply a 0 in the tuple.
+ * For each combination of ignored axes that has been queried, a projection map
+ * is kept from the tuple with the ignored axes zeroed out to the matching
+ * Coords. Projections are built on first use (one pass over the index) and
+ * kept up to date on every add and remove afterwards.  In practice only a few
+ * combinations are used (channel for composites, z for projections, etc.), so
+ * memory overhead stays small.</p>
+ *
+ * <p>This class is thread-safe.</p>
+ */
+public final class CoordsIndex {
+   private static final String[] STANDARD_AXES =
+         {Coords.T, Coords.P, Coords.Z, Coords.C};
+   // Ignored axes are encoded as bits in a long
+   private static final int MAX_MASKABLE_AXES = 64;
+
+   private final Map<String, Integer> axisOrdinals_ = new HashMap<>();
+   private final Map<Key, Coords> all_ = new HashMap<>();
+   private final Map<Long, Map<Key, List<Coords>>> projections_ = new HashMap<>();
+
+   public CoordsIndex() {
+      for (String axis : STANDARD_AXES) {
+         axisOrdinals_.put(axis, axisOrdinals_.size());
+      }
+   }
+
+   /**
+    * Adds Coords to the index.  Adding Coords that are already present has no
+    * effect.
+    *
+    * @param coords Coords to be added
+    * @return true if the Coords were not yet in the index
+    */
+   public synchronized boolean add(Coords coords) {
+      Key key = keyFor(coords, true);
+      if (all_.containsKey(key)) {
+         return false;
+      }
+      all_.put(key, coords);
+      for (Map.Entry<Long, Map<Key, List<Coords>>> entry : projections_.entrySet()) {
+         entry.getValue().computeIfAbsent(key.project(entry.getKey()),
+               k -> new ArrayList<>(4)).add(coords);
+      }
+      return true;
+   }
+
+   /**
+    * Removes Coords from the index.
+    *
+    * @param coords Coords to be removed
+    * @return true if the Coords were present
+    */
+   public synchronized boolean remove(Coords coords) {
+      Key key = keyFor(coords, false);
+      if (key == null) {
+         return false;
+      }
+      Coords removed = all_.remove(key);
+      if (removed == null) {
+         return false;
+      }
+      for (Map.Entry<Long, Map<Key, List<Coords>>> entry : projections_.entrySet()) {
+         Key projected = key.project(entry.getKey());
+         List<Coords> matches = entry.getValue().get(projected);
+         if (matches != null) {
+            matches.remove(removed);
+            if (matches.isEmpty()) {
+               entry.getValue().remove(projected);
+            }
+         }
+      }
+      return true;
+   }
+
+   public synchronized boolean contains(Coords coords) {
+      Key key = keyFor(coords, false);
+      return key != null && all_.containsKey(key);
+   }
+
+   public synchronized int size() {
+      return all_.size();
+   }
+
+   public synchronized void clear() {
+      all_.clear();
+      projections_.clear();
+   }
+
+   /**
+    * Returns all indexed Coords that equal the given Coords after removing the
+    * given axes from them, i.e. the indexed Coords c for which
+    * {@code c.copyRemovingAxes(ignoreTheseAxes).equals(coords)}.
+    *
+    * @param coords          Coords to match, normally without the ignored axes
+    * @param ignoreTheseAxes Axes to ignore in the indexed Coords
+    * @return List with matching Coords, in no particular order.  Never null.
+    */
+   public synchronized List<Coords> getMatching(Coords coords, String... ignoreTheseAxes) {
+      long mask = 0L;
+      for (String axis : ignoreTheseAxes) {
+         Integer ordinal = axisOrdinals_.get(axis);
+         if (ordinal == null) {
+            // None of our Coords have this axis
+            continue;
+         }
+         if (coords.getIndex(axis) > 0) {
+            // Indexed Coords lose this axis, so can never equal the query
+            return new ArrayList<>();
+         }
+         if (ordinal >= MAX_MASKABLE_AXES) {
+            return scan(coords, ignoreTheseAxes);
+         }
+         mask |= 1L << ordinal;
+      }
+      Key query = keyFor(coords, false);
+      if (query == null) {
+         // The query uses an axis that none of our Coords have.
+         return new ArrayList<>();
+      }
+      if (mask == 0L) {
+         List<Coords> result = new ArrayList<>(1);
+         Coords match = all_.get(query);
+         if (match != null) {
+            result.add(match);
+         }
+         return result;
+      }
+      Map<Key, List<Coords>> projection = projections_.get(mask);
+      if (projection == null) {
+         projection = new HashMap<>();
+         for (Map.Entry<Key, Coords> entry : all_.entrySet()) {
+            projection.computeIfAbsent(entry.getKey().project(mask),
+                  k -> new ArrayList<>(4)).add(entry.getValue());
+         }
+         projections_.put(mask, projection);
+      }
+      List<Coords> matches = projection.get(query);
+      return matches == null ? new ArrayList<>() : new ArrayList<>(matches);
+   }
+
+   private List<Coords> scan(Coords coords, String... ignoreTheseAxes) {
+      List<Coords> result = new ArrayList<>();
+      for (Coords candidate : all_.values()) {
+         if (candidate.copyRemovingAxes(ignoreTheseAxes).equals(coords)) {
+            result.add(candidate);
+         }
+      }
+      return result;
+   }
+
+   /**
+    * Packs the indices of the given Coords into a Key.
+    *
+    * @param coords Coords to encode
+    * @param registerAxes whether unknown axes should be assigned a new ordinal
+    * @return Key, or null when the Coords have an unknown axis and registerAxes
+    *     is false
+    */
+   private Key keyFor(Coords coords, boolean registerAxes) {
+      List<String> axes = coords.getAxes();
+      int[] ordinals = new int[axes.size()];
+      int length = 0;
+      for (int i = 0; i < ordinals.length; i++) {
+         String axis = axes.get(i);
+         Integer ordinal = axisOrdinals_.get(axis);
+         if (ordinal == null) {
+            if (!registerAxes) {
+               return null;
+            }
+            ordinal = axisOrdinals_.size();
+            axisOrdinals_.put(axis, ordinal);
+         }
+         ordinals[i] = ordinal;
+         length = Math.max(length, ordinal + 1);
+      }
+      int[] tuple = new int[length];
+      for (int i = 0; i < ordinals.length; i++) {
+         tuple[ordinals[i]] = coords.getIndex(axes.get(i));
+      }
+      return new Key(tuple);
+   }
+
+   /**
+    * Immutable tuple of axis indices.  Trailing zeros are trimmed so that
+    * tuples created before and after a new axis was registered compare equal.
+    */
+   private static final class Key {
+      private final int[] indices_;
+      private final int hash_;
+
+      Key(int[] indices) {
+         int length = indices.length;
+         while (length > 0 && indices[length - 1] == 0) {
+            length--;
+         }
+         indices_ = length == indices.length ? indices : Arrays.copyOf(indices, length);
+         hash_ = Arrays.hashCode(indices_);
+      }
+
+      Key project(long mask) {
+         int[] projected = indices_.clone();
+         for (int i = 0; i < projected.length && i < MAX_MASKABLE_AXES; i++) {
+            if ((mask & (1L << i)) != 0) {
+               projected[i] = 0;
+            }
+         }
+         return new Key(projected);
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         return other instanceof Key && Arrays.equals(indices_, ((Key) other).indices_);
+      }
+
+      @Override
+      public int hashCode() {
+         return hash_;
+      }
+   }
+}
@@ -21,10 +21,10 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 import org.apache.commons.lang3.ArrayUtils;
 import org.micromanager.PropertyMap;
@@ -32,22 +32,53 @@ import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
 
 
+/**
+ * Immutable Coords implementation.
+ *
+ * <p>Coords are created several times for every image (by the acquisition
+ * engine, the pipeline, storage and display), so this class is kept compact:
+ * axis names are interned and held in a sorted String[], indices in a
+ * primitive int[]. Coords that only use the standard axes with indices below
+ * 2^16 (i.e., nearly all Coords) are additionally packed into a single long,
+ * which is used for hashing and equality.</p>
+ */
 public final class DefaultCoords implements Coords {
 
+   // Validated axis names.  Interning them lets most axis comparisons be
+   // reference comparisons, and avoids repeated regex validation.
+   private static final ConcurrentHashMap<String, String> AXIS_NAMES =
+         new ConcurrentHashMap<>();
+   private static final String[] PACKED_AXES =
+         {TIME_POINT, STAGE_POSITION, Z_SLICE, CHANNEL};
+   private static final int PACKED_BITS = 16;
+   private static final int PACKED_MAX_INDEX = (1 << PACKED_BITS) - 1;
+
+   static {
+      for (String axis : PACKED_AXES) {
+         AXIS_NAMES.put(axis, axis);
+      }
+   }
+
+   private static final String[] NO_AXES = new String[0];
+   private static final int[] NO_INDICES = new int[0];
+
    public static class Builder implements Coords.Builder {
-      // Since we only hold several axes, array lists are likely more efficient
-      // than a LinkedHashMap
-      private final List<String> axes_;
-      private final List<Integer> indices_;
+      // Since we only hold several axes, arrays kept sorted by axis name are
+      // more efficient than a map, and make build() a simple copy.
+      private String[] axes_;
+      private int[] indices_;
+      private int size_;
 
       public Builder() {
-         axes_ = new ArrayList<>(5);
-         indices_ = new ArrayList<>(5);
+         axes_ = new String[4];
+         indices_ = new int[4];
       }
 
-      private Builder(List<String> axes, List<Integer> indices) {
-         axes_ = new ArrayList<>(axes);
-         indices_ = new ArrayList<>(indices);
+      private Builder(String[] axes, int[] indices) {
+         int capacity = Math.max(4, axes.length + 1);
+         axes_ = Arrays.copyOf(axes, capacity);
+         indices_ = Arrays.copyOf(indices, capacity);
+         size_ = axes.length;
       }
 
       @Override
@@ -57,26 +88,44 @@ public final class DefaultCoords implements Coords {
 
       @Override
       public Builder index(String axis, int index) {
-         Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+         String interned = AXIS_NAMES.get(axis);
+         if (interned == null) {
+            Preconditions.checkArgument(isValidAxis(axis), "Invalid axis name");
+            interned = internAxis(axis);
+         }
          if (index <= 0) {
-            return removeAxis(axis);
+            return removeAxis(interned);
          }
-         int i = axes_.indexOf(axis);
-         if (i < 0) {
-            axes_.add(axis);
-            indices_.add(index);
-         } else {
-            indices_.set(i, index);
+         int i = find(axes_, size_, interned);
+         if (i >= 0) {
+            indices_[i] = index;
+            return this;
+         }
+         if (size_ == axes_.length) {
+            axes_ = Arrays.copyOf(axes_, size_ * 2);
+            indices_ = Arrays.copyOf(indices_, size_ * 2);
+         }
+         // Insert, keeping the axes sorted by name
+         int insertAt = 0;
+         while (insertAt < size_ && axes_[insertAt].compareTo(interned) < 0) {
+            insertAt++;
          }
+         System.arraycopy(axes_, insertAt, axes_, insertAt + 1, size_ - insertAt);
+         System.arraycopy(indices_, insertAt, indices_, insertAt + 1, size_ - insertAt);
+         axes_[insertAt] = interned;
+         indices_[insertAt] = index;
+         size_++;
          return this;
       }
 
       @Override
       public Builder removeAxis(String axis) {
-         int i = axes_.indexOf(axis);
+         int i = find(axes_, size_, axis);
          if (i >= 0) {
-            axes_.remove(i);
-            indices_.remove(i);
+            System.arraycopy(axes_, i + 1, axes_, i, size_ - i - 1);
+            System.arraycopy(indices_, i + 1, indices_, i, size_ - i - 1);
+            size_--;
+            axes_[size_] = null;
          }
          return this;
       }
@@ -84,10 +133,10 @@ public final class DefaultCoords implements Coords {
       @Override
       public Builder offset(String axis, int offset)
             throws IllegalArgumentException, IndexOutOfBoundsException {
-         int i = axes_.indexOf(axis);
+         int i = find(axes_, size_, axis);
          int oldIndex = 0;
          if (i >= 0) {
-            oldIndex = indices_.get(i);
+            oldIndex = indices_[i];
          }
          int newIndex = oldIndex + offset;
          if (newIndex < 0) {
@@ -146,32 +195,84 @@ public final class DefaultCoords implements Coords {
       }
    }
 
-   // Since we only hold several axes, array lists are likely more efficient
-   // than a LinkedHashMap
-   private final List<String> axes_;
-   private final List<Integer> indices_;
+   // Sorted by axis name; axis names are interned
+   private final String[] axes_;
+   private final int[] indices_;
+   // Only valid when isPacked_ is true
+   private final long packed_;
+   private final boolean isPacked_;
+   private final int hash_;
 
    public DefaultCoords(Builder builder) {
-      // sort by axes name
-      List<String> axes = new ArrayList<>(builder.axes_);
-      Collections.sort(axes);
-      List<Integer> indices = new ArrayList<>(axes.size());
-      for (String axis : axes) {
-         int index = builder.axes_.indexOf(axis);
-         indices.add(builder.indices_.get(index));
+      this(builder.size_ == 0 ? NO_AXES : Arrays.copyOf(builder.axes_, builder.size_),
+            builder.size_ == 0 ? NO_INDICES : Arrays.copyOf(builder.indices_, builder.size_));
+   }
+
+   /**
+    * Takes ownership of the arrays, which must be sorted by (interned) axis name.
+    */
+   private DefaultCoords(String[] axes, int[] indices) {
+      axes_ = axes;
+      indices_ = indices;
+
+      long packed = 0L;
+      boolean isPacked = true;
+      for (int i = 0; i < axes.length && isPacked; i++) {
+         int slot = packedSlot(axes[i]);
+         if (slot < 0 || indices[i] > PACKED_MAX_INDEX) {
+            isPacked = false;
+         } else {
+            packed |= ((long) indices[i]) << (PACKED_BITS * slot);
+         }
       }
+      isPacked_ = isPacked;
+      packed_ = isPacked ? packed : 0L;
+      if (isPacked) {
+         // Folding the packed long directly would XOR time with z and
+         // position with channel, so that typical datasets collide; mix first
+         long mixed = packed * 0x9E3779B97F4A7C15L;
+         hash_ = (int) (mixed ^ (mixed >>> 32));
+      } else {
+         hash_ = 23 * Arrays.hashCode(axes) + Arrays.hashCode(indices);
+      }
+   }
+
+   private static String internAxis(String axis) {
+      String existing = AXIS_NAMES.putIfAbsent(axis, axis);
+      return existing == null ? axis : existing;
+   }
 
-      axes_ = ImmutableList.copyOf(axes);
-      indices_ = ImmutableList.copyOf(indices);
+   private static int packedSlot(String axis) {
+      for (int i = 0; i < PACKED_AXES.length; i++) {
+         if (PACKED_AXES[i] == axis) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static int find(String[] axes, int size, String axis) {
+      // Reference comparison catches interned names and the axis constants
+      for (int i = 0; i < size; i++) {
+         if (axes[i] == axis) {
+            return i;
+         }
+      }
+      for (int i = 0; i < size; i++) {
+         if (axes[i].equals(axis)) {
+            return i;
+         }
+      }
+      return -1;
    }
 
    @Override
    public int getIndex(String axis) {
-      int i = axes_.indexOf(axis);
+      int i = find(axes_, axes_.length, axis);
       if (i < 0) {
          return 0;
       }
-      return indices_.get(i);
+      return indices_[i];
    }
 
    @Override
@@ -222,12 +323,12 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public List<String> getAxes() {
-      return new ArrayList<>(axes_);
+      return new ArrayList<>(Arrays.asList(axes_));
    }
 
    @Override
    public boolean hasAxis(String axis) {
-      return axes_.contains(axis);
+      return find(axes_, axes_.length, axis) >= 0;
    }
 
    @Override
@@ -290,76 +391,98 @@ public final class DefaultCoords implements Coords {
 
    @Override
    public Coords copyRemovingAxes(String... axes) {
-      Builder b = copyBuilder();
-      for (String axis : axes) {
-         b.removeAxis(axis);
-      }
-      return b.build();
+      return copyFiltering(axes, false);
    }
 
    @Override
    public Coords copyRetainingAxes(String... axes) {
-      Builder b = new Builder();
-      for (String axis : axes_) {
-         if (ArrayUtils.contains(axes, axis)) {
-            b.index(axis, getIndex(axis));
+      return copyFiltering(axes, true);
+   }
+
+   private DefaultCoords copyFiltering(String[] axes, boolean retain) {
+      boolean[] keep = new boolean[axes_.length];
+      int numKept = 0;
+      for (int i = 0; i < axes_.length; i++) {
+         keep[i] = ArrayUtils.contains(axes, axes_[i]) == retain;
+         if (keep[i]) {
+            numKept++;
          }
       }
-      return b.build();
+      if (numKept == axes_.length) {
+         // We are immutable, so no need for a copy
+         return this;
+      }
+      String[] keptAxes = new String[numKept];
+      int[] keptIndices = new int[numKept];
+      int j = 0;
+      for (int i = 0; i < axes_.length; i++) {
+         if (keep[i]) {
+            keptAxes[j] = axes_[i];
+            keptIndices[j] = indices_[i];
+            j++;
+         }
+      }
+      return new DefaultCoords(keptAxes, keptIndices);
    }
 
    @Override
    public boolean equals(Object other) {
+      if (this == other) {
+         return true;
+      }
+      if (other instanceof DefaultCoords) {
+         DefaultCoords theOther = (DefaultCoords) other;
+         if (isPacked_ || theOther.isPacked_) {
+            return isPacked_ == theOther.isPacked_ && packed_ == theOther.packed_;
+         }
+         if (hash_ != theOther.hash_ || axes_.length != theOther.axes_.length) {
+            return false;
+         }
+         // Axis order is not considered for equality, but axes are sorted already
+         for (int i = 0; i < axes_.length; i++) {
+            if (axes_[i] != theOther.axes_[i] && !axes_[i].equals(theOther.axes_[i])) {
+               return false;
+            }
+         }
+         return Arrays.equals(indices_, theOther.indices_);
+      }
       if (!(other instanceof Coords)) {
          return false;
       }
-      // Axis order is not considered for equality, but axes are sorted already
       // A zero index axis is no longer possible, so no need to remove zero axes
       Coords theOther = (Coords) other;
-
-      if (this.getAxes().size() != theOther.getAxes().size()) {
+      if (axes_.length != theOther.getAxes().size()) {
          return false;
       }
-      for (int i = 0; i < this.getAxes().size(); i++) {
-         String axis = this.getAxes().get(i);
-         if (!axis.equals(theOther.getAxes().get(i))) {
-            return false;
-         }
-         if (this.getIndex(axis) != theOther.getIndex(axis)) {
+      for (int i = 0; i < axes_.length; i++) {
+         if (indices_[i] != theOther.getIndex(axes_[i])) {
             return false;
          }
       }
-
       return true;
    }
 
    @Override
    public int hashCode() {
-      // Axis order is not considered for equality, but axes are sorted already
-      int hash = 3;
-      hash = 23 * hash + axes_.hashCode();
-      hash = 23 * hash + indices_.hashCode();
-      return hash;
+      return hash_;
    }
 
    @Override
    public String toString() {
       StringBuilder sb = new StringBuilder().append("<");
-      boolean isFirst = true;
-      for (String axis : axes_) {
-         if (!isFirst) {
+      for (int i = 0; i < axes_.length; i++) {
+         if (i > 0) {
             sb.append(" ");
          }
-         isFirst = false;
-         sb.append(String.format("%s=%d", axis, getIndex(axis)));
+         sb.append(axes_[i]).append("=").append(indices_[i]);
       }
       return sb.append(">").toString();
    }
 
    public PropertyMap toPropertyMap() {
       PropertyMap.Builder b = PropertyMaps.builder();
-      for (String axis : axes_) {
-         b.putInteger(axis, getIndex(axis));
+      for (int i = 0; i < axes_.length; i++) {
+         b.putInteger(axes_[i], indices_[i]);
       }
       return b.build();
    }
@@ -382,9 +505,9 @@ public final class DefaultCoords implements Coords {
    @Deprecated
    public String toNormalizedString() {
       StringBuilder sb = new StringBuilder();
-      for (String axis : axes_) {
+      for (int i = 0; i < axes_.length; i++) {
          // Trailing commas are allowed
-         sb.append(String.format("%s=%d,", axis, getIndex(axis)));
+         sb.append(String.format("%s=%d,", axes_[i], indices_[i]));
       }
       return sb.toString();
    }
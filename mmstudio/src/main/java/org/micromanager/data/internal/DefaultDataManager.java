@@ -39,6 +39,7 @@ import org.micromanager.data.Image;
 import org.micromanager.data.ImageJConverter;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Pipeline;
+import org.micromanager.data.PixelBufferPool;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorConfigurator;
 import org.micromanager.data.ProcessorFactory;
@@ -323,6 +324,11 @@ public final class DefaultDataManager implements DataManager {
             numComponents, coords, metadata);
    }
 
+   @Override
+   public PixelBufferPool pixelBufferPool() {
+      return DefaultPixelBufferPool.getInstance();
+   }
+
    @Override
    public Image convertTaggedImage(TaggedImage tagged) throws JSONException {
       return new DefaultImage(tagged);
@@ -375,6 +381,10 @@ public final class DefaultDataManager implements DataManager {
       for (ProcessorFactory factory : factories) {
          processors.add(factory.createProcessor());
       }
+      if (!isSynchronous && DefaultPipeline.getShouldProcessInParallel()) {
+         return new DefaultPipeline(processors, store, false,
+               DefaultPipeline.getQueueDepth(), DefaultPipeline.getMaxWorkersPerProcessor());
+      }
       return new DefaultPipeline(processors, store, isSynchronous);
    }
 
@@ -34,10 +34,12 @@ import javax.swing.filechooser.FileFilter;
 import org.micromanager.Studio;
 import org.micromanager.data.Annotation;
 import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreFrozenException;
 import org.micromanager.data.DatastoreRewriteException;
 import org.micromanager.data.Image;
+import org.micromanager.data.ImageEventCoalescing;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.internal.UserCancelledException;
@@ -167,6 +169,16 @@ public class DefaultDatastore implements Datastore {
       bus_.register(obj, priority);
    }
 
+   @Override
+   public void registerForEvents(Object obj, ImageEventCoalescing coalescing) {
+      bus_.registerCoalescing(obj,
+            event -> event instanceof DataProviderHasNewImageEvent
+                  ? coalescing.getCoalescingKey(
+                        ((DataProviderHasNewImageEvent) event).getCoords())
+                  : null,
+            coalescing.isGrouped(), coalescing.getMinIntervalMs());
+   }
+
    @Override
    public void unregisterForEvents(Object obj) {
       bus_.unregister(obj);
@@ -417,6 +429,11 @@ public class DefaultDatastore implements Datastore {
          System.gc();
       }
       bus_.shutDown();
+      if (bus_.getNumCoalescedEvents() > 0 || bus_.getNumDroppedEvents() > 0) {
+         ReportingUtils.logMessage("Datastore " + name_ + ": "
+               + bus_.getNumCoalescedEvents() + " events coalesced, "
+               + bus_.getNumDroppedEvents() + " dropped");
+      }
    }
 
    @Override
@@ -21,14 +21,16 @@
 package org.micromanager.data.internal;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
-import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import com.google.gson.JsonParser;
+import java.lang.ref.SoftReference;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.ShortBuffer;
+import java.util.List;
+import java.util.function.Supplier;
 import mmcorej.TaggedImage;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
@@ -38,6 +40,7 @@ import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.internal.propertymap.JSONObjectToGson;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.imageanalysis.ImageUtils;
@@ -55,9 +58,29 @@ import org.micromanager.internal.utils.imageanalysis.ImageUtils;
  * exposed in the API) returns the raw buffer.
  */
 public final class DefaultImage implements Image {
-   private DefaultMetadata metadata_;
+   // TaggedImage tags read when constructing an image: coords and format
+   private static final List<String> COORDS_AND_FORMAT_KEYS;
+
+   static {
+      ImmutableList.Builder<String> keys = ImmutableList.builder();
+      for (PropertyKey key : ImmutableList.of(PropertyKey.COMPLETE_COORDS,
+            PropertyKey.FRAME_INDEX, PropertyKey.POSITION_INDEX,
+            PropertyKey.SLICE_INDEX, PropertyKey.CHANNEL_INDEX,
+            PropertyKey.WIDTH, PropertyKey.HEIGHT,
+            PropertyKey.PIXEL_TYPE, PropertyKey.IJ_TYPE)) {
+         keys.addAll(key.getAllKeys());
+      }
+      COORDS_AND_FORMAT_KEYS = keys.build();
+   }
+
+   private volatile DefaultMetadata metadata_;
+   // Decodes metadata_ on first use, when decoding was deferred
+   private Supplier<Metadata> metadataDecoder_;
    private Coords coords_;
    private Buffer rawPixels_;
+   // Array copy of rawPixels_ when it has no backing array (e.g., a
+   // memory-mapped file), kept for as long as memory allows
+   private volatile SoftReference<Object> pixelArray_;
 
    // Width of the image, in pixels
    int pixelWidth_;
@@ -92,31 +115,27 @@ public final class DefaultImage implements Image {
     * @param coords   Coords to be used for this new Image. When null, tags in input image
     *                 are interpreted to best guess the desired Coord.
     * @param metadata Metadata to be used for this new Image. When null, tags from input image
-    *                 are used to construct metadata.
+    *                 are used to construct metadata, on the first call to
+    *                 getMetadata(); the tags must not be modified after this
+    *                 constructor returns.
+    * @throws IllegalArgumentException if the tags lack valid coords (when
+    *     needed) or image size and pixel type
     */
    public DefaultImage(TaggedImage tagged, Coords coords, Metadata metadata)
          throws IllegalArgumentException {
-      String json = tagged.tags.toString();
-      JsonElement je;
+      // Only convert the few tags needed here; the rest (notably the scope
+      // data) are only needed once someone looks at the metadata
+      JsonObject jo;
       try {
-         je = new JsonParser().parse(json);
+         jo = JSONObjectToGson.convert(tagged.tags, COORDS_AND_FORMAT_KEYS);
       } catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags",
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags",
                unlikely);
       }
 
-      if (metadata == null) {
-         try {
-            metadata = DefaultMetadata.fromPropertyMap(
-                  NonPropertyMapJSONFormats.metadata().fromGson(je));
-         } catch (Exception e) {
-            throw new IllegalArgumentException("Failed to convert TaggedImage tags to metadata", e);
-         }
-      }
-
       if (coords == null) {
          try {
-            PropertyMap pmap = NonPropertyMapJSONFormats.coords().fromGson(je);
+            PropertyMap pmap = NonPropertyMapJSONFormats.coords().fromGson(jo);
             coords = Coordinates.fromPropertyMap(pmap);
          } catch (Exception e) {
             throw new IllegalArgumentException("Failed to convert TaggedImage tags to coords", e);
@@ -125,13 +144,23 @@ public final class DefaultImage implements Image {
 
       PropertyMap formatPmap;
       try {
-         formatPmap = NonPropertyMapJSONFormats.imageFormat().fromGson(je);
+         formatPmap = NonPropertyMapJSONFormats.imageFormat().fromGson(jo);
       } catch (Exception e) {
          throw new IllegalArgumentException(
                "Failed to convert TaggedImage tags to image size and pixel format");
       }
 
-      metadata_ = (DefaultMetadata) metadata;
+      if (metadata == null) {
+         // Decoding the metadata is the expensive part, and many images
+         // (e.g., in live mode) never have their metadata looked at. The tags
+         // are released once decoded.
+         final JSONObject tags = tagged.tags;
+         metadataDecoder_ = () -> DefaultMetadata.fromPropertyMap(
+               NonPropertyMapJSONFormats.metadata().fromGson(
+                     JSONObjectToGson.convert(tags)));
+      } else {
+         metadata_ = (DefaultMetadata) metadata;
+      }
       coords_ = coords;
 
       pixelWidth_ = formatPmap.getInteger(PropertyKey.WIDTH.key(), 0);
@@ -177,6 +206,44 @@ public final class DefaultImage implements Image {
             metadata);
    }
 
+   /**
+    * Generates a DefaultImage around a pixel buffer (e.g., a read-only view
+    * of a memory-mapped file), whose metadata are only decoded when first
+    * requested.
+    *
+    * <p>The buffer is used directly (i.e., it is not copied), and its
+    * position and limit are ignored.</p>
+    *
+    * @param pixels          ByteBuffer or ShortBuffer holding the pixels (not null).
+    * @param format          PropertyMap specifying image width, height, and pixelType (not null).
+    * @param coords          Coords to be used for this new image (not null).
+    * @param metadataDecoder Called at most once, on the first call to getMetadata().
+    * @throws IllegalArgumentException if the pixels do not match the format
+    */
+   public DefaultImage(Buffer pixels, PropertyMap format, Coords coords,
+                       Supplier<Metadata> metadataDecoder) throws IllegalArgumentException {
+      Preconditions.checkNotNull(pixels);
+      Preconditions.checkNotNull(coords);
+      Preconditions.checkNotNull(metadataDecoder);
+      pixelWidth_ = format.getInteger(PropertyKey.WIDTH.key(), 0);
+      pixelHeight_ = format.getInteger(PropertyKey.HEIGHT.key(), 0);
+      pixelType_ = format.getStringAsEnum(PropertyKey.PIXEL_TYPE.key(), PixelType.class, null);
+      if (pixelType_ == null) {
+         throw new IllegalArgumentException("Missing pixel type");
+      }
+      int bpc = pixels instanceof ByteBuffer ? 1 : pixels instanceof ShortBuffer ? 2 : 0;
+      if (bpc != pixelType_.getBytesPerComponent()) {
+         throw new IllegalArgumentException("Pixel buffer does not match pixel type");
+      }
+      if (pixelWidth_ <= 0 || pixelHeight_ <= 0 || pixels.capacity()
+            != pixelWidth_ * pixelHeight_ * pixelType_.getNumberOfComponents()) {
+         throw new IllegalArgumentException("Pixel buffer does not match image size");
+      }
+      rawPixels_ = pixels;
+      coords_ = coords;
+      metadataDecoder_ = metadataDecoder;
+   }
+
    /**
     * Generates a DefaultImage from pixels, minimal image info, and the
     * supplied coords and metadata.
@@ -260,7 +327,21 @@ public final class DefaultImage implements Image {
 
    @Override
    public Metadata getMetadata() {
-      return metadata_;
+      DefaultMetadata metadata = metadata_;
+      if (metadata == null) {
+         synchronized (this) {
+            if (metadata_ == null && metadataDecoder_ != null) {
+               try {
+                  metadata_ = (DefaultMetadata) metadataDecoder_.get();
+               } catch (Exception e) {
+                  throw new IllegalArgumentException("Failed to decode image metadata", e);
+               }
+               metadataDecoder_ = null;
+            }
+            metadata = metadata_;
+         }
+      }
+      return metadata;
    }
 
    @Override
@@ -270,7 +351,7 @@ public final class DefaultImage implements Image {
 
    @Override
    public Image copyAtCoords(Coords coords) {
-      return new DefaultImage(this, coords, metadata_);
+      return new DefaultImage(this, coords, getMetadata());
    }
 
    @Override
@@ -286,13 +367,20 @@ public final class DefaultImage implements Image {
    /**
     * Note this returns a byte[], short[], or int[] array, not a ByteBuffer,
     * ShortBuffer, or IntBuffer. Use getPixelBuffer() for that.
+    * Buffers without a backing array are copied on the first call only.
     */
    @Override
    public Object getRawPixels() {
       if (rawPixels_.hasArray()) {
          return rawPixels_.array();
       }
-      return BufferTools.arrayFromBuffer(rawPixels_);
+      SoftReference<Object> ref = pixelArray_;
+      Object pixels = ref == null ? null : ref.get();
+      if (pixels == null) {
+         pixels = BufferTools.arrayFromBuffer(rawPixels_);
+         pixelArray_ = new SoftReference<>(pixels);
+      }
+      return pixels;
    }
 
    @Override
@@ -425,7 +513,7 @@ public final class DefaultImage implements Image {
       NonPropertyMapJSONFormats.coords().addToGson(jo,
             ((DefaultCoords) coords_).toPropertyMap());
       NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            metadata_.toPropertyMap());
+            ((DefaultMetadata) getMetadata()).toPropertyMap());
       Gson gson = new GsonBuilder().disableHtmlEscaping().create();
       String json = gson.toJson(jo);
 
@@ -20,6 +20,7 @@
 
 package org.micromanager.data.internal;
 
+import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
@@ -33,23 +34,42 @@ import org.micromanager.data.ImageDeletedEvent;
  */
 public final class DefaultImageDeletedEvent implements ImageDeletedEvent {
    private Image image_;
+   private Coords coords_;
    private Datastore store_;
 
    public DefaultImageDeletedEvent(Image image, Datastore store) {
       image_ = image;
+      coords_ = image.getCoords();
+      store_ = store;
+   }
+
+   /**
+    * Creates an event for an image whose pixels are no longer available.
+    *
+    * @param coords Coords of the deleted image
+    * @param store  Datastore the image was deleted from
+    */
+   public DefaultImageDeletedEvent(Coords coords, Datastore store) {
+      coords_ = coords;
       store_ = store;
    }
 
    /**
     * Provides the Image that was deleted.
     *
-    * @return the Image that was just deleted from the Datastore.
+    * @return the Image that was just deleted from the Datastore, or null if
+    *     its pixels were discarded.
     */
    @Override
    public Image getImage() {
       return image_;
    }
 
+   @Override
+   public Coords getCoords() {
+      return coords_;
+   }
+
    /**
     * Provides the Datastore this image was added to; potentially useful for
     * code that listens to events from multiple Datastores.
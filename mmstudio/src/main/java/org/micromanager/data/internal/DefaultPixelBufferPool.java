@@ -0,0 +1,165 @@
+package org.micromanager.data.internal;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.data.Image;
+import org.micromanager.data.PixelBufferPool;
+
+/**
+ * Pixel buffer pool shared by all pipelines.
+ *
+ * <p>Arrays are pooled by element type and exact length (images of a given
+ * size always need arrays of exactly that length). Each size class holds at
+ * most a few arrays, and the pool as a whole at most a fixed number of bytes;
+ * arrays recycled beyond that are left to the garbage collector.</p>
+ *
+ * <p>Borrowed arrays are tracked in a weak identity set (arrays do not
+ * override equals() and hashCode()), so that only arrays from this pool are
+ * accepted back, and arrays that are never recycled do not leak.</p>
+ */
+public final class DefaultPixelBufferPool implements PixelBufferPool {
+   private static final int MAX_ARRAYS_PER_SIZE = 16;
+   private static final long DEFAULT_MAX_POOLED_BYTES = Math.min(256L << 20,
+         Runtime.getRuntime().maxMemory() / 8);
+   private static final DefaultPixelBufferPool INSTANCE =
+         new DefaultPixelBufferPool(DEFAULT_MAX_POOLED_BYTES);
+
+   private static final int BYTE = 0;
+   private static final int SHORT = 1;
+   private static final int FLOAT = 2;
+   private static final int[] BYTES_PER_ELEMENT = {1, 2, 4};
+
+   private final long maxPooledBytes_;
+   private final Map<Long, ArrayBlockingQueue<Object>> free_ =
+         new ConcurrentHashMap<>();
+   private final Map<Object, Boolean> borrowed_ =
+         Collections.synchronizedMap(new WeakHashMap<>());
+   private final AtomicLong pooledBytes_ = new AtomicLong(0);
+   private final AtomicLong numHits_ = new AtomicLong(0);
+   private final AtomicLong numMisses_ = new AtomicLong(0);
+
+   public static DefaultPixelBufferPool getInstance() {
+      return INSTANCE;
+   }
+
+   /**
+    * @param maxPooledBytes Maximum total size of the arrays kept for reuse
+    */
+   public DefaultPixelBufferPool(long maxPooledBytes) {
+      maxPooledBytes_ = maxPooledBytes;
+   }
+
+   private static long sizeClass(int type, int length) {
+      return ((long) type << 32) | length;
+   }
+
+   private Object borrow(int type, int length) {
+      if (length < 0) {
+         throw new IllegalArgumentException("Negative array length " + length);
+      }
+      ArrayBlockingQueue<Object> queue = free_.get(sizeClass(type, length));
+      Object result = queue == null ? null : queue.poll();
+      if (result != null) {
+         pooledBytes_.addAndGet(-(long) length * BYTES_PER_ELEMENT[type]);
+         numHits_.incrementAndGet();
+      } else {
+         numMisses_.incrementAndGet();
+         switch (type) {
+            case BYTE:
+               result = new byte[length];
+               break;
+            case SHORT:
+               result = new short[length];
+               break;
+            default:
+               result = new float[length];
+               break;
+         }
+      }
+      borrowed_.put(result, Boolean.TRUE);
+      return result;
+   }
+
+   @Override
+   public byte[] borrowBytes(int length) {
+      return (byte[]) borrow(BYTE, length);
+   }
+
+   @Override
+   public short[] borrowShorts(int length) {
+      return (short[]) borrow(SHORT, length);
+   }
+
+   @Override
+   public float[] borrowFloats(int length) {
+      return (float[]) borrow(FLOAT, length);
+   }
+
+   @Override
+   public Object borrowLike(Image image) {
+      Object pixels = image.getRawPixels();
+      if (pixels instanceof byte[]) {
+         return borrow(BYTE, ((byte[]) pixels).length);
+      } else if (pixels instanceof short[]) {
+         return borrow(SHORT, ((short[]) pixels).length);
+      } else if (pixels instanceof float[]) {
+         return borrow(FLOAT, ((float[]) pixels).length);
+      }
+      throw new IllegalArgumentException("Unsupported pixel type "
+            + (pixels == null ? "null" : pixels.getClass().getName()));
+   }
+
+   @Override
+   public boolean recycle(Object pixels) {
+      if (pixels == null || borrowed_.remove(pixels) == null) {
+         return false;
+      }
+      int type;
+      int length;
+      if (pixels instanceof byte[]) {
+         type = BYTE;
+         length = ((byte[]) pixels).length;
+      } else if (pixels instanceof short[]) {
+         type = SHORT;
+         length = ((short[]) pixels).length;
+      } else {
+         type = FLOAT;
+         length = ((float[]) pixels).length;
+      }
+      long bytes = (long) length * BYTES_PER_ELEMENT[type];
+      if (pooledBytes_.addAndGet(bytes) > maxPooledBytes_) {
+         pooledBytes_.addAndGet(-bytes);
+         return true;
+      }
+      ArrayBlockingQueue<Object> queue = free_.computeIfAbsent(
+            sizeClass(type, length), k -> new ArrayBlockingQueue<>(MAX_ARRAYS_PER_SIZE));
+      if (!queue.offer(pixels)) {
+         pooledBytes_.addAndGet(-bytes);
+      }
+      return true;
+   }
+
+   @Override
+   public boolean isBorrowed(Object pixels) {
+      return pixels != null && borrowed_.containsKey(pixels);
+   }
+
+   @Override
+   public long getNumHits() {
+      return numHits_.get();
+   }
+
+   @Override
+   public long getNumMisses() {
+      return numMisses_.get();
+   }
+
+   @Override
+   public long getPooledBytes() {
+      return pooledBytes_.get();
+   }
+}
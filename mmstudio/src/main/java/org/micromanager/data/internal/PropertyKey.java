@@ -1307,6 +1307,36 @@ public enum PropertyKey {
       }
    },
 
+   SCOPE_DATA_BASELINE("ScopeDataBaseline", Metadata.class) {
+      @Override
+      public String getDescription() {
+         return "Coords of the image holding the complete device property values, when only "
+               + "the properties that differ from it are stored with this image";
+      }
+
+      @Override
+      protected void convertFromGson(JsonElement je, PropertyMap.Builder dest) {
+         PropertyMap.Builder builder = PropertyMaps.builder();
+         for (Map.Entry<String, JsonElement> e : je.getAsJsonObject().entrySet()) {
+            builder.putInteger(e.getKey(), e.getValue().getAsInt());
+         }
+         dest.putPropertyMap(key(), builder.build());
+      }
+
+      @Override
+      protected JsonElement convertToGson(PropertyMap pmap) {
+         if (!pmap.containsKey(key())) {
+            return null;
+         }
+         PropertyMap coords = pmap.getPropertyMap(key(), null);
+         JsonObject jo = new JsonObject();
+         for (String axis : coords.keySet()) {
+            jo.addProperty(axis, coords.getInteger(axis, 0));
+         }
+         return jo;
+      }
+   },
+
    SCOPE_DATA_KEYS("ScopeDataKeys", "scopeDataKeys", "StateCache-keys",
          Metadata.class) {
       @Override
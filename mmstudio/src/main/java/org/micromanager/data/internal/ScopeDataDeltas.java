@@ -0,0 +1,133 @@
+package org.micromanager.data.internal;
+
+import com.google.gson.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Metadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.propertymap.DefaultPropertyMap;
+
+/**
+ * Delta encoding of the scope data (device property values) that are stored
+ * with every image.
+ *
+ * <p>When enabled, storage writes the complete scope data only with a
+ * baseline image: the first image of each file for multipage TIFF, and the
+ * first image of each stage position for NDTiff.  Other images store only the
+ * properties whose values differ from the baseline, together with the coords
+ * of the baseline image ({@link PropertyKey#SCOPE_DATA_BASELINE}).  Readers
+ * rebuild the complete scope data as a chained view of these properties on
+ * top of the scope data of the baseline image.</p>
+ *
+ * <p>Images whose scope data lack properties of the baseline are stored
+ * with complete scope data, as the difference could not express that.</p>
+ */
+public final class ScopeDataDeltas {
+   private static final String SHOULD_DELTA_ENCODE_SCOPE_DATA =
+         "store only the device properties that changed with each saved image";
+
+   private ScopeDataDeltas() {
+   }
+
+   public static boolean getShouldDeltaEncodeScopeData() {
+      return MMStudio.getInstance().profile().getSettings(ScopeDataDeltas.class)
+            .getBoolean(SHOULD_DELTA_ENCODE_SCOPE_DATA, false);
+   }
+
+   public static void setShouldDeltaEncodeScopeData(boolean shouldEncode) {
+      MMStudio.getInstance().profile().getSettings(ScopeDataDeltas.class)
+            .putBoolean(SHOULD_DELTA_ENCODE_SCOPE_DATA, shouldEncode);
+   }
+
+   /**
+    * Creates the metadata to be stored for an image, given the scope data of
+    * the baseline image.
+    *
+    * @param metadata Complete metadata of the image
+    * @param baseline Scope data of the baseline image
+    * @return metadata whose scope data hold only the properties that differ
+    *     from baseline, or null if the scope data cannot be delta encoded
+    */
+   public static Metadata createDelta(Metadata metadata, PropertyMap baseline) {
+      PropertyMap scopeData = metadata.getScopeData();
+      if (scopeData == null || baseline == null) {
+         return null;
+      }
+      for (String key : baseline.keySet()) {
+         if (!scopeData.containsKey(key)) {
+            return null;
+         }
+      }
+      // The changed values keep their type, so that images read back have
+      // the same scope data as the ones written
+      List<String> unchanged = new ArrayList<>();
+      for (String key : scopeData.keySet()) {
+         if (isUnchanged(scopeData, baseline, key)) {
+            unchanged.add(key);
+         }
+      }
+      PropertyMap delta = scopeData.copyBuilder().removeAll(unchanged).build();
+      return metadata.copyBuilderPreservingUUID().scopeData(delta).build();
+   }
+
+   private static boolean isUnchanged(PropertyMap scopeData, PropertyMap baseline,
+                                      String key) {
+      return baseline.containsKey(key)
+            && scopeData.getValueTypeForKey(key) == baseline.getValueTypeForKey(key)
+            && scopeData.getValueAsString(key, "").equals(
+                  baseline.getValueAsString(key, ""));
+   }
+
+   /**
+    * Records the baseline image in the JSON of a delta-encoded image.
+    *
+    * @param jo       JSON metadata of the image
+    * @param baseline Coords of the baseline image
+    */
+   public static void addBaselineCoords(JsonObject jo, Coords baseline) {
+      PropertyMap.Builder coords = PropertyMaps.builder();
+      for (String axis : baseline.getAxes()) {
+         coords.putInteger(axis, baseline.getIndex(axis));
+      }
+      PropertyKey.SCOPE_DATA_BASELINE.storeInGsonObject(PropertyMaps.builder()
+            .putPropertyMap(PropertyKey.SCOPE_DATA_BASELINE.key(), coords.build())
+            .build(), jo);
+   }
+
+   /**
+    * @param jo JSON metadata of an image
+    * @return Coords of the baseline image, or null if the image has complete
+    *     scope data
+    */
+   public static Coords getBaselineCoords(JsonObject jo) {
+      PropertyMap.Builder builder = PropertyMaps.builder();
+      if (!PropertyKey.SCOPE_DATA_BASELINE.extractFromGsonObject(jo, builder)) {
+         return null;
+      }
+      PropertyMap coords = builder.build().getPropertyMap(
+            PropertyKey.SCOPE_DATA_BASELINE.key(), null);
+      Coords.Builder result = new DefaultCoords.Builder();
+      for (String axis : coords.keySet()) {
+         result.index(axis, coords.getInteger(axis, 0));
+      }
+      return result.build();
+   }
+
+   /**
+    * Rebuilds the complete metadata of a delta-encoded image.
+    *
+    * @param delta    Metadata as read, holding the changed properties only
+    * @param baseline Scope data of the baseline image
+    * @return Metadata whose scope data are a chained view of the changed
+    *     properties on top of baseline
+    */
+   public static Metadata applyBaseline(Metadata delta, PropertyMap baseline) {
+      PropertyMap scopeData = delta.getScopeData();
+      PropertyMap complete = scopeData == null
+            ? baseline : ((DefaultPropertyMap) scopeData).createChainedView(baseline);
+      return delta.copyBuilderPreservingUUID().scopeData(complete).build();
+   }
+}
@@ -0,0 +1,209 @@
+package org.micromanager.data.internal;
+
+import ij.ImageJ;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import org.micromanager.data.Image;
+import org.micromanager.data.SummaryMetadata;
+
+
+/**
+ * Writes a single image plane as an uncompressed TIFF file, in the same
+ * layout that ImageJ's FileSaver produces: big endian, one strip, an ImageJ
+ * image description holding the calibration, and the metadata JSON stored as
+ * the ImageJ "Info" property.  Files written this way are read back by
+ * ImageJ's Opener exactly like the ones written through an ImagePlus, but
+ * writing them does not require creating an ImagePlus and ImageProcessor for
+ * every plane.
+ */
+final class SinglePlaneTiffWriter {
+   // TIFF field types
+   private static final short BYTE = 1;
+   private static final short ASCII = 2;
+   private static final short SHORT = 3;
+   private static final short LONG = 4;
+   private static final short RATIONAL = 5;
+
+   private static final short NEW_SUBFILE_TYPE = 254;
+   private static final short IMAGE_WIDTH = 256;
+   private static final short IMAGE_LENGTH = 257;
+   private static final short BITS_PER_SAMPLE = 258;
+   private static final short COMPRESSION = 259;
+   private static final short PHOTOMETRIC_INTERPRETATION = 262;
+   private static final short IMAGE_DESCRIPTION = 270;
+   private static final short STRIP_OFFSETS = 273;
+   private static final short SAMPLES_PER_PIXEL = 277;
+   private static final short ROWS_PER_STRIP = 278;
+   private static final short STRIP_BYTE_COUNTS = 279;
+   private static final short X_RESOLUTION = 282;
+   private static final short Y_RESOLUTION = 283;
+   private static final short RESOLUTION_UNIT = 296;
+   // ImageJ private tags
+   private static final short IJ_METADATA_BYTE_COUNTS = (short) 50838;
+   private static final short IJ_METADATA = (short) 50839;
+   private static final int IJ_MAGIC_NUMBER = 0x494a494a; // "IJIJ"
+   private static final int IJ_INFO = 0x696e666f; // "info"
+
+   private static final int HEADER_SIZE = 8;
+   private static final int ENTRY_SIZE = 12;
+
+   private SinglePlaneTiffWriter() {
+   }
+
+   /**
+    * Writes an image to a TIFF file.
+    *
+    * @param file    File to be (over)written
+    * @param image   Image holding 8 or 16 bit grayscale, or 32 bit RGB pixels
+    * @param summary Summary metadata, for the Z step and time interval
+    * @param info    Text stored as the ImageJ "Info" property; may be null
+    * @throws IOException if writing fails
+    * @throws IllegalArgumentException if the pixel type is not supported
+    */
+   static void write(File file, Image image, SummaryMetadata summary, String info)
+         throws IOException {
+      int width = image.getWidth();
+      int height = image.getHeight();
+      int bytesPerPixel = image.getBytesPerPixel();
+      int numComponents = image.getNumComponents();
+      boolean isRGB = numComponents == 3 && bytesPerPixel == 4;
+      if (!isRGB && !(numComponents == 1 && (bytesPerPixel == 1 || bytesPerPixel == 2))) {
+         throw new IllegalArgumentException(String.format(
+               "Unexpected image format with %d bytes per pixel and %d components",
+               bytesPerPixel, numComponents));
+      }
+      int samplesPerPixel = isRGB ? 3 : 1;
+      int bitsPerSample = isRGB ? 8 : 8 * bytesPerPixel;
+      long pixelBytes = (long) width * height * samplesPerPixel * (bitsPerSample / 8);
+
+      Double pixelSizeUm = image.getMetadata() == null
+            ? null : image.getMetadata().getPixelSizeUm();
+      boolean isCalibrated = pixelSizeUm != null && pixelSizeUm > 0;
+      byte[] description = createDescription(isCalibrated, summary)
+            .getBytes(StandardCharsets.US_ASCII);
+      boolean hasInfo = info != null && info.length() > 0;
+      int infoBytes = hasInfo ? 2 * info.length() : 0;
+      int metadataHeaderBytes = 4 + 8;
+
+      int numEntries = 11 + (isCalibrated ? 3 : 0) + (hasInfo ? 2 : 0);
+      int ifdSize = 2 + numEntries * ENTRY_SIZE + 4;
+      // Values that do not fit in an IFD entry follow the IFD
+      int bitsPerSampleOffset = HEADER_SIZE + ifdSize;
+      int descriptionOffset = bitsPerSampleOffset + (isRGB ? 6 : 0);
+      int resolutionOffset = descriptionOffset + description.length + 1;
+      int metadataCountsOffset = resolutionOffset + (isCalibrated ? 16 : 0);
+      int metadataOffset = metadataCountsOffset + (hasInfo ? 8 : 0);
+      int imageOffset = metadataOffset + (hasInfo ? metadataHeaderBytes + infoBytes : 0);
+      if (imageOffset + pixelBytes > Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("Image too large for a TIFF file");
+      }
+
+      ByteBuffer buffer = ByteBuffer.allocate(imageOffset + (int) pixelBytes);
+      buffer.order(ByteOrder.BIG_ENDIAN);
+      buffer.put((byte) 'M').put((byte) 'M').putShort((short) 42).putInt(HEADER_SIZE);
+
+      buffer.putShort((short) numEntries);
+      putEntry(buffer, NEW_SUBFILE_TYPE, LONG, 1, 0);
+      putEntry(buffer, IMAGE_WIDTH, LONG, 1, width);
+      putEntry(buffer, IMAGE_LENGTH, LONG, 1, height);
+      if (isRGB) {
+         putEntry(buffer, BITS_PER_SAMPLE, SHORT, 3, bitsPerSampleOffset);
+      } else {
+         putShortEntry(buffer, BITS_PER_SAMPLE, bitsPerSample);
+      }
+      putShortEntry(buffer, COMPRESSION, 1);
+      putShortEntry(buffer, PHOTOMETRIC_INTERPRETATION, isRGB ? 2 : 1);
+      putEntry(buffer, IMAGE_DESCRIPTION, ASCII, description.length + 1,
+            descriptionOffset);
+      putEntry(buffer, STRIP_OFFSETS, LONG, 1, imageOffset);
+      putShortEntry(buffer, SAMPLES_PER_PIXEL, samplesPerPixel);
+      putEntry(buffer, ROWS_PER_STRIP, LONG, 1, height);
+      putEntry(buffer, STRIP_BYTE_COUNTS, LONG, 1, (int) pixelBytes);
+      if (isCalibrated) {
+         putEntry(buffer, X_RESOLUTION, RATIONAL, 1, resolutionOffset);
+         putEntry(buffer, Y_RESOLUTION, RATIONAL, 1, resolutionOffset + 8);
+         // No absolute unit; ImageJ takes the unit from the description
+         putShortEntry(buffer, RESOLUTION_UNIT, 1);
+      }
+      if (hasInfo) {
+         putEntry(buffer, IJ_METADATA_BYTE_COUNTS, LONG, 2, metadataCountsOffset);
+         putEntry(buffer, IJ_METADATA, BYTE, metadataHeaderBytes + infoBytes,
+               metadataOffset);
+      }
+      buffer.putInt(0); // No next IFD
+
+      if (isRGB) {
+         buffer.putShort((short) 8).putShort((short) 8).putShort((short) 8);
+      }
+      buffer.put(description).put((byte) 0);
+      if (isCalibrated) {
+         // Same precision as ImageJ uses
+         double scale = 1.0 / pixelSizeUm;
+         double denominator = scale > 1000.0 ? 1000.0 : 1000000.0;
+         buffer.putInt((int) (scale * denominator)).putInt((int) denominator);
+         buffer.putInt((int) (scale * denominator)).putInt((int) denominator);
+      }
+      if (hasInfo) {
+         buffer.putInt(metadataHeaderBytes).putInt(infoBytes);
+         buffer.putInt(IJ_MAGIC_NUMBER).putInt(IJ_INFO).putInt(1);
+         for (int i = 0; i < info.length(); i++) {
+            buffer.putChar(info.charAt(i));
+         }
+      }
+
+      putPixels(buffer, image.getRawPixels(), isRGB);
+      buffer.flip();
+      try (FileOutputStream stream = new FileOutputStream(file)) {
+         FileChannel channel = stream.getChannel();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+      }
+   }
+
+   private static String createDescription(boolean isCalibrated, SummaryMetadata summary) {
+      StringBuilder sb = new StringBuilder("ImageJ=").append(ImageJ.VERSION).append('\n');
+      if (isCalibrated) {
+         sb.append("unit=um\n");
+         if (summary != null && summary.getZStepUm() != null) {
+            sb.append("spacing=").append(summary.getZStepUm()).append('\n');
+         }
+         if (summary != null && summary.getWaitInterval() != null) {
+            sb.append("finterval=").append(summary.getWaitInterval() / 1000.0).append('\n');
+         }
+      }
+      return sb.toString();
+   }
+
+   private static void putEntry(ByteBuffer buffer, short tag, short type,
+                                int count, int value) {
+      buffer.putShort(tag).putShort(type).putInt(count).putInt(value);
+   }
+
+   private static void putShortEntry(ByteBuffer buffer, short tag, int value) {
+      // A single SHORT value is left-justified in the value field
+      buffer.putShort(tag).putShort(SHORT).putInt(1)
+            .putShort((short) value).putShort((short) 0);
+   }
+
+   private static void putPixels(ByteBuffer buffer, Object pixels, boolean isRGB) {
+      if (isRGB) {
+         // Our RGB pixels are stored as BGRA
+         byte[] bgra = (byte[]) pixels;
+         for (int i = 0; i < bgra.length; i += 4) {
+            buffer.put(bgra[i + 2]).put(bgra[i + 1]).put(bgra[i]);
+         }
+      } else if (pixels instanceof byte[]) {
+         buffer.put((byte[]) pixels);
+      } else {
+         short[] shorts = (short[]) pixels;
+         buffer.asShortBuffer().put(shorts);
+         buffer.position(buffer.position() + 2 * shorts.length);
+      }
+   }
+}
@@ -0,0 +1,504 @@
+package org.micromanager.data.internal;
+
+import com.google.common.eventbus.Subscribe;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.ImagesDifferInSizeException;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.RewritableStorage;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.utils.ReportingUtils;
+
+
+/**
+ * RAM-based storage that keeps pixel data outside of the Java heap.
+ *
+ * <p>Pixel planes are copied into large slabs that are either direct
+ * ByteBuffers or memory-mapped regions of a temporary file. Only the Coords,
+ * Metadata and a slot number are kept on the heap per image, so that the
+ * garbage collector does not need to trace (or copy) gigabytes of pixels
+ * during long acquisitions. Slots freed by deleted images are recycled.</p>
+ *
+ * <p>Optionally, the storage can act as a ring buffer: when a maximum number
+ * of time points is set, adding an image for a new time point evicts all
+ * images of the oldest time point(s). An ImageDeletedEvent, carrying only the
+ * coords (the pixels are not copied back to the heap), is posted on the
+ * datastore for each evicted image. When all time points are in use, an image
+ * for a time point older than all of them is not stored at all.</p>
+ *
+ * <p>Images handed out by this storage hold a heap copy of the pixels, so they
+ * stay valid when their slot is later reused.</p>
+ */
+public final class StorageOffHeap implements RewritableStorage {
+   private static final String SHOULD_USE_OFF_HEAP =
+         "keep pixels of RAM-based acquisitions outside the Java heap";
+   private static final String SHOULD_USE_MEMORY_MAPPED_FILE =
+         "back off-heap RAM storage with a memory-mapped temporary file";
+   private static final String MAX_TIME_POINTS =
+         "maximum number of time points kept in off-heap RAM storage";
+
+   // Slabs are limited to 2 GB by ByteBuffer indexing; stay well below that
+   // so that allocation (or mapping) of a new slab stays cheap.
+   private static final long SLAB_BYTES = 256L * 1024L * 1024L;
+
+   private final DefaultDatastore store_;
+   private final boolean fileBacked_;
+   private final int maxTimePoints_;
+
+   // Plane layout, fixed by the first image
+   private int width_ = -1;
+   private int height_ = -1;
+   private int bytesPerPixel_;
+   private int numComponents_;
+   private int bytesPerComponent_;
+   private int planeBytes_;
+   private int planesPerSlab_;
+
+   private final List<ByteBuffer> slabs_ = new ArrayList<>();
+   private File backingFile_;
+   private RandomAccessFile backingRaFile_;
+   private FileChannel backingChannel_;
+
+   // Per-slot bookkeeping.  Arrays grow as slabs are added.
+   private Coords[] slotCoords_ = new Coords[0];
+   private Metadata[] slotMetadata_ = new Metadata[0];
+   private int nextFreshSlot_ = 0;
+   private int[] freeSlots_ = new int[16];
+   private int numFreeSlots_ = 0;
+
+   private HashMap<Coords, Integer> coordsToSlot_;
+   private CoordsIndex coordsIndex_;
+   private final TreeMap<Integer, List<Coords>> timePointToCoords_ = new TreeMap<>();
+   private Coords anyCoords_;
+   private Coords maxIndex_;
+   // Set when images were removed, as maxIndex_ may then be too large
+   private boolean maxIndexStale_ = false;
+   private SummaryMetadata summaryMetadata_;
+   private final Set<String> axesInUse_;
+
+   /**
+    * Creates off-heap storage using the settings stored in the user profile.
+    *
+    * @param store Datastore that "owns" this storage.
+    */
+   public StorageOffHeap(Datastore store) {
+      this(store, getShouldUseMemoryMappedFile(), getMaxTimePoints());
+   }
+
+   /**
+    * Creates off-heap storage.
+    *
+    * @param store         Datastore that "owns" this storage.
+    * @param fileBacked    when true, slabs are memory-mapped regions of a temporary
+    *                      file (deleted on close), otherwise direct ByteBuffers.
+    * @param maxTimePoints when larger than 0, only this many time points are kept,
+    *                      and the oldest time points are evicted to make room.
+    */
+   public StorageOffHeap(Datastore store, boolean fileBacked, int maxTimePoints) {
+      store_ = (DefaultDatastore) store;
+      fileBacked_ = fileBacked;
+      maxTimePoints_ = maxTimePoints;
+      coordsToSlot_ = new HashMap<>();
+      coordsIndex_ = new CoordsIndex();
+      maxIndex_ = new DefaultCoords.Builder().build();
+      axesInUse_ = new TreeSet<>();
+      summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
+      // It is imperative that we be notified of new images before anyone who
+      // wants to retrieve the images from the store is notified.
+      store_.registerForEvents(this, 0);
+   }
+
+   @Override
+   public void putImage(Image image) throws IOException {
+      List<Coords> evicted = putImageEvicting(image);
+      // Post outside of our lock, so that subscribers can query us from
+      // other threads
+      for (Coords evictedCoords : evicted) {
+         store_.bus_.post(new DefaultImageDeletedEvent(evictedCoords, store_));
+      }
+   }
+
+   /**
+    * Stores the image, evicting old time points if needed.
+    *
+    * @return the coords of the images that were evicted
+    */
+   private synchronized List<Coords> putImageEvicting(Image image) throws IOException {
+      if (coordsToSlot_ == null) {
+         throw new IOException("Storage has been closed");
+      }
+      // Compare against the stored layout rather than getAnyImage(), which
+      // would copy a full plane out of the slabs.
+      if (width_ < 0) {
+         ImageSizeChecker.checkImageSizeInSummary(summaryMetadata_, image);
+         initializeLayout(image);
+      } else if (image.getWidth() != width_ || image.getHeight() != height_
+            || image.getBytesPerPixel() != bytesPerPixel_) {
+         throw new ImagesDifferInSizeException();
+      }
+
+      Coords coords = image.getCoords();
+      List<Coords> evicted = new ArrayList<>();
+      if (maxTimePoints_ > 0 && !timePointToCoords_.containsKey(coords.getT())
+            && timePointToCoords_.size() >= maxTimePoints_) {
+         if (coords.getT() < timePointToCoords_.firstKey()) {
+            // This time point would be the oldest, and evicted right away
+            return evicted;
+         }
+         while (timePointToCoords_.size() >= maxTimePoints_) {
+            evictTimePoint(timePointToCoords_.firstKey(), evicted);
+         }
+      }
+
+      Integer slot = coordsToSlot_.get(coords);
+      if (slot == null) {
+         slot = allocateSlot();
+         coordsToSlot_.put(coords, slot);
+         timePointToCoords_.computeIfAbsent(coords.getT(), k -> new ArrayList<>())
+               .add(coords);
+         coordsIndex_.add(coords);
+      }
+      writePixels(slot, image.getRawPixels());
+      slotCoords_[slot] = coords;
+      slotMetadata_[slot] = image.getMetadata();
+      if (anyCoords_ == null) {
+         anyCoords_ = coords;
+      }
+
+      for (String axis : coords.getAxes()) {
+         axesInUse_.add(axis);
+         if (maxIndex_.getIndex(axis) < coords.getIndex(axis)) {
+            maxIndex_ = maxIndex_.copyBuilder()
+                  .index(axis, coords.getIndex(axis))
+                  .build();
+         }
+      }
+      return evicted;
+   }
+
+   private void initializeLayout(Image image) {
+      width_ = image.getWidth();
+      height_ = image.getHeight();
+      bytesPerPixel_ = image.getBytesPerPixel();
+      numComponents_ = image.getNumComponents();
+      bytesPerComponent_ = image.getBytesPerComponent();
+      planeBytes_ = width_ * height_ * bytesPerPixel_;
+      planesPerSlab_ = (int) Math.max(1, SLAB_BYTES / planeBytes_);
+   }
+
+   private int allocateSlot() throws IOException {
+      if (numFreeSlots_ > 0) {
+         numFreeSlots_--;
+         return freeSlots_[numFreeSlots_];
+      }
+      int slot = nextFreshSlot_;
+      if (slot >= slabs_.size() * planesPerSlab_) {
+         addSlab();
+      }
+      nextFreshSlot_++;
+      return slot;
+   }
+
+   private void releaseSlot(int slot) {
+      slotCoords_[slot] = null;
+      slotMetadata_[slot] = null;
+      if (numFreeSlots_ == freeSlots_.length) {
+         freeSlots_ = Arrays.copyOf(freeSlots_, freeSlots_.length * 2);
+      }
+      freeSlots_[numFreeSlots_] = slot;
+      numFreeSlots_++;
+   }
+
+   private void addSlab() throws IOException {
+      long slabBytes = (long) planesPerSlab_ * planeBytes_;
+      ByteBuffer slab;
+      if (fileBacked_) {
+         if (backingChannel_ == null) {
+            backingFile_ = File.createTempFile("mm_offheap_", ".raw");
+            backingFile_.deleteOnExit();
+            backingRaFile_ = new RandomAccessFile(backingFile_, "rw");
+            backingChannel_ = backingRaFile_.getChannel();
+         }
+         slab = backingChannel_.map(FileChannel.MapMode.READ_WRITE,
+               slabs_.size() * slabBytes, slabBytes);
+      } else {
+         slab = ByteBuffer.allocateDirect((int) slabBytes);
+      }
+      slab.order(BufferTools.NATIVE_ORDER);
+      slabs_.add(slab);
+
+      int numSlots = slabs_.size() * planesPerSlab_;
+      slotCoords_ = Arrays.copyOf(slotCoords_, numSlots);
+      slotMetadata_ = Arrays.copyOf(slotMetadata_, numSlots);
+   }
+
+   /**
+    * Returns a view of the slab region belonging to the given slot, positioned
+    * at the start of the plane and limited to its end.
+    */
+   private ByteBuffer slotView(int slot) {
+      ByteBuffer view = slabs_.get(slot / planesPerSlab_).duplicate()
+            .order(BufferTools.NATIVE_ORDER);
+      int offset = (slot % planesPerSlab_) * planeBytes_;
+      view.limit(offset + planeBytes_).position(offset);
+      return view;
+   }
+
+   private void writePixels(int slot, Object pixels) {
+      ByteBuffer view = slotView(slot);
+      if (pixels instanceof byte[]) {
+         view.put((byte[]) pixels, 0, planeBytes_);
+      } else if (pixels instanceof short[]) {
+         view.asShortBuffer().put((short[]) pixels, 0, planeBytes_ / 2);
+      } else {
+         throw new IllegalArgumentException("Unsupported pixel data type "
+               + pixels.getClass());
+      }
+   }
+
+   private Image readImage(int slot) {
+      ByteBuffer view = slotView(slot);
+      Object pixels;
+      if (bytesPerComponent_ == 1) {
+         byte[] bytes = new byte[planeBytes_];
+         view.get(bytes);
+         pixels = bytes;
+      } else {
+         short[] shorts = new short[planeBytes_ / 2];
+         view.asShortBuffer().get(shorts);
+         pixels = shorts;
+      }
+      return new DefaultImage(pixels, width_, height_, bytesPerPixel_,
+            numComponents_, slotCoords_[slot], slotMetadata_[slot]);
+   }
+
+   private void evictTimePoint(int timePoint, List<Coords> evicted) {
+      for (Coords coords : timePointToCoords_.remove(timePoint)) {
+         evicted.add(coords);
+         removeFromIndices(coords);
+      }
+   }
+
+   private void removeFromIndices(Coords coords) {
+      Integer slot = coordsToSlot_.remove(coords);
+      if (slot != null) {
+         releaseSlot(slot);
+      }
+      coordsIndex_.remove(coords);
+      maxIndexStale_ = true;
+      if (coords.equals(anyCoords_)) {
+         anyCoords_ = coordsToSlot_.isEmpty() ? null : coordsToSlot_.keySet().iterator().next();
+      }
+   }
+
+   @Override
+   public void freeze() {
+      // The Datastore handles making certain writes don't occur, and we don't
+      // do anything special to "finish" storing data, so this is a no-op.
+   }
+
+   @Override
+   public synchronized Image getImage(Coords coords) {
+      if (coordsToSlot_ == null) {
+         return null;
+      }
+      Integer slot = coordsToSlot_.get(coords);
+      if (slot == null) {
+         return null;
+      }
+      return readImage(slot);
+   }
+
+   @Override
+   public synchronized Image getAnyImage() {
+      if (anyCoords_ == null) {
+         return null;
+      }
+      return getImage(anyCoords_);
+   }
+
+   @Override
+   public synchronized List<Image> getImagesMatching(Coords coords) {
+      List<String> ignoredAxes = new ArrayList<>();
+      for (String axis : axesInUse_) {
+         if (!coords.getAxes().contains(axis)) {
+            ignoredAxes.add(axis);
+         }
+      }
+      return getImagesIgnoringAxes(coords, ignoredAxes.toArray(new String[0]));
+   }
+
+   @Override
+   public synchronized List<Image> getImagesIgnoringAxes(Coords coords,
+                                                         String... ignoreTheseAxes) {
+      if (coordsToSlot_ == null) {
+         return null;
+      }
+      List<Image> result = new ArrayList<>();
+      for (Coords match : coordsIndex_.getMatching(coords, ignoreTheseAxes)) {
+         result.add(readImage(coordsToSlot_.get(match)));
+      }
+      return result;
+   }
+
+   @Override
+   public synchronized Iterable<Coords> getUnorderedImageCoords() {
+      return new ArrayList<>(coordsToSlot_.keySet());
+   }
+
+   @Override
+   public synchronized boolean hasImage(Coords coords) {
+      return coordsToSlot_ != null && coordsToSlot_.containsKey(coords);
+   }
+
+   @Override
+   public synchronized int getMaxIndex(String axis) {
+      return getMaxIndices().getIndex(axis);
+   }
+
+   @Override
+   public List<String> getAxes() {
+      return summaryMetadata_.getOrderedAxes();
+   }
+
+   @Override
+   public synchronized Coords getMaxIndices() {
+      if (maxIndexStale_ && coordsToSlot_ != null) {
+         Coords maxIndex = new DefaultCoords.Builder().build();
+         for (Coords coords : coordsToSlot_.keySet()) {
+            for (String axis : coords.getAxes()) {
+               if (maxIndex.getIndex(axis) < coords.getIndex(axis)) {
+                  maxIndex = maxIndex.copyBuilder()
+                        .index(axis, coords.getIndex(axis)).build();
+               }
+            }
+         }
+         maxIndex_ = maxIndex;
+         maxIndexStale_ = false;
+      }
+      return maxIndex_;
+   }
+
+   @Override
+   public SummaryMetadata getSummaryMetadata() {
+      return summaryMetadata_;
+   }
+
+   /**
+    * Receive the new summary through an event.  This is guaranteed to happen before
+    * putImage is called.
+    *
+    * @param event this gives use the summary metadata
+    */
+   @Subscribe
+   public void onNewSummary(DataProviderHasNewSummaryMetadataEvent event) {
+      summaryMetadata_ = event.getSummaryMetadata();
+   }
+
+   @Override
+   public synchronized int getNumImages() {
+      return coordsToSlot_ == null ? 0 : coordsToSlot_.size();
+   }
+
+   /**
+    * Returns the number of bytes of pixel data currently reserved outside of the
+    * Java heap (either as direct memory or as mapped file regions).
+    *
+    * @return bytes reserved for pixel data.
+    */
+   public synchronized long getReservedBytes() {
+      return (long) slabs_.size() * planesPerSlab_ * planeBytes_;
+   }
+
+   @Override
+   public synchronized void deleteImage(Coords coords) throws IllegalArgumentException {
+      if (coordsToSlot_ == null || !coordsToSlot_.containsKey(coords)) {
+         throw new IllegalArgumentException("Storage does not contain image at " + coords);
+      }
+      List<Coords> sameTimePoint = timePointToCoords_.get(coords.getT());
+      if (sameTimePoint != null) {
+         sameTimePoint.remove(coords);
+         if (sameTimePoint.isEmpty()) {
+            timePointToCoords_.remove(coords.getT());
+         }
+      }
+      removeFromIndices(coords);
+   }
+
+   @Override
+   public synchronized void close() {
+      coordsToSlot_ = null;
+      coordsIndex_ = null;
+      timePointToCoords_.clear();
+      slotCoords_ = new Coords[0];
+      slotMetadata_ = new Metadata[0];
+      // Direct and mapped buffers are released once they are garbage collected
+      slabs_.clear();
+      if (backingChannel_ != null) {
+         try {
+            backingChannel_.close();
+            backingRaFile_.close();
+         } catch (IOException ioe) {
+            ReportingUtils.logError(ioe, "Failed to close off-heap backing file");
+         }
+         backingChannel_ = null;
+         backingRaFile_ = null;
+         // On Windows this fails until the mappings are collected; deleteOnExit
+         // will clean up in that case.
+         if (!backingFile_.delete()) {
+            ReportingUtils.logMessage("Could not yet delete " + backingFile_);
+         }
+      }
+   }
+
+   public static boolean getShouldUseOffHeap() {
+      return MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .getBoolean(SHOULD_USE_OFF_HEAP, false);
+   }
+
+   public static void setShouldUseOffHeap(boolean shouldUse) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .putBoolean(SHOULD_USE_OFF_HEAP, shouldUse);
+   }
+
+   public static boolean getShouldUseMemoryMappedFile() {
+      return MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .getBoolean(SHOULD_USE_MEMORY_MAPPED_FILE, false);
+   }
+
+   public static void setShouldUseMemoryMappedFile(boolean shouldUse) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .putBoolean(SHOULD_USE_MEMORY_MAPPED_FILE, shouldUse);
+   }
+
+   /**
+    * Maximum number of time points kept by off-heap storage created with the
+    * profile settings.  0 (the default) means no limit.
+    *
+    * @return maximum number of time points, or 0 for unbounded storage.
+    */
+   public static int getMaxTimePoints() {
+      return MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .getInteger(MAX_TIME_POINTS, 0);
+   }
+
+   public static void setMaxTimePoints(int maxTimePoints) {
+      MMStudio.getInstance().profile().getSettings(StorageOffHeap.class)
+            .putInteger(MAX_TIME_POINTS, maxTimePoints);
+   }
+}
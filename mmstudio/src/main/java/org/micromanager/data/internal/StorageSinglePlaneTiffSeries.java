@@ -31,7 +31,6 @@ import com.google.gson.JsonParser;
 import com.google.gson.JsonSyntaxException;
 import com.google.gson.stream.JsonReader;
 import ij.ImagePlus;
-import ij.io.FileSaver;
 import ij.io.Opener;
 import ij.process.ByteProcessor;
 import ij.process.ColorProcessor;
@@ -53,6 +52,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.micromanager.PropertyMap;
@@ -63,18 +67,35 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.JavaUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.TextUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
 
 
 /**
  * This class provides Image storage backed by a file system in which each
  * file contains a single 2D image plane. It descends from the old
  * TaggedImageStorageDiskDefault class.
+ *
+ * <p>Images are written by a pool of threads, so that putImage() returns
+ * as soon as the image is queued; it only blocks when more than a set number
+ * of images are waiting to be written.  Until an image is on disk, requests
+ * for it are answered from memory.  The metadata.txt files are written by a
+ * separate thread, in the order in which images were added.</p>
  */
 public final class StorageSinglePlaneTiffSeries implements Storage {
+   private static final String NUM_WRITING_THREADS =
+         "number of threads used to write single plane TIFF files in parallel";
+   private static final String MAX_PENDING_IMAGES =
+         "maximum number of images waiting to be written before acquisition is slowed down";
+   private static final int DEFAULT_NUM_WRITING_THREADS = 4;
+   private static final int DEFAULT_MAX_PENDING_IMAGES = 32;
+   private static final int METADATA_BUFFER_SIZE = 1 << 16;
+   private static final Gson GSON = new GsonBuilder().disableHtmlEscaping()
+         .setPrettyPrinting().create();
    private static final HashSet<String> ALLOWED_AXES = new HashSet<>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
                Coords.STAGE_POSITION));
@@ -84,7 +105,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    private boolean amLoading_;
    private final HashMap<Integer, Writer> metadataStreams_;
    private boolean isDatasetWritable_;
-   private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
+   private volatile SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
    private final ConcurrentHashMap<Coords, String> coordsToFilename_;
    private Map<Coords, List<Coords>> coordsIndexedMissingC_;
    private final HashMap<Integer, String> positionIndexToName_;
@@ -93,6 +114,22 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    private Coords maxIndices_;
    private boolean isMultiPosition_;
    private Image firstImage_;
+   private final Set<String> createdDirectories_ = new HashSet<>();
+   // Image files are written by imageWritingExecutor_, in any order;
+   // metadata.txt is written, in order, by metadataWritingExecutor_, which
+   // is the only thread that touches metadataStreams_ once writing started.
+   private ThreadPoolExecutor imageWritingExecutor_;
+   private ThreadPoolExecutor metadataWritingExecutor_;
+   private final int numWritingThreads_;
+   private final int maxPendingImages_;
+   private Semaphore pendingImagePermits_;
+   private final ConcurrentHashMap<Coords, Image> pendingImages_ =
+         new ConcurrentHashMap<>();
+   private final Set<Writer> unflushedMetadataStreams_ = new HashSet<>();
+   private final AtomicInteger numPendingImages_ = new AtomicInteger(0);
+   private volatile int maxNumPendingImages_ = 0;
+   private volatile int numBackpressureStalls_ = 0;
+   private volatile long backpressureStallNs_ = 0;
 
    /**
     * Implements storing single plane TIff series.
@@ -124,6 +161,13 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       amLoading_ = false;
       coordsIndexedMissingC_ = new HashMap<>();
       isMultiPosition_ = true;
+      if (isDatasetWritable_) {
+         numWritingThreads_ = Math.max(1, getNumWritingThreads());
+         maxPendingImages_ = Math.max(1, getMaxPendingImages());
+      } else {
+         numWritingThreads_ = 1;
+         maxPendingImages_ = 1;
+      }
 
       // Note: this will throw an error if there is no existing data set
       if (!isDatasetWritable_) {
@@ -176,21 +220,21 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          fileName = positionPrefix + create14FileName(image.getCoords());
       }
       if (!amLoading_) {
-         int imagePos = Math.max(0, image.getCoords().getStagePosition());
-         if (!metadataStreams_.containsKey(imagePos)) {
-            // No metadata for image at this location, means we haven't
-            // written to its location before.
-            try {
-               openNewDataSet(image);
-            } catch (Exception ex) {
-               ReportingUtils.logError(ex);
-            }
+         if (firstImage_ == null) {
+            firstImage_ = image;
+         } else {
+            ImageSizeChecker.checkImageSizes(firstImage_, image);
          }
+         // The directories must exist before the image is handed to the
+         // writing threads.
          String posName = image.getMetadata().getPositionName("");
+         String dirName = dir_;
          if (posName != null && posName.length() > 0
                && !posName.contentEquals("null")) {
             // Create a directory to hold images for this stage position.
-            String dirName = dir_ + "/" + posName;
+            dirName = dir_ + "/" + posName;
+         }
+         if (createdDirectories_.add(dirName)) {
             try {
                JavaUtils.createDirectory(dirName);
             } catch (Exception e) {
@@ -208,12 +252,9 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          NonPropertyMapJSONFormats.metadata().addToGson(jo,
                ((DefaultMetadata) imgMetadata).toPropertyMap());
 
-         Gson gson = new GsonBuilder().disableHtmlEscaping()
-               .setPrettyPrinting().create();
-         String metadataJSON = gson.toJson(jo);
+         String metadataJSON = GSON.toJson(jo);
 
-         saveImageFile(image, dir_, fileName, metadataJSON);
-         writeFrameMetadata(image, metadataJSON, fileName);
+         writeImage(image.copyWithMetadata(imgMetadata), fileName, metadataJSON);
       }
 
       // Update our Coords indices
@@ -239,8 +280,137 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       }
    }
 
+   /**
+    * Queues the image file and its metadata.txt entries for writing.
+    */
+   private void writeImage(final Image image, final String fileName,
+                           final String metadataJSON) {
+      if (imageWritingExecutor_ == null) {
+         imageWritingExecutor_ = new ThreadPoolExecutor(numWritingThreads_,
+               numWritingThreads_, 0, TimeUnit.NANOSECONDS,
+               new LinkedBlockingQueue<>(),
+               ThreadFactoryFactory.createThreadFactory("StorageSinglePlaneTiffSeries"));
+         metadataWritingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
+               TimeUnit.NANOSECONDS, new LinkedBlockingQueue<>(),
+               ThreadFactoryFactory.createThreadFactory(
+                     "StorageSinglePlaneTiffSeries metadata"));
+         pendingImagePermits_ = new Semaphore(maxPendingImages_);
+      }
+      waitForSpaceInWritingQueue();
+
+      final Coords coords = image.getCoords();
+      pendingImages_.put(coords, image);
+      final SummaryMetadata summary = summaryMetadata_;
+      metadataWritingExecutor_.submit(() -> {
+         int pos = Math.max(0, coords.getStagePosition());
+         if (!metadataStreams_.containsKey(pos)) {
+            // No metadata for image at this location, means we haven't
+            // written to its location before.
+            try {
+               openNewDataSet(image);
+            } catch (Exception ex) {
+               ReportingUtils.logError(ex);
+            }
+         }
+         writeFrameMetadata(image, metadataJSON, fileName);
+         flushMetadataStreamsIfIdle();
+      });
+      imageWritingExecutor_.submit(() -> {
+         try {
+            saveImageFile(image, summary, fileName, metadataJSON);
+         } finally {
+            // The same coords may have been written again in the meantime
+            pendingImages_.remove(coords, image);
+            numPendingImages_.decrementAndGet();
+            pendingImagePermits_.release();
+         }
+      });
+   }
+
+   private void waitForSpaceInWritingQueue() {
+      if (!pendingImagePermits_.tryAcquire()) {
+         if (numBackpressureStalls_ == 0) {
+            ReportingUtils.logMessage("Warning: writing queue behind by "
+                  + numPendingImages_.get() + " images.");
+         }
+         numBackpressureStalls_++;
+         long start = System.nanoTime();
+         pendingImagePermits_.acquireUninterruptibly();
+         backpressureStallNs_ += System.nanoTime() - start;
+      }
+      int numPending = numPendingImages_.incrementAndGet();
+      if (numPending > maxNumPendingImages_) {
+         maxNumPendingImages_ = numPending;
+      }
+   }
+
+   /**
+    * Waits until all queued images and metadata are written, and stops the
+    * writing threads.
+    */
+   private void finishWriting() {
+      if (imageWritingExecutor_ == null || imageWritingExecutor_.isShutdown()) {
+         return;
+      }
+      imageWritingExecutor_.shutdown();
+      metadataWritingExecutor_.shutdown();
+      try {
+         for (ThreadPoolExecutor executor : Arrays.asList(
+               imageWritingExecutor_, metadataWritingExecutor_)) {
+            int i = 0;
+            while (!executor.awaitTermination(4, TimeUnit.SECONDS)) {
+               ReportingUtils.logMessage(
+                     "Waiting for image files to finish writing (" + i + ")...");
+               i++;
+            }
+         }
+      } catch (InterruptedException e) {
+         ReportingUtils.logError("File finishing thread interrupted");
+         Thread.interrupted();
+      }
+      if (numBackpressureStalls_ > 0) {
+         ReportingUtils.logMessage("Single plane TIFF writing could not keep up "
+               + numBackpressureStalls_ + " times, waited for a total of "
+               + getBackpressureStallTimeMs() + " ms; at most "
+               + maxNumPendingImages_ + " images were waiting to be written");
+      }
+   }
+
+   /**
+    * Returns the number of images that were handed to this storage but are
+    * not yet written to disk.
+    */
+   public int getNumPendingImages() {
+      return numPendingImages_.get();
+   }
+
+   /**
+    * Returns the largest number of images that were waiting to be written at
+    * any one time.
+    */
+   public int getMaxNumPendingImages() {
+      return maxNumPendingImages_;
+   }
+
+   /**
+    * Returns how often putImage() had to wait because too many images were
+    * waiting to be written.
+    */
+   public int getNumBackpressureStalls() {
+      return numBackpressureStalls_;
+   }
+
+   /**
+    * Returns the total time putImage() spent waiting for images to be
+    * written, in milliseconds.
+    */
+   public long getBackpressureStallTimeMs() {
+      return backpressureStallNs_ / 1000000;
+   }
+
    @Override
    public void freeze() {
+      finishWriting();
       closeMetadataStreams();
       isDatasetWritable_ = false;
       saveComments();
@@ -256,6 +426,11 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
 
    @Override
    public Image getImage(Coords coords) {
+      Image pending = pendingImages_.get(coords);
+      if (pending != null) {
+         // Not on disk yet
+         return pending;
+      }
       if (coordsToFilename_.get(coords) == null) {
          // We don't have that image.
          ReportingUtils.logError("Asked for image at " + coords + " that we don't know about");
@@ -487,9 +662,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          JsonObject jo = new JsonObject();
          NonPropertyMapJSONFormats.coords().addToGson(jo,
                ((DefaultCoords) image.getCoords()).toPropertyMap());
-         Gson gson = new GsonBuilder().disableHtmlEscaping()
-               .setPrettyPrinting().create();
-         writeJSONMetadata(pos, gson.toJson(jo), coordsKey);
+         writeJSONMetadata(pos, GSON.toJson(jo), coordsKey);
 
          String mdKey = "Metadata-" + fileName;
          writeJSONMetadata(pos, metadataJSON, mdKey);
@@ -510,7 +683,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
          }
          metadataStream.write("\"" + title + "\": ");
          metadataStream.write(json);
-         metadataStream.flush();
+         unflushedMetadataStreams_.add(metadataStream);
          firstElement_ = false;
       } catch (IOException e) {
          ReportingUtils.logError(e);
@@ -518,99 +691,35 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
    }
 
 
-   private void saveImageFile(Image image, String path, String tiffFileName,
-                              String metadataJSON) {
-      if (firstImage_ == null) {
-         firstImage_ = image;
-      } else {
-         ImageSizeChecker.checkImageSizes(firstImage_, image);
+   /**
+    * Flushes metadata.txt once no more entries are waiting to be written, so
+    * that entries are written in batches while images arrive quickly, but do
+    * not linger in memory when acquisition pauses.
+    */
+   private void flushMetadataStreamsIfIdle() {
+      if (!metadataWritingExecutor_.getQueue().isEmpty()) {
+         return;
       }
       try {
-         int width = image.getWidth();
-         int height = image.getHeight();
-         Object pixels = image.getRawPixels();
-         int bytesPerPixel = image.getBytesPerPixel();
-         int numComponents = image.getNumComponents();
-         ImageProcessor proc;
-         if (numComponents == 3 && bytesPerPixel == 4) {
-            // 32-bit RGB
-            proc = new ColorProcessor(width, height);
-            int[] rgbPixels = new int[width * height];
-            byte[] rawPixels = (byte[]) pixels;
-            for (int i = 0; i < width * height; i++) {
-               rgbPixels[i] = (rawPixels[4 * i + 3] << (Byte.SIZE * 3));
-               rgbPixels[i] |= (rawPixels[4 * i + 2] & 0xFF) << (Byte.SIZE * 2);
-               rgbPixels[i] |= (rawPixels[4 * i + 1] & 0xFF) << (Byte.SIZE * 1);
-               rgbPixels[i] |= (rawPixels[4 * i] & 0xFF);
-            }
-            ((ColorProcessor) proc).setPixels(rgbPixels);
-         } else if (numComponents == 1 && bytesPerPixel == 1) {
-            // Byte
-            proc = new ByteProcessor(width, height);
-            proc.setPixels((byte[]) pixels);
-         } else if (numComponents == 1 && bytesPerPixel == 2) {
-            // Short
-            proc = new ShortProcessor(width, height);
-            proc.setPixels((short[]) pixels);
-         } else {
-            throw new IllegalArgumentException(String.format(
-                  "Unexpected image format with %d bytes per pixel and %d components",
-                  bytesPerPixel, numComponents));
+         for (Writer metadataStream : unflushedMetadataStreams_) {
+            metadataStream.flush();
          }
-         saveImageProcessor(proc, image, path, tiffFileName, metadataJSON);
-      } catch (IllegalArgumentException ex) {
-         ReportingUtils.logError(ex);
+      } catch (IOException e) {
+         ReportingUtils.logError(e);
       }
+      unflushedMetadataStreams_.clear();
    }
 
-
-   private void saveImageProcessor(ImageProcessor ip, Image image,
-                                   String path, String tiffFileName, String metadataJSON) {
-      // TODO: why is this check here?
-      if (ip == null) {
-         return;
-      }
-      ImagePlus imp = new ImagePlus(path + "/" + tiffFileName, ip);
-      applyPixelSizeCalibration(imp, image.getMetadata());
-      saveImagePlus(imp, image, path, tiffFileName, metadataJSON);
-   }
-
-   private void applyPixelSizeCalibration(final ImagePlus ip,
-                                          Metadata metadata) {
-      Double pixSizeUm = metadata.getPixelSizeUm();
-      if (pixSizeUm != null && pixSizeUm > 0) {
-         ij.measure.Calibration cal = new ij.measure.Calibration();
-         cal.setUnit("um");
-         cal.pixelWidth = pixSizeUm;
-         cal.pixelHeight = pixSizeUm;
-         if (summaryMetadata_.getWaitInterval() != null) {
-            cal.frameInterval = summaryMetadata_.getWaitInterval() / 1000.0;
-         }
-         if (summaryMetadata_.getZStepUm() != null) {
-            cal.pixelDepth = summaryMetadata_.getZStepUm();
-         }
-         ip.setCalibration(cal);
+   private void saveImageFile(Image image, SummaryMetadata summary,
+                              String tiffFileName, String metadataJSON) {
+      try {
+         SinglePlaneTiffWriter.write(new File(dir_ + "/" + tiffFileName), image,
+               summary, metadataJSON);
+      } catch (IOException | IllegalArgumentException ex) {
+         ReportingUtils.logError(ex, "Failed to write " + tiffFileName);
       }
    }
 
-
-   /**
-    * Saves an ImageJ ImagePlus object.
-    *
-    * @param imp          The ImagePlus to be saved.
-    * @param image        Not used
-    * @param path         Location on disk to save to.
-    * @param tiffFileName Temporary name to be sued.
-    * @param metadataJSON Metadata in JSON format
-    */
-   public void saveImagePlus(ImagePlus imp, Image image,
-                             String path, String tiffFileName, String metadataJSON) {
-      imp.setProperty("Info", metadataJSON);
-
-      FileSaver fs = new FileSaver(imp);
-      fs.saveAsTiff(path + "/" + tiffFileName);
-   }
-
    private void openNewDataSet(Image image) throws IOException, Exception {
       String posName = image.getMetadata().getPositionName("");
       int pos = image.getCoords().getStagePosition();
@@ -630,7 +739,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       JavaUtils.createDirectory(dir_ + "/" + posName);
       firstElement_ = true;
       Writer metadataStream = new BufferedWriter(new FileWriter(dir_ + "/"
-            + posName + "/metadata.txt"));
+            + posName + "/metadata.txt"), METADATA_BUFFER_SIZE);
       metadataStreams_.put(pos, metadataStream);
       metadataStream.write("{" + "\n");
       // TODO: this method of extracting the date is extremely hacky and
@@ -650,8 +759,7 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
       PropertyMap formatPmap = ((DefaultImage) image).formatToPropertyMap();
       PropertyKey.IJ_TYPE.storeInGsonObject(formatPmap, jo);
       PropertyKey.PIXEL_TYPE.storeInGsonObject(formatPmap, jo);
-      Gson gson = new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create();
-      writeJSONMetadata(pos, gson.toJson(jo), "Summary");
+      writeJSONMetadata(pos, GSON.toJson(jo), "Summary");
    }
 
    private void closeMetadataStreams() {
@@ -865,7 +973,28 @@ public final class StorageSinglePlaneTiffSeries implements Storage {
 
    @Override
    public void close() {
+      finishWriting();
       saveComments();
       coordsIndexedMissingC_ = null;
    }
-}
\ No newline at end of file
+
+   public static int getNumWritingThreads() {
+      return MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class)
+            .getInteger(NUM_WRITING_THREADS, DEFAULT_NUM_WRITING_THREADS);
+   }
+
+   public static void setNumWritingThreads(int numThreads) {
+      MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class)
+            .putInteger(NUM_WRITING_THREADS, numThreads);
+   }
+
+   public static int getMaxPendingImages() {
+      return MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class)
+            .getInteger(MAX_PENDING_IMAGES, DEFAULT_MAX_PENDING_IMAGES);
+   }
+
+   public static void setMaxPendingImages(int maxPending) {
+      MMStudio.getInstance().profile().getSettings(StorageSinglePlaneTiffSeries.class)
+            .putInteger(MAX_PENDING_IMAGES, maxPending);
+   }
+}
@@ -0,0 +1,238 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Binary index of a multipage TIFF dataset, written next to the TIFF files
+ * when the dataset is finished.  It holds the location of every plane, so
+ * that the dataset can be reopened without reading the header, summary
+ * metadata and index map of every file.
+ *
+ * <p>Each file is recorded with its size and modification time.  If any file
+ * changed, or TIFF files were added or removed, the index is considered stale
+ * and the dataset is opened by reading the files themselves.</p>
+ *
+ * <p>Format (big endian): magic, version, summary metadata JSON (length
+ * prefixed UTF-8), number of files, and per file: name, size, modification
+ * time, byte order, number of planes, and per plane: channel, z, time and
+ * position index, IFD offset, length in the file, and the minimum and maximum
+ * pixel value (-1 if unknown).</p>
+ *
+ * <p>The pixel value ranges are computed when the dataset is finished, on
+ * the threads that finish the file sets, so that they are known when the
+ * dataset is reopened without reading the pixels.</p>
+ */
+final class DatasetIndex {
+   static final String FILE_NAME = "MultipageTiffIndex.bin";
+   private static final int MAGIC = 0x4d4d5449; // "MMTI"
+   private static final int VERSION = 3;
+
+   static final class Plane {
+      final Coords coords;
+      final long offset;
+      final long length;
+      final long min;
+      final long max;
+
+      Plane(Coords coords, long offset, long length, long min, long max) {
+         this.coords = coords;
+         this.offset = offset;
+         this.length = length;
+         this.min = min;
+         this.max = max;
+      }
+   }
+
+   static final class FileEntry {
+      final String fileName;
+      final ByteOrder byteOrder;
+      final List<Plane> planes;
+      long size;
+      long lastModified;
+
+      FileEntry(String fileName, ByteOrder byteOrder, List<Plane> planes) {
+         this.fileName = fileName;
+         this.byteOrder = byteOrder;
+         this.planes = planes;
+      }
+
+      /**
+       * Returns a copy of this entry with the given pixel value ranges.
+       *
+       * @param ranges Minimum and maximum pixel value by coords; planes
+       *               without entry keep their range
+       */
+      FileEntry withIntensityRanges(Map<Coords, long[]> ranges) {
+         List<Plane> newPlanes = new ArrayList<>(planes.size());
+         for (Plane plane : planes) {
+            long[] range = ranges.get(plane.coords);
+            newPlanes.add(range == null ? plane : new Plane(plane.coords,
+                  plane.offset, plane.length, range[0], range[1]));
+         }
+         FileEntry entry = new FileEntry(fileName, byteOrder, newPlanes);
+         entry.size = size;
+         entry.lastModified = lastModified;
+         return entry;
+      }
+   }
+
+   private final String summaryJSON_;
+   private final List<FileEntry> files_;
+
+   DatasetIndex(String summaryJSON, List<FileEntry> files) {
+      summaryJSON_ = summaryJSON;
+      files_ = files;
+   }
+
+   String getSummaryJSON() {
+      return summaryJSON_;
+   }
+
+   List<FileEntry> getFiles() {
+      return Collections.unmodifiableList(files_);
+   }
+
+   /**
+    * Records the current size and modification time of all files, and writes
+    * the index to the dataset directory.
+    *
+    * @param directory Dataset directory
+    * @throws IOException if writing fails
+    */
+   void write(File directory) throws IOException {
+      for (FileEntry entry : files_) {
+         File f = new File(directory, entry.fileName);
+         entry.size = f.length();
+         entry.lastModified = f.lastModified();
+      }
+      // Write to a temporary file first, so that an interrupted write never
+      // leaves an index that looks valid
+      File tmp = new File(directory, FILE_NAME + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(tmp)))) {
+         out.writeInt(MAGIC);
+         out.writeInt(VERSION);
+         byte[] summary = summaryJSON_.getBytes(StandardCharsets.UTF_8);
+         out.writeInt(summary.length);
+         out.write(summary);
+         out.writeInt(files_.size());
+         for (FileEntry entry : files_) {
+            out.writeUTF(entry.fileName);
+            out.writeLong(entry.size);
+            out.writeLong(entry.lastModified);
+            out.writeBoolean(entry.byteOrder == ByteOrder.BIG_ENDIAN);
+            out.writeInt(entry.planes.size());
+            for (Plane plane : entry.planes) {
+               out.writeInt(plane.coords.getChannel());
+               out.writeInt(plane.coords.getZ());
+               out.writeInt(plane.coords.getT());
+               out.writeInt(plane.coords.getStagePosition());
+               out.writeLong(plane.offset);
+               out.writeLong(plane.length);
+               out.writeLong(plane.min);
+               out.writeLong(plane.max);
+            }
+         }
+      }
+      File target = new File(directory, FILE_NAME);
+      if ((target.exists() && !target.delete()) || !tmp.renameTo(target)) {
+         tmp.delete();
+         throw new IOException("Failed to write " + target);
+      }
+   }
+
+   /**
+    * Reads the index of the given dataset directory.
+    *
+    * @param directory Dataset directory
+    * @return The index, or null if there is none, or if it is unreadable or
+    *     out of date
+    */
+   static DatasetIndex read(File directory) {
+      File indexFile = new File(directory, FILE_NAME);
+      if (!indexFile.isFile()) {
+         return null;
+      }
+      DatasetIndex index;
+      try (DataInputStream in = new DataInputStream(
+            new BufferedInputStream(new FileInputStream(indexFile)))) {
+         if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            return null;
+         }
+         byte[] summary = new byte[in.readInt()];
+         in.readFully(summary);
+         int numFiles = in.readInt();
+         List<FileEntry> files = new ArrayList<>(numFiles);
+         for (int i = 0; i < numFiles; i++) {
+            String fileName = in.readUTF();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            ByteOrder byteOrder = in.readBoolean()
+                  ? ByteOrder.BIG_ENDIAN : ByteOrder.LITTLE_ENDIAN;
+            int numPlanes = in.readInt();
+            List<Plane> planes = new ArrayList<>(numPlanes);
+            for (int j = 0; j < numPlanes; j++) {
+               Coords coords = new DefaultCoords.Builder()
+                     .channel(in.readInt())
+                     .z(in.readInt())
+                     .t(in.readInt())
+                     .stagePosition(in.readInt())
+                     .build();
+               planes.add(new Plane(coords, in.readLong(), in.readLong(),
+                     in.readLong(), in.readLong()));
+            }
+            FileEntry entry = new FileEntry(fileName, byteOrder, planes);
+            entry.size = size;
+            entry.lastModified = lastModified;
+            files.add(entry);
+         }
+         index = new DatasetIndex(new String(summary, StandardCharsets.UTF_8), files);
+      } catch (IOException | RuntimeException e) {
+         ReportingUtils.logError(e, "Ignoring unreadable dataset index " + indexFile);
+         return null;
+      }
+      return index.isUpToDate(directory) ? index : null;
+   }
+
+   private boolean isUpToDate(File directory) {
+      Set<String> indexedNames = new HashSet<>();
+      for (FileEntry entry : files_) {
+         File f = new File(directory, entry.fileName);
+         if (f.length() != entry.size || f.lastModified() != entry.lastModified) {
+            return false;
+         }
+         indexedNames.add(entry.fileName);
+      }
+      // Same heuristics as StorageMultipageTiff uses to find the TIFF files
+      File[] listFiles = directory.listFiles();
+      if (listFiles == null) {
+         return false;
+      }
+      for (File f : listFiles) {
+         String fileName = f.getName();
+         if ((fileName.endsWith(".tif") || fileName.endsWith(".TIF"))
+               && !fileName.startsWith("._") && !indexedNames.contains(fileName)) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
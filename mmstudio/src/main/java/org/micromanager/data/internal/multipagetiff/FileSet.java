@@ -21,7 +21,6 @@
 
 package org.micromanager.data.internal.multipagetiff;
 
-import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
@@ -31,6 +30,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutionException;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -38,8 +38,9 @@ import org.micromanager.data.Metadata;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.micromanager.display.internal.imagestats.ImageStatsCache;
+import org.micromanager.display.internal.imagestats.IntegerComponentStats;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
-import org.micromanager.internal.utils.ProgressBar;
 import org.micromanager.internal.utils.ReportingUtils;
 
 
@@ -57,6 +58,8 @@ class FileSet {
    private String currentTiffFilename_;
    private String currentTiffUUID_;
    private boolean finished_ = false;
+   private boolean writingFinished_ = false;
+   private int numImages_ = 0;
    private final boolean separateMetadataFile_;
    private final boolean splitByXYPosition_;
    private boolean expectedImageOrder_ = true;
@@ -98,11 +101,41 @@ class FileSet {
       return currentTiffFilename_;
    }
 
-   public boolean hasSpaceForFullOMEXML(int mdLength) {
+   public boolean hasSpaceForFullOMEXML(long mdLength) {
       return tiffWriters_.getLast().hasSpaceForFullOMEMetadata(mdLength);
    }
 
-   public void finished(String omeXML, String ijDescription) throws IOException {
+   /**
+    * Finishes the last file of the set, so that all files can be read.  This
+    * happens as soon as the set holds all images it is expected to hold, so
+    * that a position can be finished while later positions are still being
+    * acquired, and otherwise when the dataset is finished.
+    *
+    * @throws IOException can happen
+    */
+   public void finishWriting() throws IOException {
+      if (writingFinished_) {
+         return;
+      }
+      // only need to finish last one here because previous ones in set are finished
+      // as they fill up with images
+      tiffWriters_.getLast().finish();
+      writingFinished_ = true;
+   }
+
+   /**
+    * Adds the metadata that is only known at the end of the acquisition to
+    * all files of the set.  File sets are independent of each other, so that
+    * they can be finished in parallel.
+    *
+    * @param omeXML         OME-XML to be streamed into the first image description
+    * @param ijDescription  ImageJ description
+    * @param summaryComment Comment of the dataset
+    * @param commentsBytes  Comments block, shared by all files of the dataset
+    * @throws IOException can happen
+    */
+   void finished(StreamedText omeXML, String ijDescription,
+                 String summaryComment, byte[] commentsBytes) throws IOException {
       if (finished_) {
          return;
       }
@@ -111,29 +144,62 @@ class FileSet {
          finishMetadataFile();
       }
 
-      // only need to finish last one here because previous ones in set are finished
-      // as they fill up with images
-      tiffWriters_.getLast().finish();
-      //  close all, this can be time-consuming ,so use a ProgressBar
-      ProgressBar pb = null;
-      if (!GraphicsEnvironment.isHeadless() && tiffWriters_.size() > 4) {
-         pb = new ProgressBar(null, "Closing files", 0, tiffWriters_.size());
-      }
-      int count = 0;
+      finishWriting();
+      recordImageStats();
       for (MultipageTiffWriter w : tiffWriters_) {
-         w.close(omeXML, ijDescription);
-         if (pb != null) {
-            pb.setProgress(count++);
-         }
-      }
-      if (pb != null) {
-         pb.setVisible(false);
+         w.close(omeXML, ijDescription, summaryComment, commentsBytes);
       }
       omeMetadata_ = null;
       masterStorage_ = null;
       finished_ = true;
    }
 
+   /**
+    * Reads back all images of the set to compute their statistics, which
+    * give the minimum and maximum pixel value for the dataset index and the
+    * histograms for the image stats file.  This is done here, on the threads
+    * finishing the file sets, rather than on the writing threads, which
+    * would hold up acquisition.
+    */
+   private void recordImageStats() {
+      ImageStatsCache.StatsFileWriter statsWriter = masterStorage_.getStatsFileWriter();
+      for (MultipageTiffWriter w : tiffWriters_) {
+         try {
+            w.awaitPendingWrites();
+            MultipageTiffReader reader = w.getReader();
+            for (Coords coords : reader.getIndexKeys()) {
+               Image image = reader.readImage(coords);
+               if (image == null) {
+                  continue;
+               }
+               IntegerComponentStats[] stats =
+                     ImageStatsCache.computeWholeImageStats(image);
+               if (stats == null) {
+                  continue;
+               }
+               if (stats.length == 1 && stats[0].getPixelCount() > 0) {
+                  masterStorage_.setIntensityRange(coords,
+                        stats[0].getMinIntensity(), stats[0].getMaxIntensity());
+               }
+               if (statsWriter != null) {
+                  try {
+                     statsWriter.add(image, stats);
+                  } catch (IOException e) {
+                     ReportingUtils.logError(e, "Failed to write image stats");
+                     statsWriter = null;
+                  }
+               }
+            }
+         } catch (InterruptedException e) {
+            ReportingUtils.logError("Interrupted while computing image stats");
+            Thread.currentThread().interrupt();
+            return;
+         } catch (ExecutionException | IOException e) {
+            ReportingUtils.logError(e, "Failed to compute image stats");
+         }
+      }
+   }
+
    public void closeFileDescriptors() {
       for (MultipageTiffWriter writer : tiffWriters_) {
          try {
@@ -153,6 +219,10 @@ class FileSet {
    }
 
    public void writeImage(final Image imgIn) throws IOException {
+      if (writingFinished_) {
+         ReportingUtils.logMessage("Received more images than expected for " + baseFilename_);
+         writingFinished_ = false;
+      }
       //Add filename to image tags - needed by hasSpaceToWrite function
       Image img = imgIn.copyWithMetadata(imgIn
             .getMetadata()
@@ -219,6 +289,10 @@ class FileSet {
          writeToMetadataFile(img.getCoords(), img.getMetadata());
       }
       ifdCount_++;
+      numImages_++;
+      if (numImages_ == masterStorage_.getExpectedNumImagesPerFileSet()) {
+         finishWriting();
+      }
    }
 
    private void writeToMetadataFile(Coords coords, Metadata md) {
@@ -297,6 +371,10 @@ class FileSet {
     * separate files
     */
    public void finishAbortedAcqIfNeeded() {
+      if (writingFinished_) {
+         // All expected images are present
+         return;
+      }
       if (expectedImageOrder_ && splitByXYPosition_ && !masterStorage_.timeFirst()) {
          try {
             //One position may be on the next frame compared to others. Complete each position
@@ -33,23 +33,35 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.StringReader;
 import java.io.UnsupportedEncodingException;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.swing.SwingUtilities;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
 import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.BufferTools;
 import org.micromanager.data.internal.CommentsHelper;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultImage;
@@ -57,6 +69,7 @@ import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PixelType;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataDeltas;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.internal.DefaultDisplaySettings;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
@@ -91,6 +104,36 @@ public final class MultipageTiffReader {
 
    private HashMap<Coords, Long> coordsToOffset_;
    private long maxImageOffset_ = Long.MAX_VALUE;
+   // Scope data of the images that delta-encoded images refer to
+   private final Map<Coords, PropertyMap> baselineScopeData_ = new ConcurrentHashMap<>();
+
+   //
+   // Memory-mapped reading of finished files
+   //
+
+   // Files are mapped in read-only segments (MappedByteBuffers cannot exceed
+   // 2 GB).  Each segment extends SEGMENT_OVERLAP beyond the start of the
+   // next, so that every plane up to that size lies within a single segment.
+   private static final long SEGMENT_SIZE = 1L << 30;
+   private static final long SEGMENT_OVERLAP = 1L << 28;
+   // Only files opened for reading (i.e., finished files) are ever mapped
+   private boolean canMemoryMap_ = false;
+   private MappedByteBuffer[] mappedSegments_;
+   // Every view handed out of the mapped segments (e.g., the pixels of an
+   // image), so that pause() can tell which segments can be unmapped without
+   // leaving a reachable view of unmapped memory; guarded by this
+   private final Set<MappedView> mappedViews_ = new HashSet<>();
+   private final ReferenceQueue<ByteBuffer> collectedViews_ = new ReferenceQueue<>();
+
+   private static final class MappedView extends WeakReference<ByteBuffer> {
+      final MappedByteBuffer segment;
+
+      MappedView(ByteBuffer view, MappedByteBuffer segment,
+                 ReferenceQueue<ByteBuffer> queue) {
+         super(view, queue);
+         this.segment = segment;
+      }
+   }
 
    //
    // Buffer allocation and recycling, copied from MultipageTiffWriter
@@ -213,6 +256,7 @@ public final class MultipageTiffReader {
       }
       readHeader(); // Determine byte order
       readSummaryMD();
+      canMemoryMap_ = true;
 
       try {
          readIndexMap();
@@ -224,6 +268,34 @@ public final class MultipageTiffReader {
       readComments();
    }
 
+   /**
+    * This constructor is used for opening datasets that have already been
+    * saved, using the dataset index instead of reading the file.  The file
+    * is only opened once an image is read.
+    *
+    * @param masterStorage Storage entity that will be using this reader
+    * @param file          The TIFF file
+    * @param entry         Entry of this file in the dataset index
+    * @param summary       Summary metadata stored in the dataset index
+    * @param imageFormat   Image format read from the summary metadata
+    */
+   MultipageTiffReader(StorageMultipageTiff masterStorage, File file,
+                       DatasetIndex.FileEntry entry, SummaryMetadata summary,
+                       PropertyMap imageFormat) {
+      masterStorage_ = masterStorage;
+      file_ = file;
+      byteOrder_ = entry.byteOrder;
+      summaryMetadata_ = summary;
+      imageFormatReadFromSummary_ = imageFormat;
+      canMemoryMap_ = true;
+      coordsToOffset_ = new HashMap<>();
+      maxImageOffset_ = 0;
+      for (DatasetIndex.Plane plane : entry.planes) {
+         coordsToOffset_.put(plane.coords, plane.offset);
+         maxImageOffset_ = Math.max(maxImageOffset_, plane.offset);
+      }
+   }
+
    /**
     * HACK: this version is only used when fixing index maps.
     * Ideally said fixing would be done without needing to create a new
@@ -400,11 +472,95 @@ public final class MultipageTiffReader {
    }
 
    private ByteBuffer readIntoBuffer(long position, int length) throws IOException {
+      if (isMemoryMapped()) {
+         ByteBuffer mapped = getMappedBuffer(position, length);
+         if (mapped != null) {
+            return mapped;
+         }
+      }
       ByteBuffer buffer = ByteBuffer.allocate(length).order(byteOrder_);
       fileChannel_.read(buffer, position);
       return buffer;
    }
 
+   private boolean isMemoryMapped() {
+      StorageMultipageTiff storage = masterStorage_;
+      return canMemoryMap_ && storage != null && storage.getShouldMemoryMapFiles();
+   }
+
+   /**
+    * Returns a read-only view of the given region of the (memory-mapped)
+    * file.  Nothing is copied.
+    *
+    * @return View with capacity length, or null if the region does not fit in
+    *     a segment or lies beyond the end of the file
+    */
+   private ByteBuffer getMappedBuffer(long position, int length) throws IOException {
+      int segment = (int) (position / SEGMENT_SIZE);
+      long segmentStart = segment * SEGMENT_SIZE;
+      synchronized (this) {
+         MappedByteBuffer mapped;
+         if (fileChannel_ == null) {
+            createFileChannel(false);
+         }
+         long fileSize = fileChannel_.size();
+         if (position + length > fileSize) {
+            return null;
+         }
+         if (mappedSegments_ == null) {
+            mappedSegments_ = new MappedByteBuffer[(int) (fileSize / SEGMENT_SIZE) + 1];
+         }
+         mapped = mappedSegments_[segment];
+         if (mapped == null) {
+            long size = Math.min(SEGMENT_SIZE + SEGMENT_OVERLAP, fileSize - segmentStart);
+            mapped = fileChannel_.map(FileChannel.MapMode.READ_ONLY, segmentStart, size);
+            mappedSegments_[segment] = mapped;
+         }
+         int offset = (int) (position - segmentStart);
+         if (offset + (long) length > mapped.capacity()) {
+            return null;
+         }
+         ByteBuffer view = mapped.duplicate();
+         view.position(offset).limit(offset + length);
+         view = view.slice().order(byteOrder_);
+         purgeCollectedViews();
+         mappedViews_.add(new MappedView(view, mapped, collectedViews_));
+         return view;
+      }
+   }
+
+   // Must be called while synchronized on this
+   private void purgeCollectedViews() {
+      Reference<? extends ByteBuffer> ref;
+      while ((ref = collectedViews_.poll()) != null) {
+         mappedViews_.remove(ref);
+      }
+   }
+
+   /**
+    * Unmaps all segments of which no view is reachable any more, and forgets
+    * the others, which are then unmapped by the garbage collector once the
+    * images using them are gone.  Must be called while synchronized on this.
+    */
+   private void releaseMappings() {
+      if (mappedSegments_ == null) {
+         return;
+      }
+      purgeCollectedViews();
+      Set<MappedByteBuffer> inUse = Collections.newSetFromMap(new IdentityHashMap<>());
+      for (MappedView view : mappedViews_) {
+         if (view.get() != null) {
+            inUse.add(view.segment);
+         }
+      }
+      for (MappedByteBuffer segment : mappedSegments_) {
+         if (segment != null && !inUse.contains(segment)) {
+            BufferTools.unmap(segment);
+         }
+      }
+      mappedSegments_ = null;
+   }
+
    private long readOffsetHeaderAndOffset(int offsetHeaderVal, int startOffset)
          throws IOException {
       ByteBuffer buffer1 = readIntoBuffer(startOffset, 8);
@@ -478,6 +634,11 @@ public final class MultipageTiffReader {
    }
 
    private String getString(ByteBuffer buffer) {
+      if (!buffer.hasArray()) {
+         ByteBuffer view = buffer.duplicate();
+         view.rewind();
+         return StandardCharsets.UTF_8.decode(view).toString();
+      }
       try {
          return new String(buffer.array(), "UTF-8");
       } catch (UnsupportedEncodingException ex) {
@@ -510,16 +671,99 @@ public final class MultipageTiffReader {
       }
 
       IFDData data = readIFD(byteOffset);
+      if (isMemoryMapped()) {
+         DefaultImage image = readMappedImage(coords, data);
+         if (image != null) {
+            return image;
+         }
+      }
       return (DefaultImage) readImage(data);
    }
 
-   private Image readImage(IFDData data) throws IOException {
-      ByteBuffer pixelBuffer = getLargeBuffer((int) data.bytesPerImage, byteOrder_);
-      pixelBuffer.rewind();
-      ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
-      fileChannel_.read(pixelBuffer, data.pixelOffset);
-      fileChannel_.read(mdBuffer, data.mdOffset);
+   /**
+    * Creates an image whose pixels are a read-only view of the memory-mapped
+    * file, and whose metadata are only parsed when requested.  Requires the
+    * summary metadata to specify the image format; the index map provides
+    * the coords.
+    *
+    * @return Image, or null when the image cannot be read this way (e.g., RGB
+    *     images, which are stored without alpha channel)
+    */
+   private DefaultImage readMappedImage(Coords coords, IFDData data) throws IOException {
+      int width = imageFormatReadFromSummary_.getInteger(PropertyKey.WIDTH.key(), 0);
+      int height = imageFormatReadFromSummary_.getInteger(PropertyKey.HEIGHT.key(), 0);
+      PixelType pixelType = imageFormatReadFromSummary_.getStringAsEnum(
+            PropertyKey.PIXEL_TYPE.key(), PixelType.class, null);
+      if (pixelType == null || pixelType == PixelType.RGB32
+            || (long) width * height * pixelType.getBytesPerPixel() != data.bytesPerImage) {
+         return null;
+      }
+      ByteBuffer pixels = getMappedBuffer(data.pixelOffset, (int) data.bytesPerImage);
+      ByteBuffer mdBuffer = getMappedBuffer(data.mdOffset, (int) data.mdLength);
+      if (pixels == null || mdBuffer == null) {
+         return null;
+      }
+      PropertyMap formatPmap = PropertyMaps.builder()
+            .putInteger(PropertyKey.WIDTH.key(), width)
+            .putInteger(PropertyKey.HEIGHT.key(), height)
+            .putEnumAsString(PropertyKey.PIXEL_TYPE.key(), pixelType)
+            .build();
+      return new DefaultImage(
+            pixelType == PixelType.GRAY8 ? pixels : pixels.asShortBuffer(),
+            formatPmap, coords,
+            () -> parseMetadata(parseImageMetadata(mdBuffer)));
+   }
+
+   /**
+    * Creates the image metadata from its JSON, adding the scope data of the
+    * baseline image if the scope data were delta encoded.
+    */
+   private Metadata parseMetadata(JsonElement mdGson) {
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
+            NonPropertyMapJSONFormats.metadata().fromGson(mdGson));
+      Coords baseline = ScopeDataDeltas.getBaselineCoords(mdGson.getAsJsonObject());
+      if (baseline == null) {
+         return metadata;
+      }
+      PropertyMap baselineScopeData = getBaselineScopeData(baseline);
+      if (baselineScopeData == null) {
+         ReportingUtils.logError("Missing image " + baseline
+               + " holding the device properties of other images in " + file_);
+         return metadata;
+      }
+      return ScopeDataDeltas.applyBaseline(metadata, baselineScopeData);
+   }
+
+   private PropertyMap getBaselineScopeData(Coords coords) {
+      PropertyMap result = baselineScopeData_.get(coords);
+      if (result != null) {
+         return result;
+      }
+      Long offset = coordsToOffset_ == null ? null : coordsToOffset_.get(coords);
+      if (offset == null) {
+         return null;
+      }
+      try {
+         IFDData data = readIFD(offset);
+         ByteBuffer mdBuffer = isMemoryMapped()
+               ? getMappedBuffer(data.mdOffset, (int) data.mdLength) : null;
+         if (mdBuffer == null) {
+            mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
+            fileChannel_.read(mdBuffer, data.mdOffset);
+         }
+         result = DefaultMetadata.fromPropertyMap(NonPropertyMapJSONFormats.metadata()
+               .fromGson(parseImageMetadata(mdBuffer))).getScopeData();
+      } catch (IOException | RuntimeException e) {
+         ReportingUtils.logError(e, "Failed to read device properties of " + coords);
+         return null;
+      }
+      if (result != null) {
+         baselineScopeData_.put(coords, result);
+      }
+      return result;
+   }
 
+   private JsonElement parseImageMetadata(ByteBuffer mdBuffer) {
       String mdJSON = getString(mdBuffer);
       String tmp = mdJSON.substring(mdJSON.length() - 3);
       if (!tmp.substring(0, 2).equals("\"}")) {
@@ -529,9 +773,19 @@ public final class MultipageTiffReader {
       JsonParser parser = new JsonParser();
       JsonReader reader = new JsonReader(new StringReader(mdJSON));
       reader.setLenient(true);
+      return parser.parse(reader);
+   }
+
+   private Image readImage(IFDData data) throws IOException {
+      ByteBuffer pixelBuffer = getLargeBuffer((int) data.bytesPerImage, byteOrder_);
+      pixelBuffer.rewind();
+      ByteBuffer mdBuffer = ByteBuffer.allocate((int) data.mdLength).order(byteOrder_);
+      fileChannel_.read(pixelBuffer, data.pixelOffset);
+      fileChannel_.read(mdBuffer, data.mdOffset);
+
       JsonElement mdGson = null;
       try {
-         mdGson = parser.parse(reader);
+         mdGson = parseImageMetadata(mdBuffer);
       } catch (JsonSyntaxException jse) {
          ReportingUtils.logError(jse, "Error parsing image metadata.");
          return null;
@@ -542,8 +796,7 @@ public final class MultipageTiffReader {
                .fromGson(mdGson);
          Coords coords = DefaultCoords.fromPropertyMap(
                NonPropertyMapJSONFormats.coords().fromGson(mdGson));
-         Metadata metadata = DefaultMetadata.fromPropertyMap(
-               NonPropertyMapJSONFormats.metadata().fromGson(mdGson));
+         Metadata metadata = parseMetadata(mdGson);
 
          // Usually we get the width, height, and pixel type from the image (plane)
          // metadata. If it's not there, we use the values found in the summary
@@ -699,6 +952,9 @@ public final class MultipageTiffReader {
     * @throws IOException Accessing disk can cause these
     */
    void pause() throws IOException {
+      synchronized (this) {
+         releaseMappings();
+      }
       if (fileChannel_ != null) {
          fileChannel_.close();
          fileChannel_ = null;
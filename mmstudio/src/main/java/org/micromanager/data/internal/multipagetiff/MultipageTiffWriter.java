@@ -23,8 +23,6 @@
 package org.micromanager.data.internal.multipagetiff;
 
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
 import ij.io.TiffDecoder;
 import ij.process.LUT;
@@ -37,11 +35,15 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ThreadPoolExecutor;
 import org.micromanager.PropertyMap;
 import org.micromanager.PropertyMaps;
@@ -55,6 +57,7 @@ import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataDeltas;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.internal.DefaultDisplaySettings;
@@ -111,6 +114,13 @@ public final class MultipageTiffWriter {
    private RandomAccessFile raFile_;
    private FileChannel fileChannel_;
    private final ThreadPoolExecutor writingExecutor_;
+   // Buffers (IFDs, pixels, etc.) and index map entries of images that have
+   // been handed to the writing executor but not yet written.  Every flush
+   // writes all of them, so that when the disk falls behind, several images
+   // are combined into a single gathering write.
+   private final List<ByteBuffer> pendingBuffers_ = new ArrayList<>();
+   private final List<ByteBuffer> pendingIndexEntries_ = new ArrayList<>();
+   private long pendingIndexMapPosition_ = -1;
    private long filePosition_ = 0;
    //current position of the dynamically written index map
    private long indexMapPosition_;
@@ -122,7 +132,13 @@ public final class MultipageTiffWriter {
    private int numFrames_;
    private List<String> orderedAxes_;
    private final HashMap<Coords, Long> coordsToOffset_;
+   // For the dataset index: number of bytes each image takes in the file
+   private final HashMap<Coords, Long> coordsToLength_ = new HashMap<>();
+   private final String filename_;
+   private String summaryJSON_;
    private long nextIFDOffsetLocation_ = -1;
+   // Whether finish() was called since the last image was written
+   private boolean isFinished_ = false;
    private final boolean rgb_;
    private final int byteDepth_;
    private final int imageWidth_;
@@ -138,6 +154,12 @@ public final class MultipageTiffWriter {
    private long ijMetadataTagPosition_;
    //Reader associated with this file
    private final MultipageTiffReader reader_;
+   // Delta encoding of scope data: the first image of the file that has
+   // scope data is the baseline of the others
+   private final boolean deltaEncodeScopeData_;
+   private PropertyMap scopeDataBaseline_;
+   private Coords scopeDataBaselineCoords_;
+   private final PlaneMetadataEncoder metadataEncoder_ = new PlaneMetadataEncoder();
    private long blankPixelsOffset_ = -1;
 
    /**
@@ -154,6 +176,8 @@ public final class MultipageTiffWriter {
          final String filename)
          throws IOException {
       masterStorage_ = masterStorage;
+      filename_ = filename;
+      deltaEncodeScopeData_ = masterStorage_.getShouldDeltaEncodeScopeData();
 
       // Obtain information from storage that will be used globally:
       Image repImage = masterStorage_.getAnyImage();
@@ -228,7 +252,7 @@ public final class MultipageTiffWriter {
                "Insufficent space on disk: no room to write data");
       }
       fileChannel_ = raFile_.getChannel();
-      writingExecutor_ = masterStorage_.getWritingExecutor();
+      writingExecutor_ = masterStorage_.getWritingExecutor(firstImage.getCoords());
       coordsToOffset_ = new HashMap<>();
       reader_.setFileChannel(fileChannel_);
       reader_.setIndexMap(coordsToOffset_);
@@ -352,17 +376,16 @@ public final class MultipageTiffWriter {
       });
    }
 
-   private void fileChannelWrite(final ByteBuffer[] buffers) {
-      executeWritingTask(() -> {
-         try {
-            fileChannel_.write(buffers);
-         } catch (IOException e) {
-            ReportingUtils.logError(e);
-         }
-         for (ByteBuffer buffer : buffers) {
-            tryRecycleLargeBuffer(buffer);
-         }
-      });
+   /**
+    * Waits until everything handed to the writing executor so far has been
+    * written, so that the images can be read back through the reader.
+    *
+    * @throws InterruptedException when interrupted while waiting
+    * @throws ExecutionException   should not happen
+    */
+   void awaitPendingWrites() throws InterruptedException, ExecutionException {
+      writingExecutor_.submit(() -> {
+      }).get();
    }
 
    public MultipageTiffReader getReader() {
@@ -375,6 +398,7 @@ public final class MultipageTiffWriter {
 
    private void writeMMHeaderAndSummaryMD(PropertyMap summaryMD) throws IOException {
       String summaryJSON = NonPropertyMapJSONFormats.summaryMetadata().toJSON(summaryMD);
+      summaryJSON_ = summaryJSON;
       byte[] summaryMDBytes = getBytesFromString(summaryJSON);
       int mdLength = summaryMDBytes.length;
       // 20 bytes plus 8 header for index map
@@ -408,12 +432,11 @@ public final class MultipageTiffWriter {
       indexMapFirstEntry_ = indexMapPosition_;
 
       // 1 byte for each byte of UTF-8-encoded summary md
-      ByteBuffer[] buffers = new ByteBuffer[3];
-      buffers[0] = headerBuffer;
-      buffers[1] = ByteBuffer.wrap(summaryMDBytes);
-      buffers[2] = indexMapBuffer;
+      buffers_.add(headerBuffer);
+      buffers_.add(ByteBuffer.wrap(summaryMDBytes));
+      buffers_.add(indexMapBuffer);
 
-      fileChannelWrite(buffers);
+      writeBuffers();
       filePosition_ += headerBuffer.capacity() + mdLength + indexMapSpace;
    }
 
@@ -428,6 +451,7 @@ public final class MultipageTiffWriter {
     */
    public void finish() throws IOException {
       writeNullOffsetAfterLastImage();
+      isFinished_ = true;
       // go back to the index map header and change the number of entries from
       // the max value allotted early to the actual number written The
       // MultipageTiffReader no longer needs this because it interprets 0's as
@@ -438,6 +462,10 @@ public final class MultipageTiffWriter {
       ByteBuffer indexMapNumEntries = allocateByteBuffer(4);
       indexMapNumEntries.putInt(0, numImages);
       fileChannelWrite(indexMapNumEntries, indexMapFirstEntry_ - 4);
+      // Hand our part of the dataset index to the storage once all images
+      // have been written
+      final StorageMultipageTiff storage = masterStorage_;
+      executeWritingTask(() -> storage.addToDatasetIndex(createIndexEntry(), summaryJSON_));
       // no more data will be written, clear the buffers to free up memory.
       if (BUFFER_POOL_SIZE == 0) {
          return;
@@ -452,19 +480,25 @@ public final class MultipageTiffWriter {
     * all the extra (but nonessential) stuff--comments, display settings,
     * OME/IJ metadata, and truncates the file to a reasonable length.
     *
-    * @param omeXML              OME-XML
+    * <p>The summary comment and the comments block are the same for all files
+    * of the dataset, and are therefore created only once, by the caller.</p>
+    *
+    * @param omeXML              OME-XML, streamed into the first image
+    *                            description
     * @param ijDescriptionString Info used by ImageJ/Fiji to know what to do with the data
+    * @param summaryComment      Comment of the dataset
+    * @param commentsBytes       Comments of the dataset, as created by
+    *                            {@link #createComments}
     * @throws java.io.IOException can happen.
     */
-   public void close(String omeXML, String ijDescriptionString) throws IOException {
-      String summaryComment = CommentsHelper.getSummaryComment(
-            masterStorage_.getDatastore());
+   public void close(StreamedText omeXML, String ijDescriptionString,
+                     String summaryComment, byte[] commentsBytes) throws IOException {
       writeImageJMetadata(numChannels_, summaryComment);
       writeImageDescription(omeXML, omeDescriptionTagPosition_);
-      writeImageDescription(ijDescriptionString, ijDescriptionTagPosition_);
+      writeImageDescription(StreamedText.of(ijDescriptionString),
+            ijDescriptionTagPosition_);
       writeDisplaySettings();
-      writeComments();
-      CommentsHelper.saveComments(masterStorage_.getDatastore());
+      writeComments(commentsBytes);
 
       executeWritingTask(() -> {
          try {
@@ -487,7 +521,7 @@ public final class MultipageTiffWriter {
     * @param length not sure.  Length written so far?
     * @return true if there enough space left, false otherwise
     */
-   public boolean hasSpaceForFullOMEMetadata(int length) {
+   public boolean hasSpaceForFullOMEMetadata(long length) {
       //5 MB extra padding..just to be safe
       int extraPadding = 5000000;
       long size = length + SPACE_FOR_COMMENTS + numChannels_
@@ -504,8 +538,9 @@ public final class MultipageTiffWriter {
     */
    public boolean hasSpaceToWrite(Image img, int omeMDLength) {
       boolean splitByFrame = true;
-      PropertyMap mdPmap = ((DefaultMetadata) img.getMetadata()).toPropertyMap();
-      int mdLength = NonPropertyMapJSONFormats.metadata().toJSON(mdPmap).length();
+      // The complete metadata; delta-encoded scope data only make it shorter
+      int mdLength = metadataEncoder_.encode(
+            createPlaneMetadataJSON(img, img.getMetadata())).remaining();
       int ifdsize = ENTRIES_PER_IFD * 12 + 4 + 16;
       int channelsLeft = numChannels_ - img.getCoords().getC();
       int slicesLeft = numSlices_ - img.getCoords().getZ();
@@ -557,6 +592,7 @@ public final class MultipageTiffWriter {
    }
 
    public void writeBlankImage() throws IOException {
+      linkToNextIFDIfFinished();
       writeBlankIFD();
       writeBuffers();
    }
@@ -568,29 +604,44 @@ public final class MultipageTiffWriter {
     * @throws IOException can happen
     */
    public void writeImage(Image img) throws IOException {
-      if (writingExecutor_ != null) {
-         int queueSize = writingExecutor_.getQueue().size();
-         int attemptCount = 0;
-         while (queueSize > 20) {
-            if (attemptCount == 0) {
-               ReportingUtils.logMessage("Warning: writing queue behind by "
-                     + queueSize + " images.");
-            }
-            ++attemptCount;
-            try {
-               Thread.sleep(5);
-               queueSize = writingExecutor_.getQueue().size();
-            } catch (InterruptedException ex) {
-               ReportingUtils.logError(ex);
-            }
-         }
-      }
+      // Throttling of the caller, when writing falls behind, is done by
+      // StorageMultipageTiff
+      linkToNextIFDIfFinished();
       long offset = filePosition_;
       writeIFD(img);
       addToIndexMap(img.getCoords(), offset);
+      coordsToLength_.put(img.getCoords(), filePosition_ - offset);
       writeBuffers();
    }
 
+   /**
+    * Undoes the null offset written by finish(), when images are written
+    * after all.
+    */
+   private void linkToNextIFDIfFinished() {
+      if (isFinished_) {
+         ByteBuffer buffer = allocateByteBuffer(4);
+         buffer.putInt(0, (int) filePosition_);
+         fileChannelWrite(buffer, nextIFDOffsetLocation_);
+         isFinished_ = false;
+      }
+   }
+
+   /**
+    * Runs on the writing executor, after all images have been written.
+    */
+   private DatasetIndex.FileEntry createIndexEntry() {
+      List<DatasetIndex.Plane> planes = new ArrayList<>(coordsToOffset_.size());
+      for (Map.Entry<Coords, Long> entry : coordsToOffset_.entrySet()) {
+         Coords coords = entry.getKey();
+         Long length = coordsToLength_.get(coords);
+         // Intensity ranges are added when the file set is finished
+         planes.add(new DatasetIndex.Plane(coords, entry.getValue(),
+               length == null ? -1 : length, -1, -1));
+      }
+      return new DatasetIndex.FileEntry(filename_, BYTE_ORDER, planes);
+   }
+
    private void addToIndexMap(Coords coords, long offset) {
       // If a duplicate key is received, forget about the previous one
       // this allows overwriting of images without loss of data
@@ -611,32 +662,98 @@ public final class MultipageTiffWriter {
       }
 
       buffer.putInt(16, new Long(offset).intValue());
-      fileChannelWrite(buffer, indexMapPosition_);
+      synchronized (pendingBuffers_) {
+         if (pendingIndexEntries_.isEmpty()) {
+            pendingIndexMapPosition_ = indexMapPosition_;
+         }
+         pendingIndexEntries_.add(buffer);
+      }
       indexMapPosition_ += 20;
    }
 
    private void writeBuffers() throws IOException {
-      ByteBuffer[] buffs = new ByteBuffer[buffers_.size()];
-      for (int i = 0; i < buffs.length; i++) {
-         buffs[i] = buffers_.removeFirst();
+      synchronized (pendingBuffers_) {
+         while (!buffers_.isEmpty()) {
+            pendingBuffers_.add(buffers_.removeFirst());
+         }
       }
-      fileChannelWrite(buffs);
+      executeWritingTask(this::flushPendingBuffers);
    }
 
-   private void writeIFD(Image img) {
-      JsonObject jo = new JsonObject();
-      NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
-            ((DefaultImage) img).formatToPropertyMap());
-      NonPropertyMapJSONFormats.coords().addToGson(jo,
-            ((DefaultCoords) img.getCoords()).toPropertyMap());
-      NonPropertyMapJSONFormats.metadata().addToGson(jo,
-            ((DefaultMetadata) img.getMetadata()).toPropertyMap());
-      Gson gson = new GsonBuilder().disableHtmlEscaping().create();
-      String mdJSON = gson.toJson(jo);
+   /**
+    * Writes everything that is pending.  Runs on the writing executor.  Since
+    * each image schedules a flush, later flushes often find nothing to do.
+    */
+   private void flushPendingBuffers() {
+      ByteBuffer[] buffers;
+      ByteBuffer indexEntries = null;
+      long indexMapPosition;
+      synchronized (pendingBuffers_) {
+         if (pendingBuffers_.isEmpty() && pendingIndexEntries_.isEmpty()) {
+            return;
+         }
+         buffers = pendingBuffers_.toArray(new ByteBuffer[0]);
+         pendingBuffers_.clear();
+         if (!pendingIndexEntries_.isEmpty()) {
+            // Index map entries are consecutive, so they can be written at once
+            indexEntries = allocateByteBuffer(20 * pendingIndexEntries_.size());
+            for (ByteBuffer entry : pendingIndexEntries_) {
+               entry.rewind();
+               indexEntries.put(entry);
+            }
+            pendingIndexEntries_.clear();
+         }
+         indexMapPosition = pendingIndexMapPosition_;
+      }
+      try {
+         if (indexEntries != null) {
+            indexEntries.rewind();
+            while (indexEntries.hasRemaining()) {
+               indexMapPosition += fileChannel_.write(indexEntries, indexMapPosition);
+            }
+         }
+         long remaining = 0;
+         for (ByteBuffer buffer : buffers) {
+            remaining += buffer.remaining();
+         }
+         while (remaining > 0) {
+            remaining -= fileChannel_.write(buffers);
+         }
+      } catch (IOException e) {
+         ReportingUtils.logError(e);
+      }
+      for (ByteBuffer buffer : buffers) {
+         tryRecycleLargeBuffer(buffer);
+      }
+   }
 
-      byte[] mdBytes = getBytesFromString(mdJSON + " "); // Space for null
-      // Null-terminate buffer.
-      mdBytes[mdBytes.length - 1] = 0;
+   private void writeIFD(Image img) {
+      Metadata metadata = img.getMetadata();
+      Coords baselineCoords = null;
+      if (deltaEncodeScopeData_) {
+         if (scopeDataBaseline_ == null) {
+            if (metadata.getScopeData() != null) {
+               scopeDataBaseline_ = metadata.getScopeData();
+               scopeDataBaselineCoords_ = img.getCoords();
+            }
+         } else {
+            Metadata delta = ScopeDataDeltas.createDelta(metadata, scopeDataBaseline_);
+            if (delta != null) {
+               metadata = delta;
+               baselineCoords = scopeDataBaselineCoords_;
+            }
+         }
+      }
+      JsonObject jo = createPlaneMetadataJSON(img, metadata);
+      if (baselineCoords != null) {
+         ScopeDataDeltas.addBaselineCoords(jo, baselineCoords);
+      }
+      // Null-terminated UTF-8, copied out of the encoder's reused array
+      ByteBuffer encoded = metadataEncoder_.encode(jo);
+      ByteBuffer mdBuffer = allocateByteBuffer(encoded.remaining());
+      mdBuffer.put(encoded);
+      mdBuffer.flip();
+      int mdLength = mdBuffer.remaining();
 
       // 2 bytes for number of directory entries,
       // 12 bytes per directory entry,
@@ -690,8 +807,8 @@ public final class MultipageTiffWriter {
          ijMetadataTagPosition_ = filePosition_ + bufferPosition_;
          writeIFDEntry(ifdBuffer, charView, IJ_METADATA, (char) 1, 0, 0);
       }
-      writeIFDEntry(ifdBuffer, charView, MM_METADATA, (char) 2, mdBytes.length, tagDataOffset);
-      tagDataOffset += mdBytes.length;
+      writeIFDEntry(ifdBuffer, charView, MM_METADATA, (char) 2, mdLength, tagDataOffset);
+      tagDataOffset += mdLength;
       //NextIFDOffset
       ifdBuffer.putInt(bufferPosition_, (int) tagDataOffset);
       bufferPosition_ += 4;
@@ -704,14 +821,25 @@ public final class MultipageTiffWriter {
       buffers_.add(ifdBuffer);
       buffers_.add(getPixelBuffer(img.getRawPixels()));
       buffers_.add(getResolutionValuesBuffer());
-      buffers_.add(ByteBuffer.wrap(mdBytes));
+      buffers_.add(mdBuffer);
 
-      int totalBytes = 2 + numEntries * 12 + 4 + (rgb_ ? 6 : 0) + 16 + mdBytes.length
+      int totalBytes = 2 + numEntries * 12 + 4 + (rgb_ ? 6 : 0) + 16 + mdLength
             + bytesPerImagePixels_;
       filePosition_ += totalBytes;
       firstIFD_ = false;
    }
 
+   private JsonObject createPlaneMetadataJSON(Image img, Metadata metadata) {
+      JsonObject jo = new JsonObject();
+      NonPropertyMapJSONFormats.imageFormat().addToGson(jo,
+            ((DefaultImage) img).formatToPropertyMap());
+      NonPropertyMapJSONFormats.coords().addToGson(jo,
+            ((DefaultCoords) img.getCoords()).toPropertyMap());
+      NonPropertyMapJSONFormats.metadata().addToGson(jo,
+            ((DefaultMetadata) metadata).toPropertyMap());
+      return jo;
+   }
+
    private void writeIFDEntry(ByteBuffer buffer,
                               CharBuffer cBuffer,
                               char tag,
@@ -958,19 +1086,37 @@ public final class MultipageTiffWriter {
       filePosition_ += mdBufferSize;
    }
 
-   private void writeImageDescription(String text, long imageDescriptionTagOffset) {
-      byte[] bytes = getBytesFromString(text + " ");
-      // Null-terminate string
-      bytes[bytes.length - 1] = 0;
+   /**
+    * Writes a null-terminated, UTF-8 encoded description.  The text is
+    * encoded piecewise while it is being written, so that the full OME-XML
+    * is never held in memory as bytes.
+    */
+   private void writeImageDescription(final StreamedText text,
+                                      long imageDescriptionTagOffset) {
+      final long expectedLength = text.getUTF8Length();
+      final long position = filePosition_;
       //write first image IFD
       ByteBuffer ifdCountAndValueBuffer = allocateByteBuffer(8);
-      ifdCountAndValueBuffer.putInt(0, bytes.length);
-      ifdCountAndValueBuffer.putInt(4, (int) filePosition_);
+      ifdCountAndValueBuffer.putInt(0, (int) (expectedLength + 1));
+      ifdCountAndValueBuffer.putInt(4, (int) position);
       fileChannelWrite(ifdCountAndValueBuffer, imageDescriptionTagOffset + 4);
 
       //write String
-      fileChannelWrite(ByteBuffer.wrap(bytes), filePosition_);
-      filePosition_ += bytes.length;
+      executeWritingTask(() -> {
+         long length = 0;
+         try {
+            length = text.writeUTF8(fileChannel_, position);
+            // Null-terminate string
+            fileChannel_.write(ByteBuffer.wrap(new byte[] {0}), position + length);
+         } catch (IOException e) {
+            ReportingUtils.logError(e);
+         }
+         if (length != expectedLength) {
+            ReportingUtils.logError("Image description has " + length
+                  + " bytes instead of " + expectedLength);
+         }
+      });
+      filePosition_ += expectedLength + 1;
    }
 
    private byte[] getBytesFromString(String s) {
@@ -988,15 +1134,23 @@ public final class MultipageTiffWriter {
       fileChannelWrite(buffer, nextIFDOffsetLocation_);
    }
 
-   private void writeComments() throws IOException {
+   /**
+    * Creates the comments block that is written to every file of a dataset:
+    * the summary comment, and the comment of each image.
+    *
+    * @param storage Storage of the dataset
+    * @return UTF-8 encoded JSON
+    * @throws IOException if the comments can not be read
+    */
+   static byte[] createComments(StorageMultipageTiff storage) throws IOException {
       // Get the summary comments, then comments for each image.
       PropertyMap.Builder comments = PropertyMaps.builder();
       String summaryComments = CommentsHelper.getSummaryComment(
-            masterStorage_.getDatastore());
+            storage.getDatastore());
       comments.putString("Summary", summaryComments);
-      for (Coords coords : masterStorage_.getUnorderedImageCoords()) {
+      for (Coords coords : storage.getUnorderedImageCoords()) {
          String imageComments = CommentsHelper.getImageComment(
-               masterStorage_.getDatastore(), coords);
+               storage.getDatastore(), coords);
          // HACK: produce a 1.4-style "coordinate string" to use as a key.
          // See also MDUtils.getLabel(), though we can't use it directly.
          int channel = coords.getChannel() < 0 ? 0 : coords.getChannel();
@@ -1008,8 +1162,11 @@ public final class MultipageTiffWriter {
       }
 
       String commentStr = MM1JSONSerializer.toJSON(comments.build());
+      return commentStr.getBytes(StandardCharsets.UTF_8);
+   }
+
+   private void writeComments(byte[] commentsBytes) {
       //Write 4 byte header, 4 byte number of bytes
-      byte[] commentsBytes = getBytesFromString(commentStr);
       ByteBuffer header = allocateByteBuffer(8);
       header.putInt(0, COMMENTS_HEADER);
       header.putInt(4, commentsBytes.length);
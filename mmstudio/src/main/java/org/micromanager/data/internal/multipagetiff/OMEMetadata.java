@@ -20,15 +20,21 @@
 //               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
 //
 
-package org.micromanager.data.internal.multipagetiff;
 
-// Note: java.awt.Color and ome.xml.model.primitives.Color used with
-// fully-qualified class names
+package org.micromanager.data.internal.multipagetiff;
 
+import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TreeMap;
 import loci.common.DateTools;
 import loci.common.services.DependencyException;
@@ -38,12 +44,6 @@ import loci.formats.MetadataTools;
 import loci.formats.meta.IMetadata;
 import loci.formats.services.OMEXMLService;
 import mmcorej.org.json.JSONException;
-import ome.units.UNITS;
-import ome.units.quantity.Length;
-import ome.units.quantity.Time;
-import ome.xml.model.primitives.NonNegativeInteger;
-import ome.xml.model.primitives.PositiveInteger;
-import ome.xml.model.primitives.Timestamp;
 import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.Image;
@@ -53,26 +53,271 @@ import org.micromanager.data.internal.CommentsHelper;
 import org.micromanager.internal.utils.NumberUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 
-public final class OMEMetadata {
+/**
+ * OME-XML metadata of a multipage TIFF dataset.
+ *
+ * <p>The TiffData and Plane elements of each image are encoded as XML as
+ * soon as the image is added, and appended to a temporary spool file in
+ * blocks.  Only the handful of values per series that make up the Image and
+ * Pixels elements stay in memory, so that memory use does not grow with the
+ * number of planes.  When the dataset is finished, the complete OME-XML is
+ * stitched together from these parts in a single pass while it is written
+ * to the file that holds it (see {@link #writeUTF8}).</p>
+ *
+ * <p>The XML is the same as Bio-Formats writes for the equivalent OME model,
+ * with the schema version of the Bio-Formats library in use.</p>
+ */
+public final class OMEMetadata implements StreamedText {
+   // XML of a series is appended to the spool file once this much of it
+   // has accumulated
+   private static final int SPOOL_BLOCK_SIZE = 8192;
+   private static final int COPY_BUFFER_SIZE = 1 << 20;
+   // Unit symbols as used by ome.units
+   private static final String MICROMETER = "\u00b5m";
+   private static final String MILLISECOND = "ms";
+   private static final String DEFAULT_SCHEMA_VERSION = "2015-01";
+   private static final String SERIES_END = "</Pixels></Image>";
+   private static final String FOOTER = "</OME>";
 
-   private final IMetadata metadata_;
    private final StorageMultipageTiff mptStorage_;
-   private final TreeMap<Integer, Indices> seriesIndices_ = new TreeMap<Integer, Indices>();
-   private final TreeMap<String, Integer> tiffDataIndexMap_;
+   private final TreeMap<Integer, Series> series_ = new TreeMap<Integer, Series>();
+   private String detectorsXML_ = "";
+   private String schemaVersion_;
+   private Spool spool_;
+   private boolean spoolFailed_ = false;
    private int numSlices_;
    private int numChannels_;
 
-   private class Indices {
-      //specific to each series independent of file
-      int tiffDataIndex_ = -1;
-      //specific to each series indpeendent of file
-      int planeIndex_ = 0;
+   /**
+    * Location of an image in the files of the dataset, used to point
+    * TiffData entries of missing planes to an image that was acquired.
+    */
+   private static final class PlaneLocation {
+      final int frame;
+      final int ifd;
+      final String fileName;
+      final String uuid;
+
+      PlaneLocation(int frame, int ifd, String fileName, String uuid) {
+         this.frame = frame;
+         this.ifd = ifd;
+         this.fileName = fileName;
+         this.uuid = uuid;
+      }
+   }
+
+   /**
+    * Values of an OME Image (one per stage position), and its spooled
+    * TiffData and Plane elements.
+    */
+   private final class Series {
+      final int index_;
+      final String name_;
+      final String dimensionOrder_;
+      final String pixelType_;
+      final int width_;
+      final int height_;
+      final int sizeZ_;
+      final int sizeC_;
+      int sizeT_;
+      Double physicalSizeXY_;
+      Double physicalSizeZ_;
+      Double timeIncrementMs_;
+      String acquisitionDate_;
+      String description_;
+      String stageLabelName_;
+      Double stageLabelX_;
+      Double stageLabelY_;
+      List<String> channelNames_;
+      int planeCount_ = 0;
+      final SpooledElements tiffDatas_ = new SpooledElements();
+      final SpooledElements planes_ = new SpooledElements();
+      // Most recent image of each channel and slice
+      final Map<Long, PlaneLocation> latestPlanes_ = new HashMap<Long, PlaneLocation>();
+
+      Series(int index, String name, String dimensionOrder, String pixelType,
+             int width, int height, int sizeZ, int sizeC, int sizeT) {
+         index_ = index;
+         name_ = name;
+         dimensionOrder_ = dimensionOrder;
+         pixelType_ = pixelType;
+         width_ = width;
+         height_ = height;
+         sizeZ_ = sizeZ;
+         sizeC_ = sizeC;
+         sizeT_ = sizeT;
+      }
+
+      /**
+       * Returns the start of the Image element, up to and including the
+       * Channel elements of the Pixels element.
+       */
+      String getStartTags() {
+         StringBuilder sb = new StringBuilder(512);
+         sb.append("<Image");
+         appendAttribute(sb, "ID", MetadataTools.createLSID("Image", index_));
+         appendAttribute(sb, "Name", name_);
+         sb.append('>');
+         if (acquisitionDate_ != null) {
+            sb.append("<AcquisitionDate>");
+            appendEscaped(sb, acquisitionDate_, false);
+            sb.append("</AcquisitionDate>");
+         }
+         if (description_ != null) {
+            sb.append("<Description>");
+            appendEscaped(sb, description_, false);
+            sb.append("</Description>");
+         }
+         sb.append("<InstrumentRef");
+         appendAttribute(sb, "ID", MetadataTools.createLSID("Instrument", 0));
+         sb.append("/>");
+         sb.append("<StageLabel");
+         appendAttribute(sb, "Name", stageLabelName_);
+         appendQuantity(sb, "X", stageLabelX_, MICROMETER);
+         appendQuantity(sb, "Y", stageLabelY_, MICROMETER);
+         sb.append("/>");
+
+         sb.append("<Pixels");
+         appendAttribute(sb, "BigEndian",
+               !MultipageTiffWriter.BYTE_ORDER.equals(ByteOrder.LITTLE_ENDIAN));
+         appendAttribute(sb, "DimensionOrder", dimensionOrder_);
+         appendAttribute(sb, "ID", MetadataTools.createLSID("Pixels", index_));
+         appendAttribute(sb, "Interleaved", false);
+         appendQuantity(sb, "PhysicalSizeX", physicalSizeXY_, MICROMETER);
+         appendQuantity(sb, "PhysicalSizeY", physicalSizeXY_, MICROMETER);
+         appendQuantity(sb, "PhysicalSizeZ", physicalSizeZ_, MICROMETER);
+         appendAttribute(sb, "SizeC", sizeC_);
+         appendAttribute(sb, "SizeT", sizeT_);
+         appendAttribute(sb, "SizeX", width_);
+         appendAttribute(sb, "SizeY", height_);
+         appendAttribute(sb, "SizeZ", sizeZ_);
+         appendQuantity(sb, "TimeIncrement", timeIncrementMs_, MILLISECOND);
+         appendAttribute(sb, "Type", pixelType_);
+         sb.append('>');
+         // TODO Also save channel colors (need display settings...)
+         for (int channel = 0; channel < sizeC_; channel++) {
+            sb.append("<Channel");
+            appendAttribute(sb, "ID",
+                  MetadataTools.createLSID("Channel", index_, channel));
+            if (channelNames_ != null && channelNames_.size() > channel) {
+               appendAttribute(sb, "Name", channelNames_.get(channel));
+            }
+            appendAttribute(sb, "SamplesPerPixel", 1);
+            sb.append("/>");
+         }
+         return sb.toString();
+      }
+   }
+
+   /**
+    * XML elements of one kind of a series, most of which have been moved to
+    * the spool file.
+    */
+   private final class SpooledElements {
+      private final StringBuilder buffer_ = new StringBuilder();
+      // Offset and length of each block in the spool file; consecutive
+      // blocks are merged
+      private final List<long[]> blocks_ = new ArrayList<long[]>();
+
+      void append(CharSequence xml) {
+         buffer_.append(xml);
+         if (buffer_.length() >= SPOOL_BLOCK_SIZE) {
+            flush();
+         }
+      }
+
+      void flush() {
+         if (buffer_.length() == 0) {
+            return;
+         }
+         byte[] bytes = buffer_.toString().getBytes(StandardCharsets.UTF_8);
+         buffer_.setLength(0);
+         long offset = appendToSpool(bytes);
+         if (offset < 0) {
+            return;
+         }
+         long[] last = blocks_.isEmpty() ? null : blocks_.get(blocks_.size() - 1);
+         if (last != null && last[0] + last[1] == offset) {
+            last[1] += bytes.length;
+         } else {
+            blocks_.add(new long[] {offset, bytes.length});
+         }
+      }
+
+      long getLength() {
+         flush();
+         long length = 0;
+         for (long[] block : blocks_) {
+            length += block[1];
+         }
+         return length;
+      }
+
+      long write(FileChannel channel, long position, ByteBuffer buffer)
+            throws IOException {
+         flush();
+         long written = 0;
+         for (long[] block : blocks_) {
+            written += spool_.copy(block[0], block[1], channel,
+                  position + written, buffer);
+         }
+         return written;
+      }
+   }
+
+   /**
+    * Temporary file holding the XML of all series, in blocks.
+    */
+   private static final class Spool {
+      private final File file_;
+      private final RandomAccessFile raFile_;
+      private final FileChannel channel_;
+      private long size_ = 0;
+
+      Spool() throws IOException {
+         file_ = File.createTempFile("MMOMEMetadata", ".xml");
+         file_.deleteOnExit();
+         raFile_ = new RandomAccessFile(file_, "rw");
+         channel_ = raFile_.getChannel();
+      }
+
+      long append(byte[] bytes) throws IOException {
+         long offset = size_;
+         ByteBuffer buffer = ByteBuffer.wrap(bytes);
+         while (buffer.hasRemaining()) {
+            size_ += channel_.write(buffer, size_);
+         }
+         return offset;
+      }
+
+      long copy(long offset, long length, FileChannel target, long position,
+                ByteBuffer buffer) throws IOException {
+         long copied = 0;
+         while (copied < length) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), length - copied));
+            int read = channel_.read(buffer, offset + copied);
+            if (read < 0) {
+               throw new EOFException("Unexpected end of " + file_);
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+               copied += target.write(buffer, position + copied);
+            }
+         }
+         return copied;
+      }
+
+      void close() throws IOException {
+         raFile_.close();
+         if (!file_.delete()) {
+            file_.deleteOnExit();
+         }
+      }
    }
 
    public OMEMetadata(StorageMultipageTiff mpt) {
       mptStorage_ = mpt;
-      tiffDataIndexMap_ = new TreeMap<String, Integer>();
-      metadata_ = MetadataTools.createOMEXMLMetadata();
    }
 
    public static String getOMEStringPointerToMasterFile(String filename, String uuid) {
@@ -90,29 +335,118 @@ public final class OMEMetadata {
       }
    }
 
-   @Override
-   public String toString() {
+   private static String getSchemaVersion() {
       try {
-         OMEXMLService service = new ServiceFactory().getInstance(OMEXMLService.class);
-         return service.getOMEXML(metadata_) + " ";
+         return new ServiceFactory().getInstance(OMEXMLService.class).getLatestVersion();
       } catch (DependencyException ex) {
-         ReportingUtils.logError(ex);
-         return "";
-      } catch (ServiceException ex) {
-         ReportingUtils.logError(ex);
-         return "";
+         ReportingUtils.logError(ex, "Couldn't determine OME schema version");
+         return DEFAULT_SCHEMA_VERSION;
+      }
+   }
+
+   /**
+    * Returns the XML that precedes the Image elements.
+    */
+   private String getHeader() {
+      if (schemaVersion_ == null) {
+         schemaVersion_ = getSchemaVersion();
+      }
+      String namespace = "http://www.openmicroscopy.org/Schemas/OME/" + schemaVersion_;
+      StringBuilder sb = new StringBuilder(512);
+      sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?><OME");
+      appendAttribute(sb, "xmlns", namespace);
+      appendAttribute(sb, "xmlns:xsi", "http://www.w3.org/2001/XMLSchema-instance");
+      appendAttribute(sb, "xsi:schemaLocation", namespace + " " + namespace + "/ome.xsd");
+      sb.append('>');
+      if (!series_.isEmpty()) {
+         sb.append("<Instrument");
+         appendAttribute(sb, "ID", MetadataTools.createLSID("Instrument", 0));
+         if (detectorsXML_.isEmpty()) {
+            sb.append("/>");
+         } else {
+            sb.append('>').append(detectorsXML_).append("</Instrument>");
+         }
+      }
+      return sb.toString();
+   }
+
+   /**
+    * @return Number of bytes of the complete OME-XML
+    */
+   @Override
+   public synchronized long getUTF8Length() {
+      long length = StreamedText.getUTF8Length(getHeader());
+      for (Series series : series_.values()) {
+         length += StreamedText.getUTF8Length(series.getStartTags())
+               + series.tiffDatas_.getLength() + series.planes_.getLength()
+               + SERIES_END.length();
+      }
+      return length + FOOTER.length();
+   }
+
+   /**
+    * Writes the complete OME-XML, copying the TiffData and Plane elements of
+    * each series from the spool file.
+    */
+   @Override
+   public synchronized long writeUTF8(FileChannel channel, long position)
+         throws IOException {
+      ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+      long pos = position;
+      pos += StreamedText.of(getHeader()).writeUTF8(channel, pos);
+      for (Series series : series_.values()) {
+         pos += StreamedText.of(series.getStartTags()).writeUTF8(channel, pos);
+         pos += series.tiffDatas_.write(channel, pos, buffer);
+         pos += series.planes_.write(channel, pos, buffer);
+         pos += StreamedText.of(SERIES_END).writeUTF8(channel, pos);
+      }
+      pos += StreamedText.of(FOOTER).writeUTF8(channel, pos);
+      return pos - position;
+   }
+
+   /**
+    * Deletes the spool file.  The OME-XML can no longer be written
+    * afterwards.
+    */
+   public synchronized void close() {
+      if (spool_ != null) {
+         try {
+            spool_.close();
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Failed to delete OME metadata spool file");
+         }
+         spool_ = null;
       }
    }
 
-   public void setNumFrames(int seriesIndex, int numFrames) {
-      metadata_.setPixelsSizeT(new PositiveInteger(numFrames), seriesIndex);
+   /**
+    * @return Offset of the bytes in the spool file, or -1 if they could not
+    *     be stored
+    */
+   private long appendToSpool(byte[] bytes) {
+      if (spoolFailed_) {
+         return -1;
+      }
+      try {
+         if (spool_ == null) {
+            spool_ = new Spool();
+         }
+         return spool_.append(bytes);
+      } catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to spool OME metadata; OME-XML will be incomplete");
+         spoolFailed_ = true;
+         return -1;
+      }
    }
 
-   private void startSeriesMetadata(int seriesIndex, String baseFileName) {
-      Indices indices = new Indices();
-      indices.planeIndex_ = 0;
-      indices.tiffDataIndex_ = 0;
-      seriesIndices_.put(seriesIndex, indices);
+   public synchronized void setNumFrames(int seriesIndex, int numFrames) {
+      Series series = series_.get(seriesIndex);
+      if (series != null) {
+         series.sizeT_ = numFrames;
+      }
+   }
+
+   private Series startSeriesMetadata(int seriesIndex, String baseFileName) {
       numSlices_ = mptStorage_.getIntendedSize(Coords.Z);
       numChannels_ = mptStorage_.getIntendedSize(Coords.CHANNEL);
       // We need to know bytes per pixel, which requires having an Image handy.
@@ -132,23 +466,17 @@ public final class OMEMetadata {
          // Make something up to have a valid string.
          axisOrder += "CZT";
       }
-      //Last one is samples per pixel
-      MetadataTools.populateMetadata(metadata_, seriesIndex, baseFileName,
-            MultipageTiffWriter.BYTE_ORDER.equals(ByteOrder.LITTLE_ENDIAN),
-            axisOrder,
+      Series series = new Series(seriesIndex, baseFileName, axisOrder,
             "uint" + repImage.getBytesPerPixel() * 8,
             repImage.getWidth(), repImage.getHeight(),
-            numSlices_, numChannels_,
-            mptStorage_.getIntendedSize(Coords.T), 1);
+            numSlices_, numChannels_, mptStorage_.getIntendedSize(Coords.T));
+      series_.put(seriesIndex, series);
 
       Metadata repMetadata = repImage.getMetadata();
       if (repMetadata.getPixelSizeUm() != null) {
          double pixelSize = repMetadata.getPixelSizeUm();
          if (pixelSize > 0) {
-            metadata_.setPixelsPhysicalSizeX(
-                  new Length(pixelSize, UNITS.MICROM), seriesIndex);
-            metadata_.setPixelsPhysicalSizeY(
-                  new Length(pixelSize, UNITS.MICROM), seriesIndex);
+            series.physicalSizeXY_ = pixelSize;
          }
       }
 
@@ -156,15 +484,14 @@ public final class OMEMetadata {
       if (summaryMD.getZStepUm() != null) {
          double zStep = summaryMD.getZStepUm();
          if (zStep != 0) {
-            metadata_.setPixelsPhysicalSizeZ(
-                  new Length(Math.abs(zStep), UNITS.MICROM), seriesIndex);
+            series.physicalSizeZ_ = Math.abs(zStep);
          }
       }
 
       if (summaryMD.getWaitInterval() != null) {
          double interval = summaryMD.getWaitInterval();
          if (interval > 0) { //don't write it for burst mode because it won't be true
-            metadata_.setPixelsTimeIncrement(new Time(interval, UNITS.MS), seriesIndex);
+            series.timeIncrementMs_ = interval;
          }
       }
 
@@ -172,117 +499,86 @@ public final class OMEMetadata {
       if (!repMetadata.getPositionName("").equals("")) {
          positionName = repMetadata.getPositionName("");
       }
-      metadata_.setStageLabelName(positionName, seriesIndex);
-
-      String instrumentID = MetadataTools.createLSID("Instrument", 0);
-      metadata_.setInstrumentID(instrumentID, 0);
-      // link Instrument and Image
-      metadata_.setImageInstrumentRef(instrumentID, seriesIndex);
+      series.stageLabelName_ = positionName;
 
       try {
-         String summaryComment = CommentsHelper.getSummaryComment(
+         series.description_ = CommentsHelper.getSummaryComment(
                mptStorage_.getDatastore());
-         metadata_.setImageDescription(summaryComment, seriesIndex);
       } catch (IOException e) {
          // TODO Report error (not severe)
       }
 
-      // TODO Also save channel colors (need display settings...)
-      List<String> names = mptStorage_.getSummaryMetadata().getChannelNameList();
-      for (int channel = 0; channel < mptStorage_.getIntendedSize(Coords.CHANNEL);
-            channel++) {
-         if (names != null && names.size() > channel) {
-            metadata_.setChannelName(names.get(channel), seriesIndex, channel);
-         }
-      }
+      series.channelNames_ = summaryMD.getChannelNameList();
+      return series;
    }
 
    /**
     * Method called when numC*numZ*numT != total number of planes.
     */
-   public void fillInMissingTiffDatas(int frame, int position) {
-      try {
-         for (int slice = 0; slice < numSlices_; slice++) {
-            for (int channel = 0; channel < numChannels_; channel++) {
-               //make sure each tiffdata entry is present. If it is missing, link Tiffdata entry
-               //to a a preveious IFD
-               Integer tiffDataIndex =
-                     tiffDataIndexMap_.get(generateLabel(channel, slice, frame, position));
-               if (tiffDataIndex == null) {
-                  // this plane was never added, so link to another IFD
-                  // find substitute channel, frame, slice
-                  int s = slice;
-                  int backIndex = slice - 1;
-                  int forwardIndex = slice + 1;
-                  int frameSearchIndex = frame;
-                  // If some but not all channels have z stacks, find the closest
-                  // slice for the given channel that has an image.  Also if time
-                  // point missing, go back until image is found
-                  while (tiffDataIndex == null) {
-                     tiffDataIndex = tiffDataIndexMap_
-                           .get(generateLabel(channel, s, frameSearchIndex, position));
-                     if (tiffDataIndex != null) {
-                        break;
-                     }
-
-                     if (backIndex >= 0) {
-                        tiffDataIndex = tiffDataIndexMap_.get(generateLabel(
-                                 channel, backIndex, frameSearchIndex, position));
-                        if (tiffDataIndex != null) {
-                           break;
-                        }
-                        backIndex--;
-                     }
-                     if (forwardIndex < numSlices_) {
-                        tiffDataIndex = tiffDataIndexMap_.get(generateLabel(
-                                 channel, forwardIndex, frameSearchIndex, position));
-                        if (tiffDataIndex != null) {
-                           break;
-                        }
-                        forwardIndex++;
-                     }
-
-                     if (backIndex < 0 && forwardIndex >= numSlices_) {
-                        frameSearchIndex--;
-                        backIndex = slice - 1;
-                        forwardIndex = slice + 1;
-                        if (frameSearchIndex < 0) {
-                           break;
-                        }
-                     }
-                  }
-                  NonNegativeInteger ifd = metadata_.getTiffDataIFD(position, tiffDataIndex);
-                  String filename = metadata_.getUUIDFileName(position, tiffDataIndex);
-                  String uuid = metadata_.getUUIDValue(position, tiffDataIndex);
-                  Indices indices = seriesIndices_.get(position);
-
-                  metadata_.setTiffDataFirstZ(new NonNegativeInteger(slice), position,
-                        indices.tiffDataIndex_);
-                  metadata_.setTiffDataFirstC(new NonNegativeInteger(channel), position,
-                        indices.tiffDataIndex_);
-                  metadata_.setTiffDataFirstT(new NonNegativeInteger(frame), position,
-                        indices.tiffDataIndex_);
-
-                  metadata_.setTiffDataIFD(ifd, position, indices.tiffDataIndex_);
-                  metadata_.setUUIDFileName(filename, position, indices.tiffDataIndex_);
-                  metadata_.setUUIDValue(uuid, position, indices.tiffDataIndex_);
-                  metadata_.setTiffDataPlaneCount(new NonNegativeInteger(1), position,
-                        indices.tiffDataIndex_);
-
-                  indices.tiffDataIndex_++;
-               }
+   public synchronized void fillInMissingTiffDatas(int frame, int position) {
+      Series series = series_.get(position);
+      if (series == null) {
+         return;
+      }
+      for (int slice = 0; slice < numSlices_; slice++) {
+         for (int channel = 0; channel < numChannels_; channel++) {
+            //make sure each tiffdata entry is present. If it is missing, link Tiffdata entry
+            //to a a preveious IFD
+            PlaneLocation latest = series.latestPlanes_.get(planeKey(channel, slice));
+            if (latest != null && latest.frame >= frame) {
+               continue;
             }
+            // this plane was never added, so link to another IFD
+            PlaneLocation substitute = findSubstitute(series, channel, slice, frame);
+            if (substitute == null) {
+               ReportingUtils.logError("Couldn't fill in missing tiffdata entry in ome metadata");
+               continue;
+            }
+            series.tiffDatas_.append(createTiffData(channel, slice, frame,
+                  substitute.ifd, substitute.fileName, substitute.uuid));
+         }
+      }
+   }
+
+   /**
+    * Finds the image to link a missing plane to: the most recent image of
+    * the same channel, at the closest slice (looking at lower slices first)
+    * if some but not all channels have z stacks.
+    */
+   private PlaneLocation findSubstitute(Series series, int channel, int slice, int frame) {
+      PlaneLocation result = null;
+      for (int distance = 0; distance < numSlices_; distance++) {
+         result = getMoreRecent(result, series, channel, slice - distance, frame);
+         if (distance > 0) {
+            result = getMoreRecent(result, series, channel, slice + distance, frame);
          }
-      } catch (Exception e) {
-         ReportingUtils.logError("Couldn't fill in missing tiffdata entries in ome metadata");
       }
+      return result;
    }
 
-   public void addImageTagsToOME(Coords coords, Metadata metadata, int ifdCount,
+   private PlaneLocation getMoreRecent(PlaneLocation current, Series series,
+                                       int channel, int slice, int frame) {
+      if (slice < 0 || slice >= numSlices_) {
+         return current;
+      }
+      PlaneLocation candidate = series.latestPlanes_.get(planeKey(channel, slice));
+      if (candidate == null || candidate.frame > frame
+            || (current != null && candidate.frame <= current.frame)) {
+         return current;
+      }
+      return candidate;
+   }
+
+   private static long planeKey(int channel, int slice) {
+      return ((long) channel << 32) | (slice & 0xffffffffL);
+   }
+
+   public synchronized void addImageTagsToOME(Coords coords, Metadata metadata, int ifdCount,
                                  String baseFileName, String currentFileName, String uuid) {
       int position = coords.getStagePosition();
-      if (!seriesIndices_.containsKey(position)) {
-         startSeriesMetadata(position, baseFileName);
+      Series series = series_.get(position);
+      if (series == null) {
+         series = startSeriesMetadata(position, baseFileName);
          try {
             // Add these tags in only once, but need to get them from image rather
             // than summary metadata
@@ -297,97 +593,74 @@ public final class OMEMetadata {
                   reformattedDate = DateTools.formatDate(imageTime,
                         "yyyy-MM-dd E HH:mm:ss Z", true);
                }
-               if (reformattedDate != null) {
-                  metadata_.setImageAcquisitionDate(
-                        new Timestamp(reformattedDate), position);
-               }
+               series.acquisitionDate_ = reformattedDate;
             }
          } catch (IllegalArgumentException e) {
             ReportingUtils
                   .logError(e, "Problem adding System state cache metadata to OME Metadata: " + e);
-         } catch (UnsupportedOperationException e) {
-            ReportingUtils
-                  .logError(e, "Problem adding System state cache metadata to OME Metadata: " + e);
          } catch (JSONException e) {
             ReportingUtils
                   .logError(e, "Problem adding System state cache metadata to OME Metadata: " + e);
          }
       }
 
-      Indices indices = seriesIndices_.get(position);
-
       //Required tags: Channel, slice, and frame index
       int slice = coords.getZSlice();
       int frame = coords.getTimePoint();
       int channel = coords.getChannel();
 
       // ifdCount is 0 when a new file started, tiff data plane count is 0 at a new position
-      try {
-         metadata_
-               .setTiffDataFirstZ(new NonNegativeInteger(slice), position, indices.tiffDataIndex_);
-         metadata_.setTiffDataFirstC(new NonNegativeInteger(channel), position,
-               indices.tiffDataIndex_);
-         metadata_
-               .setTiffDataFirstT(new NonNegativeInteger(frame), position, indices.tiffDataIndex_);
-         metadata_
-               .setTiffDataIFD(new NonNegativeInteger(ifdCount), position, indices.tiffDataIndex_);
-         metadata_.setUUIDFileName(currentFileName, position, indices.tiffDataIndex_);
-         metadata_.setUUIDValue(uuid, position, indices.tiffDataIndex_);
-      } catch (IndexOutOfBoundsException ioe) {
-         ReportingUtils.logError(ioe, "Error in OMEMData class");
-         throw (new UnsupportedOperationException(
-               "Multipage Tiff storage only supports images in increasing order, t=0, t=2, etc.."));
-      }
-      tiffDataIndexMap_
-            .put(generateLabel(channel, slice, frame, position), indices.tiffDataIndex_);
-      metadata_.setTiffDataPlaneCount(new NonNegativeInteger(1), position, indices.tiffDataIndex_);
-
-      metadata_.setPlaneTheZ(new NonNegativeInteger(slice), position, indices.planeIndex_);
-      metadata_.setPlaneTheC(new NonNegativeInteger(channel), position, indices.planeIndex_);
-      metadata_.setPlaneTheT(new NonNegativeInteger(frame), position, indices.planeIndex_);
+      series.tiffDatas_.append(createTiffData(channel, slice, frame, ifdCount,
+            currentFileName, uuid));
+      series.latestPlanes_.put(planeKey(channel, slice),
+            new PlaneLocation(frame, ifdCount, currentFileName, uuid));
 
+      StringBuilder plane = new StringBuilder(256);
+      plane.append("<Plane");
       //Optional tags
-      Double exposureMs = metadata.getExposureMs();
-      if (exposureMs != null) {
-         metadata_.setPlaneExposureTime(new Time(exposureMs, UNITS.MS),
-               position, indices.planeIndex_);
+      double elapsedTimeMs = metadata.getElapsedTimeMs(-1.0);
+      if (elapsedTimeMs >= 0.0) {
+         appendQuantity(plane, "DeltaT", elapsedTimeMs, MILLISECOND);
       }
+      appendQuantity(plane, "ExposureTime", metadata.getExposureMs(), MILLISECOND);
       Double xPositionUm = metadata.getXPositionUm();
-      if (xPositionUm != null) {
-         final Length xPosition =
-               new Length(xPositionUm, UNITS.MICROM);
-         metadata_.setPlanePositionX(xPosition, position, indices.planeIndex_);
-         if (indices.planeIndex_
-               == 0) { //should be set at start, but don't have position coordinates then
-            metadata_.setStageLabelX(xPosition, position);
-         }
-      }
       Double yPositionUm = metadata.getYPositionUm();
-      if (yPositionUm != null) {
-         final Length yPosition =
-               new Length(yPositionUm, UNITS.MICROM);
-         metadata_.setPlanePositionY(yPosition, position, indices.planeIndex_);
-         if (indices.planeIndex_ == 0) {
-            metadata_.setStageLabelY(yPosition, position);
-         }
-      }
-      Double zPositionUm = metadata.getZPositionUm();
-      if (zPositionUm != null) {
-         metadata_.setPlanePositionZ(new Length(zPositionUm, UNITS.MICROM),
-               position, indices.planeIndex_);
-      }
-      double elapsedTimeMs = metadata.getElapsedTimeMs(-1.0);
-      if (elapsedTimeMs >= 0.0) {
-         metadata_.setPlaneDeltaT(new Time(elapsedTimeMs, UNITS.MS),
-               position, indices.planeIndex_);
+      appendQuantity(plane, "PositionX", xPositionUm, MICROMETER);
+      appendQuantity(plane, "PositionY", yPositionUm, MICROMETER);
+      appendQuantity(plane, "PositionZ", metadata.getZPositionUm(), MICROMETER);
+      appendAttribute(plane, "TheC", channel);
+      appendAttribute(plane, "TheT", frame);
+      appendAttribute(plane, "TheZ", slice);
+      plane.append("/>");
+      series.planes_.append(plane);
+
+      //should be set at start, but don't have position coordinates then
+      if (series.planeCount_ == 0) {
+         series.stageLabelX_ = xPositionUm;
+         series.stageLabelY_ = yPositionUm;
       }
       String positionName = metadata.getPositionName("");
       if (!positionName.isEmpty()) {
-         metadata_.setStageLabelName(positionName, position);
+         series.stageLabelName_ = positionName;
       }
+      series.planeCount_++;
+   }
 
-      indices.planeIndex_++;
-      indices.tiffDataIndex_++;
+   private static StringBuilder createTiffData(int channel, int slice, int frame,
+                                               int ifd, String fileName, String uuid) {
+      StringBuilder sb = new StringBuilder(192);
+      sb.append("<TiffData");
+      appendAttribute(sb, "FirstC", channel);
+      appendAttribute(sb, "FirstT", frame);
+      appendAttribute(sb, "FirstZ", slice);
+      appendAttribute(sb, "IFD", ifd);
+      appendAttribute(sb, "PlaneCount", 1);
+      sb.append("><UUID");
+      appendAttribute(sb, "FileName", fileName);
+      sb.append('>');
+      appendEscaped(sb, uuid, false);
+      sb.append("</UUID></TiffData>");
+      return sb;
    }
 
    private void setOMEDetectorMetadata(Metadata metadata) throws JSONException {
@@ -414,28 +687,82 @@ public final class OMEMetadata {
          cameras.add(coreCam);
       }
 
+      StringBuilder sb = new StringBuilder();
       for (int i = 0; i < cameras.size(); i++) {
          String camera = cameras.get(i);
-         String detectorID = MetadataTools.createLSID("Detector", i);
-
-         //Instrument index, detector index
-         metadata_.setDetectorID(detectorID, 0, i);
+         sb.append("<Detector");
+         appendAttribute(sb, "ID", MetadataTools.createLSID("Detector", i));
 
          String name = scopeData.getString(camera + "-Name", "");
          if (!name.isEmpty()) {
-            metadata_.setDetectorManufacturer(name, 0, i);
+            appendAttribute(sb, "Manufacturer", name);
          }
          String cameraName = scopeData.getString(camera + "-CameraName", "");
          if (!cameraName.isEmpty()) {
-            metadata_.setDetectorModel(cameraName, 0, i);
+            appendAttribute(sb, "Model", cameraName);
          }
          String offset = scopeData.getValueAsString(camera + "-Offset", "");
          if (!offset.isEmpty()) {
-            metadata_.setDetectorOffset(Double.parseDouble(offset), 0, i);
+            appendAttribute(sb, "Offset", Double.parseDouble(offset));
          }
          String cameraId = scopeData.getString(camera + "-CameraID", "");
          if (!cameraId.isEmpty()) {
-            metadata_.setDetectorSerialNumber(cameraId, 0, i);
+            appendAttribute(sb, "SerialNumber", cameraId);
+         }
+         sb.append("/>");
+      }
+      detectorsXML_ = sb.toString();
+   }
+
+   private static void appendAttribute(StringBuilder sb, String name, Object value) {
+      sb.append(' ').append(name).append("=\"");
+      appendEscaped(sb, String.valueOf(value), true);
+      sb.append('"');
+   }
+
+   /**
+    * Appends a value with its unit, in the form Bio-Formats uses for
+    * ome.units quantities; nothing is appended if the value is null.
+    */
+   private static void appendQuantity(StringBuilder sb, String name, Double value,
+                                      String unit) {
+      if (value != null) {
+         appendAttribute(sb, name, value);
+         appendAttribute(sb, name + "Unit", unit);
+      }
+   }
+
+   private static void appendEscaped(StringBuilder sb, String text, boolean isAttribute) {
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         switch (c) {
+            case '&':
+               sb.append("&amp;");
+               break;
+            case '<':
+               sb.append("&lt;");
+               break;
+            case '>':
+               sb.append("&gt;");
+               break;
+            case '"':
+               sb.append(isAttribute ? "&quot;" : "\"");
+               break;
+            case '\t':
+            case '\n':
+            case '\r':
+               // Line breaks in attributes would be normalized to spaces
+               if (isAttribute) {
+                  sb.append("&#").append((int) c).append(';');
+               } else {
+                  sb.append(c);
+               }
+               break;
+            default:
+               // Other control characters are not allowed in XML 1.0
+               if (c >= 0x20) {
+                  sb.append(c);
+               }
          }
       }
    }
@@ -447,4 +774,4 @@ public final class OMEMetadata {
                + NumberUtils.intToCoreString(position);
    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,251 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import org.micromanager.data.internal.PropertyKey;
+
+/**
+ * Encodes the JSON metadata of image planes as null-terminated UTF-8, in the
+ * same compact form that Gson produces with HTML escaping disabled.
+ *
+ * <p>Unlike Gson, the encoder writes bytes directly into a byte array that is
+ * reused for every plane, instead of going through a String.  The encoded
+ * names of the metadata keys (including the quotes and the colon) are
+ * computed once: those of all {@link PropertyKey}s up front, and others, such
+ * as the device property names of the scope data, when first seen.</p>
+ *
+ * <p>An instance is not thread safe; each MultipageTiffWriter has its own.</p>
+ */
+final class PlaneMetadataEncoder {
+   private static final int INITIAL_CAPACITY = 16 * 1024;
+   // Limits the memory held by names that are not PropertyKeys
+   private static final int MAX_CACHED_NAMES = 8192;
+   private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+   private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+   private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+   // Escaped by Gson, as they are line terminators in JavaScript
+   private static final char LINE_SEPARATOR = 0x2028;
+   private static final char PARAGRAPH_SEPARATOR = 0x2029;
+   private static final byte[] HEX = {
+         '0', '1', '2', '3', '4', '5', '6', '7',
+         '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+   private static final Map<String, byte[]> PROPERTY_KEY_NAMES;
+
+   static {
+      Map<String, byte[]> names = new HashMap<>();
+      for (PropertyKey key : PropertyKey.values()) {
+         names.put(key.key(), encodeName(key.key()));
+      }
+      PROPERTY_KEY_NAMES = Collections.unmodifiableMap(names);
+   }
+
+   private final Map<String, byte[]> names_ = new HashMap<>();
+   private byte[] bytes_;
+   private int length_;
+
+   PlaneMetadataEncoder() {
+      this(INITIAL_CAPACITY);
+   }
+
+   private PlaneMetadataEncoder(int capacity) {
+      bytes_ = new byte[capacity];
+   }
+
+   /**
+    * Encodes a JSON object, followed by a null byte.
+    *
+    * @param jo JSON to be encoded
+    * @return Buffer wrapping the encoded bytes; only valid until the next call
+    */
+   ByteBuffer encode(JsonObject jo) {
+      length_ = 0;
+      writeObject(jo);
+      ensureCapacity(1);
+      bytes_[length_++] = 0;
+      return ByteBuffer.wrap(bytes_, 0, length_);
+   }
+
+   private void writeElement(JsonElement je) {
+      if (je == null || je.isJsonNull()) {
+         write(NULL);
+      } else if (je.isJsonObject()) {
+         writeObject(je.getAsJsonObject());
+      } else if (je.isJsonArray()) {
+         writeArray(je.getAsJsonArray());
+      } else {
+         writePrimitive(je.getAsJsonPrimitive());
+      }
+   }
+
+   private void writeObject(JsonObject jo) {
+      writeByte('{');
+      boolean first = true;
+      for (Map.Entry<String, JsonElement> entry : jo.entrySet()) {
+         // Like Gson, which does not serialize nulls by default
+         if (entry.getValue() == null || entry.getValue().isJsonNull()) {
+            continue;
+         }
+         if (!first) {
+            writeByte(',');
+         }
+         first = false;
+         write(getName(entry.getKey()));
+         writeElement(entry.getValue());
+      }
+      writeByte('}');
+   }
+
+   private void writeArray(JsonArray ja) {
+      writeByte('[');
+      for (int i = 0; i < ja.size(); i++) {
+         if (i > 0) {
+            writeByte(',');
+         }
+         writeElement(ja.get(i));
+      }
+      writeByte(']');
+   }
+
+   private void writePrimitive(JsonPrimitive jp) {
+      if (jp.isString()) {
+         writeString(jp.getAsString());
+      } else if (jp.isBoolean()) {
+         write(jp.getAsBoolean() ? TRUE : FALSE);
+      } else {
+         String number = jp.getAsNumber().toString();
+         ensureCapacity(number.length());
+         for (int i = 0; i < number.length(); i++) {
+            bytes_[length_++] = (byte) number.charAt(i);
+         }
+      }
+   }
+
+   private byte[] getName(String name) {
+      byte[] encoded = PROPERTY_KEY_NAMES.get(name);
+      if (encoded != null) {
+         return encoded;
+      }
+      encoded = names_.get(name);
+      if (encoded == null) {
+         encoded = encodeName(name);
+         if (names_.size() < MAX_CACHED_NAMES) {
+            names_.put(name, encoded);
+         }
+      }
+      return encoded;
+   }
+
+   private static byte[] encodeName(String name) {
+      PlaneMetadataEncoder encoder = new PlaneMetadataEncoder(name.length() * 6 + 3);
+      encoder.writeString(name);
+      encoder.writeByte(':');
+      byte[] result = new byte[encoder.length_];
+      System.arraycopy(encoder.bytes_, 0, result, 0, encoder.length_);
+      return result;
+   }
+
+   /**
+    * Writes a quoted string, escaped as Gson does with HTML escaping
+    * disabled.  Unpaired surrogates are written as '?', like
+    * String.getBytes() does.
+    */
+   private void writeString(String s) {
+      int n = s.length();
+      // Worst case is 6 bytes (an escaped control character) per char
+      ensureCapacity(n * 6 + 2);
+      byte[] b = bytes_;
+      int pos = length_;
+      b[pos++] = '"';
+      for (int i = 0; i < n; i++) {
+         char c = s.charAt(i);
+         if (c < 0x80) {
+            if (c >= 0x20 && c != '"' && c != '\\') {
+               b[pos++] = (byte) c;
+               continue;
+            }
+            b[pos++] = '\\';
+            switch (c) {
+               case '"':
+               case '\\':
+                  b[pos++] = (byte) c;
+                  break;
+               case '\t':
+                  b[pos++] = 't';
+                  break;
+               case '\b':
+                  b[pos++] = 'b';
+                  break;
+               case '\n':
+                  b[pos++] = 'n';
+                  break;
+               case '\r':
+                  b[pos++] = 'r';
+                  break;
+               case '\f':
+                  b[pos++] = 'f';
+                  break;
+               default:
+                  pos = putUnicodeEscape(b, pos, c);
+                  break;
+            }
+         } else if (c < 0x800) {
+            b[pos++] = (byte) (0xc0 | (c >> 6));
+            b[pos++] = (byte) (0x80 | (c & 0x3f));
+         } else if (c == LINE_SEPARATOR || c == PARAGRAPH_SEPARATOR) {
+            b[pos++] = '\\';
+            pos = putUnicodeEscape(b, pos, c);
+         } else if (Character.isHighSurrogate(c) && i + 1 < n
+               && Character.isLowSurrogate(s.charAt(i + 1))) {
+            int cp = Character.toCodePoint(c, s.charAt(++i));
+            b[pos++] = (byte) (0xf0 | (cp >> 18));
+            b[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            b[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            b[pos++] = (byte) (0x80 | (cp & 0x3f));
+         } else if (Character.isSurrogate(c)) {
+            b[pos++] = '?';
+         } else {
+            b[pos++] = (byte) (0xe0 | (c >> 12));
+            b[pos++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            b[pos++] = (byte) (0x80 | (c & 0x3f));
+         }
+      }
+      b[pos++] = '"';
+      length_ = pos;
+   }
+
+   private static int putUnicodeEscape(byte[] b, int pos, char c) {
+      b[pos++] = 'u';
+      b[pos++] = HEX[(c >> 12) & 0xf];
+      b[pos++] = HEX[(c >> 8) & 0xf];
+      b[pos++] = HEX[(c >> 4) & 0xf];
+      b[pos++] = HEX[c & 0xf];
+      return pos;
+   }
+
+   private void writeByte(char c) {
+      ensureCapacity(1);
+      bytes_[length_++] = (byte) c;
+   }
+
+   private void write(byte[] b) {
+      ensureCapacity(b.length);
+      System.arraycopy(b, 0, bytes_, length_, b.length);
+      length_ += b.length;
+   }
+
+   private void ensureCapacity(int additional) {
+      if (length_ + additional > bytes_.length) {
+         int capacity = Math.max(bytes_.length * 2, length_ + additional);
+         byte[] grown = new byte[capacity];
+         System.arraycopy(bytes_, 0, grown, 0, length_);
+         bytes_ = grown;
+      }
+   }
+}
@@ -25,10 +25,9 @@ import java.awt.Component;
 import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.ConcurrentModificationException;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -37,14 +36,21 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.CompletionService;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
+import org.micromanager.PropertyMap;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
@@ -52,13 +58,17 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.CommentsHelper;
+import org.micromanager.data.internal.CoordsIndex;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.ImageSizeChecker;
+import org.micromanager.data.internal.ScopeDataDeltas;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplaySettings;
+import org.micromanager.display.internal.imagestats.ImageStatsCache;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.MMException;
@@ -79,6 +89,14 @@ public final class StorageMultipageTiff implements Storage {
          "generate a metadata file when saving datasets as multipage TIFF files";
    private static final String SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS =
          "generate a separate multipage TIFF file for each stage position";
+   private static final String NUM_WRITING_THREADS =
+         "number of threads used to write separate multipage TIFF files in parallel";
+   private static final String MAX_PENDING_IMAGES =
+         "maximum number of images waiting to be written before acquisition is slowed down";
+   private static final String SHOULD_MEMORY_MAP_FILES =
+         "memory-map multipage TIFF files when reading saved datasets";
+   private static final int DEFAULT_NUM_WRITING_THREADS = 4;
+   private static final int DEFAULT_MAX_PENDING_IMAGES = 20;
    private static final HashSet<String> ALLOWED_AXES = new HashSet<>(
          Arrays.asList(Coords.CHANNEL, Coords.T, Coords.Z,
                Coords.STAGE_POSITION));
@@ -97,7 +115,21 @@ public final class StorageMultipageTiff implements Storage {
    private OMEMetadata omeMetadata_;
    private int lastFrame_ = 0;
    private int lastAcquiredPosition_ = 0;
-   private ThreadPoolExecutor writingExecutor_;
+   // Each file set (i.e., each position when splitting by position) is
+   // always written by the same single-threaded executor, so that writes to
+   // a file stay in order, while different files can be written in parallel.
+   private ThreadPoolExecutor[] writingExecutors_;
+   private int numWritingThreads_ = DEFAULT_NUM_WRITING_THREADS;
+   // Backpressure: putImage() blocks while this many images are waiting to
+   // be written
+   private int maxPendingImages_ = DEFAULT_MAX_PENDING_IMAGES;
+   private Semaphore pendingImagePermits_;
+   private boolean memoryMapFiles_ = false;
+   private boolean deltaEncodeScopeData_ = false;
+   private final AtomicInteger numPendingImages_ = new AtomicInteger(0);
+   private volatile int maxNumPendingImages_ = 0;
+   private volatile int numBackpressureStalls_ = 0;
+   private volatile long backpressureStallNs_ = 0;
    private Image firstImage_;
 
    // Images that are currently being written. We keep them around until
@@ -113,9 +145,17 @@ public final class StorageMultipageTiff implements Storage {
    // Map of image Coords to files
    private Map<Coords, MultipageTiffReader> coordsToReader_;
    private MultipageTiffReader lastReader_;
-   private Map<Coords, List<Coords>> coordsIndexedMissingC_;
+   private final CoordsIndex coordsIndex_ = new CoordsIndex();
    // Cache the axes that are in use
    private final Set<String> axesInUse_;
+   // Entries for the dataset index, added by the writers as files are finished
+   private final List<DatasetIndex.FileEntry> datasetIndexEntries_ = new ArrayList<>();
+   private String datasetIndexSummaryJSON_;
+   // Minimum and maximum pixel values, computed when the file sets are
+   // finished, or read from the dataset index
+   private final Map<Coords, long[]> coordsToIntensityRange_ = new ConcurrentHashMap<>();
+   // Receives the image statistics computed when the file sets are finished
+   private volatile ImageStatsCache.StatsFileWriter statsFileWriter_;
    // Keeps track of our maximum extent along each axis.
    private Coords maxIndices_;
 
@@ -125,6 +165,10 @@ public final class StorageMultipageTiff implements Storage {
          throws IOException {
       this(parent, store, dir, amInWriteMode, getShouldGenerateMetadataFile(),
             getShouldSplitPositions());
+      numWritingThreads_ = Math.max(1, getNumWritingThreads());
+      maxPendingImages_ = Math.max(1, getMaxPendingImages());
+      memoryMapFiles_ = !amInWriteMode && getShouldMemoryMapFilesWhenReading();
+      deltaEncodeScopeData_ = ScopeDataDeltas.getShouldDeltaEncodeScopeData();
    }
 
    /**
@@ -192,8 +236,56 @@ public final class StorageMultipageTiff implements Storage {
       }
    }
 
-   public ThreadPoolExecutor getWritingExecutor() {
-      return writingExecutor_;
+   /**
+    * Returns the executor that performs all writes to the files of the file
+    * set holding the given coords.
+    *
+    * @param coords Coords of an image in the file set
+    * @return Single threaded executor, or null when nothing has been written
+    */
+   public ThreadPoolExecutor getWritingExecutor(Coords coords) {
+      if (writingExecutors_ == null) {
+         return null;
+      }
+      return writingExecutors_[getFileSetIndex(coords) % writingExecutors_.length];
+   }
+
+   private int getFileSetIndex(Coords coords) {
+      if (splitByXYPosition_) {
+         return Math.max(0, coords.getStagePosition());
+      }
+      return 0;
+   }
+
+   /**
+    * Returns the number of images that were handed to this storage but are
+    * not yet written to disk.
+    */
+   public int getNumPendingImages() {
+      return numPendingImages_.get();
+   }
+
+   /**
+    * Returns the largest number of images that were waiting to be written at
+    * any one time.
+    */
+   public int getMaxNumPendingImages() {
+      return maxNumPendingImages_;
+   }
+
+   /**
+    * Returns how often putImage() had to wait because the number of pending
+    * images reached its maximum, i.e., how often the disk could not keep up.
+    */
+   public int getNumBackpressureStalls() {
+      return numBackpressureStalls_;
+   }
+
+   /**
+    * Returns the total time putImage() spent waiting for images to be written.
+    */
+   public long getBackpressureStallTimeMs() {
+      return TimeUnit.NANOSECONDS.toMillis(backpressureStallNs_);
    }
 
    /**
@@ -239,6 +331,10 @@ public final class StorageMultipageTiff implements Storage {
       MultipageTiffReader reader = null;
       File dir = new File(directory_);
 
+      if (openFromDatasetIndex(dir)) {
+         return;
+      }
+
       // Allow operation in headless mode.
       File[] listFiles = dir.listFiles();
       ProgressBar progressBar = null;
@@ -282,6 +378,54 @@ public final class StorageMultipageTiff implements Storage {
 
    }
 
+   /**
+    * Opens the dataset using the index written when it was finished, which
+    * avoids reading every file.
+    *
+    * @return false if there is no up-to-date index
+    */
+   private boolean openFromDatasetIndex(File dir) {
+      DatasetIndex index = DatasetIndex.read(dir);
+      if (index == null || index.getFiles().isEmpty()) {
+         return false;
+      }
+      try {
+         if (!CommentsHelper.hasAnnotation(store_)) {
+            // Comments still need to be converted from the files to an
+            // annotation, which only happens when reading the files
+            return false;
+         }
+         String summaryJSON = index.getSummaryJSON();
+         PropertyMap imageFormat = NonPropertyMapJSONFormats.imageFormat()
+               .fromJSON(summaryJSON);
+         DefaultSummaryMetadata summary = (DefaultSummaryMetadata)
+               DefaultSummaryMetadata.fromPropertyMap(
+                     NonPropertyMapJSONFormats.summaryMetadata().fromJSON(summaryJSON));
+         for (DatasetIndex.FileEntry entry : index.getFiles()) {
+            MultipageTiffReader reader = new MultipageTiffReader(this,
+                  new File(dir, entry.fileName), entry, summary, imageFormat);
+            for (DatasetIndex.Plane plane : entry.planes) {
+               if (plane.min >= 0 && plane.max >= 0) {
+                  coordsToIntensityRange_.put(plane.coords,
+                        new long[] {plane.min, plane.max});
+               }
+            }
+            addReader(reader);
+         }
+         setSummaryMetadata(summary, false);
+      } catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to open dataset from its index");
+         coordsToReader_.clear();
+         coordsIndex_.clear();
+         coordsToIntensityRange_.clear();
+         axesInUse_.clear();
+         lastFrameOpenedDataSet_ = -1;
+         firstImage_ = null;
+         return false;
+      }
+      return true;
+   }
+
    private MultipageTiffReader loadFile(File f) {
       MultipageTiffReader reader = null;
       try {
@@ -305,30 +449,94 @@ public final class StorageMultipageTiff implements Storage {
             // Open the file normally.
             reader = new MultipageTiffReader(this, f);
          }
-         Set<Coords> readerCoords = reader.getIndexKeys();
-         if (readerCoords != null) {
-            coordsIndexedMissingC_ = new HashMap<>();
-            for (Coords coords : readerCoords) {
-               coordsToReader_.put(coords, reader);
-               axesInUse_.addAll(coords.getAxes());
-               final Coords coordsNoC = coords.copyRemovingAxes(Coords.C);
-               if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
-                  coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(ALLOWED_AXES.size()));
-               }
-               coordsIndexedMissingC_.get(coordsNoC).add(coords);
-               lastFrameOpenedDataSet_ = Math.max(coords.getT(),
-                     lastFrameOpenedDataSet_);
-               if (firstImage_ == null) {
-                  firstImage_ = reader.readImage(coords);
-               }
-            }
-         }
+         addReader(reader);
       } catch (IOException ex) {
          ReportingUtils.showError(ex, "There was an error reading the file: " + f.toString());
       }
       return reader;
    }
 
+   private void addReader(MultipageTiffReader reader) throws IOException {
+      Set<Coords> readerCoords = reader.getIndexKeys();
+      if (readerCoords != null) {
+         for (Coords coords : readerCoords) {
+            coordsToReader_.put(coords, reader);
+            axesInUse_.addAll(coords.getAxes());
+            coordsIndex_.add(coords);
+            lastFrameOpenedDataSet_ = Math.max(coords.getT(),
+                  lastFrameOpenedDataSet_);
+            if (firstImage_ == null) {
+               firstImage_ = reader.readImage(coords);
+            }
+         }
+      }
+   }
+
+   /**
+    * Called by the writers (on their writing thread) when a file is finished.
+    *
+    * @param entry       Location of all images in the file
+    * @param summaryJSON Summary metadata as written to the file
+    */
+   void addToDatasetIndex(DatasetIndex.FileEntry entry, String summaryJSON) {
+      synchronized (datasetIndexEntries_) {
+         // A file that is finished again replaces its earlier entry
+         datasetIndexEntries_.removeIf(e -> e.fileName.equals(entry.fileName));
+         datasetIndexEntries_.add(entry);
+         datasetIndexSummaryJSON_ = summaryJSON;
+      }
+   }
+
+   private void writeDatasetIndex() {
+      synchronized (datasetIndexEntries_) {
+         if (datasetIndexEntries_.isEmpty()) {
+            return;
+         }
+         List<DatasetIndex.FileEntry> entries = new ArrayList<>(datasetIndexEntries_.size());
+         for (DatasetIndex.FileEntry entry : datasetIndexEntries_) {
+            entries.add(entry.withIntensityRanges(coordsToIntensityRange_));
+         }
+         try {
+            new DatasetIndex(datasetIndexSummaryJSON_, entries)
+                  .write(new File(directory_));
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Failed to write dataset index");
+         }
+      }
+   }
+
+   /**
+    * Returns the writer of the image stats file, to which the finishing
+    * threads add the statistics of the written images.
+    *
+    * @return the writer, or null if the stats file could not be created
+    */
+   ImageStatsCache.StatsFileWriter getStatsFileWriter() {
+      return statsFileWriter_;
+   }
+
+   /**
+    * Called on the finishing threads with the minimum and maximum pixel
+    * value of a written image.
+    */
+   void setIntensityRange(Coords coords, long min, long max) {
+      coordsToIntensityRange_.put(coords, new long[] {min, max});
+   }
+
+   /**
+    * Returns the minimum and maximum pixel value of an image, when known
+    * without reading the image.  This is the case once the dataset is
+    * finished, and for datasets opened using the dataset index written when
+    * they were saved.
+    *
+    * @param coords Coords of the image
+    * @return Array with minimum and maximum, or null if unknown
+    */
+   public long[] getStoredIntensityRange(Coords coords) {
+      long[] range = coordsToIntensityRange_.get(coords);
+      return range == null ? null : range.clone();
+   }
+
    @Override
    public void putImage(Image newImage) {
       DefaultImage image = (DefaultImage) newImage;
@@ -354,12 +562,7 @@ public final class StorageMultipageTiff implements Storage {
       } catch (MMException | InterruptedException | ExecutionException | IOException e) {
          ReportingUtils.showError(e, "Failed to write image at " + image.getCoords());
       }
-      // index the coords
-      Coords coordsNoC = image.getCoords().copyRemovingAxes(Coords.C);
-      if (!coordsIndexedMissingC_.containsKey(coordsNoC)) {
-         coordsIndexedMissingC_.put(coordsNoC, new ArrayList<>(ALLOWED_AXES.size()));
-      }
-      coordsIndexedMissingC_.get(coordsNoC).add(image.getCoords());
+      coordsIndex_.add(image.getCoords());
    }
 
    @Override
@@ -371,7 +574,7 @@ public final class StorageMultipageTiff implements Storage {
          throws MMException, InterruptedException, ExecutionException, IOException {
       writeImage(image);
       if (waitForWritingToFinish) {
-         Future<?> f = writingExecutor_.submit(() -> {
+         Future<?> f = getWritingExecutor(image.getCoords()).submit(() -> {
          });
          f.get();
       }
@@ -391,18 +594,52 @@ public final class StorageMultipageTiff implements Storage {
          throw new MMException("This ImageFileManager is read-only.");
       }
 
+      if (writingExecutors_ == null) {
+         writingExecutors_ = new ThreadPoolExecutor[splitByXYPosition_ ? numWritingThreads_ : 1];
+         for (int i = 0; i < writingExecutors_.length; i++) {
+            writingExecutors_[i] = new ThreadPoolExecutor(1, 1, 0,
+                  TimeUnit.NANOSECONDS,
+                  new LinkedBlockingQueue<>(),
+                  ThreadFactoryFactory.createThreadFactory("StorageMultiPageTiff"));
+         }
+         pendingImagePermits_ = new Semaphore(maxPendingImages_);
+      }
+      waitForSpaceInWritingQueue();
+
       final Coords coords = image.getCoords();
       synchronized (coordsToPendingImage_) {
          coordsToPendingImage_.put(coords, image);
       }
 
-      startWritingTask(image);
+      try {
+         startWritingTask(image);
+      } finally {
+         getWritingExecutor(coords).submit(() -> {
+            synchronized (coordsToPendingImage_) {
+               // The same coords may have been written again in the meantime
+               coordsToPendingImage_.remove(coords, image);
+            }
+            numPendingImages_.decrementAndGet();
+            pendingImagePermits_.release();
+         });
+      }
+   }
 
-      writingExecutor_.submit(() -> {
-         synchronized (coordsToPendingImage_) {
-            coordsToPendingImage_.remove(coords);
+   private void waitForSpaceInWritingQueue() {
+      if (!pendingImagePermits_.tryAcquire()) {
+         if (numBackpressureStalls_ == 0) {
+            ReportingUtils.logMessage("Warning: writing queue behind by "
+                  + numPendingImages_.get() + " images.");
          }
-      });
+         numBackpressureStalls_++;
+         long start = System.nanoTime();
+         pendingImagePermits_.acquireUninterruptibly();
+         backpressureStallNs_ += System.nanoTime() - start;
+      }
+      int numPending = numPendingImages_.incrementAndGet();
+      if (numPending > maxNumPendingImages_) {
+         maxNumPendingImages_ = numPending;
+      }
    }
 
    /**
@@ -422,21 +659,7 @@ public final class StorageMultipageTiff implements Storage {
          }
       }
 
-      // initialize writing executor
-      if (writingExecutor_ == null) {
-         writingExecutor_ = new ThreadPoolExecutor(1, 1, 0,
-               TimeUnit.NANOSECONDS,
-               new LinkedBlockingQueue<>(),
-               ThreadFactoryFactory.createThreadFactory("StorageMultiPageTiff"));
-      }
-      int fileSetIndex = 0;
-      if (splitByXYPosition_) {
-         fileSetIndex = image.getCoords().getStagePosition();
-         if (fileSetIndex == -1) {
-            // No position axis, so just default to 0.
-            fileSetIndex = 0;
-         }
-      }
+      int fileSetIndex = getFileSetIndex(image.getCoords());
 
       if (omeMetadata_ == null) {
          omeMetadata_ = new OMEMetadata(this);
@@ -511,18 +734,18 @@ public final class StorageMultipageTiff implements Storage {
             ReportingUtils.logError("Couldn't fill in missing frames in OME");
          }
 
-         //figure out where the full string of OME metadata can be stored 
-         String fullOMEXMLMetadata = omeMetadata_.toString();
-         int length = fullOMEXMLMetadata.length();
+         //figure out where the full string of OME metadata can be stored.
+         //The OME-XML is not built in memory, but streamed into that file
+         //from the spooled plane metadata.
+         final StreamedText fullOMEXMLMetadata = omeMetadata_;
+         long length = fullOMEXMLMetadata.getUTF8Length();
          String uuid = null;
          String filename = null;
          FileSet master = null;
-         String ijDescription = getIJDescriptionString();
          for (FileSet p : positionToFileSet_.values()) {
             if (p.hasSpaceForFullOMEXML(length)) {
                uuid = p.getCurrentUUID();
                filename = p.getCurrentFilename();
-               p.finished(fullOMEXMLMetadata, ijDescription);
                master = p;
                break;
             }
@@ -535,42 +758,95 @@ public final class StorageMultipageTiff implements Storage {
             //make a .ome text file
             filename = "OMEXMLMetadata.ome";
             uuid = "urn:uuid:" + UUID.randomUUID();
-            PrintWriter pw = new PrintWriter(directory_ + File.separator + filename);
-            pw.print(fullOMEXMLMetadata);
-            pw.close();
+            try (RandomAccessFile omeFile = new RandomAccessFile(
+                  directory_ + File.separator + filename, "rw")) {
+               omeFile.setLength(0);
+               fullOMEXMLMetadata.writeUTF8(omeFile.getChannel(), 0);
+            }
          }
 
-         String partialOME = OMEMetadata.getOMEStringPointerToMasterFile(filename, uuid);
+         final String partialOME = OMEMetadata.getOMEStringPointerToMasterFile(
+               filename, uuid);
+         final String ijDescription = getIJDescriptionString();
+         // Comments are the same for all files, and expensive to collect for
+         // large datasets, so do it only once
+         final String summaryComment = CommentsHelper.getSummaryComment(store_);
+         final byte[] comments = MultipageTiffWriter.createComments(this);
+         CommentsHelper.saveComments(store_);
 
-         for (FileSet p : positionToFileSet_.values()) {
-            if (p == master) {
-               continue;
-            }
-            p.finished(partialOME, ijDescription);
-            count++;
-            if (progressBar != null) {
-               progressBar.setProgress(count);
+         try {
+            statsFileWriter_ = ImageStatsCache.StatsFileWriter.create(new File(directory_));
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Failed to create image stats file");
+         }
+
+         // File sets are finished in parallel; the actual writing is done by
+         // the writing executor of each file set
+         ExecutorService finishingExecutor = Executors.newFixedThreadPool(
+               Math.min(numWritingThreads_, positionToFileSet_.size()),
+               ThreadFactoryFactory.createThreadFactory("StorageMultipageTiff finishing"));
+         CompletionService<Void> finishing =
+               new ExecutorCompletionService<>(finishingExecutor);
+         for (final FileSet p : positionToFileSet_.values()) {
+            final StreamedText omeXML = p == master
+                  ? fullOMEXMLMetadata : StreamedText.of(partialOME);
+            finishing.submit(() -> {
+               p.finished(omeXML, ijDescription, summaryComment, comments);
+               return null;
+            });
+         }
+         // The finishing tasks hand their writes to the writing executors,
+         // so all of them must have run before those are shut down.  Being
+         // interrupted does not end any of the waits below, as the files
+         // (and the OME metadata spool that is streamed into them) are in
+         // use until then.
+         boolean interrupted = false;
+         try {
+            int numFinished = 0;
+            while (numFinished < positionToFileSet_.size()) {
+               try {
+                  finishing.take().get();
+               } catch (ExecutionException e) {
+                  ReportingUtils.logError(e.getCause(), "Failed to finish files");
+               } catch (InterruptedException e) {
+                  ReportingUtils.logError("File finishing thread interrupted");
+                  interrupted = true;
+                  continue;
+               }
+               numFinished++;
+               count++;
+               if (progressBar != null) {
+                  progressBar.setProgress(count);
+               }
             }
+         } finally {
+            finishingExecutor.shutdown();
          }
-         // shut down writing executor--pause here until all tasks have finished
+         closeStatsFileWriter();
+         // shut down writing executors--pause here until all tasks have finished
          // writing so that no attempt is made to close the dataset (and thus
          // the FileChannel) before everything has finished writing make sure
          // all images have finished writing if they are on separate thread
-         if (writingExecutor_ != null && !writingExecutor_.isShutdown()) {
-            writingExecutor_.shutdown();
-            try {
-               // Wait for tasks to finish.
-               int i = 0;
-               while (!writingExecutor_.awaitTermination(4, TimeUnit.SECONDS)) {
-                  ReportingUtils.logMessage(
-                        "Waiting for image stack to finish writing (" + i + ")...");
-                  i++;
-               }
-            } catch (InterruptedException e) {
-               ReportingUtils.logError("File finishing thread interrupted");
-               Thread.interrupted();
+         if (writingExecutors_ != null) {
+            for (ThreadPoolExecutor executor : writingExecutors_) {
+               executor.shutdown();
+            }
+            for (ThreadPoolExecutor executor : writingExecutors_) {
+               interrupted |= awaitTerminationUninterruptibly(executor);
+            }
+            // Only now are the files complete, so that their size and
+            // modification time can be recorded
+            writeDatasetIndex();
+            if (numBackpressureStalls_ > 0) {
+               ReportingUtils.logMessage("Multipage TIFF writing could not keep up "
+                     + numBackpressureStalls_ + " times, waited for a total of "
+                     + getBackpressureStallTimeMs() + " ms; at most "
+                     + maxNumPendingImages_ + " images were waiting to be written");
             }
          }
+         if (interrupted) {
+            Thread.currentThread().interrupt();
+         }
       } catch (IOException ex) {
          ReportingUtils.logError(ex);
       } finally {
@@ -578,13 +854,72 @@ public final class StorageMultipageTiff implements Storage {
             final ProgressBar pb = progressBar;
             SwingUtilities.invokeLater(() -> pb.setVisible(false));
          }
-         // release resources
+         // release resources, but only once the writing executors have
+         // terminated, as their queued tasks may still stream the OME-XML
+         // from the spool (which is otherwise deleted on exit)
+         if (omeMetadata_ != null) {
+            if (haveWritingExecutorsTerminated()) {
+               omeMetadata_.close();
+            } else {
+               ReportingUtils.logError("Image stack files are still being written; "
+                     + "keeping the OME metadata spool file until exit");
+            }
+         }
          omeMetadata_ = null;
+         closeStatsFileWriter();
          store_.unregisterForEvents(this);
       }
       finished_ = true;
    }
 
+   private void closeStatsFileWriter() {
+      if (statsFileWriter_ == null) {
+         return;
+      }
+      try {
+         statsFileWriter_.close();
+      } catch (IOException e) {
+         ReportingUtils.logError(e, "Failed to write image stats file");
+      }
+      statsFileWriter_ = null;
+   }
+
+   /**
+    * Waits until the executor has run all its tasks.  Being interrupted does
+    * not end the wait.
+    *
+    * @return whether the thread was interrupted while waiting
+    */
+   private static boolean awaitTerminationUninterruptibly(ExecutorService executor) {
+      boolean interrupted = false;
+      int i = 0;
+      while (true) {
+         try {
+            if (executor.awaitTermination(4, TimeUnit.SECONDS)) {
+               return interrupted;
+            }
+            ReportingUtils.logMessage(
+                  "Waiting for image stack to finish writing (" + i + ")...");
+            i++;
+         } catch (InterruptedException e) {
+            ReportingUtils.logError("File finishing thread interrupted");
+            interrupted = true;
+         }
+      }
+   }
+
+   private boolean haveWritingExecutorsTerminated() {
+      if (writingExecutors_ == null) {
+         return true;
+      }
+      for (ThreadPoolExecutor executor : writingExecutors_) {
+         if (!executor.isTerminated()) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    public boolean isFinished() {
       return !amInWriteMode_;
    }
@@ -599,17 +934,6 @@ public final class StorageMultipageTiff implements Storage {
       summaryMetadataString_ = NonPropertyMapJSONFormats.summaryMetadata()
             .toJSON(summary.toPropertyMap());
 
-      // setSummaryMetadata must be called before adding images to the store, so use this moment
-      // to smartly initialize several HashMaps
-      Coords dims = summaryMetadata_.getIntendedDimensions();
-      int nrImagesNoC = 1;
-      for (String axis : dims.getAxes()) {
-         if (!axis.equals(Coords.CHANNEL)) {
-            nrImagesNoC *= dims.getIndex(axis);
-         }
-      }
-      coordsIndexedMissingC_ = new HashMap<>(nrImagesNoC);
-
       // TODO: under what circumstances can coordsToReader_ already contain data?
       Map<Coords, MultipageTiffReader> oldImageMap = coordsToReader_;
       coordsToReader_ = new HashMap<>();
@@ -815,6 +1139,18 @@ public final class StorageMultipageTiff implements Storage {
       lastFrame_ = Math.max(frame, lastFrame_);
    }
 
+   /**
+    * Returns the number of images that each file set holds once the
+    * acquisition is complete, or -1 if this is not known in advance.
+    */
+   int getExpectedNumImagesPerFileSet() {
+      if (!splitByXYPosition_ || summaryMetadata_.getIntendedDimensions() == null) {
+         return -1;
+      }
+      return getIntendedSize(Coords.T) * getIntendedSize(Coords.Z)
+            * getIntendedSize(Coords.CHANNEL);
+   }
+
    public void updateLastPosition(int pos) {
       lastAcquiredPosition_ = Math.max(pos, lastAcquiredPosition_);
    }
@@ -939,58 +1275,34 @@ public final class StorageMultipageTiff implements Storage {
    @Override
    public List<Image> getImagesIgnoringAxes(Coords coords, String... ignoreTheseAxes)
          throws IOException {
-      HashSet<Image> result = new HashSet<>();
+      Map<Coords, Image> result = new HashMap<>();
       synchronized (coordsToPendingImage_) {
          for (Coords imageCoords : coordsToPendingImage_.keySet()) {
             if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
-               result.add(coordsToPendingImage_.get(imageCoords));
+               result.put(imageCoords, coordsToPendingImage_.get(imageCoords));
             }
          }
       }
-      // Optimization: traversing large HashMaps is costly, so avoid that when there is no need
-      // without this, there is noticeable slowdown for one axis data > ~10,000 images.
-      // An alternative optimization approach is to keep collections of coords
-      // for all possible ignoredAxes.  There is more upfront work involved but may be
-      // needed for fast multi-camera imaging.
-      boolean haveIgnoredAxes = false;
-      for (String axis : ignoreTheseAxes) {
-         if (axesInUse_.contains(axis)) {
-            haveIgnoredAxes = true;
-            break;
+      // The index answers in time proportional to the number of matches,
+      // whichever axes are ignored.
+      for (Coords imageCoords : coordsIndex_.getMatching(coords, ignoreTheseAxes)) {
+         if (result.containsKey(imageCoords)) {
+            continue;
          }
-      }
-      if (!haveIgnoredAxes) {
-         result.add(coordsToReader_.get(coords).readImage(coords));
-      } else {
-         // special case: if the ignored axis is C, use a special index to find the Coords
-         // otherwise, the search will be very expensive (which will  be the case for other
-         // axes) and result in noticaeble slowodwns with large datasetsz
-         if (ignoreTheseAxes[0].equals(Coords.CHANNEL)
-               && coordsIndexedMissingC_.containsKey(coords)) {
-            for (Coords tmpCoords : coordsIndexedMissingC_.get(coords)) {
-               result.add(coordsToReader_.get(tmpCoords).readImage(tmpCoords));
-            }
-         } else {
-            // Brute force it.  This will be slow with large data sets
-            // Note that coordsToReader_ can be modified at the same time,
-            // catch ConcurrentModificationException rather than incur the cost
-            // of a lock that could slow down insertions
-            try {
-               for (Coords imageCoords : coordsToReader_.keySet()) {
-                  if (coords.equals(imageCoords.copyRemovingAxes(ignoreTheseAxes))) {
-                     try {
-                        result.add(coordsToReader_.get(imageCoords).readImage(imageCoords));
-                     } catch (IOException ex) {
-                        ReportingUtils.logError("Failed to read image at " + imageCoords);
-                     }
-                  }
-               }
-            } catch (ConcurrentModificationException cme) {
-               ReportingUtils.logError(cme, "coordsToReader_ was modified while iterating");
+         MultipageTiffReader reader = coordsToReader_.get(imageCoords);
+         if (reader == null) {
+            continue;
+         }
+         try {
+            Image image = reader.readImage(imageCoords);
+            if (image != null) {
+               result.put(imageCoords, image);
             }
+         } catch (IOException ex) {
+            ReportingUtils.logError("Failed to read image at " + imageCoords);
          }
       }
-      return new ArrayList<>(result);
+      return new ArrayList<>(result.values());
    }
 
 
@@ -1072,6 +1384,61 @@ public final class StorageMultipageTiff implements Storage {
             .putBoolean(SHOULD_GENERATE_METADATA_FILE, shouldGen);
    }
 
+   public static int getNumWritingThreads() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getInteger(NUM_WRITING_THREADS, DEFAULT_NUM_WRITING_THREADS);
+   }
+
+   public static void setNumWritingThreads(int numThreads) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putInteger(NUM_WRITING_THREADS, numThreads);
+   }
+
+   public static int getMaxPendingImages() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getInteger(MAX_PENDING_IMAGES, DEFAULT_MAX_PENDING_IMAGES);
+   }
+
+   public static void setMaxPendingImages(int maxPending) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putInteger(MAX_PENDING_IMAGES, maxPending);
+   }
+
+   /**
+    * Whether files are memory-mapped when reading a saved dataset.  If so,
+    * images are returned without copying their pixels (they are read-only
+    * views of the files), and image metadata are only parsed when requested,
+    * which makes browsing through large datasets much cheaper.  Note that on
+    * Windows, mapped files cannot be deleted until the images referring to
+    * them have been garbage collected.
+    *
+    * @return true if images should be read as views of memory-mapped files
+    */
+   boolean getShouldMemoryMapFiles() {
+      return memoryMapFiles_;
+   }
+
+   /**
+    * Whether images written to the files store only the scope data that
+    * differ from those of the first image of the file (see
+    * {@link ScopeDataDeltas}).
+    *
+    * @return true if scope data are delta encoded
+    */
+   boolean getShouldDeltaEncodeScopeData() {
+      return deltaEncodeScopeData_;
+   }
+
+   public static boolean getShouldMemoryMapFilesWhenReading() {
+      return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .getBoolean(SHOULD_MEMORY_MAP_FILES, false);
+   }
+
+   public static void setShouldMemoryMapFilesWhenReading(boolean shouldMap) {
+      MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
+            .putBoolean(SHOULD_MEMORY_MAP_FILES, shouldMap);
+   }
+
    public static boolean getShouldSplitPositions() {
       return MMStudio.getInstance().profile().getSettings(StorageMultipageTiff.class)
             .getBoolean(SHOULD_USE_SEPARATE_FILES_FOR_POSITIONS, true);
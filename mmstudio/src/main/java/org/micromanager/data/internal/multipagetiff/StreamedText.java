@@ -0,0 +1,99 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Text that is written to a file as UTF-8 without first being encoded as a
+ * whole, such as the image descriptions of a multipage TIFF file.  The length
+ * must be known before writing, as it is recorded in the IFD entry of the
+ * description.
+ */
+interface StreamedText {
+   /**
+    * @return Number of bytes that {@link #writeUTF8} will write
+    */
+   long getUTF8Length();
+
+   /**
+    * Writes the text, without changing the position of the channel.
+    *
+    * @param channel  Channel to write to
+    * @param position Position in the channel at which to start writing
+    * @return Number of bytes written
+    * @throws IOException if writing fails
+    */
+   long writeUTF8(FileChannel channel, long position) throws IOException;
+
+   /**
+    * Returns a StreamedText that encodes a String in pieces while it is
+    * written, so that the String is never held in memory a second time as
+    * bytes.
+    */
+   static StreamedText of(final String text) {
+      return new StreamedText() {
+         private static final int CHUNK_SIZE = 1 << 20;
+
+         @Override
+         public long getUTF8Length() {
+            return StreamedText.getUTF8Length(text);
+         }
+
+         @Override
+         public long writeUTF8(FileChannel channel, long position) throws IOException {
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                  .onMalformedInput(CodingErrorAction.REPLACE)
+                  .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            CharBuffer chars = CharBuffer.wrap(text);
+            ByteBuffer chunk = ByteBuffer.allocate(
+                  (int) Math.max(16, Math.min(CHUNK_SIZE, getUTF8Length())));
+            long filePos = position;
+            CoderResult result;
+            do {
+               result = encoder.encode(chars, chunk, true);
+               if (result.isUnderflow()) {
+                  encoder.flush(chunk);
+               }
+               chunk.flip();
+               while (chunk.hasRemaining()) {
+                  filePos += channel.write(chunk, filePos);
+               }
+               chunk.clear();
+            } while (result.isOverflow());
+            return filePos - position;
+         }
+      };
+   }
+
+   /**
+    * Returns the number of bytes of the UTF-8 encoding of s, with malformed
+    * surrogates replaced by a single byte.
+    */
+   static long getUTF8Length(CharSequence s) {
+      long length = 0;
+      int n = s.length();
+      for (int i = 0; i < n; i++) {
+         char c = s.charAt(i);
+         if (c < 0x80) {
+            length += 1;
+         } else if (c < 0x800) {
+            length += 2;
+         } else if (Character.isHighSurrogate(c) && i + 1 < n
+               && Character.isLowSurrogate(s.charAt(i + 1))) {
+            length += 4;
+            i++;
+         } else if (Character.isSurrogate(c)) {
+            length += 1;
+         } else {
+            length += 3;
+         }
+      }
+      return length;
+   }
+}
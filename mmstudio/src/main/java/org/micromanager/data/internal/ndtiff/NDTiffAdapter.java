@@ -2,7 +2,7 @@ package org.micromanager.data.internal.ndtiff;
 
 import com.google.common.eventbus.Subscribe;
 import com.google.gson.JsonElement;
-import com.google.gson.JsonParser;
+import com.google.gson.JsonObject;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
@@ -10,12 +10,14 @@ import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
 import mmcorej.TaggedImage;
 import mmcorej.org.json.JSONException;
 import mmcorej.org.json.JSONObject;
+import org.micromanager.PropertyMap;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProviderHasNewSummaryMetadataEvent;
@@ -24,12 +26,15 @@ import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
 import org.micromanager.data.Storage;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.CoordsIndex;
 import org.micromanager.data.internal.DefaultDatastore;
 import org.micromanager.data.internal.DefaultImage;
 import org.micromanager.data.internal.DefaultMetadata;
 import org.micromanager.data.internal.DefaultSummaryMetadata;
 import org.micromanager.data.internal.ImageSizeChecker;
 import org.micromanager.data.internal.PropertyKey;
+import org.micromanager.data.internal.ScopeDataDeltas;
+import org.micromanager.internal.propertymap.JSONObjectToGson;
 import org.micromanager.internal.propertymap.NonPropertyMapJSONFormats;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.ndtiffstorage.EssentialImageMetadata;
@@ -50,12 +55,15 @@ public class NDTiffAdapter implements Storage {
    private NDTiffAPI storage_;
    private DefaultDatastore store_;
    private SummaryMetadata summaryMetadata_ = (new DefaultSummaryMetadata.Builder()).build();
-   // ShadowList of Coords in the datastore.  In read mode derived from the storage, in write mode
-   // added whenever an image is added
-   private final List<Coords> coords_;
-   // ShadowList of Coords indexed by Coords missing channel.
-   // In read mode derived from the storage, in write mode added whenever an image is added
-   private final Map<Coords, List<Coords>> coordsIndexedMissingC_;
+   // Shadow index of Coords in the datastore.  In read mode derived from the storage, in write
+   // mode added whenever an image is added
+   private final CoordsIndex coordsIndex_;
+   // Delta encoding of scope data: when writing, the first image of each
+   // stage position that has scope data is the baseline of the others
+   private final boolean deltaEncodeScopeData_;
+   private final HashMap<Integer, Coords> positionToBaseline_ = new HashMap<>();
+   // Scope data of baseline images
+   private final Map<Coords, PropertyMap> baselineScopeData_ = new ConcurrentHashMap<>();
 
    /**
     * Constructor of NDTiffAdapter.
@@ -74,25 +82,16 @@ public class NDTiffAdapter implements Storage {
 
       store_.setSavePath(dir);
       store_.setName(new File(dir).getName());
-      coords_ = new ArrayList<>();
-      coordsIndexedMissingC_ = new HashMap<>();
+      coordsIndex_ = new CoordsIndex();
+      deltaEncodeScopeData_ = amInWriteMode && ScopeDataDeltas.getShouldDeltaEncodeScopeData();
 
       // If not writing, wait until summary metadata set to create storage
       if (!amInWriteMode) {
          storage_ = new NDTiffStorage(dir);
-         getUnorderedImageCoords().forEach(this::addCoordsToIndex);
+         getUnorderedImageCoords().forEach(coordsIndex_::add);
       }
    }
 
-   private void addCoordsToIndex(Coords coords) {
-      coords_.add(coords);
-      Coords coordMissingC = coords.copyRemovingAxes(Coords.C);
-      if (!coordsIndexedMissingC_.containsKey(coordMissingC)) {
-         coordsIndexedMissingC_.put(coordMissingC, new LinkedList<>());
-      }
-      coordsIndexedMissingC_.get(coordMissingC).add(coords);
-   }
-
    public static boolean isNDTiffDataSet(String dir) {
       return new File(dir + (dir.endsWith(File.separator)
               ? "" : File.separator) + "NDTiff.index").exists();
@@ -184,8 +183,35 @@ public class NDTiffAdapter implements Storage {
       // A JSONObject again, and then it gets converted to string again in NDTiffStorage
       // Certainly inefficient, possibly performance limitiing depending on which
       // Thread this is called on.
-      String mdString = NonPropertyMapJSONFormats.metadata().toJSON(
-              ((DefaultMetadata) image.getMetadata()).toPropertyMap());
+      Metadata metadata = image.getMetadata();
+      Coords baselineCoords = null;
+      if (deltaEncodeScopeData_) {
+         int position = image.getCoords().getStagePosition();
+         Coords baseline = positionToBaseline_.get(position);
+         if (baseline == null) {
+            if (metadata.getScopeData() != null) {
+               positionToBaseline_.put(position, image.getCoords());
+               baselineScopeData_.put(image.getCoords(), metadata.getScopeData());
+            }
+         } else {
+            Metadata delta = ScopeDataDeltas.createDelta(metadata,
+                  baselineScopeData_.get(baseline));
+            if (delta != null) {
+               metadata = delta;
+               baselineCoords = baseline;
+            }
+         }
+      }
+      String mdString;
+      if (baselineCoords == null) {
+         mdString = NonPropertyMapJSONFormats.metadata().toJSON(
+                 ((DefaultMetadata) metadata).toPropertyMap());
+      } else {
+         JsonObject jo = NonPropertyMapJSONFormats.metadata().toGson(
+                 ((DefaultMetadata) metadata).toPropertyMap()).getAsJsonObject();
+         ScopeDataDeltas.addBaselineCoords(jo, baselineCoords);
+         mdString = jo.toString();
+      }
 
       JSONObject json = null;
       try {
@@ -197,7 +223,7 @@ public class NDTiffAdapter implements Storage {
       int bitDepth = image.getBytesPerPixel() * 8;
       storage_.putImage(image.getRawPixels(), json, axes, rgb, bitDepth,
               image.getHeight(), image.getWidth());
-      addCoordsToIndex(image.getCoords());
+      coordsIndex_.add(image.getCoords());
    }
 
    @Override
@@ -266,36 +292,15 @@ public class NDTiffAdapter implements Storage {
    @Override
    public List<Image> getImagesIgnoringAxes(
            Coords coords, String... ignoreTheseAxes) throws IOException {
-      // This is obviously wrong, but not quite sure what to do at this point....
       if (ignoreTheseAxes.length == 0) {
          return getImagesMatching(coords);
-      } else if (ignoreTheseAxes.length == 1 && ignoreTheseAxes[0].equals(Coords.C)) {
-         Coords matchCoord = coords.copyRemovingAxes(Coords.C);
-         List<Coords> coords1 = coordsIndexedMissingC_.get(matchCoord);
-         final List<Image> result = new ArrayList<>();
-         coords1.forEach(coords2 -> {
-            try {
-               result.add(getImagesMatching(coords2).get(0));
-            } catch (IOException e) {
-               throw new RuntimeException(e);
-            }
-         });
-         return result;
-      } else {
-         Coords matchCoord = coords.copyRemovingAxes(ignoreTheseAxes);
-         final List<Image> result = new ArrayList<>();
-         getUnorderedImageCoords().iterator().forEachRemaining(
-               coords1 -> {
-                  if (coords1.copyRemovingAxes(ignoreTheseAxes).equals(matchCoord)) {
-                     try {
-                        result.add(getImage(coords1));
-                     } catch (IOException e) {
-                        throw new RuntimeException(e);
-                     }
-                  }
-               });
-         return result;
       }
+      Coords matchCoord = coords.copyRemovingAxes(ignoreTheseAxes);
+      final List<Image> result = new ArrayList<>();
+      for (Coords match : coordsIndex_.getMatching(matchCoord, ignoreTheseAxes)) {
+         result.add(getImage(match));
+      }
+      return result;
    }
 
    @Override
@@ -400,13 +405,33 @@ public class NDTiffAdapter implements Storage {
    private Metadata studioMetadataFromJSON(JSONObject tags) {
       JsonElement je;
       try {
-         je = new JsonParser().parse(tags.toString());
+         je = JSONObjectToGson.convert(tags);
       } catch (Exception unlikely) {
-         throw new IllegalArgumentException("Failed to parse JSON created from TaggedImage tags",
+         throw new IllegalArgumentException("Failed to convert TaggedImage tags",
                  unlikely);
       }
-      return DefaultMetadata.fromPropertyMap(
+      Metadata metadata = DefaultMetadata.fromPropertyMap(
               NonPropertyMapJSONFormats.metadata().fromGson(je));
+      Coords baseline = ScopeDataDeltas.getBaselineCoords(je.getAsJsonObject());
+      if (baseline == null) {
+         return metadata;
+      }
+      PropertyMap baselineScopeData = baselineScopeData_.get(baseline);
+      if (baselineScopeData == null) {
+         HashMap<String, Object> axes = coordsToHashMap(baseline);
+         if (!storage_.hasImage(axes)) {
+            ReportingUtils.logError("Missing image " + baseline
+                    + " holding the device properties of other images");
+            return metadata;
+         }
+         baselineScopeData = studioMetadataFromJSON(storage_.getImage(axes).tags)
+                 .getScopeData();
+         if (baselineScopeData == null) {
+            return metadata;
+         }
+         baselineScopeData_.put(baseline, baselineScopeData);
+      }
+      return ScopeDataDeltas.applyBaseline(metadata, baselineScopeData);
    }
 }
 
@@ -83,7 +83,7 @@ public final class AsynchronousContext extends BaseContext {
             // Non-null image: process it.
             isFlushed_ = false;
             try {
-               processor_.processImage(wrapper.getImage(), this);
+               runProcessor(wrapper.getImage(), this);
             } catch (Exception e) {
                ReportingUtils.logError(e, "Processor failed to process image");
                // Pass the exception to our parent.
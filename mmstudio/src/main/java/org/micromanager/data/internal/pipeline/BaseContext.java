@@ -21,12 +21,17 @@
 package org.micromanager.data.internal.pipeline;
 
 import java.io.IOException;
+import java.nio.Buffer;
 import java.util.concurrent.CountDownLatch;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
+import org.micromanager.data.PixelBufferPool;
+import org.micromanager.data.PixelBufferPools;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultPixelBufferPool;
 import org.micromanager.internal.utils.ReportingUtils;
 
 public abstract class BaseContext implements ProcessorContext {
@@ -103,4 +108,88 @@ public abstract class BaseContext implements ProcessorContext {
    public SummaryMetadata getSummaryMetadata() {
       return store_.getSummaryMetadata();
    }
+
+   /**
+    * The last processor gets fresh arrays: its output goes to the Datastore,
+    * where it is kept (or seen by displays) and never recycled, so borrowing
+    * would only drain the pool that upstream processors recycle into.
+    */
+   @Override
+   public PixelBufferPool getPixelBufferPool() {
+      if (sink_ == null) {
+         return PixelBufferPools.unpooled();
+      }
+      return DefaultPixelBufferPool.getInstance();
+   }
+
+   /**
+    * Hand an image to our processor. If the processor is stateless and the
+    * pixels of the image were borrowed from the pixel buffer pool (i.e. the
+    * image was made by an upstream processor and nobody else has seen it),
+    * the pixels are recycled afterwards, unless the processor output an image
+    * that uses the same array.
+    *
+    * @param image   Image to be processed
+    * @param context Context that receives the output of the processor
+    */
+   protected void runProcessor(Image image, ProcessorContext context) {
+      Object pixels = processor_.isStateless() ? getPixelArray(image) : null;
+      PixelBufferPool pool = DefaultPixelBufferPool.getInstance();
+      if (pixels == null || !pool.isBorrowed(pixels)) {
+         processor_.processImage(image, context);
+         return;
+      }
+      PassOnTracker tracker = new PassOnTracker(context, pixels);
+      processor_.processImage(image, tracker);
+      if (!tracker.passedOn_) {
+         pool.recycle(pixels);
+      }
+   }
+
+   /**
+    * @return The array holding the pixels of the image, or null if they are
+    *     not in an array (or the image is not ours)
+    */
+   private static Object getPixelArray(Image image) {
+      if (!(image instanceof DefaultImage)) {
+         return null;
+      }
+      Buffer buffer = ((DefaultImage) image).getPixelBuffer();
+      return buffer.hasArray() ? buffer.array() : null;
+   }
+
+   /**
+    * Forwards the output of the processor, noting whether any output image
+    * uses the pixel array of the input image.
+    */
+   private static final class PassOnTracker implements ProcessorContext {
+      private final ProcessorContext target_;
+      private final Object inputPixels_;
+      private boolean passedOn_ = false;
+
+      PassOnTracker(ProcessorContext target, Object inputPixels) {
+         target_ = target;
+         inputPixels_ = inputPixels;
+      }
+
+      @Override
+      public void outputImage(Image image) {
+         Object pixels = getPixelArray(image);
+         // Err on the side of not recycling images we cannot look into
+         if (pixels == null || pixels == inputPixels_) {
+            passedOn_ = true;
+         }
+         target_.outputImage(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return target_.getSummaryMetadata();
+      }
+
+      @Override
+      public PixelBufferPool getPixelBufferPool() {
+         return target_.getPixelBufferPool();
+      }
+   }
 }
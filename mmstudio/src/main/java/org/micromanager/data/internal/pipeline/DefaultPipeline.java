@@ -22,6 +22,7 @@ package org.micromanager.data.internal.pipeline;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import org.micromanager.data.Datastore;
@@ -31,9 +32,19 @@ import org.micromanager.data.Pipeline;
 import org.micromanager.data.PipelineErrorException;
 import org.micromanager.data.Processor;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.utils.ReportingUtils;
 
 public final class DefaultPipeline implements Pipeline {
+   private static final String SHOULD_PROCESS_IN_PARALLEL =
+         "run asynchronous image processors on several threads with queues between them";
+   private static final String QUEUE_DEPTH =
+         "number of images that can wait before each image processor";
+   private static final String MAX_WORKERS_PER_PROCESSOR =
+         "maximum number of threads running each stateless image processor";
+   private static final int DEFAULT_QUEUE_DEPTH = 8;
+   private static final int DEFAULT_MAX_WORKERS_PER_PROCESSOR =
+         Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
 
    private final List<Processor> processors_;
    private final List<BaseContext> contexts_;
@@ -44,9 +55,29 @@ public final class DefaultPipeline implements Pipeline {
    private boolean isHalted_ = false;
    private final ArrayList<Exception> exceptions_;
 
-   @SuppressWarnings("LeakingThisInConstructor")
    public DefaultPipeline(List<Processor> processors, Datastore store,
                           boolean isSynchronous) {
+      this(processors, store, isSynchronous, 0, 1);
+   }
+
+   /**
+    * Creates a pipeline.  For asynchronous pipelines with a queue depth of at
+    * least 1, every processor gets a ParallelContext, with a queue of the given
+    * depth in front of it, and (for stateless processors) up to the given
+    * number of threads.
+    *
+    * @param processors         Processors, in order
+    * @param store              Datastore that receives the processed images
+    * @param isSynchronous      Whether images are processed on the thread that
+    *                           inserts them
+    * @param queueDepth         Depth of the queue before each processor, or 0 to
+    *                           hand images to each processor one at a time
+    * @param maxWorkersPerStage Maximum number of threads per stateless processor
+    */
+   @SuppressWarnings("LeakingThisInConstructor")
+   public DefaultPipeline(List<Processor> processors, Datastore store,
+                          boolean isSynchronous, int queueDepth,
+                          int maxWorkersPerStage) {
       processors_ = processors;
       store_ = store;
       contexts_ = new ArrayList<BaseContext>();
@@ -54,6 +85,9 @@ public final class DefaultPipeline implements Pipeline {
       for (Processor processor : processors_) {
          if (isSynchronous) {
             contexts_.add(new SynchronousContext(processor, store_, this));
+         } else if (queueDepth > 0) {
+            contexts_.add(new ParallelContext(processor, store_, this,
+                  queueDepth, maxWorkersPerStage));
          } else {
             contexts_.add(new AsynchronousContext(processor, store_, this));
          }
@@ -169,6 +203,52 @@ public final class DefaultPipeline implements Pipeline {
    }
 
    public void exceptionOccurred(Exception e) {
-      exceptions_.add(e);
+      // May be called from several processor threads at once
+      synchronized (exceptions_) {
+         exceptions_.add(e);
+      }
+   }
+
+   /**
+    * @return The contexts running the processors, in order
+    */
+   public List<BaseContext> getContexts() {
+      return Collections.unmodifiableList(contexts_);
+   }
+
+   /**
+    * Whether asynchronous pipelines use ParallelContexts: bounded queues
+    * between processors, and several threads for stateless processors.
+    *
+    * @return true if asynchronous pipelines process images in parallel
+    */
+   public static boolean getShouldProcessInParallel() {
+      return MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .getBoolean(SHOULD_PROCESS_IN_PARALLEL, false);
+   }
+
+   public static void setShouldProcessInParallel(boolean shouldProcessInParallel) {
+      MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .putBoolean(SHOULD_PROCESS_IN_PARALLEL, shouldProcessInParallel);
+   }
+
+   public static int getQueueDepth() {
+      return MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .getInteger(QUEUE_DEPTH, DEFAULT_QUEUE_DEPTH);
+   }
+
+   public static void setQueueDepth(int queueDepth) {
+      MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .putInteger(QUEUE_DEPTH, queueDepth);
+   }
+
+   public static int getMaxWorkersPerProcessor() {
+      return MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .getInteger(MAX_WORKERS_PER_PROCESSOR, DEFAULT_MAX_WORKERS_PER_PROCESSOR);
+   }
+
+   public static void setMaxWorkersPerProcessor(int maxWorkers) {
+      MMStudio.getInstance().profile().getSettings(DefaultPipeline.class)
+            .putInteger(MAX_WORKERS_PER_PROCESSOR, maxWorkers);
    }
 }
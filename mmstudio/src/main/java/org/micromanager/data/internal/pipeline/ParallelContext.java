@@ -0,0 +1,319 @@
+///////////////////////////////////////////////////////////////////////////////
+//PROJECT:       Micro-Manager
+//SUBSYSTEM:     Data API
+//-----------------------------------------------------------------------------
+//
+// COPYRIGHT:    University of California, San Francisco, 2015
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.data.internal.pipeline;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.PixelBufferPool;
+import org.micromanager.data.Processor;
+import org.micromanager.data.ProcessorContext;
+import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Asynchronous context with a bounded input queue, and optionally several
+ * worker threads.
+ *
+ * <p>Unlike AsynchronousContext, which hands images to its thread one at a
+ * time, images wait in a queue of configurable depth, so that upstream stages
+ * and the acquisition only block when this stage falls behind by more than
+ * the queue depth.  Processors that declare themselves stateless
+ * ({@link Processor#isStateless()}) are run by several threads at once; their
+ * output is put back in input order before it is passed on, so downstream
+ * stages see the same sequence of images as with a single thread.</p>
+ *
+ * <p>Queue depth, time spent waiting in the queue and processing time are
+ * recorded. They can be read at any time through the getters (e.g., via
+ * {@link DefaultPipeline#getContexts()}), and are logged when the pipeline
+ * is flushed.</p>
+ */
+public final class ParallelContext extends BaseContext {
+   private static final long POLL_TIMEOUT_MS = 1000;
+
+   /**
+    * Queue entry: the image (or the flush marker) and its position in the
+    * input sequence.
+    */
+   private static final class Task {
+      final ImageWrapper wrapper;
+      final long sequenceNumber;
+      final long enqueuedNs;
+
+      Task(ImageWrapper wrapper, long sequenceNumber) {
+         this.wrapper = wrapper;
+         this.sequenceNumber = sequenceNumber;
+         this.enqueuedNs = System.nanoTime();
+      }
+   }
+
+   /**
+    * Collects the images output by the processor for a single input image,
+    * when several images are processed at the same time.
+    */
+   private final class CollectingContext implements ProcessorContext {
+      private final List<Image> outputs_ = new ArrayList<>(1);
+
+      @Override
+      public void outputImage(Image image) {
+         outputs_.add(image);
+      }
+
+      @Override
+      public SummaryMetadata getSummaryMetadata() {
+         return ParallelContext.this.getSummaryMetadata();
+      }
+
+      @Override
+      public PixelBufferPool getPixelBufferPool() {
+         return ParallelContext.this.getPixelBufferPool();
+      }
+   }
+
+   private final ArrayBlockingQueue<Task> inputQueue_;
+   private final int numWorkers_;
+   private final AtomicLong nextSequenceNumber_ = new AtomicLong(0);
+   private volatile boolean isFlushed_ = false;
+
+   // Reordering of the output of parallel workers; guarded by completed_
+   private final Map<Long, Object> completed_ = new HashMap<>();
+   private long nextToEmit_ = 0;
+   private static final Object FLUSH = new Object();
+
+   // Statistics
+   private volatile int maxQueueDepth_ = 0;
+   private final AtomicLong numProcessed_ = new AtomicLong(0);
+   private final AtomicLong totalQueueWaitNs_ = new AtomicLong(0);
+   private final AtomicLong totalProcessingNs_ = new AtomicLong(0);
+   private volatile long maxProcessingNs_ = 0;
+
+   /**
+    * @param processor  Processor run by this context
+    * @param store      Datastore that receives the output of the last stage
+    * @param parent     Pipeline this context belongs to
+    * @param queueDepth Maximum number of images waiting to be processed
+    * @param numWorkers Number of threads; ignored (1 is used) unless the
+    *                   processor is stateless
+    */
+   public ParallelContext(Processor processor, Datastore store,
+                          DefaultPipeline parent, int queueDepth, int numWorkers) {
+      super(processor, store, parent);
+      inputQueue_ = new ArrayBlockingQueue<>(Math.max(1, queueDepth));
+      numWorkers_ = processor.isStateless() ? Math.max(1, numWorkers) : 1;
+      ThreadFactory factory = ThreadFactoryFactory.createThreadFactory(
+            "Processor context for " + processor_);
+      for (int i = 0; i < numWorkers_; ++i) {
+         factory.newThread(this::monitorQueue).start();
+      }
+   }
+
+   /**
+    * Process an image. If the input ImageWrapper has a null image, then we
+    * flush the pipeline instead, passing the null along to the next context.
+    * Blocks while the input queue is full.
+    */
+   @Override
+   public void insertImage(ImageWrapper wrapper) {
+      try {
+         // The sequence number and the position in the queue need not agree,
+         // as the output is reordered by sequence number anyway
+         inputQueue_.put(new Task(wrapper, nextSequenceNumber_.getAndIncrement()));
+      } catch (InterruptedException e) {
+         ReportingUtils.logError(e, "Interrupted while passing image along pipeline");
+         return;
+      }
+      int depth = inputQueue_.size();
+      if (depth > maxQueueDepth_) {
+         maxQueueDepth_ = depth;
+      }
+   }
+
+   /**
+    * Runs in each worker thread, pulling images from the input queue.
+    */
+   private void monitorQueue() {
+      while (true) {
+         Task task = null;
+         try {
+            task = inputQueue_.poll(POLL_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+         if (task == null) {
+            if (isFlushed_) {
+               return;
+            }
+            continue;
+         }
+         if (task.wrapper.getImage() == null) {
+            if (numWorkers_ == 1) {
+               flush(task.wrapper);
+            } else {
+               complete(task.sequenceNumber, FLUSH);
+            }
+            continue;
+         }
+         isFlushed_ = false;
+         totalQueueWaitNs_.addAndGet(System.nanoTime() - task.enqueuedNs);
+         if (numWorkers_ == 1) {
+            // Images are processed in order; output goes straight on
+            process(task.wrapper.getImage(), this);
+         } else {
+            CollectingContext context = new CollectingContext();
+            process(task.wrapper.getImage(), context);
+            complete(task.sequenceNumber, context.outputs_);
+         }
+      }
+   }
+
+   private void process(Image image, ProcessorContext context) {
+      long start = System.nanoTime();
+      try {
+         runProcessor(image, context);
+      } catch (Exception e) {
+         ReportingUtils.logError(e, "Processor failed to process image");
+         // Pass the exception to our parent.
+         parent_.exceptionOccurred(e);
+      }
+      long elapsed = System.nanoTime() - start;
+      numProcessed_.incrementAndGet();
+      totalProcessingNs_.addAndGet(elapsed);
+      if (elapsed > maxProcessingNs_) {
+         maxProcessingNs_ = elapsed;
+      }
+   }
+
+   /**
+    * Records the result for an input image, and passes on all results that
+    * are now complete and in order.  Whichever worker completes the next
+    * expected image does the passing on, while holding the lock; this keeps
+    * the output in order and makes the workers wait when the next stage is
+    * full.
+    */
+   @SuppressWarnings("unchecked")
+   private void complete(long sequenceNumber, Object result) {
+      synchronized (completed_) {
+         completed_.put(sequenceNumber, result);
+         Object next;
+         while ((next = completed_.remove(nextToEmit_)) != null) {
+            nextToEmit_++;
+            if (next == FLUSH) {
+               flush(new ImageWrapper(null));
+            } else {
+               for (Image image : (List<Image>) next) {
+                  outputImage(image);
+               }
+            }
+         }
+      }
+   }
+
+   private void flush(ImageWrapper wrapper) {
+      // Cleanup the processor and pass the empty wrapper along.
+      processor_.cleanup(this);
+      if (sink_ != null) {
+         sink_.insertImage(wrapper);
+      }
+      logStatistics();
+      isFlushed_ = true;
+      if (flushLatch_ != null) {
+         flushLatch_.countDown();
+      }
+   }
+
+   private void logStatistics() {
+      long numProcessed = numProcessed_.get();
+      if (numProcessed == 0) {
+         return;
+      }
+      ReportingUtils.logMessage(String.format(
+            "Processor %s: %d images on %d thread(s), mean %.2f ms, max %.2f ms, "
+                  + "mean wait in queue %.2f ms, max queue depth %d of %d",
+            processor_, numProcessed, numWorkers_,
+            getMeanProcessingTimeMs(), getMaxProcessingTimeMs(),
+            getMeanQueueWaitMs(), maxQueueDepth_, getQueueCapacity()));
+   }
+
+   /**
+    * @return Number of images currently waiting to be processed
+    */
+   public int getQueueDepth() {
+      return inputQueue_.size();
+   }
+
+   /**
+    * @return Highest number of images that were waiting to be processed
+    */
+   public int getMaxQueueDepth() {
+      return maxQueueDepth_;
+   }
+
+   /**
+    * @return Number of images that can wait before insertImage() blocks
+    */
+   public int getQueueCapacity() {
+      return inputQueue_.size() + inputQueue_.remainingCapacity();
+   }
+
+   /**
+    * @return Number of threads running the processor
+    */
+   public int getNumWorkers() {
+      return numWorkers_;
+   }
+
+   /**
+    * @return Number of images processed so far
+    */
+   public long getNumProcessed() {
+      return numProcessed_.get();
+   }
+
+   /**
+    * @return Mean time images waited in the queue before processing started,
+    *     in milliseconds
+    */
+   public double getMeanQueueWaitMs() {
+      long numProcessed = numProcessed_.get();
+      return numProcessed == 0 ? 0.0 : totalQueueWaitNs_.get() / 1e6 / numProcessed;
+   }
+
+   /**
+    * @return Mean time spent in Processor.processImage(), in milliseconds
+    */
+   public double getMeanProcessingTimeMs() {
+      long numProcessed = numProcessed_.get();
+      return numProcessed == 0 ? 0.0 : totalProcessingNs_.get() / 1e6 / numProcessed;
+   }
+
+   /**
+    * @return Longest time spent in Processor.processImage(), in milliseconds
+    */
+   public double getMaxProcessingTimeMs() {
+      return maxProcessingNs_ / 1e6;
+   }
+}
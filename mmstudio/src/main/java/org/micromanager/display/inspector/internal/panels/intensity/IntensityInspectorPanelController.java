@@ -29,6 +29,7 @@ import net.miginfocom.swing.MigLayout;
 import org.micromanager.Studio;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DataProviderHasNewImageEvent;
+import org.micromanager.data.ImageEventCoalescing;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DataViewer;
 import org.micromanager.display.DisplaySettings;
@@ -54,6 +55,9 @@ public class IntensityInspectorPanelController
       extends AbstractInspectorPanelController {
    public static final String HISTOGRAM_UPDATE_FREQUENCY = "HistogramUpdateFrequency";
    public static final String COLOR_PALETTE = "ColorPalette";
+   public static final String APPROXIMATE_HISTOGRAM = "ApproximateHistogram";
+   // Approximate stats use 1 in 4x4 pixels
+   private static final int APPROXIMATE_SAMPLE_STRIDE = 4;
    private static final String COLOR_BLIND_FRIENDLY = "Colorblind-friendly";
    private static final String RGBCMYW = "RGBCMYW";
    private static final String CUSTOM = "Custom";
@@ -98,6 +102,8 @@ public class IntensityInspectorPanelController
          new JMenu("Histogram Update Rate");
    private final Map<String, Double> histogramMenuMap_ =
          new LinkedHashMap<>(6);
+   private final JCheckBoxMenuItem gearMenuApproximateItem_ =
+         new JCheckBoxMenuItem("Approximate Large Images Until Display Settles");
    private final JCheckBoxMenuItem gearMenuLogYAxisItem_ =
          new JCheckBoxMenuItem("Logarithmic Y Axis");
    private final JCheckBoxMenuItem gearMenuUseROIItem_ =
@@ -208,6 +214,17 @@ public class IntensityInspectorPanelController
          });
          gearMenuUpdateRateSubMenu_.add(jbmi);
       }
+      gearMenuUpdateRateSubMenu_.addSeparator();
+      gearMenuApproximateItem_.setSelected(studio_.profile().getSettings(
+            IntensityInspectorPanelController.class).getBoolean(
+            APPROXIMATE_HISTOGRAM, false));
+      gearMenuApproximateItem_.addActionListener((ActionEvent e) -> {
+         handleHistogramApproximate(gearMenuApproximateItem_.isSelected());
+         studio_.profile().getSettings(
+               IntensityInspectorPanelController.class).putBoolean(
+               APPROXIMATE_HISTOGRAM, gearMenuApproximateItem_.isSelected());
+      });
+      gearMenuUpdateRateSubMenu_.add(gearMenuApproximateItem_);
 
       gearMenu_.add(gearMenuUseROIItem_);
 
@@ -344,6 +361,13 @@ public class IntensityInspectorPanelController
       }
    }
 
+   private void handleHistogramApproximate(boolean approximate) {
+      if (viewer_ instanceof DisplayController) {
+         ((DisplayController) viewer_).setStatsSampleStride(
+               approximate ? APPROXIMATE_SAMPLE_STRIDE : 1);
+      }
+   }
+
    private void handleHistogramUseROI(boolean useROI) {
       DisplaySettings oldSettings;
       DisplaySettings newSettings;
@@ -511,7 +535,9 @@ public class IntensityInspectorPanelController
       detachDataViewer();
       viewer_ = viewer;
       viewer.registerForEvents(this);
-      viewer.getDataProvider().registerForEvents(this);
+      // New images are only used to learn about new channels
+      viewer.getDataProvider().registerForEvents(this,
+            ImageEventCoalescing.latestPerChannel().atMostHz(10));
       SwingUtilities.invokeLater(() -> {
          if (viewer_ == null) {
             return;
@@ -526,6 +552,7 @@ public class IntensityInspectorPanelController
          if (histogramMenuMap_.get(updateRate) != null) {
             handleHistogramUpdateRate(histogramMenuMap_.get(updateRate));
          }
+         handleHistogramApproximate(gearMenuApproximateItem_.isSelected());
       });
    }
 
@@ -656,24 +683,21 @@ public class IntensityInspectorPanelController
     */
    @Subscribe
    public void onEvent(DataProviderHasNewImageEvent event) {
-      // (NS - 2020-03-27)
-      // Hack: handle only if the circular buffer is not too full.  How full is highly arbitrary!
-      if (!studio_.acquisitions().isAcquisitionRunning()
-            || !studio_.core().isSequenceRunning()
-            || studio_.core().getRemainingImageCount() < 6) {
-         final int channel = event.getImage().getCoords().getChannel();
-         SwingUtilities.invokeLater(() -> {
-            try {
-               if (channel >= channelControllers_.size()) {
-                  setUpChannelHistogramsPanel(channel + 1);
-               }
-            } catch (NullPointerException npe) {
-               // it is possible that the dataprovider send a new image event
-               // and immediately closed.  That will result in a null pointer
-               // exception somewhere down the line.  Catch it here
-               ReportingUtils.logError(npe);
+      // Events are coalesced per channel and rate limited (see
+      // attachDataViewer), so this no longer needs to back off when the
+      // circular buffer fills up
+      final int channel = event.getImage().getCoords().getChannel();
+      SwingUtilities.invokeLater(() -> {
+         try {
+            if (channel >= channelControllers_.size()) {
+               setUpChannelHistogramsPanel(channel + 1);
             }
-         });
-      }
+         } catch (NullPointerException npe) {
+            // it is possible that the dataprovider send a new image event
+            // and immediately closed.  That will result in a null pointer
+            // exception somewhere down the line.  Catch it here
+            ReportingUtils.logError(npe);
+         }
+      });
    }
 }
\ No newline at end of file
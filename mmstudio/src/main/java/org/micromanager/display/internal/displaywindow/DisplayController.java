@@ -44,6 +44,7 @@ import org.micromanager.data.Datastore;
 import org.micromanager.data.DatastoreClosingEvent;
 import org.micromanager.data.DatastoreFrozenEvent;
 import org.micromanager.data.Image;
+import org.micromanager.data.ImageDeletedEvent;
 import org.micromanager.display.DataViewerListener;
 import org.micromanager.display.DisplaySettings;
 import org.micromanager.display.DisplayWindow;
@@ -61,6 +62,7 @@ import org.micromanager.display.internal.event.DefaultDisplayDidShowImageEvent;
 import org.micromanager.display.internal.event.DisplayWindowDidAddOverlayEvent;
 import org.micromanager.display.internal.event.DisplayWindowDidRemoveOverlayEvent;
 import org.micromanager.display.internal.imagestats.BoundsRectAndMask;
+import org.micromanager.display.internal.imagestats.ImageStatsCache;
 import org.micromanager.display.internal.imagestats.ImageStatsRequest;
 import org.micromanager.display.internal.imagestats.ImagesAndStats;
 import org.micromanager.display.internal.imagestats.StatsComputeQueue;
@@ -257,6 +259,7 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       linkManager_ = linkManager;
 
       computeQueue_.setPerformanceMonitor(perfMon_);
+      computeQueue_.setStatsCache(ImageStatsCache.forDataProvider(dataProvider));
 
       ReportingUtils.logMessage("Class: " + this.getClass());
       ReportingUtils.logMessage("Classloader: " + this.getClass().getClassLoader());
@@ -835,6 +838,27 @@ public final class DisplayController extends DisplayWindowAPIAdapter
       return 1e9 / intervalNs;
    }
 
+   /**
+    * Sets whether statistics of large images are approximated from a subset
+    * of their pixels while images keep arriving.  Exact statistics are
+    * computed once the display settles.
+    *
+    * @param sampleStride Only every sampleStride-th pixel of every
+    *                     sampleStride-th row is used; 1 for exact statistics
+    */
+   public void setStatsSampleStride(int sampleStride) {
+      computeQueue_.setApproximateSampleStride(sampleStride);
+   }
+
+   /**
+    * Returns the stride used for approximate image statistics.
+    *
+    * @return stride, or 1 if statistics are always exact
+    */
+   public int getStatsSampleStride() {
+      return computeQueue_.getApproximateSampleStride();
+   }
+
    /**
     * Sets the axes that will be animated.
     *
@@ -932,6 +956,37 @@ public final class DisplayController extends DisplayWindowAPIAdapter
    }
 
 
+   /**
+    * An image was removed from the Datastore (e.g. evicted by a ring buffer
+    * storage). If it was being displayed, move on to the next time point
+    * that still has an image, or redisplay what is left.
+    *
+    * @param event Contains the image that was removed.
+    */
+   @Subscribe
+   public void onImageDeleted(final ImageDeletedEvent event) {
+      synchronized (closeGuard_) {
+         if (closeCompleted_) {
+            return;
+         }
+      }
+      Coords position = getDisplayPosition();
+      Coords deleted = event.getCoords();
+      if (position == null || !position.copyRemovingAxes(Coords.CHANNEL).equals(
+            deleted.copyRemovingAxes(Coords.CHANNEL))) {
+         return;
+      }
+      Coords.CoordsBuilder cb = position.copyBuilder();
+      for (int t = position.getT() + 1; t < dataProvider_.getNextIndex(Coords.T); t++) {
+         Coords next = cb.time(t).build();
+         if (dataProvider_.hasImage(next)) {
+            setDisplayPosition(next, true);
+            return;
+         }
+      }
+      setDisplayPosition(position, true);
+   }
+
    /**
     * A coalescent runnable to avoid excessively frequent update of the data
     * coords range in the UI.
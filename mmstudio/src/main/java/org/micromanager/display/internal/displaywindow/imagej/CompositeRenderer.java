@@ -0,0 +1,258 @@
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import ij.process.LUT;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Renders composite (summed) multi-channel images for display, directly from
+ * the Micro-Manager pixel buffers.
+ *
+ * <p>ImageJ's CompositeImage copies the pixels of every channel into its own
+ * ImageProcessor, scales each to 8 bits, looks up the LUT, and adds the result
+ * to an RGB buffer, in separate passes per channel, before handing the buffer
+ * to AWT.  Here, each channel's display range and LUT (which includes the
+ * gamma) are folded into a single table from sample value to color, which is
+ * only recomputed when they change.  The channels are then blended with one
+ * table lookup per sample, directly into the pixel array of a BufferedImage
+ * that is reused from frame to frame.  The result is the same as
+ * ImageJ's.</p>
+ *
+ * <p>For pixels that never change, such as pyramid levels, the rendered
+ * region is kept, and only rendered again when the pixels, the LUTs or the
+ * region change (see {@link #renderCached}).</p>
+ *
+ * @see MMCompositeImage
+ */
+final class CompositeRenderer {
+   // Table entries hold red, green, and blue in 10-bit fields, so that the
+   // entries of up to 4 channels can be added without overflow
+   private static final int CHANNELS_PER_SUM = 4;
+
+   private static final class ChannelTable {
+      private final byte[] reds_ = new byte[256];
+      private final byte[] greens_ = new byte[256];
+      private final byte[] blues_ = new byte[256];
+      private double min_;
+      private double max_;
+      private int[] entries_;
+      // Whether the last call to update() recomputed the table
+      private boolean changed_;
+
+      int[] update(LUT lut, boolean is16Bit) {
+         byte[] reds = new byte[256];
+         byte[] greens = new byte[256];
+         byte[] blues = new byte[256];
+         lut.getReds(reds);
+         lut.getGreens(greens);
+         lut.getBlues(blues);
+         int size = is16Bit ? 65536 : 256;
+         if (entries_ != null && entries_.length == size
+               && lut.min == min_ && lut.max == max_
+               && Arrays.equals(reds, reds_) && Arrays.equals(greens, greens_)
+               && Arrays.equals(blues, blues_)) {
+            changed_ = false;
+            return entries_;
+         }
+         changed_ = true;
+         System.arraycopy(reds, 0, reds_, 0, 256);
+         System.arraycopy(greens, 0, greens_, 0, 256);
+         System.arraycopy(blues, 0, blues_, 0, 256);
+         min_ = lut.min;
+         max_ = lut.max;
+         if (entries_ == null || entries_.length != size) {
+            entries_ = new int[size];
+         }
+         for (int value = 0; value < size; ++value) {
+            int index = is16Bit
+                  ? scale16Bit(value, (int) min_, (int) max_)
+                  : scale8Bit(value, (int) min_, (int) max_);
+            entries_[value] = ((reds_[index] & 0xff) << 20)
+                  | ((greens_[index] & 0xff) << 10) | (blues_[index] & 0xff);
+         }
+         return entries_;
+      }
+   }
+
+   private ChannelTable[] channelTables_ = new ChannelTable[0];
+   private BufferedImage image_;
+   // What image_ shows, when rendered by renderCached(); null otherwise
+   private Object[] cachedPixels_;
+   private Rectangle cachedRegion_;
+
+   /**
+    * Same scaling to 8 bits as ImageJ's ShortProcessor.
+    */
+   private static int scale16Bit(int value, int min, int max) {
+      double scale = 256.0 / (max - min + 1);
+      int v = Math.max(0, value - min);
+      return Math.min(255, (int) (v * scale + 0.5));
+   }
+
+   /**
+    * Same scaling as ImageJ's ByteProcessor.
+    */
+   private static int scale8Bit(int value, int min, int max) {
+      int v = (int) (256.0 * (value - min) / (max - min));
+      return Math.max(0, Math.min(255, v));
+   }
+
+   /**
+    * Renders the sum of the given channels.
+    *
+    * @param pixels Pixels of each channel to be shown; all byte[] or all
+    *               short[], of length width * height
+    * @param luts   LUT of each channel, with the display range in its min
+    *               and max fields
+    * @param width  Image width
+    * @param height Image height
+    * @return The rendered image, which is overwritten by the next call
+    */
+   BufferedImage render(Object[] pixels, LUT[] luts, int width, int height) {
+      cachedPixels_ = null;
+      return render(pixels, luts, width, new Rectangle(0, 0, width, height), false);
+   }
+
+   /**
+    * Renders the sum of the given channels within a region, or returns the
+    * image rendered by the previous call if neither the pixel arrays (by
+    * identity), nor the LUTs, nor the region changed since.
+    *
+    * <p>Only for pixel arrays whose content never changes, such as pyramid
+    * levels.</p>
+    *
+    * @param pixels Pixels of each channel to be shown; all byte[] or all
+    *               short[], of length width * height
+    * @param luts   LUT of each channel, with the display range in its min
+    *               and max fields
+    * @param width  Width of the pixel arrays
+    * @param region Region to render, within width and the height of the
+    *               pixel arrays
+    * @return The rendered region, which is overwritten by the next call that
+    *     renders
+    */
+   BufferedImage renderCached(Object[] pixels, LUT[] luts, int width, Rectangle region) {
+      BufferedImage image = render(pixels, luts, width, region, true);
+      cachedPixels_ = pixels.clone();
+      cachedRegion_ = new Rectangle(region);
+      return image;
+   }
+
+   private boolean isCached(Object[] pixels, Rectangle region) {
+      if (cachedPixels_ == null || cachedPixels_.length != pixels.length
+            || !cachedRegion_.equals(region)) {
+         return false;
+      }
+      for (int i = 0; i < pixels.length; ++i) {
+         if (cachedPixels_[i] != pixels[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private BufferedImage render(Object[] pixels, LUT[] luts, int width,
+                                Rectangle region, boolean useCache) {
+      int numChannels = pixels.length;
+      if (channelTables_.length < numChannels) {
+         ChannelTable[] tables = Arrays.copyOf(channelTables_, numChannels);
+         for (int i = channelTables_.length; i < numChannels; ++i) {
+            tables[i] = new ChannelTable();
+         }
+         channelTables_ = tables;
+      }
+      boolean is16Bit = numChannels > 0 && pixels[0] instanceof short[];
+      int[][] tables = new int[numChannels][];
+      boolean tablesChanged = false;
+      for (int i = 0; i < numChannels; ++i) {
+         tables[i] = channelTables_[i].update(luts[i], is16Bit);
+         tablesChanged |= channelTables_[i].changed_;
+      }
+      if (useCache && !tablesChanged && isCached(pixels, region)) {
+         return image_;
+      }
+
+      if (image_ == null || image_.getWidth() != region.width
+            || image_.getHeight() != region.height) {
+         image_ = new BufferedImage(region.width, region.height,
+               BufferedImage.TYPE_INT_RGB);
+      }
+      int[] rgb = ((DataBufferInt) image_.getRaster().getDataBuffer()).getData();
+      int numPixels = region.width * region.height;
+      if (numChannels == 0) {
+         Arrays.fill(rgb, 0, numPixels, 0);
+         return image_;
+      }
+      // Channel by channel, adding the table entries into the image's own
+      // pixel array; this is considerably faster than looking up all
+      // channels for each pixel in turn
+      for (int c = 0; c < numChannels; ++c) {
+         if (c > 0 && c % CHANNELS_PER_SUM == 0) {
+            saturate(rgb, numPixels);
+         }
+         if (is16Bit) {
+            add16Bit((short[]) pixels[c], width, region, tables[c], rgb, c == 0);
+         } else {
+            add8Bit((byte[]) pixels[c], width, region, tables[c], rgb, c == 0);
+         }
+      }
+      for (int p = 0; p < numPixels; ++p) {
+         int sum = rgb[p];
+         rgb[p] = (Math.min(255, sum >>> 20) << 16)
+               | (Math.min(255, (sum >>> 10) & 0x3ff) << 8)
+               | Math.min(255, sum & 0x3ff);
+      }
+      return image_;
+   }
+
+   private static void add16Bit(short[] samples, int width, Rectangle region,
+                                int[] table, int[] sums, boolean isFirst) {
+      for (int y = 0; y < region.height; ++y) {
+         int s = (region.y + y) * width + region.x;
+         int start = y * region.width;
+         int end = start + region.width;
+         if (isFirst) {
+            for (int p = start; p < end; ++p, ++s) {
+               sums[p] = table[samples[s] & 0xffff];
+            }
+         } else {
+            for (int p = start; p < end; ++p, ++s) {
+               sums[p] += table[samples[s] & 0xffff];
+            }
+         }
+      }
+   }
+
+   private static void add8Bit(byte[] samples, int width, Rectangle region,
+                               int[] table, int[] sums, boolean isFirst) {
+      for (int y = 0; y < region.height; ++y) {
+         int s = (region.y + y) * width + region.x;
+         int start = y * region.width;
+         int end = start + region.width;
+         if (isFirst) {
+            for (int p = start; p < end; ++p, ++s) {
+               sums[p] = table[samples[s] & 0xff];
+            }
+         } else {
+            for (int p = start; p < end; ++p, ++s) {
+               sums[p] += table[samples[s] & 0xff];
+            }
+         }
+      }
+   }
+
+   /**
+    * Clamps the summed components to 255, so that more channels can be added
+    * without overflowing the 10-bit fields.
+    */
+   private static void saturate(int[] sums, int numPixels) {
+      for (int p = 0; p < numPixels; ++p) {
+         int sum = sums[p];
+         sums[p] = (Math.min(255, sum >>> 20) << 20)
+               | (Math.min(255, (sum >>> 10) & 0x3ff) << 10)
+               | Math.min(255, sum & 0x3ff);
+      }
+   }
+}
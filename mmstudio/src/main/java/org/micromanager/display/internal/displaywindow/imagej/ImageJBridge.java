@@ -24,6 +24,7 @@ import ij.gui.Roi;
 import ij.io.FileInfo;
 import ij.measure.Calibration;
 import ij.process.ByteProcessor;
+import ij.process.LUT;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics2D;
@@ -34,6 +35,7 @@ import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseWheelEvent;
 import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -43,6 +45,7 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.data.RewritableDatastore;
 import org.micromanager.data.SummaryMetadata;
 import org.micromanager.data.internal.DefaultCoords;
 import org.micromanager.data.internal.DefaultImage;
@@ -117,6 +120,10 @@ public final class ImageJBridge {
    private Roi lastSeenRoi_;
    private Rectangle lastSeenRoiRect_;
 
+   // Downsampled images for painting when zoomed out
+   private ImagePyramidCache pyramidCache_;
+   private final CompositeRenderer pyramidRenderer_ = new CompositeRenderer();
+
    // Get a copy of ImageCanvas's zoom levels
    private static final List<Double> IJ_ZOOM_LEVELS = new ArrayList<>();
 
@@ -175,6 +182,13 @@ public final class ImageJBridge {
       // ImagePlus, ImageCanvas, and ImageWindow, so we create it first.
       proxyStack_ = MMVirtualStack.create(this);
 
+      // Images of rewritable datastores (snap/live) are replaced all the
+      // time, so pyramid levels would be computed only to be discarded
+      DataProvider dataProvider = uiController_.getDisplayController().getDataProvider();
+      if (!(dataProvider instanceof RewritableDatastore)) {
+         pyramidCache_ = ImagePyramidCache.forDataProvider(dataProvider);
+      }
+
       // Multiple images (coords) may have already arrived at the UI controller
       // if images are added to the datastore at a high rate. However, during
       // the object creation that follows, we need to pretend that the stack
@@ -237,6 +251,7 @@ public final class ImageJBridge {
       imagePlus_ = null;
       colorModeStrategy_.releaseImagePlus();
       proxyStack_ = null;
+      pyramidCache_ = null;
       uiController_ = null;
    }
 
@@ -487,6 +502,102 @@ public final class ImageJBridge {
       uiController_.paintDidFinish();
    }
 
+   /**
+    * Renders the displayed images at a pyramid level, as ImageJ would render
+    * them at full resolution.  Only the part of the level covering the
+    * source rectangle is rendered, and it is only rendered again when the
+    * images, the LUTs, the level or the rectangle change.
+    *
+    * <p>Only single-channel and composite-mode display of 8- and 16-bit
+    * images is supported.  If a pyramid level is not yet available, it is computed in
+    * the background and the canvas is repainted when it is ready.</p>
+    *
+    * @param level      Pyramid level, at least 1
+    * @param sourceRect Part of the image to render, in full resolution
+    *                   coordinates; it is extended to whole pixels of the
+    *                   level
+    * @return the rendered part of the level, or null if it should be
+    *     rendered by ImageJ
+    */
+   @MustCallOnEDT
+   BufferedImage renderPyramidLevel(int level, Rectangle sourceRect) {
+      if (pyramidCache_ == null) {
+         return null;
+      }
+      List<Image> images = new ArrayList<>();
+      List<LUT> luts = new ArrayList<>();
+      if (imagePlus_ instanceof CompositeImage) {
+         CompositeImage composite = (CompositeImage) imagePlus_;
+         if (composite.getMode() != CompositeImage.COMPOSITE) {
+            // The processor's LUT is only updated by ImageJ's own rendering
+            return null;
+         }
+         boolean[] active = composite.getActiveChannels();
+         for (int i = 0; i < composite.getNChannels(); ++i) {
+            if (active != null && i < active.length && !active[i]) {
+               continue;
+            }
+            Image image = getMMDisplayedImage(getMMCoordsForIJFlatIndex(
+                  composite.getStackIndex(i + 1, composite.getSlice(),
+                        composite.getFrame())));
+            if (image == null) {
+               continue;
+            }
+            try {
+               luts.add(composite.getChannelLut(i + 1));
+            } catch (IllegalArgumentException e) {
+               return null;
+            }
+            images.add(image);
+         }
+      } else {
+         Image image = getMMDisplayedImage(
+               getMMCoordsForIJFlatIndex(imagePlus_.getCurrentSlice()));
+         if (image == null) {
+            return null;
+         }
+         images.add(image);
+         luts.add(imagePlus_.getProcessor().getLut());
+      }
+
+      Object[] pixels = new Object[images.size()];
+      int width = 0;
+      int height = 0;
+      for (int i = 0; i < images.size(); ++i) {
+         Image image = images.get(i);
+         if (!ImagePyramidCache.isSupported(image)
+               || image.getWidth() != imagePlus_.getWidth()
+               || image.getHeight() != imagePlus_.getHeight()
+               || image.getBytesPerPixel() != images.get(0).getBytesPerPixel()) {
+            return null;
+         }
+         ImagePyramidCache.Level pyramidLevel =
+               pyramidCache_.getLevel(image, level, this::mm2ijRepaint);
+         if (pyramidLevel == null) {
+            return null;
+         }
+         pixels[i] = pyramidLevel.pixels;
+         width = pyramidLevel.width;
+         height = pyramidLevel.height;
+      }
+      if (pixels.length == 0) {
+         return null;
+      }
+      double scaleX = (double) width / imagePlus_.getWidth();
+      double scaleY = (double) height / imagePlus_.getHeight();
+      int x1 = Math.max(0, (int) Math.floor(sourceRect.x * scaleX));
+      int y1 = Math.max(0, (int) Math.floor(sourceRect.y * scaleY));
+      int x2 = Math.min(width,
+            (int) Math.ceil((sourceRect.x + sourceRect.width) * scaleX));
+      int y2 = Math.min(height,
+            (int) Math.ceil((sourceRect.y + sourceRect.height) * scaleY));
+      if (x2 <= x1 || y2 <= y1) {
+         return null;
+      }
+      return pyramidRenderer_.renderCached(pixels, luts.toArray(new LUT[0]),
+            width, new Rectangle(x1, y1, x2 - x1, y2 - y1));
+   }
+
    Coords getMMCoordsForIJFlatIndex(int flatIndex) {
       int[] ijPos3d = imagePlus_.convertIndexToPosition(flatIndex);
       int channel = ijPos3d[0] - 1;
@@ -542,6 +653,22 @@ public final class ImageJBridge {
    }
 
    Image getMMImage(Coords coords) {
+      Image image = getMMDisplayedImage(coords);
+      if (image != null) {
+         return image;
+      }
+      // TODO When enabling missing image strategies, we need to map back to
+      // the image assigned to the nominal coordinates
+      return makeBlankImage(coords);
+   }
+
+   /**
+    * Returns the currently displayed image at the given coords.
+    *
+    * @param coords Coords requested by ImageJ
+    * @return the image, or null if no image at coords is displayed
+    */
+   Image getMMDisplayedImage(Coords coords) {
       // This is where we map MM images to the TZC coords requested by ImageJ.
       // Normally, return the currently displayed images cached by the UI
       // controller.
@@ -551,9 +678,7 @@ public final class ImageJBridge {
             return image;
          }
       }
-      // TODO When enabling missing image strategies, we need to map back to
-      // the image assigned to the nominal coordinates
-      return makeBlankImage(coords);
+      return null;
    }
 
    private Image makeBlankImage(Coords coords) {
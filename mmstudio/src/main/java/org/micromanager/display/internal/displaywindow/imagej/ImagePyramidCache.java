@@ -0,0 +1,294 @@
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import com.google.common.eventbus.Subscribe;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.SwingUtilities;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Image;
+import org.micromanager.data.ImageOverwrittenEvent;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+
+/**
+ * Downsampled versions (pyramid levels) of the images of a dataset, for
+ * displaying large images zoomed out.
+ *
+ * <p>Level n is the image downsampled n times by averaging 2x2 pixels.
+ * Levels are computed on a background thread when first requested, and kept
+ * in a least-recently-used cache whose size in bytes is bounded.  There is one
+ * cache per data provider, shared by all its display windows.  Entries are
+ * discarded when the image at their coords is overwritten; as each entry
+ * also remembers the image it was computed from, a level is never returned
+ * for an image other than its source.  Source images are only weakly
+ * referenced, so that the cache holds no more than its budget: the levels
+ * of images that have been garbage collected are discarded.</p>
+ *
+ * <p>Only 8- and 16-bit grayscale images are supported.</p>
+ */
+final class ImagePyramidCache {
+   private static final long MAX_BYTES =
+         Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8);
+
+   private static final ExecutorService EXECUTOR =
+         Executors.newSingleThreadExecutor(
+               ThreadFactoryFactory.createThreadFactory("Image Pyramid"));
+
+   private static final Map<DataProvider, ImagePyramidCache> CACHES =
+         new WeakHashMap<>();
+
+   /**
+    * A downsampled image.
+    */
+   static final class Level {
+      final Object pixels;
+      final int width;
+      final int height;
+
+      private Level(Object pixels, int width, int height) {
+         this.pixels = pixels;
+         this.width = width;
+         this.height = height;
+      }
+
+      private long getBytes() {
+         return (long) width * height * (pixels instanceof short[] ? 2 : 1);
+      }
+   }
+
+   private static final class Key {
+      private final Coords coords;
+      private final int level;
+
+      Key(Coords coords, int level) {
+         this.coords = coords;
+         this.level = level;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+         Key key = (Key) other;
+         return level == key.level && coords.equals(key.coords);
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(coords, level);
+      }
+   }
+
+   private static final class Entry {
+      private final SourceReference source;
+      private final Level level;
+
+      Entry(SourceReference source, Level level) {
+         this.source = source;
+         this.level = level;
+      }
+
+      boolean isFrom(Image image) {
+         return source.get() == image;
+      }
+   }
+
+   /**
+    * Weak reference to the image a level was computed from.
+    */
+   private static final class SourceReference extends WeakReference<Image> {
+      private final Key key;
+
+      SourceReference(Image image, Key key, ReferenceQueue<Image> queue) {
+         super(image, queue);
+         this.key = key;
+      }
+   }
+
+   // Access-ordered, for LRU eviction; guarded by this
+   private final LinkedHashMap<Key, Entry> entries_ =
+         new LinkedHashMap<>(16, 0.75f, true);
+   private long totalBytes_ = 0;
+   private final ReferenceQueue<Image> collectedSources_ = new ReferenceQueue<>();
+
+   private final Set<Key> pending_ = ConcurrentHashMap.newKeySet();
+
+   /**
+    * Returns the cache of the given data provider, creating it if necessary.
+    */
+   static ImagePyramidCache forDataProvider(DataProvider provider) {
+      synchronized (CACHES) {
+         ImagePyramidCache cache = CACHES.get(provider);
+         if (cache == null) {
+            cache = new ImagePyramidCache();
+            provider.registerForEvents(cache);
+            CACHES.put(provider, cache);
+         }
+         return cache;
+      }
+   }
+
+   private ImagePyramidCache() {
+   }
+
+   /**
+    * @param image Image with 1 byte[] or short[] component
+    * @return whether pyramid levels can be computed for image
+    */
+   static boolean isSupported(Image image) {
+      return image.getNumComponents() == 1
+            && (image.getBytesPerPixel() == 1 || image.getBytesPerPixel() == 2);
+   }
+
+   /**
+    * Returns a pyramid level of an image, if it has been computed.
+    *
+    * <p>If it has not, it is computed on a background thread, and onAvailable
+    * is run on the EDT once it is ready.</p>
+    *
+    * @param image       Full resolution image
+    * @param level       Pyramid level, at least 1
+    * @param onAvailable Run on the EDT when a missing level becomes available
+    * @return the level, or null if not (yet) available
+    */
+   Level getLevel(final Image image, final int level, final Runnable onAvailable) {
+      final Key key = new Key(image.getCoords(), level);
+      synchronized (this) {
+         Entry entry = entries_.get(key);
+         if (entry != null && entry.isFrom(image)) {
+            return entry.level;
+         }
+      }
+      if (pending_.add(key)) {
+         EXECUTOR.execute(() -> {
+            try {
+               computeLevels(image, level);
+            } catch (RuntimeException e) {
+               ReportingUtils.logError(e, "Failed to compute pyramid level");
+            } finally {
+               pending_.remove(key);
+            }
+            SwingUtilities.invokeLater(onAvailable);
+         });
+      }
+      return null;
+   }
+
+   private void computeLevels(Image image, int level) {
+      // Start from the highest level already computed for this image
+      Level source = null;
+      int sourceLevel = level - 1;
+      synchronized (this) {
+         for (; sourceLevel > 0; --sourceLevel) {
+            Entry entry = entries_.get(new Key(image.getCoords(), sourceLevel));
+            if (entry != null && entry.isFrom(image)) {
+               source = entry.level;
+               break;
+            }
+         }
+      }
+      if (source == null) {
+         source = new Level(image.getRawPixels(), image.getWidth(), image.getHeight());
+      }
+      for (int n = sourceLevel + 1; n <= level; ++n) {
+         source = downsample(source);
+         Key key = new Key(image.getCoords(), n);
+         put(key, new Entry(new SourceReference(image, key, collectedSources_), source));
+      }
+   }
+
+   private synchronized void put(Key key, Entry entry) {
+      // Levels of collected images can never be returned again
+      Reference<? extends Image> collected;
+      while ((collected = collectedSources_.poll()) != null) {
+         Key collectedKey = ((SourceReference) collected).key;
+         Entry stale = entries_.get(collectedKey);
+         if (stale != null && stale.source == collected) {
+            totalBytes_ -= stale.level.getBytes();
+            entries_.remove(collectedKey);
+         }
+      }
+      Entry previous = entries_.put(key, entry);
+      if (previous != null) {
+         totalBytes_ -= previous.level.getBytes();
+      }
+      totalBytes_ += entry.level.getBytes();
+      Iterator<Entry> it = entries_.values().iterator();
+      while (totalBytes_ > MAX_BYTES && it.hasNext()) {
+         Entry eldest = it.next();
+         if (eldest == entry) {
+            break;
+         }
+         totalBytes_ -= eldest.level.getBytes();
+         it.remove();
+      }
+   }
+
+   /**
+    * Halves the size of an image, averaging each 2x2 block of pixels.  The
+    * last row and column of odd-sized images are averaged with themselves.
+    */
+   static Level downsample(Level source) {
+      int width = source.width;
+      int height = source.height;
+      int newWidth = (width + 1) / 2;
+      int newHeight = (height + 1) / 2;
+      if (source.pixels instanceof short[]) {
+         short[] in = (short[]) source.pixels;
+         short[] out = new short[newWidth * newHeight];
+         for (int y = 0; y < newHeight; ++y) {
+            int row0 = 2 * y * width;
+            int row1 = Math.min(2 * y + 1, height - 1) * width;
+            for (int x = 0; x < newWidth; ++x) {
+               int x0 = 2 * x;
+               int x1 = Math.min(x0 + 1, width - 1);
+               int sum = (in[row0 + x0] & 0xffff) + (in[row0 + x1] & 0xffff)
+                     + (in[row1 + x0] & 0xffff) + (in[row1 + x1] & 0xffff);
+               out[y * newWidth + x] = (short) ((sum + 2) >> 2);
+            }
+         }
+         return new Level(out, newWidth, newHeight);
+      }
+      byte[] in = (byte[]) source.pixels;
+      byte[] out = new byte[newWidth * newHeight];
+      for (int y = 0; y < newHeight; ++y) {
+         int row0 = 2 * y * width;
+         int row1 = Math.min(2 * y + 1, height - 1) * width;
+         for (int x = 0; x < newWidth; ++x) {
+            int x0 = 2 * x;
+            int x1 = Math.min(x0 + 1, width - 1);
+            int sum = (in[row0 + x0] & 0xff) + (in[row0 + x1] & 0xff)
+                  + (in[row1 + x0] & 0xff) + (in[row1 + x1] & 0xff);
+            out[y * newWidth + x] = (byte) ((sum + 2) >> 2);
+         }
+      }
+      return new Level(out, newWidth, newHeight);
+   }
+
+   @Subscribe
+   public void onImageOverwritten(ImageOverwrittenEvent e) {
+      Coords coords = e.getNewImage().getCoords();
+      synchronized (this) {
+         Iterator<Map.Entry<Key, Entry>> it = entries_.entrySet().iterator();
+         while (it.hasNext()) {
+            Map.Entry<Key, Entry> entry = it.next();
+            if (entry.getKey().coords.equals(coords)) {
+               totalBytes_ -= entry.getValue().level.getBytes();
+               it.remove();
+            }
+         }
+      }
+   }
+}
@@ -16,22 +16,85 @@ package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.CompositeImage;
 import ij.ImagePlus;
+import ij.process.LUT;
+import java.util.ArrayList;
+import java.util.List;
+import org.micromanager.data.Image;
 
 /**
  * Wrapped version of ImageJ's {@code CompositeImage}.
  *
+ * <p>In composite mode, 8- and 16-bit channels are rendered by
+ * {@link CompositeRenderer} straight from the displayed Micro-Manager images,
+ * so that ImageJ does not create and fill an ImageProcessor per channel for
+ * every displayed frame.  Other modes and pixel types are rendered by
+ * ImageJ.</p>
+ *
  * @author Mark A. Tsuchida, based on older version by Chris Weisiger
  * @see MMImagePlus
  */
 public final class MMCompositeImage extends CompositeImage
       implements IMMImagePlus {
+   private final ImageJBridge parent_;
+   private final CompositeRenderer renderer_ = new CompositeRenderer();
+
    static MMCompositeImage create(ImageJBridge parent, ImagePlus predecessor) {
       return new MMCompositeImage(parent, predecessor);
    }
 
    private MMCompositeImage(ImageJBridge parent, ImagePlus predecessor) {
       super(predecessor, COMPOSITE);
-      // So far we don't use parent reference
+      parent_ = parent;
+   }
+
+   @Override
+   public synchronized void updateImage() {
+      if (getMode() != COMPOSITE || !renderComposite()) {
+         super.updateImage();
+      }
+   }
+
+   /**
+    * Renders the active channels at the current slice and frame.
+    *
+    * @return false if the images cannot be rendered by CompositeRenderer
+    */
+   private boolean renderComposite() {
+      // Like CompositeImage.updateImage(), which also calls getNChannels()
+      int nChannels = getNChannels();
+      boolean[] active = getActiveChannels();
+      List<Object> pixels = new ArrayList<>(nChannels);
+      List<LUT> channelLuts = new ArrayList<>(nChannels);
+      Class<?> pixelClass = null;
+      for (int i = 0; i < nChannels; ++i) {
+         if (active != null && i < active.length && !active[i]) {
+            continue;
+         }
+         Image image = parent_.getMMDisplayedImage(parent_.getMMCoordsForIJFlatIndex(
+               getStackIndex(i + 1, getSlice(), getFrame())));
+         if (image == null) {
+            continue; // Not acquired yet; contributes nothing
+         }
+         Object channelPixels = image.getRawPixels();
+         if (image.getNumComponents() != 1
+               || image.getWidth() != getWidth() || image.getHeight() != getHeight()
+               || !(channelPixels instanceof byte[] || channelPixels instanceof short[])
+               || (pixelClass != null && pixelClass != channelPixels.getClass())) {
+            return false;
+         }
+         LUT lut;
+         try {
+            lut = getChannelLut(i + 1);
+         } catch (IllegalArgumentException e) {
+            return false; // LUTs not yet set up for the current channel count
+         }
+         pixelClass = channelPixels.getClass();
+         pixels.add(channelPixels);
+         channelLuts.add(lut);
+      }
+      img = renderer_.render(pixels.toArray(), channelLuts.toArray(new LUT[0]),
+            getWidth(), getHeight());
+      return true;
    }
 
    @Override
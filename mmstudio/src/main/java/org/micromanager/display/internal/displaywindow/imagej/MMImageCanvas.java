@@ -15,7 +15,10 @@
 package org.micromanager.display.internal.displaywindow.imagej;
 
 import ij.IJ;
+import ij.Prefs;
 import ij.gui.ImageCanvas;
+import ij.gui.Roi;
+import java.awt.Color;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Graphics;
@@ -33,6 +36,7 @@ import java.awt.event.MouseListener;
 import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
+import java.awt.image.BufferedImage;
 import javax.swing.SwingUtilities;
 import org.micromanager.internal.utils.MustCallOnEDT;
 
@@ -47,6 +51,9 @@ public final class MMImageCanvas extends ImageCanvas
 
    private Dimension preferredSize_;
 
+   private static final Color ZOOM_INDICATOR_COLOR = new Color(128, 128, 255);
+   private boolean hideZoomIndicator_;
+
    @MustCallOnEDT
    static MMImageCanvas create(ImageJBridge parent) {
       final MMImageCanvas instance = new MMImageCanvas(parent);
@@ -95,12 +102,83 @@ public final class MMImageCanvas extends ImageCanvas
       // ij.gui.ImageCanvas is not written in a way that allows us to easily
       // override paint() without reimplementing a whole bunch of stuff.
 
-      // Let ImageJ draw the image, selection, zoom indicator, etc.
-      super.paint(g);
+      // When zoomed out, draw a downsampled image if available; otherwise let
+      // ImageJ draw the image, selection, zoom indicator, etc.
+      if (!paintFromPyramid(g)) {
+         super.paint(g);
+      }
       parent_.paintMMOverlays((Graphics2D) g, getWidth(), getHeight(), srcRect);
       parent_.ijPaintDidFinish();
    }
 
+   /**
+    * Draws the image from the pyramid level whose resolution is the lowest
+    * that is still at least that of the screen.  ImageJ would otherwise scale
+    * down the whole full-resolution image on every paint.  Only the visible
+    * part of the level is rendered.
+    *
+    * <p>ImageJ paints by itself when there is a selection or overlay to draw,
+    * so that those are handled exactly as before.  Note that this leaves
+    * ImageJ's image out of date ({@code imageUpdated} remains set), so that
+    * ImageJ updates it when it next paints.</p>
+    *
+    * @return false if nothing was painted
+    */
+   private boolean paintFromPyramid(Graphics g) {
+      double magnification = getMagnification();
+      if (magnification > 0.5 || parent_ == null || imp.getRoi() != null
+            || getOverlay() != null || getShowAllList() != null
+            || Prefs.paintDoubleBuffered) {
+         return false;
+      }
+      int level = (int) Math.floor(Math.log(1.0 / magnification) / Math.log(2.0));
+      BufferedImage image = parent_.renderPyramidLevel(level, srcRect);
+      if (image == null) {
+         return false;
+      }
+      int dstWidth = (int) (srcRect.width * magnification + 0.5);
+      int dstHeight = (int) (srcRect.height * magnification + 0.5);
+      g.drawImage(image, 0, 0, dstWidth, dstHeight,
+            0, 0, image.getWidth(), image.getHeight(), null);
+      if (!hideZoomIndicator_
+            && (srcRect.width < imageWidth || srcRect.height < imageHeight)) {
+         paintZoomIndicator(g);
+      }
+      return true;
+   }
+
+   // Same as ImageJ's (package-private) drawZoomIndicator()
+   private void paintZoomIndicator(Graphics g) {
+      int x1 = 10;
+      int y1 = 10;
+      double aspectRatio = (double) imageHeight / imageWidth;
+      int w1 = 64;
+      if (aspectRatio > 1.0) {
+         w1 = (int) (w1 / aspectRatio);
+      }
+      int h1 = (int) (w1 * aspectRatio);
+      w1 = Math.max(4, w1);
+      h1 = Math.max(4, h1);
+      int w2 = Math.max(1, (int) (w1 * ((double) srcRect.width / imageWidth)));
+      int h2 = Math.max(1, (int) (h1 * ((double) srcRect.height / imageHeight)));
+      int x2 = (int) (w1 * ((double) srcRect.x / imageWidth));
+      int y2 = (int) (h1 * ((double) srcRect.y / imageHeight));
+      g.setColor(ZOOM_INDICATOR_COLOR);
+      ((Graphics2D) g).setStroke(Roi.onePixelWide);
+      g.drawRect(x1, y1, w1, h1);
+      if (w2 * h2 <= 200 || w2 < 10 || h2 < 10) {
+         g.fillRect(x1 + x2, y1 + y2, w2, h2);
+      } else {
+         g.drawRect(x1 + x2, y1 + y2, w2, h2);
+      }
+   }
+
+   @Override
+   public boolean hideZoomIndicator(boolean hide) {
+      hideZoomIndicator_ = hide;
+      return super.hideZoomIndicator(hide);
+   }
+
    @Override
    public Dimension getPreferredSize() {
       // ImageJ overrides this method, but we prefer the standard method of
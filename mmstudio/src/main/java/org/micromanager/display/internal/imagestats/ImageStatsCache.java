@@ -0,0 +1,560 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hashing;
+import java.awt.Rectangle;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.WeakHashMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import org.micromanager.data.Coords;
+import org.micromanager.data.DataProvider;
+import org.micromanager.data.Datastore;
+import org.micromanager.data.Image;
+import org.micromanager.data.ImageOverwrittenEvent;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.internal.utils.ReportingUtils;
+
+/**
+ * Cache of computed image statistics, shared by all viewers of a data
+ * provider.
+ *
+ * <p>Statistics are keyed by the UUID and coords of the image, the ROI, and
+ * the maximum histogram bin count, so that switching channels or returning to
+ * a previously viewed position does not require the pixels to be scanned
+ * again.  The coords are part of the key because processors (e.g., splitting
+ * the camera image into channels) may give several images the metadata, and
+ * thus the UUID, of their source image.  The
+ * cache is bounded by the memory taken by the histograms, evicting the least
+ * recently used statistics first.  Images without UUID are not cached.</p>
+ *
+ * <p>The statistics of whole images are written to a file in the dataset by
+ * the storage, using a {@link StatsFileWriter}, when the dataset is
+ * finished.  When the dataset is opened again, they are read back, so that
+ * the first autoscaling does not need to scan the pixels.  Until first
+ * used, the statistics read from the file are kept in their compact, file
+ * form.</p>
+ *
+ * @see ImageStatsProcessor
+ */
+public final class ImageStatsCache {
+   public static final String STATS_FILE_NAME = "ImageStats.bin";
+   private static final int FILE_MAGIC = 0x4d4d4953; // "MMIS"
+   private static final int FILE_VERSION = 3;
+
+   private static final long MAX_BYTES =
+         Math.min(128L << 20, Runtime.getRuntime().maxMemory() / 16);
+
+   private static final Map<DataProvider, ImageStatsCache> CACHES =
+         new WeakHashMap<>();
+
+   private static final class Key {
+      private final UUID uuid_;
+      private final Coords coords_;
+      private final Rectangle roiBounds_;
+      private final long maskSignature_;
+      private final int maxBinCountPowerOf2_;
+
+      Key(UUID uuid, Coords coords, Rectangle roiBounds, byte[] mask,
+          int maxBinCountPowerOf2) {
+         uuid_ = uuid;
+         coords_ = coords;
+         roiBounds_ = roiBounds;
+         // Rather than keep a copy of every mask, identify it by a 64-bit hash
+         maskSignature_ = mask == null ? 0
+               : Hashing.murmur3_128().hashBytes(mask).asLong();
+         maxBinCountPowerOf2_ = maxBinCountPowerOf2;
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof Key)) {
+            return false;
+         }
+         Key key = (Key) other;
+         return uuid_.equals(key.uuid_)
+               && coords_.equals(key.coords_)
+               && Objects.equals(roiBounds_, key.roiBounds_)
+               && maskSignature_ == key.maskSignature_
+               && maxBinCountPowerOf2_ == key.maxBinCountPowerOf2_;
+      }
+
+      @Override
+      public int hashCode() {
+         return Objects.hash(uuid_, coords_, roiBounds_, maskSignature_,
+               maxBinCountPowerOf2_);
+      }
+   }
+
+   private final DataProvider provider_;
+
+   // Access-ordered, for LRU eviction; guarded by this
+   private final LinkedHashMap<Key, IntegerComponentStats[]> entries_ =
+         new LinkedHashMap<>(16, 0.75f, true);
+   private long totalBytes_ = 0;
+   // Statistics read from the stats file, as written; guarded by this
+   private final Map<Key, byte[]> stored_ = new HashMap<>();
+   private boolean loaded_ = false;
+
+   /**
+    * Returns the cache of the given data provider, creating it if necessary.
+    *
+    * @param provider the data provider
+    * @return the cache shared by all viewers of provider
+    */
+   public static ImageStatsCache forDataProvider(DataProvider provider) {
+      synchronized (CACHES) {
+         ImageStatsCache cache = CACHES.get(provider);
+         if (cache == null) {
+            cache = new ImageStatsCache(provider);
+            provider.registerForEvents(cache);
+            CACHES.put(provider, cache);
+         }
+         return cache;
+      }
+   }
+
+   private ImageStatsCache(DataProvider provider) {
+      provider_ = provider;
+   }
+
+   private static Key makeKey(Image image, ImageStatsRequest request) {
+      UUID uuid = image.getMetadata().getUUID();
+      if (uuid == null) {
+         return null;
+      }
+      Rectangle bounds = request.getROIBounds();
+      return new Key(uuid, image.getCoords(), bounds,
+            bounds == null ? null : request.getROIMask(),
+            request.getMaxBinCountPowerOf2());
+   }
+
+   private static long getBytes(IntegerComponentStats[] stats) {
+      long bytes = 0;
+      for (IntegerComponentStats s : stats) {
+         // Histogram and cumulative distribution
+         bytes += 16L * (s.getHistogramBinCount() + 2) + 128;
+      }
+      return bytes;
+   }
+
+   /**
+    * Returns cached statistics.
+    *
+    * @param image   the image
+    * @param request the request, specifying the ROI and bin count
+    * @param index   index of the image within request
+    * @return the statistics, or null if not cached
+    */
+   ImageStats get(Image image, ImageStatsRequest request, int index) {
+      Key key = makeKey(image, request);
+      if (key == null) {
+         return null;
+      }
+      loadIfNecessary();
+      IntegerComponentStats[] stats;
+      byte[] stored = null;
+      synchronized (this) {
+         stats = entries_.get(key);
+         if (stats == null) {
+            stored = stored_.get(key);
+         }
+      }
+      if (stored != null) {
+         try {
+            stats = decodeStats(stored);
+         } catch (IOException e) {
+            ReportingUtils.logError(e, "Invalid image stats in stats file");
+         }
+         if (stats != null) {
+            put(key, stats);
+         }
+      }
+      if (stats == null || stats.length != image.getNumComponents()) {
+         return null;
+      }
+      return ImageStats.create(index, stats);
+   }
+
+   /**
+    * Caches computed statistics.
+    *
+    * @param image   the image
+    * @param request the request, specifying the ROI and bin count
+    * @param stats   the exact statistics of the image
+    */
+   void put(Image image, ImageStatsRequest request, ImageStats stats) {
+      Key key = makeKey(image, request);
+      if (key == null || stats == null) {
+         return;
+      }
+      IntegerComponentStats[] components =
+            new IntegerComponentStats[stats.getNumberOfComponents()];
+      for (int c = 0; c < components.length; ++c) {
+         components[c] = stats.getComponentStats(c);
+      }
+      put(key, components);
+   }
+
+   private synchronized void put(Key key, IntegerComponentStats[] stats) {
+      IntegerComponentStats[] previous = entries_.put(key, stats);
+      if (previous != null) {
+         totalBytes_ -= getBytes(previous);
+      }
+      totalBytes_ += getBytes(stats);
+      Iterator<IntegerComponentStats[]> it = entries_.values().iterator();
+      while (totalBytes_ > MAX_BYTES && it.hasNext()) {
+         IntegerComponentStats[] eldest = it.next();
+         if (eldest == stats) {
+            break;
+         }
+         totalBytes_ -= getBytes(eldest);
+         it.remove();
+      }
+   }
+
+   @Subscribe
+   public void onImageOverwritten(ImageOverwrittenEvent e) {
+      // Processed images may carry the UUID of their source image
+      Coords coords = e.getNewImage().getCoords();
+      List<UUID> uuids = new ArrayList<>(2);
+      uuids.add(e.getNewImage().getMetadata().getUUID());
+      if (e.getOldImage() != null) {
+         uuids.add(e.getOldImage().getMetadata().getUUID());
+      }
+      synchronized (this) {
+         Iterator<Map.Entry<Key, IntegerComponentStats[]>> it =
+               entries_.entrySet().iterator();
+         while (it.hasNext()) {
+            Map.Entry<Key, IntegerComponentStats[]> entry = it.next();
+            if (uuids.contains(entry.getKey().uuid_)
+                  || entry.getKey().coords_.equals(coords)) {
+               totalBytes_ -= getBytes(entry.getValue());
+               it.remove();
+            }
+         }
+         stored_.keySet().removeIf(key ->
+               uuids.contains(key.uuid_) || key.coords_.equals(coords));
+      }
+   }
+
+   private String getSavePath() {
+      if (provider_ instanceof Datastore) {
+         return ((Datastore) provider_).getSavePath();
+      }
+      return null;
+   }
+
+   private void loadIfNecessary() {
+      synchronized (this) {
+         if (loaded_) {
+            return;
+         }
+         loaded_ = true;
+      }
+      String path = getSavePath();
+      if (path == null) {
+         return;
+      }
+      File file = new File(path, STATS_FILE_NAME);
+      if (!file.isFile()) {
+         return;
+      }
+      long storedBytes = 0;
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new GZIPInputStream(new FileInputStream(file))))) {
+         if (in.readInt() != FILE_MAGIC || in.readInt() != FILE_VERSION) {
+            ReportingUtils.logMessage("Ignoring image stats file of unknown format: "
+                  + file.getPath());
+            return;
+         }
+         while (in.readBoolean()) {
+            UUID uuid = new UUID(in.readLong(), in.readLong());
+            Coords.Builder coords = new DefaultCoords.Builder();
+            int numAxes = in.readInt();
+            for (int a = 0; a < numAxes; ++a) {
+               coords.index(in.readUTF(), in.readInt());
+            }
+            int maxBinCountPowerOf2 = in.readInt();
+            byte[] stats = new byte[in.readInt()];
+            in.readFully(stats);
+            storedBytes += stats.length;
+            if (storedBytes > MAX_BYTES) {
+               ReportingUtils.logMessage("Not reading all image stats from: "
+                     + file.getPath() + "; the remainder will be computed");
+               return;
+            }
+            synchronized (this) {
+               stored_.put(new Key(uuid, coords.build(), null, null,
+                     maxBinCountPowerOf2), stats);
+            }
+         }
+      } catch (IOException | RuntimeException e) {
+         ReportingUtils.logError(e, "Failed to read image stats from: "
+               + file.getPath());
+      }
+   }
+
+   /**
+    * Computes the statistics of a whole image, as displays request them.
+    *
+    * @param image the image
+    * @return the statistics of each component, or null if the pixel type is
+    *     not supported
+    */
+   public static IntegerComponentStats[] computeWholeImageStats(Image image) {
+      int nComponents = image.getNumComponents();
+      int bytesPerSample = image.getBytesPerPixel() / nComponents;
+      int bitDepth = ImageStatsProcessor.getBitDepth(image);
+      int binCountPowerOf2 =
+            Math.min(bitDepth, ImageStatsRequest.MAX_BIN_COUNT_POWER_OF_2);
+      Rectangle bounds = new Rectangle(0, 0, image.getWidth(), image.getHeight());
+      int[][] valueCounts;
+      if (bytesPerSample == 1) {
+         valueCounts = IntegerStatsKernels.countSamples((byte[]) image.getRawPixels(),
+               nComponents, image.getWidth(), bounds, null, bounds, 1);
+      } else if (bytesPerSample == 2) {
+         valueCounts = IntegerStatsKernels.countSamples((short[]) image.getRawPixels(),
+               nComponents, image.getWidth(), bounds, null, bounds, 1);
+      } else {
+         return null;
+      }
+      IntegerComponentStats[] stats = new IntegerComponentStats[nComponents];
+      for (int component = 0; component < nComponents; ++component) {
+         stats[component] = IntegerStatsKernels.summarize(
+               valueCounts[component], bitDepth, binCountPowerOf2, false);
+      }
+      return stats;
+   }
+
+   /**
+    * Writes the statistics of whole images to the stats file of a dataset,
+    * one image at a time, so that they need not be kept in memory.  The
+    * file replaces any previous one only when closed, so that it is never
+    * read while incomplete.  Images may be added from several threads.
+    */
+   public static final class StatsFileWriter implements Closeable {
+      private final File file_;
+      private final File tempFile_;
+      private final DataOutputStream out_;
+      private boolean failed_ = false;
+
+      private StatsFileWriter(File directory) throws IOException {
+         file_ = new File(directory, STATS_FILE_NAME);
+         tempFile_ = new File(directory, STATS_FILE_NAME + ".tmp");
+         out_ = new DataOutputStream(new BufferedOutputStream(
+               new GZIPOutputStream(new FileOutputStream(tempFile_))));
+         out_.writeInt(FILE_MAGIC);
+         out_.writeInt(FILE_VERSION);
+      }
+
+      /**
+       * Creates a writer for the stats file of a dataset.
+       *
+       * @param directory the directory of the dataset
+       * @return the writer
+       * @throws IOException if the file cannot be created
+       */
+      public static StatsFileWriter create(File directory) throws IOException {
+         return new StatsFileWriter(directory);
+      }
+
+      /**
+       * Adds the statistics of an image.  Images without UUID are skipped.
+       *
+       * @param image the image
+       * @param stats the statistics of the whole image, as computed by
+       *              {@link #computeWholeImageStats}
+       * @throws IOException if writing fails; the file is then not created
+       */
+      public void add(Image image, IntegerComponentStats[] stats)
+            throws IOException {
+         UUID uuid = image.getMetadata().getUUID();
+         if (uuid == null || stats == null) {
+            return;
+         }
+         byte[] encoded = encodeStats(stats);
+         synchronized (this) {
+            if (failed_) {
+               return;
+            }
+            try {
+               out_.writeBoolean(true);
+               out_.writeLong(uuid.getMostSignificantBits());
+               out_.writeLong(uuid.getLeastSignificantBits());
+               Coords coords = image.getCoords();
+               List<String> axes = coords.getAxes();
+               out_.writeInt(axes.size());
+               for (String axis : axes) {
+                  out_.writeUTF(axis);
+                  out_.writeInt(coords.getIndex(axis));
+               }
+               out_.writeInt(ImageStatsRequest.MAX_BIN_COUNT_POWER_OF_2);
+               out_.writeInt(encoded.length);
+               out_.write(encoded);
+            } catch (IOException e) {
+               failed_ = true;
+               throw e;
+            }
+         }
+      }
+
+      /**
+       * Completes the file, replacing any previous stats file of the dataset.
+       *
+       * @throws IOException if the file cannot be written
+       */
+      @Override
+      public synchronized void close() throws IOException {
+         try {
+            out_.writeBoolean(false);
+         } catch (IOException e) {
+            failed_ = true;
+            throw e;
+         } finally {
+            out_.close();
+            if (failed_) {
+               tempFile_.delete();
+            }
+         }
+         if (!failed_) {
+            Files.move(tempFile_.toPath(), file_.toPath(),
+                  StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+   }
+
+   private static byte[] encodeStats(IntegerComponentStats[] stats)
+         throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(stats.length);
+      for (IntegerComponentStats s : stats) {
+         writeComponentStats(out, s);
+      }
+      out.flush();
+      return bytes.toByteArray();
+   }
+
+   private static IntegerComponentStats[] decodeStats(byte[] encoded)
+         throws IOException {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(encoded));
+      IntegerComponentStats[] stats = new IntegerComponentStats[in.readInt()];
+      for (int c = 0; c < stats.length; ++c) {
+         stats[c] = readComponentStats(in);
+      }
+      return stats;
+   }
+
+   // Histograms are stored sparsely, as (index increment, count) pairs of
+   // the non-empty bins, as most bins of 16-bit histograms are usually empty
+   private static void writeComponentStats(DataOutputStream out,
+                                           IntegerComponentStats stats)
+         throws IOException {
+      long[] inRange = stats.getInRangeHistogram();
+      long[] histogram = new long[inRange.length + 2];
+      histogram[0] = stats.getPixelCountBelowRange();
+      System.arraycopy(inRange, 0, histogram, 1, inRange.length);
+      histogram[histogram.length - 1] = stats.getPixelCountAboveRange();
+      int nonEmpty = 0;
+      for (long count : histogram) {
+         if (count != 0) {
+            ++nonEmpty;
+         }
+      }
+      out.writeInt(Integer.numberOfTrailingZeros(stats.getHistogramBinWidth()));
+      out.writeInt(histogram.length);
+      out.writeInt(nonEmpty);
+      int previous = -1;
+      for (int i = 0; i < histogram.length; ++i) {
+         if (histogram[i] != 0) {
+            writeVarLong(out, i - previous);
+            writeVarLong(out, histogram[i]);
+            previous = i;
+         }
+      }
+      out.writeLong(stats.getPixelCount());
+      out.writeLong(stats.getPixelCountExcludingZeros());
+      out.writeLong(stats.getMinIntensity());
+      out.writeLong(stats.getMinIntensityExcludingZeros());
+      out.writeLong(stats.getMaxIntensity());
+      out.writeLong(stats.getSum());
+      out.writeLong(stats.getSumOfSquares());
+   }
+
+   private static IntegerComponentStats readComponentStats(DataInputStream in)
+         throws IOException {
+      int binWidthPowerOf2 = in.readInt();
+      long[] histogram = new long[in.readInt()];
+      int nonEmpty = in.readInt();
+      int index = -1;
+      for (int i = 0; i < nonEmpty; ++i) {
+         index += (int) readVarLong(in);
+         histogram[index] = readVarLong(in);
+      }
+      return IntegerComponentStats.builder()
+            .histogram(histogram, binWidthPowerOf2)
+            .pixelCount(in.readLong())
+            .pixelCountExcludingZeros(in.readLong())
+            .usedROI(false)
+            .minimum(in.readLong())
+            .minimumExcludingZeros(in.readLong())
+            .maximum(in.readLong())
+            .sum(in.readLong())
+            .sumOfSquares(in.readLong())
+            .build();
+   }
+
+   private static void writeVarLong(DataOutputStream out, long value)
+         throws IOException {
+      while ((value & ~0x7fL) != 0) {
+         out.writeByte((int) (value & 0x7f) | 0x80);
+         value >>>= 7;
+      }
+      out.writeByte((int) value);
+   }
+
+   private static long readVarLong(DataInputStream in) throws IOException {
+      long value = 0;
+      for (int shift = 0; ; shift += 7) {
+         int b = in.readUnsignedByte();
+         value |= (long) (b & 0x7f) << shift;
+         if ((b & 0x80) == 0) {
+            return value;
+         }
+      }
+   }
+}
@@ -20,25 +20,12 @@ import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import net.imglib2.Cursor;
-import net.imglib2.IterableInterval;
-import net.imglib2.histogram.BinMapper1d;
-import net.imglib2.histogram.Histogram1d;
-import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
-import net.imglib2.transform.integer.MixedTransform;
-import net.imglib2.type.numeric.IntegerType;
-import net.imglib2.type.numeric.integer.UnsignedByteType;
-import net.imglib2.type.numeric.integer.UnsignedShortType;
-import net.imglib2.util.ConstantUtils;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.IntervalView;
-import net.imglib2.view.MixedTransformView;
-import net.imglib2.view.Views;
 import org.micromanager.data.Image;
 import org.micromanager.internal.utils.ThreadFactoryFactory;
 import org.micromanager.internal.utils.performance.CPUTimer;
@@ -49,12 +36,22 @@ import org.micromanager.internal.utils.performance.WallTimer;
  * @author Mark A. Tsuchida
  */
 public final class ImageStatsProcessor {
-   private static final int MASK_THRESH = 128;
+   // Images (or ROIs) with at least this many pixels are split into bands of
+   // rows that are counted in parallel
+   private static final int MIN_PIXELS_PER_BAND = 1 << 19;
+
+   // Sampling is only worthwhile for images at least this large
+   private static final int MIN_PIXELS_TO_SAMPLE = 1 << 20;
 
    private final ExecutorService executor_;
 
+   // Shared by the images of a request, and by successive requests
+   private final ForkJoinPool bandPool_;
+
    private PerformanceMonitor perfMon_;
 
+   private volatile ImageStatsCache cache_;
+
    public static ImageStatsProcessor create() {
       return new ImageStatsProcessor();
    }
@@ -65,20 +62,52 @@ public final class ImageStatsProcessor {
       executor_ = new ThreadPoolExecutor(1, Integer.MAX_VALUE,
             60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
             ThreadFactoryFactory.createThreadFactory("ImageStatsProcessor"));
+      bandPool_ = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
    }
 
    public void shutdown() {
       executor_.shutdown();
+      bandPool_.shutdown();
    }
 
    void setPerformanceMonitor(PerformanceMonitor perfMon) {
       perfMon_ = perfMon;
    }
 
+   /**
+    * Sets the cache in which to look up, and store, exact statistics.
+    *
+    * @param cache the cache, or null to always compute statistics
+    */
+   void setCache(ImageStatsCache cache) {
+      cache_ = cache;
+   }
+
    public ImagesAndStats process(final long sequenceNumber,
                                  final ImageStatsRequest request,
                                  boolean interruptible)
          throws InterruptedException {
+      return process(sequenceNumber, request, interruptible, 1);
+   }
+
+   /**
+    * Computes the statistics of the images of a request.
+    *
+    * @param sequenceNumber Sequence number of the request
+    * @param request        Images and parameters
+    * @param interruptible  Whether to give up if interrupted
+    * @param sampleStride   If greater than 1, the statistics of large images
+    *                       are approximated from every sampleStride-th pixel
+    *                       of every sampleStride-th row
+    * @return images and their statistics
+    * @throws InterruptedException if interrupted while interruptible
+    */
+   public ImagesAndStats process(final long sequenceNumber,
+                                 final ImageStatsRequest request,
+                                 boolean interruptible,
+                                 final int sampleStride)
+         throws InterruptedException {
+      Preconditions.checkArgument(sampleStride >= 1);
       WallTimer timer = WallTimer.createStarted();
 
       ImageStats[] results = new ImageStats[request.getNumberOfImages()];
@@ -89,7 +118,7 @@ public final class ImageStatsProcessor {
          futures.add(executor_.submit(new Callable<ImageStats>() {
             @Override
             public ImageStats call() throws Exception {
-               return computeStats(image, request, ii);
+               return computeStats(image, request, ii, sampleStride);
             }
          }));
       }
@@ -118,16 +147,36 @@ public final class ImageStatsProcessor {
       return ImagesAndStats.create(sequenceNumber, request, results);
    }
 
+   /**
+    * Returns the bit depth of the samples of an image, which determines the
+    * range of its histograms.
+    */
+   static int getBitDepth(Image image) {
+      Integer bitDepth = image.getMetadata().getBitDepth();
+      return bitDepth == null
+            ? 8 * (image.getBytesPerPixel() / image.getNumComponents()) : bitDepth;
+   }
+
    private ImageStats computeStats(Image image,
-                                   ImageStatsRequest request, int index)
+                                   ImageStatsRequest request, int index,
+                                   int sampleStride)
          throws ClassCastException {
+      ImageStatsCache cache = cache_;
+      if (cache != null) {
+         ImageStats cached = cache.get(image, request, index);
+         if (cached != null) {
+            if (perfMon_ != null) {
+               perfMon_.sampleTimeInterval("Process cache hit");
+            }
+            return cached;
+         }
+      }
+
       CPUTimer cpuTimer = CPUTimer.createStarted();
 
       int nComponents = image.getNumComponents();
-      Integer boxedBitDepth = image.getMetadata().getBitDepth();
       int bytesPerSample = image.getBytesPerPixel() / nComponents;
-      int bitDepth = boxedBitDepth == null
-            ? 8 * bytesPerSample : boxedBitDepth;
+      int bitDepth = getBitDepth(image);
       int binCountPowerOf2 =
             Math.min(bitDepth, request.getMaxBinCountPowerOf2());
 
@@ -159,40 +208,35 @@ public final class ImageStatsProcessor {
       }
 
       // If (the used part of) the mask has no pixels, revert to full image
-      IterableInterval<UnsignedByteType> mask =
-            wrapROIMask(maskBytes, nComponents, maskBounds, statsBounds);
-      boolean maskEmpty = true;
-      for (Cursor<UnsignedByteType> c = mask.cursor(); c.hasNext(); c.fwd()) {
-         if (c.get().getInteger() >= MASK_THRESH) {
-            maskEmpty = false;
-            break;
-         }
-      }
-      if (maskEmpty) {
+      if (IntegerStatsKernels.isMaskEmpty(maskBytes, maskBounds, statsBounds)) {
          statsBounds = imageBounds;
-         mask = wrapROIMask(null, nComponents, imageBounds, statsBounds);
+         maskBytes = null;
          useROI = false;
       }
 
+      if ((long) statsBounds.width * statsBounds.height < MIN_PIXELS_TO_SAMPLE) {
+         sampleStride = 1;
+      }
+
+      int[][] valueCounts = null;
+      if (bytesPerSample == 1 || bytesPerSample == 2) {
+         valueCounts = bandPool_.invoke(new CountSamplesTask(
+               image.getRawPixels(), nComponents, image.getWidth(),
+               statsBounds, maskBytes, maskBounds, sampleStride));
+      }
+
       ImageStats result = null;
-      if (bytesPerSample == 1) {
-         Img<UnsignedByteType> img =
-               ArrayImgs.unsignedBytes((byte[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
-      } else if (bytesPerSample == 2) {
-         Img<UnsignedShortType> img =
-               ArrayImgs.unsignedShorts((short[]) image.getRawPixels(),
-                     nComponents, image.getWidth(), image.getHeight());
-         result = compute(
-               clipToRect(img, nComponents, statsBounds),
-               mask,
-               nComponents, bitDepth, binCountPowerOf2,
-               useROI, index);
+      if (valueCounts != null) {
+         IntegerComponentStats[] componentStats =
+               new IntegerComponentStats[nComponents];
+         for (int component = 0; component < nComponents; ++component) {
+            componentStats[component] = IntegerStatsKernels.summarize(
+                  valueCounts[component], bitDepth, binCountPowerOf2, useROI);
+         }
+         result = ImageStats.create(index, componentStats);
+         if (cache != null && sampleStride == 1) {
+            cache.put(image, request, result);
+         }
       }
 
       if (perfMon_ != null) {
@@ -202,138 +246,69 @@ public final class ImageStatsProcessor {
       return result; // null if we don't know how to compute (TODO FIX)
    }
 
-   private <T extends IntegerType<T>> ImageStats compute(
-         IterableInterval<T> img, IterableInterval<UnsignedByteType> mask,
-         int nComponents, int sampleBitDepth, int binCountPowerOf2,
-         boolean isROI, int index) {
-      // It's easier to debug if we check first...
-      Preconditions.checkArgument(img.numDimensions() == 3);
-      Preconditions.checkArgument(img.dimension(0) == nComponents);
-      for (int d = 0; d < 3; ++d) {
-         Preconditions.checkArgument(img.dimension(d) == mask.dimension(d));
+   /**
+    * Counts sample values, splitting the rows into bands that are counted in
+    * parallel; the counts of the bands are then added together.
+    */
+   private static final class CountSamplesTask extends RecursiveTask<int[][]> {
+      private final Object pixels_;
+      private final int nComponents_;
+      private final int imageWidth_;
+      private final Rectangle bounds_;
+      private final byte[] mask_;
+      private final Rectangle maskBounds_;
+      private final int sampleStride_;
+
+      CountSamplesTask(Object pixels, int nComponents, int imageWidth,
+                       Rectangle bounds, byte[] mask, Rectangle maskBounds,
+                       int sampleStride) {
+         pixels_ = pixels;
+         nComponents_ = nComponents;
+         imageWidth_ = imageWidth;
+         bounds_ = bounds;
+         mask_ = mask;
+         maskBounds_ = maskBounds;
+         sampleStride_ = sampleStride;
       }
 
-      BinMapper1d<T> binMapper =
-            PowerOf2BinMapper.create(sampleBitDepth, binCountPowerOf2);
-
-      // Some ugliness to allow us to compute stats for multiple components in
-      // a single interation over the pixels.
-      List<Histogram1d<T>> histograms = new ArrayList<Histogram1d<T>>();
-      long[] counts = new long[nComponents];
-      long[] countsExcludingZeros = new long[nComponents];
-      long[] minima = new long[nComponents];
-      long[] minimaExcludingZeros = new long[nComponents];
-      long[] maxima = new long[nComponents];
-      long[] sums = new long[nComponents];
-      long[] sumsOfSquares = new long[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         histograms.add(new Histogram1d<T>(binMapper));
-         counts[component] = 0;
-         countsExcludingZeros[component] = 0;
-         minima[component] = Long.MAX_VALUE;
-         minimaExcludingZeros[component] = Long.MAX_VALUE;
-         maxima[component] = Long.MIN_VALUE;
-         sums[component] = 0;
-         sumsOfSquares[component] = 0;
-      }
-
-      // Note: sums of squares could overflow with a huge image (65k by 65k or
-      // greater). If we ever deal with such images, we should split the image
-      // before computing partial statistics.
-      // The reason for computing sums of squares, rather than a running stdev,
-      // is to make it easy to parallelize these computations within a single
-      // image.
-
-      // Perform the actual computations:
-      Cursor<T> dataCursor = img.localizingCursor();
-      Cursor<UnsignedByteType> maskCursor = mask.cursor();
-      for (int i = 0; dataCursor.hasNext(); ++i) {
-         int component = i % nComponents;
-         T dataSample = dataCursor.next();
-         UnsignedByteType maskSample = maskCursor.next();
-
-         if (maskSample.getInteger() < MASK_THRESH) {
-            continue;
-         }
-
-         long dataValue = dataSample.getIntegerLong();
-
-         histograms.get(component).increment(dataSample);
-         counts[component]++;
-         if (dataValue > 0) {
-            countsExcludingZeros[component]++;
-         }
-         if (dataValue < minima[component]) {
-            minima[component] = dataValue;
-         }
-         if (dataValue < minimaExcludingZeros[component] && dataValue > 0) {
-            minimaExcludingZeros[component] = dataValue;
+      @Override
+      protected int[][] compute() {
+         // Number of sampled rows; bands are split at sampled rows, so that
+         // the same rows are sampled however the image is split
+         int rows = (bounds_.height + sampleStride_ - 1) / sampleStride_;
+         long pixelsCounted = (long) rows
+               * ((bounds_.width + sampleStride_ - 1) / sampleStride_);
+         if (rows < 2 || pixelsCounted < 2L * MIN_PIXELS_PER_BAND) {
+            if (pixels_ instanceof byte[]) {
+               return IntegerStatsKernels.countSamples((byte[]) pixels_,
+                     nComponents_, imageWidth_, bounds_, mask_, maskBounds_,
+                     sampleStride_);
+            }
+            return IntegerStatsKernels.countSamples((short[]) pixels_,
+                  nComponents_, imageWidth_, bounds_, mask_, maskBounds_,
+                  sampleStride_);
          }
-         if (dataValue > maxima[component]) {
-            maxima[component] = dataValue;
+         int splitHeight = (rows / 2) * sampleStride_;
+         CountSamplesTask top = new CountSamplesTask(pixels_, nComponents_,
+               imageWidth_,
+               new Rectangle(bounds_.x, bounds_.y, bounds_.width, splitHeight),
+               mask_, maskBounds_, sampleStride_);
+         CountSamplesTask bottom = new CountSamplesTask(pixels_, nComponents_,
+               imageWidth_,
+               new Rectangle(bounds_.x, bounds_.y + splitHeight, bounds_.width,
+                     bounds_.height - splitHeight),
+               mask_, maskBounds_, sampleStride_);
+         top.fork();
+         int[][] counts = bottom.compute();
+         int[][] topCounts = top.join();
+         for (int component = 0; component < counts.length; ++component) {
+            int[] sum = counts[component];
+            int[] part = topCounts[component];
+            for (int value = 0; value < sum.length; ++value) {
+               sum[value] += part[value];
+            }
          }
-         sums[component] += dataValue;
-         sumsOfSquares[component] += dataValue * dataValue;
-      }
-
-      IntegerComponentStats[] componentStats =
-            new IntegerComponentStats[nComponents];
-      for (int component = 0; component < nComponents; ++component) {
-         componentStats[component] = IntegerComponentStats.builder()
-               .histogram(histograms.get(component).toLongArray(),
-                     Math.max(0, sampleBitDepth - binCountPowerOf2))
-               .pixelCount(counts[component])
-               .pixelCountExcludingZeros(countsExcludingZeros[component])
-               .usedROI(isROI)
-               .minimum(minima[component])
-               .minimumExcludingZeros(minimaExcludingZeros[component])
-               .maximum(maxima[component])
-               .sum(sums[component])
-               .sumOfSquares(sumsOfSquares[component])
-               .build();
-      }
-
-      return ImageStats.create(index, componentStats);
-   }
-
-   private <T extends IntegerType<T>> IterableInterval<T> clipToRect(
-         Img<T> fullImg, int nComponents, Rectangle statsBounds) {
-      Preconditions.checkNotNull(statsBounds);
-      return Views.interval(fullImg,
-            Intervals.createMinSize(
-                  0, statsBounds.x, statsBounds.y,
-                  nComponents, statsBounds.width, statsBounds.height)
-      );
-   }
-
-   private IterableInterval<UnsignedByteType> wrapROIMask(
-         byte[] rawMask, int nComponents, Rectangle maskBounds, Rectangle statsBounds) {
-      Preconditions.checkNotNull(maskBounds);
-      Preconditions.checkNotNull(statsBounds);
-      if (rawMask == null) {
-         return Views.iterable(
-               ConstantUtils.constantRandomAccessibleInterval(
-                     new UnsignedByteType(255),
-                     3,
-                     Intervals.createMinSize(0, statsBounds.x, statsBounds.y,
-                           nComponents, statsBounds.width, statsBounds.height)));
+         return counts;
       }
-
-      // The 2D mask, positioned in the image's coordinate system
-      IntervalView<UnsignedByteType> mask = Views.translate(
-            ArrayImgs.unsignedBytes(rawMask,
-                  maskBounds.width, maskBounds.height),
-            maskBounds.x, maskBounds.y);
-
-      // Add the component dimension and clip to the intersection with the image
-      long[] min = {0, statsBounds.x, statsBounds.y};
-      long[] max = {nComponents - 1, statsBounds.x + statsBounds.width - 1,
-            statsBounds.y + statsBounds.height - 1};
-      MixedTransform t = new MixedTransform(3, 2);
-      t.setComponentMapping(new int[] {1, 2});
-      return Views.iterable(Views.interval(
-            new MixedTransformView<UnsignedByteType>(mask, t),
-            min, max
-      ));
    }
-}
\ No newline at end of file
+}
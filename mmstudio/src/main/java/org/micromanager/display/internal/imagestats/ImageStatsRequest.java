@@ -27,6 +27,8 @@ import org.micromanager.data.Image;
  * @author Mark A. Tsuchida
  */
 public final class ImageStatsRequest {
+   static final int MAX_BIN_COUNT_POWER_OF_2 = 16; // TODO Should be configurable
+
    private final Coords nominalCoords_;
    private final List<Image> images_ = new ArrayList<>();
    private final BoundsRectAndMask roi_;
@@ -64,7 +66,7 @@ public final class ImageStatsRequest {
    }
 
    public int getMaxBinCountPowerOf2() {
-      return 16; // TODO Should be configurable
+      return MAX_BIN_COUNT_POWER_OF_2;
    }
 
    public Rectangle getROIBounds() {
@@ -0,0 +1,221 @@
+// Copyright (C) 2017 Open Imaging, Inc.
+//
+// LICENSE:      This file is distributed under the BSD license.
+//               License text is included with the source distribution.
+//
+//               This file is distributed in the hope that it will be useful,
+//               but WITHOUT ANY WARRANTY; without even the implied warranty
+//               of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.
+//
+//               IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+//               CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT,
+//               INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES.
+
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+
+/**
+ * Statistics kernels for 8- and 16-bit images, working directly on the pixel
+ * arrays.
+ *
+ * <p>Rather than updating every statistic for every sample, the kernels only
+ * count the occurrences of each sample value (a full-resolution histogram),
+ * in a tight loop over the pixel array.  The histogram of the requested bin
+ * width, the minima, maxima, sums, and sums of squares are then derived from
+ * the counts, which takes time proportional to the number of possible sample
+ * values rather than to the number of pixels.  The results are exactly the
+ * same as updating them sample by sample.</p>
+ *
+ * <p>To split the work, sample counts of separate parts of an image can be
+ * added together before being summarized.  For an approximate but fast
+ * result, only a regular subset of the pixels can be counted.</p>
+ *
+ * <p>Pixel arrays hold the components of each pixel consecutively; masks hold
+ * one byte per pixel of their bounds, and select pixels whose (unsigned) mask
+ * value is at least 128.</p>
+ *
+ * @see ImageStatsProcessor
+ */
+final class IntegerStatsKernels {
+   private static final int MASK_THRESH = 128;
+
+   private IntegerStatsKernels() {
+   }
+
+   /**
+    * Returns whether the mask selects no pixels within the given bounds.
+    *
+    * @param mask        Mask, or null to select all pixels
+    * @param maskBounds  Bounds of mask, in image coordinates
+    * @param statsBounds Bounds to check, which must lie within maskBounds
+    */
+   static boolean isMaskEmpty(byte[] mask, Rectangle maskBounds,
+                              Rectangle statsBounds) {
+      if (mask == null) {
+         return false;
+      }
+      for (int y = statsBounds.y; y < statsBounds.y + statsBounds.height; ++y) {
+         int start = (y - maskBounds.y) * maskBounds.width
+               + statsBounds.x - maskBounds.x;
+         int end = start + statsBounds.width;
+         for (int i = start; i < end; ++i) {
+            if ((mask[i] & 0xff) >= MASK_THRESH) {
+               return false;
+            }
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Counts the occurrences of each sample value of each component.
+    *
+    * @param pixels       8-bit pixels
+    * @param nComponents  Number of components per pixel
+    * @param imageWidth   Width of the image
+    * @param statsBounds  Pixels to count, within the image
+    * @param mask         Mask, or null to count all pixels in statsBounds
+    * @param maskBounds   Bounds of mask, containing statsBounds; ignored if
+    *                     mask is null
+    * @param sampleStride Count only every sampleStride-th pixel of every
+    *                     sampleStride-th row, starting at the top left of
+    *                     statsBounds; 1 to count all pixels
+    * @return Counts of each value, indexed by component and value
+    */
+   static int[][] countSamples(byte[] pixels, int nComponents, int imageWidth,
+                               Rectangle statsBounds,
+                               byte[] mask, Rectangle maskBounds,
+                               int sampleStride) {
+      int[][] counts = new int[nComponents][1 << 8];
+      int width = statsBounds.width;
+      for (int y = statsBounds.y; y < statsBounds.y + statsBounds.height;
+           y += sampleStride) {
+         int start = (y * imageWidth + statsBounds.x) * nComponents;
+         if (mask == null && nComponents == 1) {
+            int[] c = counts[0];
+            for (int i = start; i < start + width; i += sampleStride) {
+               c[pixels[i] & 0xff]++;
+            }
+            continue;
+         }
+         int maskStart = mask == null ? 0 : (y - maskBounds.y) * maskBounds.width
+               + statsBounds.x - maskBounds.x;
+         for (int x = 0; x < width; x += sampleStride) {
+            if (mask != null && (mask[maskStart + x] & 0xff) < MASK_THRESH) {
+               continue;
+            }
+            int i = start + x * nComponents;
+            for (int component = 0; component < nComponents; ++component) {
+               counts[component][pixels[i + component] & 0xff]++;
+            }
+         }
+      }
+      return counts;
+   }
+
+   /**
+    * Counts the occurrences of each sample value of each component.
+    *
+    * @param pixels       16-bit pixels
+    * @param nComponents  Number of components per pixel
+    * @param imageWidth   Width of the image
+    * @param statsBounds  Pixels to count, within the image
+    * @param mask         Mask, or null to count all pixels in statsBounds
+    * @param maskBounds   Bounds of mask, containing statsBounds; ignored if
+    *                     mask is null
+    * @param sampleStride Count only every sampleStride-th pixel of every
+    *                     sampleStride-th row, starting at the top left of
+    *                     statsBounds; 1 to count all pixels
+    * @return Counts of each value, indexed by component and value
+    */
+   static int[][] countSamples(short[] pixels, int nComponents, int imageWidth,
+                               Rectangle statsBounds,
+                               byte[] mask, Rectangle maskBounds,
+                               int sampleStride) {
+      int[][] counts = new int[nComponents][1 << 16];
+      int width = statsBounds.width;
+      for (int y = statsBounds.y; y < statsBounds.y + statsBounds.height;
+           y += sampleStride) {
+         int start = (y * imageWidth + statsBounds.x) * nComponents;
+         if (mask == null && nComponents == 1) {
+            int[] c = counts[0];
+            for (int i = start; i < start + width; i += sampleStride) {
+               c[pixels[i] & 0xffff]++;
+            }
+            continue;
+         }
+         int maskStart = mask == null ? 0 : (y - maskBounds.y) * maskBounds.width
+               + statsBounds.x - maskBounds.x;
+         for (int x = 0; x < width; x += sampleStride) {
+            if (mask != null && (mask[maskStart + x] & 0xff) < MASK_THRESH) {
+               continue;
+            }
+            int i = start + x * nComponents;
+            for (int component = 0; component < nComponents; ++component) {
+               counts[component][pixels[i + component] & 0xffff]++;
+            }
+         }
+      }
+      return counts;
+   }
+
+   /**
+    * Computes the statistics of a component from its sample value counts.
+    *
+    * <p>The histogram is binned as by {@link PowerOf2BinMapper}: values
+    * beyond the range of sampleBitDepth are counted in the last bin.</p>
+    *
+    * @param valueCounts      Count of each sample value
+    * @param sampleBitDepth   Bit depth determining the histogram range
+    * @param binCountPowerOf2 Log2 of the number of histogram bins, at most
+    *                         sampleBitDepth
+    * @param isROI            Whether the counts are of an ROI
+    */
+   static IntegerComponentStats summarize(int[] valueCounts,
+                                          int sampleBitDepth,
+                                          int binCountPowerOf2,
+                                          boolean isROI) {
+      int sampleShift = Math.max(0, sampleBitDepth - binCountPowerOf2);
+      long endOfRange = (1L << sampleBitDepth) - 1;
+      long[] histogram = new long[(1 << binCountPowerOf2) + 2];
+      long count = 0;
+      long countExcludingZeros = 0;
+      long minimum = Long.MAX_VALUE;
+      long minimumExcludingZeros = Long.MAX_VALUE;
+      long maximum = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      for (int value = 0; value < valueCounts.length; ++value) {
+         long n = valueCounts[value];
+         if (n == 0) {
+            continue;
+         }
+         count += n;
+         if (value > 0) {
+            countExcludingZeros += n;
+            minimumExcludingZeros = Math.min(minimumExcludingZeros, value);
+         }
+         minimum = Math.min(minimum, value);
+         maximum = value;
+         sum += n * value;
+         sumOfSquares += n * value * value;
+         if (value > endOfRange) {
+            histogram[histogram.length - 1] += n;
+         } else {
+            histogram[(value >> sampleShift) + 1] += n;
+         }
+      }
+      return IntegerComponentStats.builder()
+            .histogram(histogram, sampleShift)
+            .pixelCount(count)
+            .pixelCountExcludingZeros(countExcludingZeros)
+            .usedROI(isROI)
+            .minimum(minimum)
+            .minimumExcludingZeros(minimumExcludingZeros)
+            .maximum(maximum)
+            .sum(sum)
+            .sumOfSquares(sumOfSquares)
+            .build();
+   }
+}
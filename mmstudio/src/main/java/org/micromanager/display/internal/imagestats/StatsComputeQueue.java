@@ -84,6 +84,14 @@ public final class StatsComputeQueue {
    // Guarded by monitor on this
    private long updateIntervalNs_ = 0;
 
+   // Stride for approximate stats, or 1 for exact stats
+   // Guarded by monitor on this
+   private int sampleStride_ = 1;
+
+   // Delay after approximate stats before exact stats are computed, unless
+   // another request arrives in the meantime
+   private static final long MIN_EXACT_STATS_DELAY_NS = 250000000L;
+
    // Guarded by monitor on this
    private long nextStatsReadyCallAllowedNs_ = 0;
 
@@ -102,6 +110,16 @@ public final class StatsComputeQueue {
       perfMon_ = perfMon;
    }
 
+   /**
+    * Sets the cache of exact statistics, typically shared by all viewers of
+    * the same data.
+    *
+    * @param cache the cache, or null to always compute statistics
+    */
+   public void setStatsCache(ImageStatsCache cache) {
+      processor_.setCache(cache);
+   }
+
    public synchronized void addListener(Listener listener) {
       listeners_.addListener(listener, true);
    }
@@ -128,7 +146,8 @@ public final class StatsComputeQueue {
                ? Long.MAX_VALUE :
                      nowNs + updateIntervalNs_ - nowNs % Math.max(1, updateIntervalNs_);
 
-         submitCompute(sequenceNumber, priority, request, waitTargetNs);
+         submitCompute(sequenceNumber, priority, request, waitTargetNs,
+               sampleStride_);
          if (perfMon_ != null) {
             perfMon_.sampleTimeInterval("Compute submitted");
          }
@@ -142,7 +161,8 @@ public final class StatsComputeQueue {
    }
 
    private void submitCompute(final long sequenceNumber, final int priority,
-                              final ImageStatsRequest request, final long waitTargetNs) {
+                              final ImageStatsRequest request, final long waitTargetNs,
+                              final int sampleStride) {
       while (computeFutures_.size() <= priority) {
          computeFutures_.add(null);
       }
@@ -173,7 +193,8 @@ public final class StatsComputeQueue {
 
             final ImagesAndStats result;
             try {
-               result = processor_.process(sequenceNumber, request, false);
+               result = processor_.process(sequenceNumber, request, false,
+                     sampleStride);
             } catch (InterruptedException shouldNotHappen) {
                Thread.currentThread().interrupt();
                if (perfMon_ != null) {
@@ -194,6 +215,18 @@ public final class StatsComputeQueue {
                   storedStats_.set(p, null);
                }
                storedStats_.set(priority, result);
+
+               // If no newer request has arrived, the display has paused (or
+               // is slower than we are), so follow up with exact stats. This
+               // is canceled like any other compute if a request arrives.
+               if (sampleStride > 1
+                     && sequenceNumber == nextRequestSequenceNumber_ - 1) {
+                  computeFutures_.set(priority, null);
+                  long delayNs = Math.max(MIN_EXACT_STATS_DELAY_NS,
+                        Math.min(updateIntervalNs_, Long.MAX_VALUE / 2));
+                  submitCompute(sequenceNumber, priority, request,
+                        System.nanoTime() + delayNs, 1);
+               }
             }
          }
       }));
@@ -305,4 +338,22 @@ public final class StatsComputeQueue {
    public synchronized long getProcessIntervalNs() {
       return updateIntervalNs_;
    }
+
+   /**
+    * Sets whether to approximate the stats of large images, for faster
+    * updates (for example in live mode).
+    *
+    * <p>When approximating, only every sampleStride-th pixel of every
+    * sampleStride-th row is used.  Exact stats are computed once no new
+    * requests have been submitted for a while.</p>
+    *
+    * @param sampleStride stride of the sampled pixels, or 1 for exact stats
+    */
+   public synchronized void setApproximateSampleStride(int sampleStride) {
+      sampleStride_ = Math.max(1, sampleStride);
+   }
+
+   public synchronized int getApproximateSampleStride() {
+      return sampleStride_;
+   }
 }
\ No newline at end of file
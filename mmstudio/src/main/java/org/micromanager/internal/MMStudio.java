@@ -126,6 +126,7 @@ public final class MMStudio implements Studio {
    private final DisplayManager displayManager_;
    private final DefaultPluginManager pluginManager_;
    private final SnapLiveManager snapLiveManager_;
+   private final SequenceBufferDrainService sequenceBufferDrainService_;
    private final DefaultAutofocusManager afMgr_;
    private String sysConfigFile_;
    private final ShutterManager shutterManager_;
@@ -285,6 +286,8 @@ public final class MMStudio implements Studio {
       snapLiveManager_ = new SnapLiveManager(this, core_);
       events().registerForEvents(snapLiveManager_);
 
+      sequenceBufferDrainService_ = new SequenceBufferDrainService(core_);
+
       shutterManager_ = new DefaultShutterManager(studio_);
 
       // DisplayManager needs to be created before Pipelineframe and albumInstance
@@ -759,6 +762,8 @@ public final class MMStudio implements Studio {
          // Currently there is no shutdown method for AcqEngJ
       }
 
+      sequenceBufferDrainService_.shutdown();
+
       synchronized (shutdownLock_) {
          EDTHangLogger.stopDefault();
 
@@ -1215,6 +1220,10 @@ public final class MMStudio implements Studio {
       return uiMovesStageManager_;
    }
 
+   public SequenceBufferDrainService getSequenceBufferDrainService() {
+      return sequenceBufferDrainService_;
+   }
+
 
    //Internal manager objects
    public MMCache cache() {
@@ -0,0 +1,479 @@
+package org.micromanager.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import mmcorej.CMMCore;
+import mmcorej.TaggedImage;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.internal.utils.ReportingUtils;
+import org.micromanager.internal.utils.ThreadFactoryFactory;
+import org.micromanager.internal.utils.performance.ExponentialSmoothing;
+import org.micromanager.internal.utils.performance.PerformanceMonitor;
+
+/**
+ * Drains the Core's sequence buffer on a dedicated thread, and distributes
+ * the images to subscribers.
+ *
+ * <p>Code that runs a sequence acquisition and wants all of its images should
+ * subscribe here instead of polling {@code getRemainingImageCount()} and
+ * calling {@code popNextTaggedImage()} itself.  The drain thread runs while
+ * there is at least one open subscription; it pops all available images in
+ * batches, converts them to {@link Image}s, and offers each image to every
+ * subscription.  When the buffer is empty it waits for a short, gradually
+ * increasing time (at most {@link #MAX_IDLE_WAIT_NS}), so that a fast camera
+ * is kept up with without spinning.</p>
+ *
+ * <p>Each subscription has its own bounded queue and {@link DropPolicy}, so
+ * that a slow consumer (such as a display) does not hold up a fast one (such
+ * as a datastore), unless it chooses to.</p>
+ *
+ * <p>While a subscription is open, the service is the only reader of the
+ * sequence buffer; images are removed from the buffer as they are drained.
+ * Code that only looks at the most recent image, using
+ * {@code getLastTaggedImage()}, is not affected.</p>
+ *
+ * <p>A subscriber that needs to know when it has received all images of a
+ * sequence acquisition should wait for
+ * {@link Subscription#isSequenceFinished()} (or, when it started the
+ * cameras by name, for {@link Subscription#isBufferDrainedSince(long)})
+ * instead of checking the Core, because images that the drain thread has
+ * popped may not yet be in the subscription's queue.</p>
+ *
+ * <p>The drain rate, the fill of the sequence buffer, and the time taken to
+ * convert images can be read with the getters, and are also sampled into a
+ * {@link PerformanceMonitor}.</p>
+ */
+public final class SequenceBufferDrainService {
+   /**
+    * What to do when an image arrives and a subscription's queue is full.
+    */
+   public enum DropPolicy {
+      /**
+       * Discard the oldest queued image to make room; suitable for consumers
+       * that only care about recent images, such as displays.
+       */
+      DROP_OLDEST,
+      /**
+       * Discard the arriving image.
+       */
+      DROP_NEWEST,
+      /**
+       * Wait until there is room.  This holds up all other subscriptions,
+       * leaving images in the sequence buffer, which may then overflow.
+       */
+      BLOCK,
+   }
+
+   private static final int MAX_BATCH_SIZE = 64;
+   private static final long MIN_IDLE_WAIT_NS = 50_000L;
+   private static final long MAX_IDLE_WAIT_NS = 1_000_000L;
+   private static final long BLOCKED_OFFER_TIMEOUT_MS = 10;
+   private static final long RATE_INTERVAL_NS = 500_000_000L;
+
+   /**
+    * The parts of the Core that the drain thread uses.
+    */
+   interface SequenceBuffer {
+      boolean isSequenceRunning();
+
+      int getRemainingImageCount();
+
+      TaggedImage popNextTaggedImage() throws Exception;
+
+      int getBufferTotalCapacity();
+
+      int getBufferFreeCapacity();
+   }
+
+   private final SequenceBuffer buffer_;
+   private final List<Subscription> subscriptions_ = new CopyOnWriteArrayList<>();
+   private Thread thread_; // Guarded by this
+
+   private final PerformanceMonitor perfMon_ =
+         PerformanceMonitor.createWithTimeConstantMs(1000.0);
+   // Accessed only on the drain thread
+   private final ExponentialSmoothing conversionLatencyMs_ =
+         ExponentialSmoothing.createWithTimeConstantMs(1000.0);
+   private final AtomicLong drainedCount_ = new AtomicLong();
+   private volatile double drainRateHz_ = 0.0;
+   private volatile double bufferFill_ = 0.0;
+   private volatile double meanConversionLatencyMs_ = 0.0;
+
+   /**
+    * A consumer's queue of drained images.
+    *
+    * <p>Images drained after the subscription was opened are added to the
+    * queue until it is closed.  Queue methods may be called from any thread.
+    * </p>
+    */
+   public final class Subscription implements AutoCloseable {
+      private final BlockingQueue<Image> queue_;
+      private final DropPolicy dropPolicy_;
+      private final AtomicLong droppedCount_ = new AtomicLong();
+      private volatile boolean closed_ = false;
+      // Set by the drain thread
+      private volatile boolean sawSequence_ = false;
+      private volatile boolean sequenceFinished_ = false;
+      private volatile long lastEmptyCheckNs_;
+
+      private Subscription(int capacity, DropPolicy dropPolicy) {
+         queue_ = new ArrayBlockingQueue<>(capacity);
+         dropPolicy_ = dropPolicy;
+         lastEmptyCheckNs_ = System.nanoTime() - 1;
+      }
+
+      /**
+       * Retrieves and removes the next image, waiting if necessary.
+       *
+       * @return the next image, or null if none arrived within the timeout
+       */
+      public Image poll(long timeout, TimeUnit unit) throws InterruptedException {
+         return queue_.poll(timeout, unit);
+      }
+
+      /**
+       * Retrieves and removes the next image, if any.
+       *
+       * @return the next image, or null if the queue is empty
+       */
+      public Image poll() {
+         return queue_.poll();
+      }
+
+      /**
+       * Removes up to maxImages queued images and adds them to a collection.
+       *
+       * @return the number of images transferred
+       */
+      public int drainTo(Collection<? super Image> images, int maxImages) {
+         return queue_.drainTo(images, maxImages);
+      }
+
+      public boolean isEmpty() {
+         return queue_.isEmpty();
+      }
+
+      /**
+       * Whether the sequence acquisition run since this subscription was
+       * opened has ended and all of its images have been queued.
+       *
+       * <p>Once this returns true and the queue is empty, no more images of
+       * the sequence will arrive.  This becomes true only after the drain
+       * thread has seen the sequence running or has queued one of its
+       * images.</p>
+       *
+       * @return true if the sequence has ended and been fully drained
+       */
+      public boolean isSequenceFinished() {
+         return sequenceFinished_;
+      }
+
+      /**
+       * Whether the drain thread, having queued every image it popped, has
+       * found the sequence buffer empty at a check that began at or after
+       * the given time.
+       *
+       * <p>{@link #isSequenceFinished()} relies on the Core's
+       * {@code isSequenceRunning()}, which only reports on the current
+       * camera.  Code that starts sequences on cameras by name can instead
+       * take the time once all of them have stopped; when this then returns
+       * true, all of their images have been queued.</p>
+       *
+       * @param nanoTime a value of {@link System#nanoTime()}
+       * @return true if all images in the buffer at nanoTime have been queued
+       */
+      public boolean isBufferDrainedSince(long nanoTime) {
+         return lastEmptyCheckNs_ - nanoTime >= 0;
+      }
+
+      /**
+       * @return the number of images discarded because the queue was full
+       */
+      public long getDroppedCount() {
+         return droppedCount_.get();
+      }
+
+      /**
+       * Stops adding images to this subscription.  Images already queued can
+       * still be retrieved.
+       */
+      @Override
+      public void close() {
+         closed_ = true;
+         subscriptions_.remove(this);
+      }
+
+      private void updateSequenceState(boolean running, long checkStartNs) {
+         lastEmptyCheckNs_ = checkStartNs;
+         if (running) {
+            sawSequence_ = true;
+            sequenceFinished_ = false;
+         } else if (sawSequence_) {
+            sequenceFinished_ = true;
+         }
+      }
+
+      private void offer(Image image) throws InterruptedException {
+         if (closed_) {
+            return;
+         }
+         sawSequence_ = true;
+         sequenceFinished_ = false;
+         switch (dropPolicy_) {
+            case DROP_OLDEST:
+               while (!queue_.offer(image)) {
+                  if (queue_.poll() != null) {
+                     droppedCount_.incrementAndGet();
+                  }
+               }
+               break;
+            case DROP_NEWEST:
+               if (!queue_.offer(image)) {
+                  droppedCount_.incrementAndGet();
+               }
+               break;
+            case BLOCK:
+               while (!closed_ && !queue_.offer(image,
+                     BLOCKED_OFFER_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                  // Keep waiting for the consumer
+               }
+               break;
+            default:
+               throw new AssertionError(dropPolicy_.name());
+         }
+      }
+   }
+
+   SequenceBufferDrainService(CMMCore core) {
+      this(new SequenceBuffer() {
+         @Override
+         public boolean isSequenceRunning() {
+            return core.isSequenceRunning();
+         }
+
+         @Override
+         public int getRemainingImageCount() {
+            return core.getRemainingImageCount();
+         }
+
+         @Override
+         public TaggedImage popNextTaggedImage() throws Exception {
+            return core.popNextTaggedImage();
+         }
+
+         @Override
+         public int getBufferTotalCapacity() {
+            return core.getBufferTotalCapacity();
+         }
+
+         @Override
+         public int getBufferFreeCapacity() {
+            return core.getBufferFreeCapacity();
+         }
+      });
+   }
+
+   SequenceBufferDrainService(SequenceBuffer buffer) {
+      buffer_ = buffer;
+   }
+
+   /**
+    * Opens a subscription, starting the drain thread if it is not running.
+    *
+    * @param capacity   Maximum number of images to queue
+    * @param dropPolicy What to do with images arriving when the queue is full
+    * @return the new subscription; it must be closed when no longer needed
+    */
+   public Subscription subscribe(int capacity, DropPolicy dropPolicy) {
+      if (capacity < 1) {
+         throw new IllegalArgumentException("Queue capacity must be positive");
+      }
+      Subscription subscription = new Subscription(capacity, dropPolicy);
+      synchronized (this) {
+         subscriptions_.add(subscription);
+         if (thread_ == null) {
+            thread_ = ThreadFactoryFactory.createThreadFactory(
+                  "Sequence Buffer Drain").newThread(this::drainLoop);
+            thread_.setPriority(Thread.MAX_PRIORITY);
+            thread_.start();
+         }
+      }
+      return subscription;
+   }
+
+   /**
+    * @return images drained per second, over roughly the last half second
+    */
+   public double getDrainRateHz() {
+      return drainRateHz_;
+   }
+
+   /**
+    * @return the fraction of the sequence buffer in use, as last seen by the
+    *     drain thread
+    */
+   public double getBufferFill() {
+      return bufferFill_;
+   }
+
+   /**
+    * @return the smoothed time taken to convert a tagged image into an Image,
+    *     in milliseconds
+    */
+   public double getConversionLatencyMs() {
+      return meanConversionLatencyMs_;
+   }
+
+   /**
+    * @return the total number of images drained since startup
+    */
+   public long getDrainedCount() {
+      return drainedCount_.get();
+   }
+
+   /**
+    * @return the monitor into which the drain rate, buffer fill, batch size
+    *     and conversion latency are sampled while the drain thread runs
+    */
+   public PerformanceMonitor getPerformanceMonitor() {
+      return perfMon_;
+   }
+
+   /**
+    * Closes all subscriptions and waits for the drain thread to stop.
+    */
+   void shutdown() {
+      for (Subscription subscription : subscriptions_) {
+         subscription.close();
+      }
+      Thread thread;
+      synchronized (this) {
+         thread = thread_;
+      }
+      if (thread != null) {
+         try {
+            thread.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   private boolean shouldKeepRunning() {
+      synchronized (this) {
+         if (subscriptions_.isEmpty()) {
+            thread_ = null;
+            return false;
+         }
+         return true;
+      }
+   }
+
+   private void sampleBufferFill() {
+      int total = buffer_.getBufferTotalCapacity();
+      if (total > 0) {
+         bufferFill_ = (double) (total - buffer_.getBufferFreeCapacity()) / total;
+      }
+   }
+
+   private void drainLoop() {
+      long idleWaitNs = MIN_IDLE_WAIT_NS;
+      long startCount = drainedCount_.get();
+      long conversionNs = 0;
+      long rateStartNs = System.nanoTime();
+      long rateStartCount = startCount;
+      List<TaggedImage> tagged = new ArrayList<>(MAX_BATCH_SIZE);
+      List<Image> batch = new ArrayList<>(MAX_BATCH_SIZE);
+      while (shouldKeepRunning()) {
+         long checkStartNs = System.nanoTime();
+         if (checkStartNs - rateStartNs >= RATE_INTERVAL_NS) {
+            long count = drainedCount_.get();
+            drainRateHz_ = (count - rateStartCount) * 1e9 / (checkStartNs - rateStartNs);
+            perfMon_.sample("Drain rate (Hz)", drainRateHz_);
+            // Also sampled while idle, so that an emptied buffer is reported
+            sampleBufferFill();
+            perfMon_.sample("Sequence buffer fill (%)", 100.0 * bufferFill_);
+            rateStartNs = checkStartNs;
+            rateStartCount = count;
+         }
+
+         // Check whether the sequence is running before counting, so that a
+         // stopped sequence with an empty buffer cannot add more images
+         boolean running = buffer_.isSequenceRunning();
+         int remaining = buffer_.getRemainingImageCount();
+         if (remaining <= 0) {
+            // All images popped so far have been offered
+            for (Subscription subscription : subscriptions_) {
+               subscription.updateSequenceState(running, checkStartNs);
+            }
+            LockSupport.parkNanos(idleWaitNs);
+            idleWaitNs = Math.min(2 * idleWaitNs, MAX_IDLE_WAIT_NS);
+            continue;
+         }
+         idleWaitNs = MIN_IDLE_WAIT_NS;
+         sampleBufferFill();
+
+         // Pop the whole batch before converting, so that the buffer is
+         // freed as quickly as possible
+         int batchSize = Math.min(remaining, MAX_BATCH_SIZE);
+         tagged.clear();
+         try {
+            for (int i = 0; i < batchSize; ++i) {
+               tagged.add(buffer_.popNextTaggedImage());
+            }
+         } catch (Exception e) {
+            // Buffer was reset (e.g. by a new sequence) since counting
+            ReportingUtils.logError(e, "Failed to pop image from sequence buffer");
+         }
+         perfMon_.sample("Drain batch size", tagged.size());
+
+         batch.clear();
+         long startNs = System.nanoTime();
+         for (TaggedImage t : tagged) {
+            try {
+               batch.add(new DefaultImage(t));
+            } catch (IllegalArgumentException e) {
+               ReportingUtils.logError(e, "Failed to convert drained image");
+            }
+         }
+         if (!batch.isEmpty()) {
+            long batchNs = System.nanoTime() - startNs;
+            conversionNs += batchNs;
+            conversionLatencyMs_.sample(batchNs / 1e6 / batch.size());
+            meanConversionLatencyMs_ = conversionLatencyMs_.getAverage();
+            perfMon_.sample("Conversion latency (ms)", meanConversionLatencyMs_);
+         }
+         drainedCount_.addAndGet(batch.size());
+
+         try {
+            for (Image image : batch) {
+               for (Subscription subscription : subscriptions_) {
+                  subscription.offer(image);
+               }
+            }
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            ReportingUtils.logError(e, "Sequence buffer drain thread interrupted");
+            synchronized (this) {
+               thread_ = null;
+            }
+            break;
+         }
+      }
+      long drainedCount = drainedCount_.get() - startCount;
+      if (drainedCount > 0) {
+         ReportingUtils.logMessage(String.format(
+               "Sequence buffer drain thread stopped after draining %d images "
+                     + "(mean conversion time %.3f ms)",
+               drainedCount, conversionNs / 1e6 / drainedCount));
+      }
+   }
+}
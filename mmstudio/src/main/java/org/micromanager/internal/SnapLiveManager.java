@@ -22,14 +22,13 @@ import java.awt.Dimension;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
-import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.CancellationException;
+import java.util.TreeMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
@@ -38,9 +37,6 @@ import javax.swing.JButton;
 import javax.swing.JComponent;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
-import mmcorej.TaggedImage;
-import mmcorej.org.json.JSONException;
-import mmcorej.org.json.JSONObject;
 import org.micromanager.data.Coordinates;
 import org.micromanager.data.Coords;
 import org.micromanager.data.DatastoreFrozenException;
@@ -86,6 +82,9 @@ public final class SnapLiveManager extends DataViewerListener
 
    private static final double MIN_GRAB_DELAY_MS = 1000.0 / 60.0;
    private static final double MAX_GRAB_DELAY_MS = 300.0;
+   // How soon to look again when a grab found no new frame, so that we pick
+   // up the frame shortly after the camera delivers it
+   private static final long NEW_FRAME_POLL_DELAY_MS = 2;
 
    // What quantile of actual paint interval to use as the interval for image
    // retrieval. Too high will cause display rate to take a long time to climb
@@ -93,6 +92,11 @@ public final class SnapLiveManager extends DataViewerListener
    // skipped.
    private static final double DISPLAY_INTERVAL_ESTIMATE_Q = 0.25;
 
+   // Images queued per camera channel between grabs; older ones are dropped.
+   // In multi-camera setups, one camera could be generating images faster
+   // than the other(s), so keep more than one per channel.
+   private static final int LIVE_QUEUE_CAPACITY_PER_CHANNEL = 6;
+
    private final MMStudio mmStudio_;
    private final CMMCore core_;
    private final UiMovesStageManager uiMovesStageManager_;
@@ -113,11 +117,22 @@ public final class SnapLiveManager extends DataViewerListener
                ThreadFactoryFactory.createThreadFactory("SnapLiveManager"));
    // Guarded by monitor on this
    private ScheduledFuture<?> scheduledGrab_;
+   // Images drained from the sequence buffer during live mode
+   // Guarded by monitor on this
+   private SequenceBufferDrainService.Subscription liveImages_;
    // Counter for live acquisitions started, needed to synchronize across
    // a stopped and rapidly restarted run of live mode.
    // Guarded by monitor on this
    private long liveModeStartCount_ = 0;
 
+   // Latest grabbed image of each camera channel that has not yet been
+   // handed to the display. The grabber replaces images that the EDT has not
+   // taken yet, so that the EDT only ever processes the most recent ones.
+   // Guarded by monitor on pendingImages_
+   private final Map<Integer, Image> pendingImages_ = new TreeMap<>();
+   private long pendingLiveModeCount_ = -1;
+   private boolean isHandoffScheduled_ = false;
+
    // As a (significant) convenience to our clients, we allow live mode to be
    // "suspended" and unsuspended, which amounts to briefly turning live mode
    // off if it is on, and then later turning it back on if it was on when
@@ -294,6 +309,11 @@ public final class SnapLiveManager extends DataViewerListener
          includeSystemStateCache_ = core_.getIncludeSystemStateCache();
          core_.setIncludeSystemStateCache(false);
          final long liveModeCount = ++liveModeStartCount_;
+         final SequenceBufferDrainService.Subscription liveImages =
+               mmStudio_.getSequenceBufferDrainService().subscribe(
+                     LIVE_QUEUE_CAPACITY_PER_CHANNEL * numCameraChannels_,
+                     SequenceBufferDrainService.DropPolicy.DROP_OLDEST);
+         liveImages_ = liveImages;
          final Runnable grab;
          grab = new Runnable() {
             @Override
@@ -306,11 +326,18 @@ public final class SnapLiveManager extends DataViewerListener
                      return;
                   }
                }
-               grabAndAddImages(camName, liveModeCount);
+               // If the display has not yet taken the previous images, any
+               // images grabbed now would be superseded before being shown.
+               boolean displayBusy = isHandoffPending();
+               perfMon_.sample("Grab skipped as display busy (%)",
+                     displayBusy ? 100.0 : 0.0);
+               boolean gotNewImage = !displayBusy
+                     && grabAndAddImages(liveImages, camName, liveModeCount);
 
                // Choose an interval within the absolute bounds, and at least as
                // long as the exposure. Within that range, try to match the
                // actual frequency at which the images are getting displayed.
+               // If there was no new frame yet, look again soon instead.
 
                double displayIntervalLowQuantileMs;
                if (display_ != null) {
@@ -327,9 +354,13 @@ public final class SnapLiveManager extends DataViewerListener
                         || liveModeStartCount_ != liveModeCount) {
                      return;
                   }
-                  delayMs = computeGrabDelayMs(exposureMs,
-                        displayIntervalLowQuantileMs,
-                        -scheduledGrab_.getDelay(TimeUnit.MILLISECONDS));
+                  if (displayBusy || gotNewImage) {
+                     delayMs = computeGrabDelayMs(exposureMs,
+                           displayIntervalLowQuantileMs,
+                           -scheduledGrab_.getDelay(TimeUnit.MILLISECONDS));
+                  } else {
+                     delayMs = NEW_FRAME_POLL_DELAY_MS;
+                  }
                   scheduledGrab_ = scheduler_.schedule(this,
                         delayMs, TimeUnit.MILLISECONDS);
                }
@@ -376,6 +407,10 @@ public final class SnapLiveManager extends DataViewerListener
             scheduledGrab_.cancel(false);
             scheduledGrab_ = null;
          }
+         if (liveImages_ != null) {
+            liveImages_.close();
+            liveImages_ = null;
+         }
       }
 
       try {
@@ -393,76 +428,123 @@ public final class SnapLiveManager extends DataViewerListener
    }
 
    /**
-    * This method takes images out of the Core and inserts them into our
-    * pipeline.
+    * This method takes the images drained from the Core since the last grab
+    * and hands the most recent one of each camera channel to the EDT for
+    * insertion into our pipeline.
+    *
+    * @return whether any image was handed off
     */
-   private void grabAndAddImages(String camName, final long liveModeCount) {
+   private boolean grabAndAddImages(SequenceBufferDrainService.Subscription liveImages,
+                                    String camName, final long liveModeCount) {
+      List<Image> images = new ArrayList<>();
+      liveImages.drainTo(images, Integer.MAX_VALUE);
+      if (images.isEmpty()) {
+         perfMon_.sample("No new frame in sequence buffer (%)", 100.0);
+         return false;
+      }
+      perfMon_.sample("No new frame in sequence buffer (%)", 0.0);
+      perfMon_.sample("Frames drained per grab", images.size());
+      boolean gotNewImage = false;
+      HashSet<Integer> channelsSet = new HashSet<>();
+      for (int i = images.size() - 1; i >= 0; --i) {
+         Image image = images.get(i);
+         int imageChannel = getCameraChannelIndex(image, camName,
+               images.size() - 1 - i);
+         if (!channelsSet.add(imageChannel)) {
+            // Already provided a more recent version of this channel.
+            continue;
+         }
+         Coords newCoords = image.getCoords().copyBuilder()
+               .t(0)
+               .c(imageChannel).build();
+         // Generate a new UUID for the image, so that our histogram
+         // update code realizes this is a new image.
+         Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
+               .build();
+         handOffImage(image.copyWith(newCoords, newMetadata), liveModeCount);
+         gotNewImage = true;
+         if (channelsSet.size() == numCameraChannels_) {
+            // Got every channel.
+            break;
+         }
+      }
+      return gotNewImage;
+   }
+
+   /**
+    * Returns the camera channel of a live mode image.
+    *
+    * @param fallback Channel to use if the image does not say, i.e., the
+    *                 position of the image counting back from the newest one
+    */
+   private int getCameraChannelIndex(Image image, String camName, int fallback) {
+      if (numCameraChannels_ <= 1) {
+         return fallback;
+      }
+      // The Core's tags end up in the user data when there are no scope data
+      // keys, as is the case in live mode
+      String key = camName + "-" + PropertyKey.CAMERA_CHANNEL_INDEX.key();
+      Metadata metadata = image.getMetadata();
+      String index = metadata.getUserData().getValueAsString(key, null);
+      if (index == null) {
+         index = metadata.getScopeData().getValueAsString(key, null);
+      }
+      if (index == null) {
+         return fallback;
+      }
       try {
-         // We scan over 2*numCameraChannels here because, in multi-camera
-         // setups, one camera could be generating images faster than the
-         // other(s). Of course, 2x isn't guaranteed to be enough here, either,
-         // but it's what we've historically used.
-         HashSet<Integer> channelsSet = new HashSet<>();
-         for (int c = 0; c < 6 * numCameraChannels_; ++c) {
-            TaggedImage tagged;
-            try {
-               tagged = core_.getNBeforeLastTaggedImage(c);
-               perfMon_.sampleTimeInterval("getNBeforeLastTaggedImage");
-               perfMon_.sample("No image in sequence buffer (%)", 0.0);
-            } catch (Exception e) {
-               // No image in the sequence buffer.
-               perfMon_.sample("No image in sequence buffer (%)", 100.0);
-               continue;
-            }
-            JSONObject tags = tagged.tags;
-            int imageChannel = c;
-            if ((numCameraChannels_ > 1) && tags.has(camName + "-CameraChannelIndex")) {
-               imageChannel = tags.getInt(camName + "-CameraChannelIndex");
-            }
-            if (channelsSet.contains(imageChannel)) {
-               // Already provided a more recent version of this channel.
-               continue;
-            }
-            DefaultImage image = new DefaultImage(tagged);
-            final Long seqNr = image.getMetadata().getImageNumber();
-            perfMon_.sample("Image missing ImageNumber (%)",
-                  seqNr == null ? 100.0 : 0.0);
-            Coords newCoords = image.getCoords().copyBuilder()
-                  .t(0)
-                  .c(imageChannel).build();
-            // Generate a new UUID for the image, so that our histogram
-            // update code realizes this is a new image.
-            Metadata newMetadata = image.getMetadata().copyBuilderWithNewUUID()
-                  .build();
-            final Image newImage = image.copyWith(newCoords, newMetadata);
+         return Integer.parseInt(index);
+      } catch (NumberFormatException e) {
+         return fallback;
+      }
+   }
 
-            try {
-               SwingUtilities.invokeAndWait(() -> {
-                  synchronized (SnapLiveManager.this) {
-                     if (scheduledGrab_ == null
-                           || liveModeStartCount_ != liveModeCount) {
-                        throw new CancellationException();
-                     }
-                  }
-                  displayImage(newImage);
-               });
-
-            } catch (InterruptedException unexpected) {
-               Thread.currentThread().interrupt();
-            } catch (InvocationTargetException e) {
-               if (e.getCause() instanceof CancellationException) {
-                  return;
-               }
-               throw new RuntimeException(e.getCause());
-            }
-            channelsSet.add(imageChannel);
-            if (channelsSet.size() == numCameraChannels_) {
-               // Got every channel.
-               break;
-            }
+   private boolean isHandoffPending() {
+      synchronized (pendingImages_) {
+         return isHandoffScheduled_;
+      }
+   }
+
+   /**
+    * Queues an image for display, replacing any image of the same channel
+    * that the EDT has not taken yet. Does not wait for the EDT.
+    */
+   private void handOffImage(Image image, long liveModeCount) {
+      synchronized (pendingImages_) {
+         if (pendingLiveModeCount_ != liveModeCount) {
+            pendingImages_.clear();
+            pendingLiveModeCount_ = liveModeCount;
+         }
+         if (pendingImages_.put(image.getCoords().getChannel(), image) != null) {
+            perfMon_.sample("Image superseded before display (%)", 100.0);
+         } else {
+            perfMon_.sample("Image superseded before display (%)", 0.0);
          }
-      } catch (JSONException e) {
-         ReportingUtils.logError(e, "Exception in image grabber thread.");
+         if (isHandoffScheduled_) {
+            return;
+         }
+         isHandoffScheduled_ = true;
+      }
+      SwingUtilities.invokeLater(this::displayPendingImages);
+   }
+
+   @MustCallOnEDT
+   private void displayPendingImages() {
+      List<Image> images;
+      long liveModeCount;
+      synchronized (pendingImages_) {
+         images = new ArrayList<>(pendingImages_.values());
+         liveModeCount = pendingLiveModeCount_;
+         pendingImages_.clear();
+         isHandoffScheduled_ = false;
+      }
+      synchronized (this) {
+         if (scheduledGrab_ == null || liveModeStartCount_ != liveModeCount) {
+            return; // Live mode stopped or restarted since grabbing
+         }
+      }
+      for (Image image : images) {
+         displayImage(image);
       }
    }
 
@@ -81,14 +81,18 @@ import javax.swing.event.TableModelEvent;
 import javax.swing.event.TableModelListener;
 import javax.swing.table.JTableHeader;
 import javax.swing.table.TableColumn;
+import mmcorej.CMMCore;
 import mmcorej.DeviceType;
 import mmcorej.StrVector;
 import net.miginfocom.swing.MigLayout;
+import org.micromanager.PositionList;
 import org.micromanager.UserProfile;
 import org.micromanager.acquisition.AcquisitionSettingsChangedEvent;
 import org.micromanager.acquisition.ChannelSpec;
 import org.micromanager.acquisition.SequenceSettings;
 import org.micromanager.acquisition.internal.AcquisitionEngine;
+import org.micromanager.acquisition.internal.acqengjcompat.AcquisitionTimingSimulator;
+import org.micromanager.acquisition.internal.acqengjcompat.PositionOrderOptimizer;
 import org.micromanager.acquisition.internal.acqengjcompat.multimda.MultiMDAFrame;
 import org.micromanager.acquisition.internal.testacquisition.TestAcqAdapter;
 import org.micromanager.data.Datastore;
@@ -142,6 +146,10 @@ public final class AcqControlDlg extends JFrame implements PropertyChangeListene
          "should hide image display windows for multi-dimensional acquisitions";
    private static final String SHOULD_CHECK_EXPOSURE_SANITY =
          "whether to prompt the user if their exposure times seem excessively long";
+   private static final String SHOULD_OPTIMIZE_POSITION_ORDER =
+         "whether to visit multiple positions in the order that minimizes stage travel";
+   private static final String POSITION_ORDER_Z_WEIGHT =
+         "weight of focus travel relative to XY travel when ordering positions";
    private static final String BUTTON_SIZE = "width 80!, height 22!";
    private static final String PANEL_CONSTRAINT = "fillx, gap 2, insets 2";
 
@@ -558,7 +566,16 @@ public final class AcqControlDlg extends JFrame implements PropertyChangeListene
 
       // Not sure why 'span' is needed to prevent second column from appearing
       // (interaction with CheckBoxPanel layout??)
-      positionsPanel_.add(listButton, "span, alignx center");
+      positionsPanel_.add(listButton, "span, alignx center, wrap");
+
+      final JCheckBox optimizeOrderCheckBox = new JCheckBox("Minimize stage travel");
+      optimizeOrderCheckBox.setFont(DEFAULT_FONT);
+      optimizeOrderCheckBox.setToolTipText("Visit positions in the order that minimizes "
+            + "stage travel, rather than in list order (new engine only)");
+      optimizeOrderCheckBox.setSelected(getShouldOptimizePositionOrder());
+      optimizeOrderCheckBox.addActionListener((ActionEvent e) ->
+            setShouldOptimizePositionOrder(optimizeOrderCheckBox.isSelected()));
+      positionsPanel_.add(optimizeOrderCheckBox, "span, alignx center");
       return positionsPanel_;
    }
 
@@ -1001,9 +1018,68 @@ public final class AcqControlDlg extends JFrame implements PropertyChangeListene
       });
       result.add(multiMDAButton, BUTTON_SIZE);
 
+      final JButton predictTimingButton = new JButton("Predict Timing");
+      predictTimingButton.setToolTipText(
+              "Estimate duration and whether saving keeps up, without acquiring");
+      predictTimingButton.setFont(DEFAULT_FONT);
+      predictTimingButton.setMargin(new Insets(-5, -5, -5, -5));
+      predictTimingButton.addActionListener(e -> showTimingPrediction());
+      result.add(predictTimingButton, BUTTON_SIZE);
+
       return result;
    }
 
+   /**
+    * Simulates the current acquisition settings with the current camera
+    * settings and default device latencies, and shows the outcome.
+    */
+   private void showTimingPrediction() {
+      applySettingsFromGUI();
+      SequenceSettings settings = getAcquisitionEngine().getSequenceSettings();
+      CMMCore core = mmStudio_.core();
+      AcquisitionTimingSimulator.HardwareModel.Builder model =
+            new AcquisitionTimingSimulator.HardwareModel.Builder()
+                  .bytesPerImage(core.getImageWidth() * core.getImageHeight()
+                        * core.getBytesPerPixel())
+                  .bufferCapacityBytes(core.getCircularBufferMemoryFootprint() * 1024L * 1024L);
+      if (!settings.save()) {
+         model.writerBytesPerS(0.0);
+      }
+      try {
+         model.exposureMs(core.getExposure());
+         String focusDevice = core.getFocusDevice();
+         if (focusDevice != null && !focusDevice.isEmpty()) {
+            model.zSequenceable(core.isStageSequenceable(focusDevice));
+         }
+      } catch (Exception ex) {
+         mmStudio_.logs().logError(ex, "Failed to read camera or focus settings");
+      }
+
+      PositionList positionList = mmStudio_.positions().getPositionList();
+      int[] visitOrder = null;
+      if (settings.usePositionList() && getShouldOptimizePositionOrder()) {
+         // Plan from the current stage position, as the acquisition will
+         String xyStage = core.getXYStageDevice();
+         double[] startXY = null;
+         if (xyStage != null && !xyStage.isEmpty()) {
+            try {
+               startXY = new double[] {core.getXPosition(xyStage),
+                     core.getYPosition(xyStage)};
+            } catch (Exception ex) {
+               mmStudio_.logs().logError(ex, "Failed to get XY stage position");
+            }
+         }
+         visitOrder = PositionOrderOptimizer.plan(positionList, xyStage,
+               core.getFocusDevice(), getPositionOrderZWeight(), startXY).getOrder();
+      }
+      AcquisitionTimingSimulator.Prediction prediction = AcquisitionTimingSimulator.simulate(
+            settings, positionList, visitOrder, model.build());
+      mmStudio_.logs().logMessage("Predicted acquisition timing:\n" + prediction);
+      JOptionPane.showMessageDialog(this, prediction.toString()
+                  + "\n\nDevice latencies are typical values, not measured ones.",
+            "Predicted Timing", JOptionPane.INFORMATION_MESSAGE);
+   }
+
 
    private boolean isApplicable(SequenceSettings sequenceSettings) {
       if (sequenceSettings == null) {
@@ -2319,6 +2395,32 @@ public final class AcqControlDlg extends JFrame implements PropertyChangeListene
             .putBoolean(SHOULD_HIDE_DISPLAY, shouldHide);
    }
 
+   public static boolean getShouldOptimizePositionOrder() {
+      return MMStudio.getInstance().profile().getSettings(AcqControlDlg.class)
+            .getBoolean(SHOULD_OPTIMIZE_POSITION_ORDER, false);
+   }
+
+   public static void setShouldOptimizePositionOrder(boolean shouldOptimize) {
+      MMStudio.getInstance().profile().getSettings(AcqControlDlg.class)
+            .putBoolean(SHOULD_OPTIMIZE_POSITION_ORDER, shouldOptimize);
+   }
+
+   /**
+    * Returns how much a micron of focus travel counts, relative to a micron
+    * of XY travel, when ordering positions to minimize stage travel.
+    *
+    * @return weight of focus travel; 0 to ignore it
+    */
+   public static double getPositionOrderZWeight() {
+      return MMStudio.getInstance().profile().getSettings(AcqControlDlg.class)
+            .getDouble(POSITION_ORDER_Z_WEIGHT, 0.0);
+   }
+
+   public static void setPositionOrderZWeight(double weight) {
+      MMStudio.getInstance().profile().getSettings(AcqControlDlg.class)
+            .putDouble(POSITION_ORDER_Z_WEIGHT, weight);
+   }
+
    public boolean getShouldCheckExposureSanity() {
       return profile_.getSettings(AcqControlDlg.class)
             .getBoolean(SHOULD_CHECK_EXPOSURE_SANITY, true);
@@ -39,7 +39,11 @@ import mmcorej.CMMCore;
 import org.micromanager.ApplicationSkin.SkinMode;
 import org.micromanager.Studio;
 import org.micromanager.UserProfile;
+import org.micromanager.data.internal.ScopeDataDeltas;
+import org.micromanager.data.internal.StorageOffHeap;
+import org.micromanager.data.internal.StorageSinglePlaneTiffSeries;
 import org.micromanager.data.internal.multipagetiff.StorageMultipageTiff;
+import org.micromanager.data.internal.pipeline.DefaultPipeline;
 import org.micromanager.internal.MMStudio;
 import org.micromanager.internal.MainFrame;
 import org.micromanager.internal.StartupSettings;
@@ -63,6 +67,11 @@ public final class OptionsDlg extends JDialog {
    private final JTextField startupScriptFile_;
    private final JTextField bufSizeField_;
    private final JTextField logDeleteDaysField_;
+   private final JTextField offHeapMaxTimePointsField_;
+   private final JTextField mpTiffWritingThreadsField_;
+   private final JTextField mpTiffMaxPendingImagesField_;
+   private final JTextField spTiffWritingThreadsField_;
+   private final JTextField spTiffMaxPendingImagesField_;
    private final JComboBox<String> comboDisplayBackground_;
 
    private final CMMCore core_;
@@ -247,6 +256,85 @@ public final class OptionsDlg extends JDialog {
             StorageMultipageTiff.setShouldSplitPositions(
                   separateFilesForPositionsMPTiffCheckBox.isSelected()));
 
+      mpTiffWritingThreadsField_ = new JTextField(
+            Integer.toString(StorageMultipageTiff.getNumWritingThreads()), 3);
+      mpTiffWritingThreadsField_.setToolTipText(
+            "Image Stack Files of different XY positions are written in parallel");
+      mpTiffMaxPendingImagesField_ = new JTextField(
+            Integer.toString(StorageMultipageTiff.getMaxPendingImages()), 3);
+      mpTiffMaxPendingImagesField_.setToolTipText(
+            "When this many images wait to be written, acquisition waits for the disk");
+
+      spTiffWritingThreadsField_ = new JTextField(
+            Integer.toString(StorageSinglePlaneTiffSeries.getNumWritingThreads()), 3);
+      spTiffWritingThreadsField_.setToolTipText(
+            "Separate Image Files are written in parallel");
+      spTiffMaxPendingImagesField_ = new JTextField(
+            Integer.toString(StorageSinglePlaneTiffSeries.getMaxPendingImages()), 3);
+      spTiffMaxPendingImagesField_.setToolTipText(
+            "When this many images wait to be written, acquisition waits for the disk");
+
+      final JCheckBox memoryMapMPTiffCheckBox = new JCheckBox();
+      memoryMapMPTiffCheckBox.setText("Memory-map Image Stack Files when opening them");
+      memoryMapMPTiffCheckBox.setToolTipText(
+            "Faster browsing through large datasets; images are not copied into memory");
+      memoryMapMPTiffCheckBox.setSelected(
+            StorageMultipageTiff.getShouldMemoryMapFilesWhenReading());
+      memoryMapMPTiffCheckBox.addActionListener((ActionEvent arg0) ->
+            StorageMultipageTiff.setShouldMemoryMapFilesWhenReading(
+                  memoryMapMPTiffCheckBox.isSelected()));
+
+      final JCheckBox offHeapRAMStorageCheckBox = new JCheckBox();
+      offHeapRAMStorageCheckBox.setText(
+            "Keep pixels of unsaved acquisitions outside the Java heap");
+      offHeapRAMStorageCheckBox.setToolTipText(
+            "Reduces garbage collection pauses during long acquisitions held in RAM");
+      offHeapRAMStorageCheckBox.setSelected(StorageOffHeap.getShouldUseOffHeap());
+
+      final JCheckBox offHeapMemoryMapCheckBox = new JCheckBox();
+      offHeapMemoryMapCheckBox.setText("Back it with a memory-mapped temporary file");
+      offHeapMemoryMapCheckBox.setToolTipText(
+            "Lets the operating system page pixels out to disk instead of reserving RAM");
+      offHeapMemoryMapCheckBox.setSelected(StorageOffHeap.getShouldUseMemoryMappedFile());
+      offHeapMemoryMapCheckBox.setEnabled(offHeapRAMStorageCheckBox.isSelected());
+      offHeapMemoryMapCheckBox.addActionListener((ActionEvent arg0) ->
+            StorageOffHeap.setShouldUseMemoryMappedFile(offHeapMemoryMapCheckBox.isSelected()));
+
+      final JLabel offHeapMaxTimePointsLabel = new JLabel("Keep only the last");
+      offHeapMaxTimePointsField_ =
+            new JTextField(Integer.toString(StorageOffHeap.getMaxTimePoints()), 4);
+      offHeapMaxTimePointsField_.setToolTipText(
+            "Older time points are discarded during the acquisition; 0 keeps all of them");
+      final JLabel offHeapTimePointsLabel = new JLabel("time points (0 = all)");
+      offHeapMaxTimePointsLabel.setEnabled(offHeapRAMStorageCheckBox.isSelected());
+      offHeapMaxTimePointsField_.setEnabled(offHeapRAMStorageCheckBox.isSelected());
+      offHeapTimePointsLabel.setEnabled(offHeapRAMStorageCheckBox.isSelected());
+
+      offHeapRAMStorageCheckBox.addActionListener((ActionEvent arg0) -> {
+         boolean useOffHeap = offHeapRAMStorageCheckBox.isSelected();
+         StorageOffHeap.setShouldUseOffHeap(useOffHeap);
+         offHeapMemoryMapCheckBox.setEnabled(useOffHeap);
+         offHeapMaxTimePointsLabel.setEnabled(useOffHeap);
+         offHeapMaxTimePointsField_.setEnabled(useOffHeap);
+         offHeapTimePointsLabel.setEnabled(useOffHeap);
+      });
+
+      final JCheckBox deltaScopeDataCheckBox = new JCheckBox();
+      deltaScopeDataCheckBox.setText("Store only changed device properties with each saved image");
+      deltaScopeDataCheckBox.setToolTipText(
+            "Full device properties are saved with the first image of each file or position");
+      deltaScopeDataCheckBox.setSelected(ScopeDataDeltas.getShouldDeltaEncodeScopeData());
+      deltaScopeDataCheckBox.addActionListener((ActionEvent arg0) ->
+            ScopeDataDeltas.setShouldDeltaEncodeScopeData(deltaScopeDataCheckBox.isSelected()));
+
+      final JCheckBox parallelPipelineCheckBox = new JCheckBox();
+      parallelPipelineCheckBox.setText("Run image processors in parallel during acquisitions");
+      parallelPipelineCheckBox.setToolTipText(
+            "Queues images between processors and runs stateless processors on several threads");
+      parallelPipelineCheckBox.setSelected(DefaultPipeline.getShouldProcessInParallel());
+      parallelPipelineCheckBox.addActionListener((ActionEvent arg0) ->
+            DefaultPipeline.setShouldProcessInParallel(parallelPipelineCheckBox.isSelected()));
+
       final JCheckBox syncExposureMainAndMDA = new JCheckBox();
       syncExposureMainAndMDA.setText("Sync exposure between Main and MDA windows");
       syncExposureMainAndMDA.setSelected(AcqControlDlg.getShouldSyncExposure());
@@ -316,6 +404,24 @@ public final class OptionsDlg extends JDialog {
 
       super.add(metadataFileWithMultipageTiffCheckBox, "wrap");
       super.add(separateFilesForPositionsMPTiffCheckBox, "wrap");
+      super.add(new JLabel("Threads writing Image Stack Files:"), "split 2, gapright push");
+      super.add(mpTiffWritingThreadsField_, "wrap");
+      super.add(new JLabel("Images waiting to be written before acquisition waits:"),
+            "split 2, gapright push");
+      super.add(mpTiffMaxPendingImagesField_, "wrap");
+      super.add(new JLabel("Threads writing Separate Image Files:"), "split 2, gapright push");
+      super.add(spTiffWritingThreadsField_, "wrap");
+      super.add(new JLabel("Separate Image Files waiting to be written before acquisition waits:"),
+            "split 2, gapright push");
+      super.add(spTiffMaxPendingImagesField_, "wrap");
+      super.add(memoryMapMPTiffCheckBox, "wrap");
+      super.add(offHeapRAMStorageCheckBox, "wrap");
+      super.add(offHeapMemoryMapCheckBox, "gapleft 20, wrap");
+      super.add(offHeapMaxTimePointsLabel, "gapleft 20, split 3, grow 0, gapright related");
+      super.add(offHeapMaxTimePointsField_, "grow 0, gapright related");
+      super.add(offHeapTimePointsLabel, "gapright push, wrap");
+      super.add(deltaScopeDataCheckBox, "wrap");
+      super.add(parallelPipelineCheckBox, "wrap");
 
       super.add(new JSeparator(), "wrap");
 
@@ -363,11 +469,26 @@ public final class OptionsDlg extends JDialog {
    private void closeRequested() {
       int seqBufSize;
       int deleteLogDays;
+      int offHeapMaxTimePoints;
+      int mpTiffWritingThreads;
+      int mpTiffMaxPendingImages;
+      int spTiffWritingThreads;
+      int spTiffMaxPendingImages;
       try {
          seqBufSize =
                NumberUtils.displayStringToInt(bufSizeField_.getText());
          deleteLogDays =
                NumberUtils.displayStringToInt(logDeleteDaysField_.getText());
+         offHeapMaxTimePoints =
+               NumberUtils.displayStringToInt(offHeapMaxTimePointsField_.getText());
+         mpTiffWritingThreads =
+               NumberUtils.displayStringToInt(mpTiffWritingThreadsField_.getText());
+         mpTiffMaxPendingImages =
+               NumberUtils.displayStringToInt(mpTiffMaxPendingImagesField_.getText());
+         spTiffWritingThreads =
+               NumberUtils.displayStringToInt(spTiffWritingThreadsField_.getText());
+         spTiffMaxPendingImages =
+               NumberUtils.displayStringToInt(spTiffMaxPendingImagesField_.getText());
       } catch (ParseException ex) {
          ReportingUtils.showError(ex);
          return;
@@ -375,6 +496,11 @@ public final class OptionsDlg extends JDialog {
 
       mmStudio_.settings().setCircularBufferSize(seqBufSize);
       mmStudio_.settings().setCoreLogLifetimeDays(deleteLogDays);
+      StorageOffHeap.setMaxTimePoints(Math.max(0, offHeapMaxTimePoints));
+      StorageMultipageTiff.setNumWritingThreads(Math.max(1, mpTiffWritingThreads));
+      StorageMultipageTiff.setMaxPendingImages(Math.max(1, mpTiffMaxPendingImages));
+      StorageSinglePlaneTiffSeries.setNumWritingThreads(Math.max(1, spTiffWritingThreads));
+      StorageSinglePlaneTiffSeries.setMaxPendingImages(Math.max(1, spTiffMaxPendingImages));
 
       ScriptPanel.setStartupScript(mmStudio_, startupScriptFile_.getText());
       mmStudio_.app().makeActive();
@@ -13,6 +13,7 @@ import javax.swing.JMenu;
 import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import mmcorej.CMMCore;
+import org.micromanager.acquisition.internal.acqengjcompat.HookTimingFrame;
 import org.micromanager.alerts.internal.DefaultAlertManager;
 import org.micromanager.events.internal.MouseMovesStageStateChangeEvent;
 import org.micromanager.internal.MMStudio;
@@ -109,6 +110,10 @@ public final class ToolsMenu {
             mmStudio_.uiManager()::openAcqControlDialog,
             "film.png");
 
+      GUIUtils.addMenuItem(toolsMenu, "Acquisition Hook Timing...",
+            "Show how long each acquisition hook takes in the current or last acquisition",
+            HookTimingFrame::showFrame);
+
       toolsMenu.addSeparator();
 
       GUIUtils.addMenuItem(toolsMenu, "Options...",
@@ -0,0 +1,101 @@
+package org.micromanager.internal.propertymap;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+import java.util.Collection;
+import java.util.Iterator;
+import mmcorej.org.json.JSONArray;
+import mmcorej.org.json.JSONObject;
+
+/**
+ * Converts the org.json trees used for TaggedImage tags directly into Gson
+ * trees.
+ *
+ * <p>This replaces the {@code new JsonParser().parse(tags.toString())} idiom,
+ * which formats the complete tags as a String only to parse it again, and is
+ * expensive when done for every acquired image.  The resulting tree is
+ * equivalent to the one obtained by that round trip, including the way
+ * numbers are rendered when read back as Strings.</p>
+ */
+public final class JSONObjectToGson {
+
+   private JSONObjectToGson() {
+   }
+
+   /**
+    * Converts a JSONObject into a Gson JsonObject.
+    *
+    * @param jo JSONObject to be converted
+    * @return JsonObject with the same content as jo
+    */
+   public static JsonObject convert(JSONObject jo) {
+      JsonObject result = new JsonObject();
+      Iterator<?> keys = jo.keys();
+      while (keys.hasNext()) {
+         String key = keys.next().toString();
+         result.add(key, convertValue(jo.opt(key)));
+      }
+      return result;
+   }
+
+   /**
+    * Converts only the given top-level entries of a JSONObject into a Gson
+    * JsonObject; keys that are not present are skipped.
+    *
+    * @param jo   JSONObject to be converted
+    * @param keys keys of the entries to convert
+    * @return JsonObject with the selected entries of jo
+    */
+   public static JsonObject convert(JSONObject jo, Collection<String> keys) {
+      JsonObject result = new JsonObject();
+      for (String key : keys) {
+         if (jo.has(key)) {
+            result.add(key, convertValue(jo.opt(key)));
+         }
+      }
+      return result;
+   }
+
+   private static JsonArray convert(JSONArray ja) {
+      JsonArray result = new JsonArray();
+      for (int i = 0; i < ja.length(); i++) {
+         result.add(convertValue(ja.opt(i)));
+      }
+      return result;
+   }
+
+   private static JsonElement convertValue(Object value) {
+      if (value == null || value == JSONObject.NULL) {
+         return JsonNull.INSTANCE;
+      }
+      if (value instanceof JSONObject) {
+         return convert((JSONObject) value);
+      }
+      if (value instanceof JSONArray) {
+         return convert((JSONArray) value);
+      }
+      if (value instanceof String) {
+         return new JsonPrimitive((String) value);
+      }
+      if (value instanceof Boolean) {
+         return new JsonPrimitive((Boolean) value);
+      }
+      if (value instanceof Double || value instanceof Float) {
+         // JSONObject writes integral floating point values without the
+         // trailing ".0", and floats through their String representation.
+         double d = Double.parseDouble(value.toString());
+         String s = Double.toString(d);
+         if (s.endsWith(".0") && (long) d == d) {
+            return new JsonPrimitive((long) d);
+         }
+         return new JsonPrimitive(d);
+      }
+      if (value instanceof Number) {
+         return new JsonPrimitive((Number) value);
+      }
+      return new JsonPrimitive(value.toString());
+   }
+}
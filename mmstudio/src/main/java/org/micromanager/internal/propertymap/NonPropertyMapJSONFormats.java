@@ -106,6 +106,11 @@ public abstract class NonPropertyMapJSONFormats {
          new CoordsFormat();
    private static final NonPropertyMapJSONFormats IMAGE_FORMAT_INSTANCE =
          new ImageFormat();
+   // Gson instances are thread safe, and costly to create for every call
+   private static final Gson PRETTY_GSON = new GsonBuilder()
+         .disableHtmlEscaping()
+         .setPrettyPrinting()
+         .create();
 
    public static NonPropertyMapJSONFormats metadata() {
       return METADATA_INSTANCE;
@@ -165,11 +170,7 @@ public abstract class NonPropertyMapJSONFormats {
     * @return Map as String in JSON format
     */
    public final String toJSON(PropertyMap canonical) {
-      Gson gson = new GsonBuilder()
-            .disableHtmlEscaping()
-            .setPrettyPrinting()
-            .create();
-      return gson.toJson(toGson(canonical));
+      return PRETTY_GSON.toJson(toGson(canonical));
    }
 
    public abstract PropertyMap fromGson(JsonElement je);
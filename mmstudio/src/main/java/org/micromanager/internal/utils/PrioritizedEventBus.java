@@ -1,18 +1,37 @@
 package org.micromanager.internal.utils;
 
 import static java.util.concurrent.Executors.newSingleThreadExecutor;
+import static java.util.concurrent.Executors.newSingleThreadScheduledExecutor;
 
 import com.google.common.eventbus.AsyncEventBus;
 import com.google.common.eventbus.EventBus;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 
 /**
  * The PrioritizedEventBus allows registrants to provide a priority value; when
  * dispatching events to registrants, those with lower priority numbers are
  * notified first.
+ *
+ * <p>Registrants that do not need every event can instead register with a
+ * coalescing key function. They receive events on a thread of their own (in
+ * order, but after all prioritized registrants have been handed the event).
+ * An event that is still waiting to be delivered is replaced by a newer event
+ * with the same (non-null) key, and deliveries can be rate limited.
+ * Alternatively, events with equal keys form a group that is delivered in
+ * full, and the first event of a new group drops the events of other groups
+ * that are still waiting.</p>
  */
 public final class PrioritizedEventBus {
    // Priority at which to register objects when no priority is specified.
@@ -24,6 +43,10 @@ public final class PrioritizedEventBus {
    private boolean async_ = false;
    private boolean shutDown_ = false;
    private ExecutorService executorService_;
+   private final List<CoalescingSubscriber> coalescingSubscribers_ =
+         new CopyOnWriteArrayList<>();
+   private final AtomicLong numCoalescedEvents_ = new AtomicLong(0);
+   private final AtomicLong numDroppedEvents_ = new AtomicLong(0);
 
    public PrioritizedEventBus(boolean async) {
       prioritizedBuses_ = new HashMap<>();
@@ -58,10 +81,53 @@ public final class PrioritizedEventBus {
       subBus.register(o);
    }
 
+   /**
+    * Register an object that receives its events on a separate thread, with
+    * events coalesced by key.
+    *
+    * @param o             Object with methods annotated with Subscribe
+    * @param coalescingKey Returns for each event the key under which it
+    *                      replaces an undelivered earlier event, or null if
+    *                      the event must not be dropped
+    * @param minIntervalMs Minimum time between deliveries, in milliseconds
+    */
+   public void registerCoalescing(Object o, Function<Object, Object> coalescingKey,
+                                  long minIntervalMs) {
+      registerCoalescing(o, coalescingKey, false, minIntervalMs);
+   }
+
+   /**
+    * Register an object that receives its events on a separate thread, with
+    * events coalesced by key, or by group of events with equal keys.
+    *
+    * @param o             Object with methods annotated with Subscribe
+    * @param coalescingKey Returns for each event its key, or null if the event
+    *                      must not be dropped
+    * @param grouped       If false, an event replaces an undelivered earlier
+    *                      event with the same key. If true, events with equal
+    *                      keys are all delivered, in order, and an event drops
+    *                      the undelivered earlier events with other keys
+    * @param minIntervalMs Minimum time between deliveries, in milliseconds
+    */
+   public void registerCoalescing(Object o, Function<Object, Object> coalescingKey,
+                                  boolean grouped, long minIntervalMs) {
+      if (shutDown_) {
+         return;
+      }
+      coalescingSubscribers_.add(new CoalescingSubscriber(o, coalescingKey, grouped,
+            TimeUnit.MILLISECONDS.toNanos(minIntervalMs)));
+   }
+
    public void unregister(Object o) {
       if (shutDown_) {
          return; // TODO: should this be reported/logged?
       }
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         if (subscriber.subscriber_ == o) {
+            coalescingSubscribers_.remove(subscriber);
+            subscriber.shutDown();
+         }
+      }
       for (Integer priority : prioritizedBuses_.keySet()) {
          EventBus subBus = prioritizedBuses_.get(priority);
          // TODO: I can't find any way to test if a given EventBus has a given
@@ -85,6 +151,9 @@ public final class PrioritizedEventBus {
          EventBus subBus = prioritizedBuses_.get(priority);
          subBus.post(event);
       }
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         subscriber.offer(event);
+      }
    }
 
    public void shutDown() {
@@ -92,5 +161,119 @@ public final class PrioritizedEventBus {
       if (executorService_ != null) {
          executorService_.shutdown();
       }
+      for (CoalescingSubscriber subscriber : coalescingSubscribers_) {
+         subscriber.shutDown();
+      }
+      coalescingSubscribers_.clear();
+   }
+
+   /**
+    * @return Number of events that were replaced by a newer event before they
+    *     were delivered to a coalescing registrant
+    */
+   public long getNumCoalescedEvents() {
+      return numCoalescedEvents_.get();
+   }
+
+   /**
+    * @return Number of events that were never delivered to a coalescing
+    *     registrant, because it was unregistered or the bus was shut down
+    */
+   public long getNumDroppedEvents() {
+      return numDroppedEvents_.get();
+   }
+
+   private final class CoalescingSubscriber {
+      private final Object subscriber_;
+      private final EventBus bus_ = new EventBus(EventBusExceptionLogger.getInstance());
+      private final Function<Object, Object> coalescingKey_;
+      private final boolean grouped_;
+      private final long minIntervalNs_;
+      private final ScheduledExecutorService executor_;
+      // Events waiting for delivery, in order; events that must not be
+      // dropped get a unique key, as do members of a group (see GroupMember).
+      // Guarded by this.
+      private final LinkedHashMap<Object, Object> pending_ = new LinkedHashMap<>();
+      private boolean isDeliveryScheduled_ = false;
+      private long lastDeliveryNs_;
+
+      CoalescingSubscriber(Object subscriber, Function<Object, Object> coalescingKey,
+                           boolean grouped, long minIntervalNs) {
+         subscriber_ = subscriber;
+         coalescingKey_ = coalescingKey;
+         grouped_ = grouped;
+         minIntervalNs_ = minIntervalNs;
+         lastDeliveryNs_ = System.nanoTime() - minIntervalNs;
+         executor_ = newSingleThreadScheduledExecutor(
+               ThreadFactoryFactory.createThreadFactory("Coalesced events for " + subscriber));
+         bus_.register(subscriber);
+      }
+
+      void offer(Object event) {
+         Object key = coalescingKey_.apply(event);
+         synchronized (this) {
+            if (key == null) {
+               key = new Object();
+            } else if (grouped_) {
+               Iterator<Object> iter = pending_.keySet().iterator();
+               while (iter.hasNext()) {
+                  Object pendingKey = iter.next();
+                  if (pendingKey instanceof GroupMember
+                        && !((GroupMember) pendingKey).group_.equals(key)) {
+                     iter.remove();
+                     numCoalescedEvents_.incrementAndGet();
+                  }
+               }
+               key = new GroupMember(key);
+            } else if (pending_.remove(key) != null) {
+               // The newer event also takes the place of the older one, to
+               // stay in order with events that cannot be coalesced
+               numCoalescedEvents_.incrementAndGet();
+            }
+            pending_.put(key, event);
+            if (isDeliveryScheduled_) {
+               return;
+            }
+            long delay = lastDeliveryNs_ + minIntervalNs_ - System.nanoTime();
+            try {
+               executor_.schedule(this::deliver, Math.max(0, delay), TimeUnit.NANOSECONDS);
+               isDeliveryScheduled_ = true;
+            } catch (RejectedExecutionException e) {
+               numDroppedEvents_.addAndGet(pending_.size());
+               pending_.clear();
+            }
+         }
+      }
+
+      private void deliver() {
+         List<Object> events;
+         synchronized (this) {
+            events = new ArrayList<>(pending_.values());
+            pending_.clear();
+            isDeliveryScheduled_ = false;
+            lastDeliveryNs_ = System.nanoTime();
+         }
+         for (Object event : events) {
+            bus_.post(event);
+         }
+      }
+
+      synchronized void shutDown() {
+         executor_.shutdown();
+         numDroppedEvents_.addAndGet(pending_.size());
+         pending_.clear();
+      }
+   }
+
+   /**
+    * Pending-event key of an event of a group; unique to the event, so that
+    * the group's events do not replace each other.
+    */
+   private static final class GroupMember {
+      private final Object group_;
+
+      GroupMember(Object group) {
+         group_ = group;
+      }
    }
 }
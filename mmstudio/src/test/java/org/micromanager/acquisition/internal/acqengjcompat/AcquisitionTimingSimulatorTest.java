@@ -0,0 +1,241 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import org.junit.Test;
+import org.micromanager.MultiStagePosition;
+import org.micromanager.PositionList;
+import org.micromanager.StagePosition;
+import org.micromanager.acqj.api.AcquisitionAPI;
+import org.micromanager.acqj.main.AcqEngMetadata;
+import org.micromanager.acqj.main.AcquisitionEvent;
+import org.micromanager.acqj.util.AcquisitionEventIterator;
+import org.micromanager.acquisition.ChannelSpec;
+import org.micromanager.acquisition.SequenceSettings;
+import org.micromanager.acquisition.internal.acqengjcompat.AcquisitionTimingSimulator.HardwareModel;
+import org.micromanager.acquisition.internal.acqengjcompat.AcquisitionTimingSimulator.Phase;
+import org.micromanager.acquisition.internal.acqengjcompat.AcquisitionTimingSimulator.Prediction;
+import org.micromanager.internal.utils.AcqOrderMode;
+
+public class AcquisitionTimingSimulatorTest {
+   private static final HardwareModel NO_LATENCY = new HardwareModel.Builder()
+         .readoutMs(0.0).channelSwitchMs(0.0).zMove(0.0, 0.0).xyMove(0.0, 0.0)
+         .hookMs(0.0).writerBytesPerS(0.0).build();
+
+   private static ArrayList<ChannelSpec> channels(double... exposures) {
+      ArrayList<ChannelSpec> channels = new ArrayList<>();
+      for (int i = 0; i < exposures.length; ++i) {
+         channels.add(new ChannelSpec.Builder().config("Ch" + i)
+               .exposure(exposures[i]).build());
+      }
+      return channels;
+   }
+
+   private static String describe(Integer t, Integer p, Integer c, Integer z, Double zUm) {
+      return "t=" + t + " p=" + p + " c=" + c + " z=" + z + " zUm=" + zUm;
+   }
+
+   private static List<String> describeSimulatedEvents(SequenceSettings settings,
+         PositionList positionList, int[] visitOrder) {
+      List<String> events = new ArrayList<>();
+      AcquisitionTimingSimulator.forEachEvent(settings, positionList, visitOrder,
+            e -> events.add(describe(e.t, e.p, e.c, e.z, e.zUm)));
+      return events;
+   }
+
+   /**
+    * Events as AcqEngJ enumerates them, from the MDAAcqEventModules functions
+    * nested in the order that AcqEngJAdapter.createAcqEventIterator uses.
+    * The positions must not have XY stage positions, and the channels no Z
+    * offsets, since those need a Core.
+    */
+   private static List<String> describeAcqEngJEvents(SequenceSettings settings,
+         PositionList positionList, int[] visitOrder) {
+      List<ChannelSpec> chSpecs = new ArrayList<>();
+      for (ChannelSpec chSpec : settings.channels()) {
+         if (chSpec.useChannel()) {
+            chSpecs.add(chSpec);
+         }
+      }
+      Function<AcquisitionEvent, Iterator<AcquisitionEvent>> zStack = null;
+      if (settings.useSlices()) {
+         zStack = MDAAcqEventModules.zStack(0, settings.slices().size() - 1,
+               settings.sliceZStepUm(), settings.slices().get(0), chSpecs, null);
+      }
+      Function<AcquisitionEvent, Iterator<AcquisitionEvent>> channels = null;
+      if (settings.useChannels()) {
+         channels = MDAAcqEventModules.channels(chSpecs,
+               (settings.slices().size() - 1) / 2, null);
+      }
+      Function<AcquisitionEvent, Iterator<AcquisitionEvent>> positions = null;
+      if (settings.usePositionList()) {
+         positions = MDAAcqEventModules.positions(positionList, visitOrder, null, null);
+      }
+      Function<AcquisitionEvent, Iterator<AcquisitionEvent>> timelapse = null;
+      if (settings.useFrames()) {
+         timelapse = MDAAcqEventModules.timelapse(settings.numFrames(),
+               settings.intervalMs(), null);
+      }
+
+      List<Function<AcquisitionEvent, Iterator<AcquisitionEvent>>> order;
+      switch (settings.acqOrderMode()) {
+         case AcqOrderMode.POS_TIME_CHANNEL_SLICE:
+            order = Arrays.asList(positions, timelapse, channels, zStack);
+            break;
+         case AcqOrderMode.POS_TIME_SLICE_CHANNEL:
+            order = Arrays.asList(positions, timelapse, zStack, channels);
+            break;
+         case AcqOrderMode.TIME_POS_CHANNEL_SLICE:
+            order = Arrays.asList(timelapse, positions, channels, zStack);
+            break;
+         case AcqOrderMode.TIME_POS_SLICE_CHANNEL:
+            order = Arrays.asList(timelapse, positions, zStack, channels);
+            break;
+         default:
+            throw new AssertionError(settings.acqOrderMode());
+      }
+      ArrayList<Function<AcquisitionEvent, Iterator<AcquisitionEvent>>> acqFunctions =
+            new ArrayList<>();
+      order.stream().filter(Objects::nonNull).forEach(acqFunctions::add);
+
+      // The events only keep a reference to their acquisition
+      AcquisitionAPI acquisition = (AcquisitionAPI) Proxy.newProxyInstance(
+            AcquisitionAPI.class.getClassLoader(), new Class<?>[] {AcquisitionAPI.class},
+            (proxy, method, args) -> {
+               throw new UnsupportedOperationException(method.getName());
+            });
+      Iterator<AcquisitionEvent> iterator = new AcquisitionEventIterator(
+            new AcquisitionEvent(acquisition), acqFunctions);
+      List<String> events = new ArrayList<>();
+      while (iterator.hasNext()) {
+         AcquisitionEvent e = iterator.next();
+         if (e == null) {
+            // Skipped by the channels function
+            continue;
+         }
+         events.add(describe(e.getTIndex(),
+               (Integer) e.getAxisPosition(MDAAcqEventModules.POSITION_AXIS),
+               (Integer) e.getAxisPosition(AcqEngMetadata.CHANNEL_AXIS),
+               e.getZIndex(), e.getZPosition()));
+      }
+      return events;
+   }
+
+   @Test
+   public void testEventOrderMatchesAcqEngJ() {
+      ArrayList<ChannelSpec> channels = channels(10.0, 20.0, 30.0);
+      channels.set(1, channels.get(1).copyBuilder().skipFactorFrame(1).build());
+      channels.set(2, channels.get(2).copyBuilder().doZStack(false).build());
+      PositionList positionList = new PositionList();
+      for (int i = 0; i < 3; ++i) {
+         MultiStagePosition msp = new MultiStagePosition();
+         msp.add(StagePosition.create1D("Z", 10.0 * i));
+         msp.setLabel("Pos" + i);
+         positionList.addPosition(msp);
+      }
+      int[] visitOrder = {2, 0, 1};
+      for (int mode : new int[] {AcqOrderMode.TIME_POS_SLICE_CHANNEL,
+            AcqOrderMode.TIME_POS_CHANNEL_SLICE, AcqOrderMode.POS_TIME_SLICE_CHANNEL,
+            AcqOrderMode.POS_TIME_CHANNEL_SLICE}) {
+         SequenceSettings settings = new SequenceSettings.Builder()
+               .useFrames(true).numFrames(3).intervalMs(0.0)
+               .usePositionList(true)
+               .useChannels(true).channels(channels)
+               .useSlices(true).slices(new ArrayList<>(Arrays.asList(1.0, 1.5, 2.0)))
+               .sliceZStepUm(0.5)
+               .acqOrderMode(mode).build();
+         List<String> expected = describeAcqEngJEvents(settings, positionList, visitOrder);
+         assertFalse(expected.isEmpty());
+         assertEquals("Order mode " + mode, expected,
+               describeSimulatedEvents(settings, positionList, visitOrder));
+      }
+   }
+
+   @Test
+   public void testTimeLapse() {
+      SequenceSettings settings = new SequenceSettings.Builder()
+            .useFrames(true).numFrames(10).intervalMs(1000.0).build();
+      Prediction prediction = AcquisitionTimingSimulator.simulate(
+            settings, null, null, NO_LATENCY);
+      assertEquals(10, prediction.getImageCount());
+      assertEquals(9010.0, prediction.getDurationMs(), 1e-9);
+      assertEquals(100.0, prediction.getPhaseMs(Phase.EXPOSURE), 1e-9);
+      assertEquals(8910.0, prediction.getPhaseMs(Phase.INTERVAL_WAIT), 1e-9);
+      assertEquals(0, prediction.getLateTimePoints());
+   }
+
+   @Test
+   public void testEmptyPositionListAcquiresAtCurrentPosition() {
+      SequenceSettings settings = new SequenceSettings.Builder()
+            .useFrames(true).numFrames(3).intervalMs(0.0)
+            .usePositionList(true).build();
+      Prediction prediction = AcquisitionTimingSimulator.simulate(
+            settings, new PositionList(), null, NO_LATENCY);
+      assertEquals(3, prediction.getImageCount());
+   }
+
+   @Test
+   public void testSkippedFramesAndChannelsWithoutZStack() {
+      ArrayList<ChannelSpec> channels = channels(10.0, 20.0);
+      channels.set(1, channels.get(1).copyBuilder().skipFactorFrame(1)
+            .doZStack(false).build());
+      SequenceSettings settings = new SequenceSettings.Builder()
+            .useFrames(true).numFrames(4)
+            .useChannels(true).channels(channels)
+            .useSlices(true).slices(new ArrayList<>(Arrays.asList(0.0, 1.0, 2.0)))
+            .sliceZStepUm(1.0)
+            .acqOrderMode(AcqOrderMode.TIME_POS_SLICE_CHANNEL).build();
+      Prediction prediction = AcquisitionTimingSimulator.simulate(
+            settings, null, null, NO_LATENCY);
+      // 3 slices of the first channel at 4 time points, one slice of the
+      // second channel at 2 of them
+      assertEquals(14, prediction.getImageCount());
+      assertEquals(4 * 30.0 + 2 * 20.0, prediction.getPhaseMs(Phase.EXPOSURE), 1e-9);
+   }
+
+   @Test
+   public void testZSequencingAvoidsMoves() {
+      SequenceSettings settings = new SequenceSettings.Builder()
+            .useSlices(true).slices(new ArrayList<>(Arrays.asList(0.0, 1.0, 2.0, 3.0)))
+            .sliceZStepUm(1.0).build();
+      HardwareModel.Builder model = new HardwareModel.Builder()
+            .exposureMs(10.0).readoutMs(5.0).zMove(1.0, 10.0).hookMs(0.0);
+      Prediction stepped = AcquisitionTimingSimulator.simulate(
+            settings, null, null, model.build());
+      Prediction sequenced = AcquisitionTimingSimulator.simulate(
+            settings, null, null, model.zSequenceable(true).build());
+      assertEquals(4, stepped.getSequenceCount());
+      assertEquals(33.0, stepped.getPhaseMs(Phase.Z_MOVE), 1e-9);
+      assertEquals(4 * 15.0 + 33.0, stepped.getDurationMs(), 1e-9);
+      assertEquals(1, sequenced.getSequenceCount());
+      assertEquals(0.0, sequenced.getPhaseMs(Phase.Z_MOVE), 1e-9);
+      assertEquals(15.0 + 3 * 10.0, sequenced.getDurationMs(), 1e-9);
+   }
+
+   @Test
+   public void testSlowStorageFallsBehind() {
+      SequenceSettings settings = new SequenceSettings.Builder()
+            .useFrames(true).numFrames(100).intervalMs(0.0).build();
+      HardwareModel.Builder model = new HardwareModel.Builder()
+            .exposureMs(10.0).readoutMs(0.0).hookMs(0.0).bytesPerImage(1_000_000L);
+      Prediction fast = AcquisitionTimingSimulator.simulate(
+            settings, null, null, model.writerBytesPerS(1e9).build());
+      assertFalse(fast.storageFallsBehind());
+      assertEquals(1, fast.getBufferHighWaterImages());
+      // 50 ms to write each 10 ms frame
+      Prediction slow = AcquisitionTimingSimulator.simulate(
+            settings, null, null, model.writerBytesPerS(2e7).build());
+      assertTrue(slow.storageFallsBehind());
+      assertEquals(5010.0, slow.getStorageDoneMs(), 1e-6);
+      assertTrue(slow.getBufferHighWaterImages() > 75);
+   }
+}
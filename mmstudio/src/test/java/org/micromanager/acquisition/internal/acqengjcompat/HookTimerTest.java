@@ -0,0 +1,67 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringWriter;
+import java.util.List;
+import org.junit.Test;
+
+public class HookTimerTest {
+   private static final long MS = 1_000_000L;
+
+   @Test
+   public void testStatsAndHistogram() {
+      HookTimer timer = new HookTimer();
+      assertSame(timer, HookTimer.getLatest());
+      timer.record("Shutter", 0, null, 0, 0, 0, 2 * MS);
+      timer.record("Autofocus", 0, 1, null, null, 0, 500 * MS);
+      timer.record("Shutter", 0, null, 1, 0, 0, 4 * MS);
+      timer.record("Shutter", 1, null, 0, 0, 0, 20 * MS);
+
+      List<HookTimer.HookStats> stats = timer.getHookStats();
+      assertEquals(2, stats.size());
+      HookTimer.HookStats shutter = stats.get(0);
+      assertEquals("Shutter", shutter.getName());
+      assertEquals(3, shutter.getCount());
+      assertEquals(26.0, shutter.getTotalMs(), 1e-9);
+      assertEquals(26.0 / 3, shutter.getMeanMs(), 1e-9);
+      assertEquals(4.0, shutter.getMedianMs(), 1e-9);
+      assertEquals(20.0, shutter.getMaxMs(), 1e-9);
+      long[] expected = new long[HookTimer.HISTOGRAM_BIN_UPPER_MS.length + 1];
+      expected[5] = 1; // 1-3 ms
+      expected[6] = 1; // 3-10 ms
+      expected[7] = 1; // 10-30 ms
+      assertArrayEquals(expected, shutter.getHistogram());
+      assertEquals(4, timer.getEventTimings().size());
+      assertTrue(timer.toString().startsWith("Autofocus: 1 calls"));
+   }
+
+   @Test
+   public void testCsv() {
+      HookTimer timer = new HookTimer();
+      timer.record("Restore \"channel\"", 3, 2, 1, null, 0, MS / 2);
+      StringWriter writer = new StringWriter();
+      timer.writeCsv(writer);
+      String[] lines = writer.toString().split("\\R");
+      assertEquals(2, lines.length);
+      assertEquals("Hook,Time,Position,Channel,Slice,StartMs,DurationMs", lines[0]);
+      assertTrue(lines[1], lines[1].startsWith("\"Restore \"\"channel\"\"\",3,2,1,,"));
+      assertTrue(lines[1], lines[1].endsWith(",0.5000"));
+   }
+
+   @Test
+   public void testEventTimingsAreBounded() {
+      HookTimer timer = new HookTimer();
+      for (int i = 0; i < HookTimer.MAX_EVENT_TIMINGS + 10; ++i) {
+         timer.record("Hook", i, null, null, null, 0, MS);
+      }
+      assertEquals(HookTimer.MAX_EVENT_TIMINGS, timer.getEventTimings().size());
+      assertEquals(HookTimer.MAX_EVENT_TIMINGS, timer.getEventTimingCount());
+      assertEquals(10, timer.getDroppedEventTimingCount());
+      assertEquals(HookTimer.MAX_EVENT_TIMINGS + 10,
+            timer.getHookStats().get(0).getCount());
+   }
+}
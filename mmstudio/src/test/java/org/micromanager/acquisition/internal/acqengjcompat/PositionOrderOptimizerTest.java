@@ -0,0 +1,68 @@
+package org.micromanager.acquisition.internal.acqengjcompat;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class PositionOrderOptimizerTest {
+   @Test
+   public void testSerpentineGrid() {
+      // 2 x 3 grid, listed row by row in the same direction
+      int[] rows = {0, 0, 0, 1, 1, 1};
+      int[] columns = {0, 1, 2, 0, 1, 2};
+      double[] xs = {0, 100, 200, 0, 100, 200};
+      double[] ys = {0, 0, 0, 100, 100, 100};
+      PositionOrderOptimizer.Plan plan = PositionOrderOptimizer.plan(
+            xs, ys, new double[6], 0.0, rows, columns, null);
+      assertArrayEquals(new int[] {0, 1, 2, 5, 4, 3}, plan.getOrder());
+      assertEquals(500.0, plan.getPlannedTravelUm(), 1e-9);
+      assertEquals(600.0, plan.getListOrderTravelUm(), 1e-9);
+   }
+
+   @Test
+   public void testShuffledLine() {
+      double[] xs = {30, 10, 50, 0, 40, 20};
+      PositionOrderOptimizer.Plan plan = PositionOrderOptimizer.plan(
+            xs, new double[6], new double[6], 0.0, null, null, new double[] {0, 0});
+      assertArrayEquals(new int[] {3, 1, 5, 0, 4, 2}, plan.getOrder());
+      assertEquals(50.0, plan.getPlannedTravelUm(), 1e-9);
+   }
+
+   @Test
+   public void testZWeight() {
+      // Same XY, so only Z travel matters
+      double[] zs = {0, 10, 0, 10};
+      PositionOrderOptimizer.Plan plan = PositionOrderOptimizer.plan(
+            new double[4], new double[4], zs, 1.0, null, null, null);
+      assertEquals(10.0, plan.getPlannedTravelUm(), 1e-9);
+      assertEquals(30.0, plan.getListOrderTravelUm(), 1e-9);
+   }
+
+   @Test
+   public void testRandomPositionsNeverWorse() {
+      Random random = new Random(1);
+      for (int trial = 0; trial < 20; ++trial) {
+         int n = 3 + random.nextInt(60);
+         double[] xs = new double[n];
+         double[] ys = new double[n];
+         double[] zs = new double[n];
+         for (int i = 0; i < n; ++i) {
+            xs[i] = random.nextDouble() * 10000;
+            ys[i] = random.nextDouble() * 10000;
+            zs[i] = random.nextDouble() * 100;
+         }
+         PositionOrderOptimizer.Plan plan = PositionOrderOptimizer.plan(
+               xs, ys, zs, 0.5, null, null, new double[] {5000, 5000});
+         int[] sorted = plan.getOrder();
+         Arrays.sort(sorted);
+         for (int i = 0; i < n; ++i) {
+            assertEquals(i, sorted[i]);
+         }
+         assertTrue(plan.getPlannedTravelUm() <= plan.getListOrderTravelUm());
+      }
+   }
+}
@@ -0,0 +1,95 @@
+package org.micromanager.data.internal;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+
+
+public class CoordsIndexTest {
+
+   private static List<Coords> bruteForce(List<Coords> all, Coords coords,
+                                          String... ignoreTheseAxes) {
+      List<Coords> result = new ArrayList<>();
+      for (Coords c : all) {
+         if (c.copyRemovingAxes(ignoreTheseAxes).equals(coords)) {
+            result.add(c);
+         }
+      }
+      return result;
+   }
+
+   private static void assertSameElements(List<Coords> expected, List<Coords> actual) {
+      Assert.assertEquals(expected.size(), actual.size());
+      Assert.assertEquals(new HashSet<>(expected), new HashSet<>(actual));
+   }
+
+   @Test
+   public void matchesBruteForce() {
+      CoordsIndex index = new CoordsIndex();
+      List<Coords> all = new ArrayList<>();
+      for (int t = 0; t < 4; t++) {
+         for (int z = 0; z < 3; z++) {
+            for (int c = 0; c < 2; c++) {
+               for (int v = 0; v < 2; v++) {
+                  Coords coords = new DefaultCoords.Builder().t(t).z(z).c(c)
+                        .index("view", v).build();
+                  Assert.assertTrue(index.add(coords));
+                  all.add(coords);
+               }
+            }
+         }
+      }
+      Assert.assertFalse(index.add(all.get(5)));
+      Assert.assertEquals(all.size(), index.size());
+
+      String[][] ignored = {{}, {Coords.C}, {Coords.Z}, {Coords.T, Coords.C},
+            {"view"}, {Coords.Z, "view", Coords.C}, {"unknown"}};
+      Random random = new Random(42);
+      for (String[] axes : ignored) {
+         for (int i = 0; i < 20; i++) {
+            Coords query = all.get(random.nextInt(all.size())).copyRemovingAxes(axes);
+            assertSameElements(bruteForce(all, query, axes), index.getMatching(query, axes));
+         }
+      }
+   }
+
+   @Test
+   public void staysConsistentAfterRemoval() {
+      CoordsIndex index = new CoordsIndex();
+      List<Coords> all = new ArrayList<>();
+      for (int z = 0; z < 5; z++) {
+         for (int c = 0; c < 3; c++) {
+            Coords coords = new DefaultCoords.Builder().z(z).c(c).build();
+            index.add(coords);
+            all.add(coords);
+         }
+      }
+      Coords query = new DefaultCoords.Builder().z(2).build();
+      // Builds the channel projection
+      Assert.assertEquals(3, index.getMatching(query, Coords.C).size());
+
+      Coords removed = new DefaultCoords.Builder().z(2).c(1).build();
+      Assert.assertTrue(index.remove(removed));
+      Assert.assertFalse(index.remove(removed));
+      all.remove(removed);
+      Assert.assertFalse(index.contains(removed));
+      assertSameElements(bruteForce(all, query, Coords.C), index.getMatching(query, Coords.C));
+
+      Coords added = new DefaultCoords.Builder().z(2).c(7).build();
+      index.add(added);
+      all.add(added);
+      assertSameElements(bruteForce(all, query, Coords.C), index.getMatching(query, Coords.C));
+   }
+
+   @Test
+   public void queryWithIgnoredAxisMatchesNothing() {
+      CoordsIndex index = new CoordsIndex();
+      index.add(new DefaultCoords.Builder().z(1).c(1).build());
+      Coords query = new DefaultCoords.Builder().z(1).c(1).build();
+      Assert.assertTrue(index.getMatching(query, Coords.C).isEmpty());
+   }
+}
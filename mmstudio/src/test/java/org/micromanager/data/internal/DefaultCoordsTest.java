@@ -0,0 +1,48 @@
+package org.micromanager.data.internal;
+
+import java.util.Arrays;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+
+
+public class DefaultCoordsTest {
+
+   @Test
+   public void axisOrderDoesNotMatter() {
+      Coords a = new DefaultCoords.Builder().t(3).c(1).z(2).index("view", 4).build();
+      Coords b = new DefaultCoords.Builder().index("view", 4).z(2).c(1).t(3).build();
+      Assert.assertEquals(a, b);
+      Assert.assertEquals(a.hashCode(), b.hashCode());
+      Assert.assertEquals(a.toString(), b.toString());
+      Assert.assertEquals(Arrays.asList(Coords.C, Coords.T, "view", Coords.Z), a.getAxes());
+   }
+
+   @Test
+   public void zeroIndexRemovesAxis() {
+      Coords a = new DefaultCoords.Builder().t(3).c(1).c(0).build();
+      Assert.assertFalse(a.hasAxis(Coords.C));
+      Assert.assertEquals(new DefaultCoords.Builder().t(3).build(), a);
+      Assert.assertEquals(a, a.copyBuilder().z(0).build());
+   }
+
+   @Test
+   public void largeIndicesAreDistinct() {
+      Coords a = new DefaultCoords.Builder().t(70000).build();
+      Coords b = new DefaultCoords.Builder().t(70000 & 0xFFFF).build();
+      Assert.assertNotEquals(a, b);
+      Assert.assertEquals(70000, a.getT());
+      Assert.assertEquals(a, new DefaultCoords.Builder().t(69999).offset(Coords.T, 1).build());
+   }
+
+   @Test
+   public void copiesRemoveAndRetainAxes() {
+      Coords a = new DefaultCoords.Builder().t(3).c(1).z(2).index("view", 4).build();
+      Assert.assertEquals(new DefaultCoords.Builder().t(3).z(2).build(),
+            a.copyRemovingAxes(Coords.C, "view"));
+      Assert.assertEquals(new DefaultCoords.Builder().c(1).index("view", 4).build(),
+            a.copyRetainingAxes(Coords.C, "view"));
+      Assert.assertEquals(a, DefaultCoords.fromNormalizedString(
+            ((DefaultCoords) a).toNormalizedString()));
+   }
+}
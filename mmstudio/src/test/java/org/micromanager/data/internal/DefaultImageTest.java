@@ -0,0 +1,60 @@
+package org.micromanager.data.internal;
+
+import java.nio.ByteBuffer;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+
+
+public class DefaultImageTest {
+
+   @Test
+   public void directBufferIsCopiedOnlyOnce() {
+      ByteBuffer pixels = ByteBuffer.allocateDirect(6);
+      pixels.put(new byte[] {1, 2, 3, 4, 5, 6});
+      PropertyMap format = PropertyMaps.builder()
+            .putInteger(PropertyKey.WIDTH.key(), 3)
+            .putInteger(PropertyKey.HEIGHT.key(), 2)
+            .putEnumAsString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY8)
+            .build();
+      DefaultImage image = new DefaultImage(pixels, format,
+            new DefaultCoords.Builder().build(),
+            () -> new DefaultMetadata.Builder().build());
+
+      Object first = image.getRawPixels();
+      Assert.assertArrayEquals(new byte[] {1, 2, 3, 4, 5, 6}, (byte[]) first);
+      Assert.assertSame(first, image.getRawPixels());
+   }
+
+   @Test
+   public void taggedImageMetadataIsDecodedOnFirstUse() throws JSONException {
+      JSONObject tags = new JSONObject();
+      tags.put("Width", 2);
+      tags.put("Height", 1);
+      tags.put("PixelType", "GRAY8");
+      tags.put("ChannelIndex", 1);
+      tags.put("FrameIndex", 3);
+      tags.put("Exposure-ms", 12.5);
+      DefaultImage image = new DefaultImage(new TaggedImage(new byte[] {1, 2}, tags));
+
+      Assert.assertEquals(2, image.getWidth());
+      Assert.assertEquals(PixelType.GRAY8, image.getPixelType());
+      Assert.assertEquals(1, image.getCoords().getIndex(Coords.CHANNEL));
+      Assert.assertEquals(3, image.getCoords().getT());
+      Assert.assertEquals(12.5, image.getMetadata().getExposureMs(), 0.0);
+      Assert.assertSame(image.getMetadata(), image.getMetadata());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void taggedImageWithoutFormatIsRejected() throws JSONException {
+      JSONObject tags = new JSONObject();
+      tags.put("Width", 2);
+      tags.put("ChannelIndex", 0);
+      new DefaultImage(new TaggedImage(new byte[] {1, 2}, tags));
+   }
+}
@@ -0,0 +1,48 @@
+package org.micromanager.data.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class DefaultPixelBufferPoolTest {
+
+   @Test
+   public void recycledArraysAreReused() {
+      DefaultPixelBufferPool pool = new DefaultPixelBufferPool(1 << 20);
+      short[] first = pool.borrowShorts(100);
+      Assert.assertTrue(pool.isBorrowed(first));
+      Assert.assertTrue(pool.recycle(first));
+      Assert.assertFalse(pool.isBorrowed(first));
+      Assert.assertEquals(200, pool.getPooledBytes());
+      // Different type or length does not match
+      Assert.assertEquals(100, pool.borrowBytes(100).length);
+      Assert.assertEquals(99, pool.borrowShorts(99).length);
+      Assert.assertSame(first, pool.borrowShorts(100));
+      Assert.assertEquals(1, pool.getNumHits());
+      Assert.assertEquals(3, pool.getNumMisses());
+      Assert.assertEquals(0, pool.getPooledBytes());
+   }
+
+   @Test
+   public void onlyBorrowedArraysAreAcceptedOnce() {
+      DefaultPixelBufferPool pool = new DefaultPixelBufferPool(1 << 20);
+      Assert.assertFalse(pool.recycle(new byte[10]));
+      byte[] borrowed = pool.borrowBytes(10);
+      Assert.assertTrue(pool.recycle(borrowed));
+      Assert.assertFalse(pool.recycle(borrowed));
+      Assert.assertSame(borrowed, pool.borrowBytes(10));
+      Assert.assertNotSame(borrowed, pool.borrowBytes(10));
+   }
+
+   @Test
+   public void poolSizeIsLimited() {
+      DefaultPixelBufferPool pool = new DefaultPixelBufferPool(1000);
+      float[] a = pool.borrowFloats(200);
+      float[] b = pool.borrowFloats(200);
+      Assert.assertTrue(pool.recycle(a));
+      Assert.assertTrue(pool.recycle(b));
+      Assert.assertEquals(800, pool.getPooledBytes());
+      Assert.assertSame(a, pool.borrowFloats(200));
+      Assert.assertNotSame(b, pool.borrowFloats(200));
+   }
+}
@@ -0,0 +1,201 @@
+package org.micromanager.data.internal;
+
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.micromanager.data.Coords;
+import org.micromanager.internal.utils.HelperTimingHarness;
+
+/**
+ * Compares the cost of DefaultCoords with the list-based representation it
+ * replaced, for the operations done several times per acquired image:
+ * building coords, copyRemovingAxes, and hash map lookups.
+ *
+ * <p>Run main() by hand; this is not a unit test.</p>
+ */
+public final class HelperCoordsTiming {
+   private static final int OPERATIONS = 1_000_000;
+   private static final int NUM_FRAMES = 100;
+   private static final int NUM_POSITIONS = 4;
+   private static final int NUM_SLICES = 10;
+   private static final int NUM_CHANNELS = 3;
+   private static final int NUM_IMAGES =
+         NUM_FRAMES * NUM_POSITIONS * NUM_SLICES * NUM_CHANNELS;
+
+   /**
+    * The essentials of the previous DefaultCoords: sorted axis names and
+    * boxed indices in ImmutableLists, sorted again by every constructor.
+    */
+   private static final class ListCoords {
+      private final List<String> axes_;
+      private final List<Integer> indices_;
+
+      ListCoords(List<String> builderAxes, List<Integer> builderIndices) {
+         List<String> axes = new ArrayList<>(builderAxes);
+         Collections.sort(axes);
+         List<Integer> indices = new ArrayList<>(axes.size());
+         for (String axis : axes) {
+            indices.add(builderIndices.get(builderAxes.indexOf(axis)));
+         }
+         axes_ = ImmutableList.copyOf(axes);
+         indices_ = ImmutableList.copyOf(indices);
+      }
+
+      static ListCoords of(int t, int p, int z, int c) {
+         List<String> axes = new ArrayList<>(5);
+         List<Integer> indices = new ArrayList<>(5);
+         int[] values = {t, p, z, c};
+         String[] names = {Coords.T, Coords.P, Coords.Z, Coords.C};
+         for (int i = 0; i < names.length; ++i) {
+            if (values[i] > 0) {
+               axes.add(names[i]);
+               indices.add(values[i]);
+            }
+         }
+         return new ListCoords(axes, indices);
+      }
+
+      int getIndex(String axis) {
+         int i = axes_.indexOf(axis);
+         return i < 0 ? 0 : indices_.get(i);
+      }
+
+      List<String> getAxes() {
+         return new ArrayList<>(axes_);
+      }
+
+      ListCoords copyRemovingAxes(String... axes) {
+         List<String> newAxes = new ArrayList<>(axes_);
+         List<Integer> newIndices = new ArrayList<>(indices_);
+         for (String axis : axes) {
+            int i = newAxes.indexOf(axis);
+            if (i >= 0) {
+               newAxes.remove(i);
+               newIndices.remove(i);
+            }
+         }
+         return new ListCoords(newAxes, newIndices);
+      }
+
+      @Override
+      public boolean equals(Object other) {
+         if (!(other instanceof ListCoords)) {
+            return false;
+         }
+         ListCoords theOther = (ListCoords) other;
+         if (getAxes().size() != theOther.getAxes().size()) {
+            return false;
+         }
+         for (int i = 0; i < getAxes().size(); i++) {
+            String axis = getAxes().get(i);
+            if (!axis.equals(theOther.getAxes().get(i))
+                  || getIndex(axis) != theOther.getIndex(axis)) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      @Override
+      public int hashCode() {
+         int hash = 3;
+         hash = 23 * hash + axes_.hashCode();
+         hash = 23 * hash + indices_.hashCode();
+         return hash;
+      }
+   }
+
+   private static int frame(int i) {
+      return (i / (NUM_POSITIONS * NUM_SLICES * NUM_CHANNELS)) % NUM_FRAMES;
+   }
+
+   private static int position(int i) {
+      return (i / (NUM_SLICES * NUM_CHANNELS)) % NUM_POSITIONS;
+   }
+
+   private static int slice(int i) {
+      return (i / NUM_CHANNELS) % NUM_SLICES;
+   }
+
+   private static int channel(int i) {
+      return i % NUM_CHANNELS;
+   }
+
+   private static Coords coords(int i) {
+      return new DefaultCoords.Builder().t(frame(i)).p(position(i))
+            .z(slice(i)).c(channel(i)).build();
+   }
+
+   private static ListCoords listCoords(int i) {
+      return ListCoords.of(frame(i), position(i), slice(i), channel(i));
+   }
+
+   public static void main(String[] args) {
+      HelperTimingHarness.time("build: list-based", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += listCoords(i).getIndex(Coords.Z);
+         }
+         return sum;
+      });
+      HelperTimingHarness.time("build: DefaultCoords", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += coords(i).getZ();
+         }
+         return sum;
+      });
+
+      ListCoords[] listed = new ListCoords[NUM_IMAGES];
+      Coords[] packed = new Coords[NUM_IMAGES];
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         listed[i] = listCoords(i);
+         packed[i] = coords(i);
+      }
+      HelperTimingHarness.time("copyRemovingAxes(C): list-based", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += listed[i % NUM_IMAGES].copyRemovingAxes(Coords.C).getIndex(Coords.T);
+         }
+         return sum;
+      });
+      HelperTimingHarness.time("copyRemovingAxes(C): DefaultCoords", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += packed[i % NUM_IMAGES].copyRemovingAxes(Coords.C).getT();
+         }
+         return sum;
+      });
+
+      // Look up with equal, but not identical, keys, as storages do
+      Map<ListCoords, Integer> listedMap = new HashMap<>();
+      Map<Coords, Integer> packedMap = new HashMap<>();
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         listedMap.put(listed[i], i);
+         packedMap.put(packed[i], i);
+      }
+      ListCoords[] listedKeys = new ListCoords[NUM_IMAGES];
+      Coords[] packedKeys = new Coords[NUM_IMAGES];
+      for (int i = 0; i < NUM_IMAGES; ++i) {
+         listedKeys[i] = listCoords(i);
+         packedKeys[i] = coords(i);
+      }
+      HelperTimingHarness.time("HashMap.get: list-based", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += listedMap.get(listedKeys[i % NUM_IMAGES]);
+         }
+         return sum;
+      });
+      HelperTimingHarness.time("HashMap.get: DefaultCoords", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += packedMap.get(packedKeys[i % NUM_IMAGES]);
+         }
+         return sum;
+      });
+   }
+}
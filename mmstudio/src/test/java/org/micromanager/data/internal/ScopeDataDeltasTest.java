@@ -0,0 +1,50 @@
+package org.micromanager.data.internal;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Metadata;
+
+
+public class ScopeDataDeltasTest {
+
+   @Test
+   public void deltaRoundTripKeepsValueTypes() {
+      PropertyMap baseline = PropertyMaps.builder()
+            .putString("Camera-Name", "Cam")
+            .putInteger("Camera-Binning", 1)
+            .putDouble("Z-Position", 1.5)
+            .putBoolean("Shutter-State", false)
+            .putString("Filter-Label", "5")
+            .build();
+      PropertyMap scopeData = PropertyMaps.builder()
+            .putString("Camera-Name", "Cam")
+            .putInteger("Camera-Binning", 2)
+            .putDouble("Z-Position", 2.25)
+            .putBoolean("Shutter-State", false)
+            .putInteger("Filter-Label", 5)
+            .build();
+      Metadata metadata = new DefaultMetadata.Builder().scopeData(scopeData).build();
+
+      Metadata delta = ScopeDataDeltas.createDelta(metadata, baseline);
+      PropertyMap changed = delta.getScopeData();
+      Assert.assertEquals(3, changed.keySet().size());
+      Assert.assertEquals(int.class, changed.getValueTypeForKey("Camera-Binning"));
+      Assert.assertEquals(double.class, changed.getValueTypeForKey("Z-Position"));
+      // Same text, but different type
+      Assert.assertEquals(int.class, changed.getValueTypeForKey("Filter-Label"));
+
+      PropertyMap complete = ScopeDataDeltas.applyBaseline(delta, baseline).getScopeData();
+      Assert.assertEquals(scopeData.keySet(), complete.keySet());
+      for (String key : scopeData.keySet()) {
+         Assert.assertEquals(key, scopeData.getValueTypeForKey(key),
+               complete.getValueTypeForKey(key));
+         Assert.assertEquals(key, scopeData.getValueAsString(key, null),
+               complete.getValueAsString(key, null));
+      }
+      Assert.assertEquals(2, complete.getInteger("Camera-Binning", 0));
+      Assert.assertEquals(2.25, complete.getDouble("Z-Position", 0.0), 0.0);
+      Assert.assertFalse(complete.getBoolean("Shutter-State", true));
+   }
+}
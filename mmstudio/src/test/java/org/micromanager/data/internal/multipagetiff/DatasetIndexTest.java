@@ -0,0 +1,67 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.internal.DefaultCoords;
+
+public class DatasetIndexTest {
+   private static final String TIFF_NAME = "Pos0.ome.tif";
+
+   private static Coords coords(int c, int z) {
+      return new DefaultCoords.Builder().c(c).z(z).t(0).p(0).build();
+   }
+
+   private static File createDataset() throws IOException {
+      File dir = Files.createTempDir();
+      Files.write(new byte[] {1, 2, 3, 4}, new File(dir, TIFF_NAME));
+      return dir;
+   }
+
+   private static DatasetIndex.FileEntry createEntry() {
+      List<DatasetIndex.Plane> planes = new ArrayList<>();
+      planes.add(new DatasetIndex.Plane(coords(0, 0), 8, 100, -1, -1));
+      planes.add(new DatasetIndex.Plane(coords(1, 0), 108, 100, -1, -1));
+      return new DatasetIndex.FileEntry(TIFF_NAME, ByteOrder.BIG_ENDIAN, planes);
+   }
+
+   @Test
+   public void intensityRangesSurviveWriteAndRead() throws IOException {
+      File dir = createDataset();
+      Map<Coords, long[]> ranges = new HashMap<>();
+      ranges.put(coords(1, 0), new long[] {12, 4095});
+      new DatasetIndex("{}", Collections.singletonList(
+            createEntry().withIntensityRanges(ranges))).write(dir);
+
+      DatasetIndex index = DatasetIndex.read(dir);
+      Assert.assertNotNull(index);
+      Assert.assertEquals("{}", index.getSummaryJSON());
+      List<DatasetIndex.Plane> planes = index.getFiles().get(0).planes;
+      Assert.assertEquals(2, planes.size());
+      Assert.assertEquals(coords(0, 0), planes.get(0).coords);
+      Assert.assertEquals(-1, planes.get(0).min);
+      Assert.assertEquals(-1, planes.get(0).max);
+      Assert.assertEquals(coords(1, 0), planes.get(1).coords);
+      Assert.assertEquals(108, planes.get(1).offset);
+      Assert.assertEquals(100, planes.get(1).length);
+      Assert.assertEquals(12, planes.get(1).min);
+      Assert.assertEquals(4095, planes.get(1).max);
+   }
+
+   @Test
+   public void indexOfChangedFilesIsIgnored() throws IOException {
+      File dir = createDataset();
+      new DatasetIndex("{}", Collections.singletonList(createEntry())).write(dir);
+      Files.write(new byte[] {1, 2, 3, 4, 5}, new File(dir, TIFF_NAME));
+      Assert.assertNull(DatasetIndex.read(dir));
+   }
+}
@@ -0,0 +1,109 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.micromanager.internal.utils.HelperTimingHarness;
+
+/**
+ * Compares the cost of encoding the metadata of one plane with
+ * PlaneMetadataEncoder against the Gson path that MultipageTiffWriter used
+ * before: a new Gson per plane, a String, and a copy for the null
+ * terminator, plus a pretty-printed String in hasSpaceToWrite() whose only
+ * use was its length.
+ *
+ * <p>The metadata resemble those of a plane acquired with a typical
+ * configuration: the image format, coords, and standard metadata, and a
+ * few hundred device properties in the scope data.  Building the JsonObject
+ * is the same for both paths and is not timed.</p>
+ *
+ * <p>Run main() by hand; this is not a unit test.</p>
+ */
+public final class HelperPlaneMetadataEncoderTiming {
+   private static final int OPERATIONS = 2_000;
+   private static final int NUM_SCOPE_DATA_PROPERTIES = 400;
+
+   private static JsonObject createPlaneMetadata() {
+      JsonObject jo = new JsonObject();
+      jo.addProperty("Width", 2048);
+      jo.addProperty("Height", 2048);
+      jo.addProperty("PixelType", "GRAY16");
+      jo.addProperty("ChannelIndex", 1);
+      jo.addProperty("SliceIndex", 12);
+      jo.addProperty("FrameIndex", 37);
+      jo.addProperty("PositionIndex", 3);
+      jo.addProperty("UUID", "4b0a4d5e-4a2d-4f2b-9b1e-0d7f3b2c9a11");
+      jo.addProperty("Camera", "HamamatsuHam_DCAM");
+      jo.addProperty("BitDepth", 16);
+      jo.addProperty("Exposure-ms", 10.0);
+      jo.addProperty("Binning", "1x1");
+      jo.addProperty("ElapsedTime-ms", 123456.789);
+      jo.addProperty("ReceivedTime", "2026-10-17 01:23:45.678 +0200");
+      jo.addProperty("XPositionUm", 1234.5);
+      jo.addProperty("YPositionUm", -678.25);
+      jo.addProperty("ZPositionUm", 42.125);
+      jo.addProperty("PixelSizeUm", 0.1625);
+      jo.addProperty("FileName", "MMStack_Pos3.ome.tif");
+      JsonObject scopeData = new JsonObject();
+      for (int i = 0; i < NUM_SCOPE_DATA_PROPERTIES; i++) {
+         JsonObject property = new JsonObject();
+         property.addProperty("type", i % 3 == 0 ? "STRING" : "DOUBLE");
+         property.addProperty("scalar", i % 3 == 0 ? "State-" + i : Double.toString(i * 0.5));
+         scopeData.add("Device" + (i / 20) + "-Property" + (i % 20), property);
+      }
+      jo.add("ScopeData", scopeData);
+      return jo;
+   }
+
+   public static void main(String[] args) {
+      final JsonObject jo = createPlaneMetadata();
+      final PlaneMetadataEncoder encoder = new PlaneMetadataEncoder();
+
+      HelperTimingHarness.time("serialize: Gson to String to bytes", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            byte[] bytes = (new GsonBuilder().disableHtmlEscaping().create().toJson(jo)
+                  + " ").getBytes(StandardCharsets.UTF_8);
+            bytes[bytes.length - 1] = 0;
+            sum += bytes.length;
+         }
+         return sum;
+      });
+      HelperTimingHarness.time("serialize: PlaneMetadataEncoder", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += encoder.encode(jo).remaining();
+         }
+         return sum;
+      });
+
+      // Per plane, the writer measures the metadata in hasSpaceToWrite(),
+      // then encodes it into the buffer that is written to the file
+      HelperTimingHarness.time("per plane: Gson (measure + write)", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += new GsonBuilder().disableHtmlEscaping().setPrettyPrinting().create()
+                  .toJson(jo).length();
+            byte[] bytes = (new GsonBuilder().disableHtmlEscaping().create().toJson(jo)
+                  + " ").getBytes(StandardCharsets.UTF_8);
+            bytes[bytes.length - 1] = 0;
+            sum += ByteBuffer.wrap(bytes).remaining();
+         }
+         return sum;
+      });
+      HelperTimingHarness.time("per plane: PlaneMetadataEncoder (measure + write)",
+            OPERATIONS, n -> {
+               long sum = 0;
+               for (int i = 0; i < n; ++i) {
+                  sum += encoder.encode(jo).remaining();
+                  ByteBuffer encoded = encoder.encode(jo);
+                  ByteBuffer buffer = ByteBuffer.allocate(encoded.remaining());
+                  buffer.put(encoded);
+                  buffer.flip();
+                  sum += buffer.remaining();
+               }
+               return sum;
+            });
+   }
+}
@@ -0,0 +1,236 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.common.io.Files;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import javax.xml.parsers.DocumentBuilderFactory;
+import loci.common.services.ServiceFactory;
+import loci.formats.MetadataTools;
+import loci.formats.meta.IMetadata;
+import loci.formats.services.OMEXMLService;
+import ome.xml.model.primitives.NonNegativeInteger;
+import ome.xml.model.primitives.PositiveInteger;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Metadata;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.DefaultSummaryMetadata;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+
+/**
+ * Compares the streamed OME-XML with what Bio-Formats generated for the same
+ * dataset before the XML was streamed.
+ */
+public class OMEMetadataTest {
+   private static final int NUM_CHANNELS = 2;
+   private static final int NUM_SLICES = 2;
+   private static final int NUM_FRAMES = 2;
+   // Images after this many go to a second file
+   private static final int IMAGES_PER_FILE = 5;
+
+   /**
+    * An image as written: its coords and where it is in the files.
+    */
+   private static final class Plane {
+      final Coords coords;
+      final Metadata metadata;
+      final int ifd;
+      final String fileName;
+      final String uuid;
+
+      Plane(Coords coords, Metadata metadata, int ifd, String fileName, String uuid) {
+         this.coords = coords;
+         this.metadata = metadata;
+         this.ifd = ifd;
+         this.fileName = fileName;
+         this.uuid = uuid;
+      }
+   }
+
+   /**
+    * Channel 1 has no z stack, so that TiffData entries of the missing
+    * planes of the last time point have to be filled in.
+    */
+   private static List<Plane> createPlanes() {
+      List<Plane> planes = new ArrayList<>();
+      int count = 0;
+      for (int frame = 0; frame < NUM_FRAMES; frame++) {
+         for (int slice = 0; slice < NUM_SLICES; slice++) {
+            for (int channel = 0; channel < NUM_CHANNELS; channel++) {
+               if (channel == 1 && slice > 0) {
+                  continue;
+               }
+               Coords coords = new DefaultCoords.Builder().t(frame).z(slice)
+                     .c(channel).p(0).build();
+               Metadata metadata = new DefaultMetadata.Builder()
+                     .exposureMs(10.0 + channel)
+                     .elapsedTimeMs(1000.0 * frame + 10 * slice + channel)
+                     .xPositionUm(1.5).yPositionUm(-2.5).zPositionUm(0.5 * slice)
+                     .positionName("Pos0")
+                     .build();
+               boolean isSecondFile = count >= IMAGES_PER_FILE;
+               planes.add(new Plane(coords, metadata,
+                     isSecondFile ? count - IMAGES_PER_FILE : count,
+                     isSecondFile ? "test_1.ome.tif" : "test.ome.tif",
+                     isSecondFile ? "urn:uuid:second" : "urn:uuid:first"));
+               count++;
+            }
+         }
+      }
+      return planes;
+   }
+
+   /**
+    * Builds the OME model the way OMEMetadata did with Bio-Formats, for the
+    * elements compared by this test.
+    */
+   private static String createBioFormatsXML(List<Plane> planes) throws Exception {
+      IMetadata md = MetadataTools.createOMEXMLMetadata();
+      MetadataTools.populateMetadata(md, 0, "test", true, "XYCZT", "uint8",
+            4, 4, NUM_SLICES, NUM_CHANNELS, NUM_FRAMES, 1);
+      TreeMap<String, Integer> tiffDataIndices = new TreeMap<>();
+      int index = 0;
+      for (Plane plane : planes) {
+         int channel = plane.coords.getChannel();
+         int slice = plane.coords.getZSlice();
+         int frame = plane.coords.getTimePoint();
+         setTiffData(md, index, channel, slice, frame, plane.ifd, plane.fileName, plane.uuid);
+         tiffDataIndices.put(OMEMetadata.generateLabel(channel, slice, frame, 0), index);
+         md.setPlaneTheZ(new NonNegativeInteger(slice), 0, index);
+         md.setPlaneTheC(new NonNegativeInteger(channel), 0, index);
+         md.setPlaneTheT(new NonNegativeInteger(frame), 0, index);
+         index++;
+      }
+      md.setPixelsSizeT(new PositiveInteger(NUM_FRAMES), 0);
+      // Missing planes of the last time point point to the closest slice
+      int frame = NUM_FRAMES - 1;
+      for (int slice = 0; slice < NUM_SLICES; slice++) {
+         for (int channel = 0; channel < NUM_CHANNELS; channel++) {
+            if (tiffDataIndices.containsKey(
+                  OMEMetadata.generateLabel(channel, slice, frame, 0))) {
+               continue;
+            }
+            Integer substitute = null;
+            for (int s = slice; s >= 0 && substitute == null; s--) {
+               substitute = tiffDataIndices.get(
+                     OMEMetadata.generateLabel(channel, s, frame, 0));
+            }
+            setTiffData(md, index, channel, slice, frame,
+                  md.getTiffDataIFD(0, substitute).getValue(),
+                  md.getUUIDFileName(0, substitute), md.getUUIDValue(0, substitute));
+            index++;
+         }
+      }
+      return new ServiceFactory().getInstance(OMEXMLService.class).getOMEXML(md);
+   }
+
+   private static void setTiffData(IMetadata md, int index, int channel, int slice,
+                                   int frame, int ifd, String fileName, String uuid) {
+      md.setTiffDataFirstZ(new NonNegativeInteger(slice), 0, index);
+      md.setTiffDataFirstC(new NonNegativeInteger(channel), 0, index);
+      md.setTiffDataFirstT(new NonNegativeInteger(frame), 0, index);
+      md.setTiffDataIFD(new NonNegativeInteger(ifd), 0, index);
+      md.setUUIDFileName(fileName, 0, index);
+      md.setUUIDValue(uuid, 0, index);
+      md.setTiffDataPlaneCount(new NonNegativeInteger(1), 0, index);
+   }
+
+   private static String createStreamedXML(List<Plane> planes, File dir) throws Exception {
+      DefaultDatastore store = new DefaultDatastore(null);
+      StorageMultipageTiff storage = new StorageMultipageTiff(null, store,
+            new File(dir, "test").getPath(), true, false, false);
+      storage.setSummaryMetadata(new DefaultSummaryMetadata.Builder()
+            .channelNames("DAPI", "GFP")
+            .axisOrder(Coords.C, Coords.Z, Coords.T, Coords.P)
+            .intendedDimensions(new DefaultCoords.Builder().t(NUM_FRAMES)
+                  .z(NUM_SLICES).c(NUM_CHANNELS).p(1).build())
+            .build());
+      // The storage provides the image size and type
+      storage.putImage(new DefaultImage(new byte[16], 4, 4, 1, 1,
+            planes.get(0).coords, planes.get(0).metadata));
+
+      OMEMetadata ome = new OMEMetadata(storage);
+      try {
+         for (Plane plane : planes) {
+            ome.addImageTagsToOME(plane.coords, plane.metadata, plane.ifd, "test",
+                  plane.fileName, plane.uuid);
+         }
+         ome.setNumFrames(0, NUM_FRAMES);
+         ome.fillInMissingTiffDatas(NUM_FRAMES - 1, 0);
+         File file = new File(dir, "ome.xml");
+         try (RandomAccessFile raFile = new RandomAccessFile(file, "rw")) {
+            long length = ome.writeUTF8(raFile.getChannel(), 0);
+            Assert.assertEquals(ome.getUTF8Length(), length);
+         }
+         return new String(java.nio.file.Files.readAllBytes(file.toPath()),
+               StandardCharsets.UTF_8);
+      } finally {
+         ome.close();
+      }
+   }
+
+   private static Document parse(String xml) throws Exception {
+      return DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(
+            new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)));
+   }
+
+   /**
+    * @return For each TiffData element, its FirstC/Z/T, IFD, file name and
+    *     UUID, sorted
+    */
+   private static List<String> getTiffDatas(Document doc) {
+      List<String> result = new ArrayList<>();
+      NodeList tiffDatas = doc.getElementsByTagName("TiffData");
+      for (int i = 0; i < tiffDatas.getLength(); i++) {
+         Element tiffData = (Element) tiffDatas.item(i);
+         Element uuid = (Element) tiffData.getElementsByTagName("UUID").item(0);
+         result.add("c" + tiffData.getAttribute("FirstC")
+               + " z" + tiffData.getAttribute("FirstZ")
+               + " t" + tiffData.getAttribute("FirstT")
+               + " -> " + uuid.getAttribute("FileName")
+               + " " + uuid.getTextContent()
+               + " IFD " + tiffData.getAttribute("IFD")
+               + " x" + tiffData.getAttribute("PlaneCount"));
+      }
+      result.sort(null);
+      return result;
+   }
+
+   @Test
+   public void streamedXMLMatchesBioFormats() throws Exception {
+      List<Plane> planes = createPlanes();
+      File dir = Files.createTempDir();
+      Document expected = parse(createBioFormatsXML(planes));
+      Document actual = parse(createStreamedXML(planes, dir));
+
+      Assert.assertEquals(planes.size(),
+            actual.getElementsByTagName("Plane").getLength());
+      Assert.assertEquals(expected.getElementsByTagName("Plane").getLength(),
+            actual.getElementsByTagName("Plane").getLength());
+      // One TiffData per plane, and one per missing plane of the last frame
+      Assert.assertEquals(NUM_CHANNELS * NUM_SLICES * NUM_FRAMES - 1,
+            getTiffDatas(actual).size());
+      Assert.assertEquals(getTiffDatas(expected), getTiffDatas(actual));
+      Assert.assertEquals(expected.getElementsByTagName("MapAnnotation").getLength(),
+            actual.getElementsByTagName("MapAnnotation").getLength());
+
+      Element expectedPixels = (Element) expected.getElementsByTagName("Pixels").item(0);
+      Element actualPixels = (Element) actual.getElementsByTagName("Pixels").item(0);
+      for (String attribute : new String[] {"DimensionOrder", "SizeC", "SizeT",
+            "SizeX", "SizeY", "SizeZ", "Type"}) {
+         Assert.assertEquals(attribute, expectedPixels.getAttribute(attribute),
+               actualPixels.getAttribute(attribute));
+      }
+   }
+}
@@ -0,0 +1,57 @@
+package org.micromanager.data.internal.multipagetiff;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+
+public class PlaneMetadataEncoderTest {
+
+   private static byte[] encodeWithGson(JsonObject jo) {
+      byte[] bytes = (new GsonBuilder().disableHtmlEscaping().create().toJson(jo) + " ")
+            .getBytes(StandardCharsets.UTF_8);
+      bytes[bytes.length - 1] = 0;
+      return bytes;
+   }
+
+   private static byte[] toArray(ByteBuffer buffer) {
+      byte[] bytes = new byte[buffer.remaining()];
+      buffer.get(bytes);
+      return bytes;
+   }
+
+   @Test
+   public void matchesGson() {
+      PlaneMetadataEncoder encoder = new PlaneMetadataEncoder();
+      Random random = new Random(42);
+      for (int i = 0; i < 100; i++) {
+         JsonObject jo = new JsonObject();
+         jo.addProperty("Width", 512);
+         jo.addProperty("Camera", "Cam \"1\"\\\t\n\u0001é€😀 ");
+         jo.add("Skipped", JsonNull.INSTANCE);
+         JsonArray array = new JsonArray();
+         array.add(1.5);
+         array.add(JsonNull.INSTANCE);
+         array.add(true);
+         array.add(new JsonObject());
+         jo.add("Array", array);
+         for (int k = 0; k < 20; k++) {
+            StringBuilder sb = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int j = 0; j < length; j++) {
+               sb.append((char) (random.nextBoolean()
+                     ? random.nextInt(128) : random.nextInt(0x10000)));
+            }
+            jo.addProperty("Device-" + k + sb, sb.toString());
+            jo.addProperty("Number-" + k, random.nextDouble());
+         }
+         Assert.assertArrayEquals(encodeWithGson(jo), toArray(encoder.encode(jo)));
+      }
+   }
+}
@@ -0,0 +1,78 @@
+package org.micromanager.display.internal.displaywindow.imagej;
+
+import ij.process.LUT;
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompositeRendererTest {
+   private static final int WIDTH = 31;
+   private static final int HEIGHT = 17;
+
+   private static short[] createPixels(long seed) {
+      Random random = new Random(seed);
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) random.nextInt(4096);
+      }
+      return pixels;
+   }
+
+   private static LUT createLut(Color color, double max) {
+      LUT lut = LUT.createLutFromColor(color);
+      lut.min = 0;
+      lut.max = max;
+      return lut;
+   }
+
+   private static int[] getRGB(BufferedImage image) {
+      return image.getRGB(0, 0, image.getWidth(), image.getHeight(),
+            null, 0, image.getWidth());
+   }
+
+   @Test
+   public void regionMatchesCropOfWholeImage() {
+      Object[] pixels = {createPixels(1), createPixels(2)};
+      LUT[] luts = {createLut(Color.GREEN, 4095), createLut(Color.MAGENTA, 2000)};
+      BufferedImage whole = new CompositeRenderer().render(pixels, luts, WIDTH, HEIGHT);
+      Rectangle region = new Rectangle(5, 3, 12, 9);
+      BufferedImage part = new CompositeRenderer().renderCached(pixels, luts, WIDTH, region);
+      Assert.assertEquals(region.width, part.getWidth());
+      Assert.assertEquals(region.height, part.getHeight());
+      Assert.assertArrayEquals(getRGB(whole.getSubimage(
+            region.x, region.y, region.width, region.height)), getRGB(part));
+   }
+
+   @Test
+   public void cachedRegionIsOnlyRenderedAgainWhenInputsChange() {
+      CompositeRenderer renderer = new CompositeRenderer();
+      Object[] pixels = {createPixels(1)};
+      LUT[] luts = {createLut(Color.WHITE, 4095)};
+      Rectangle region = new Rectangle(2, 2, 10, 10);
+      BufferedImage image = renderer.renderCached(pixels, luts, WIDTH, region);
+      int[] rendered = getRGB(image);
+
+      // Unchanged inputs: the image is not touched
+      image.setRGB(0, 0, 0x123456);
+      Assert.assertSame(image, renderer.renderCached(pixels, luts, WIDTH, region));
+      Assert.assertEquals(0x123456, image.getRGB(0, 0) & 0xffffff);
+
+      // A new display range is rendered
+      luts[0] = createLut(Color.WHITE, 1000);
+      Assert.assertNotEquals(rendered[1], getRGB(
+            renderer.renderCached(pixels, luts, WIDTH, region))[1]);
+
+      // As are other pixels (e.g., another image or level), and another region
+      image = renderer.renderCached(pixels, luts, WIDTH, region);
+      image.setRGB(0, 0, 0x123456);
+      renderer.renderCached(new Object[] {((short[]) pixels[0]).clone()},
+            luts, WIDTH, region);
+      Assert.assertNotEquals(0x123456, image.getRGB(0, 0) & 0xffffff);
+      image.setRGB(0, 0, 0x123456);
+      image = renderer.renderCached(pixels, luts, WIDTH, new Rectangle(3, 2, 10, 10));
+      Assert.assertNotEquals(0x123456, image.getRGB(0, 0) & 0xffffff);
+   }
+}
@@ -0,0 +1,210 @@
+package org.micromanager.display.internal.imagestats;
+
+import java.awt.Rectangle;
+import java.util.Random;
+import net.imglib2.Cursor;
+import net.imglib2.IterableInterval;
+import net.imglib2.histogram.Histogram1d;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.transform.integer.MixedTransform;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.ConstantUtils;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.IntervalView;
+import net.imglib2.view.MixedTransformView;
+import net.imglib2.view.Views;
+import org.micromanager.internal.utils.HelperTimingHarness;
+
+/**
+ * Compares the cost of computing the statistics of an image with
+ * IntegerStatsKernels against the ImgLib2 path that ImageStatsProcessor used
+ * before: views of the pixels and of the mask, iterated with generic cursors,
+ * updating every statistic for every sample.
+ *
+ * <p>The images are 2048x2048 pixels, 16 and 8 bits, with a 256-bin
+ * histogram, for the whole image and for an elliptical ROI mask.</p>
+ *
+ * <p>Run main() by hand; this is not a unit test.</p>
+ */
+public final class HelperIntegerStatsKernelsTiming {
+   private static final int OPERATIONS = 10;
+   private static final int WIDTH = 2048;
+   private static final int HEIGHT = 2048;
+   private static final int BIN_COUNT_POWER_OF_2 = 8;
+   private static final int MASK_THRESH = 128;
+
+   // The previous implementation, copied from ImageStatsProcessor
+
+   private static <T extends IntegerType<T>> IntegerComponentStats[] computeWithCursors(
+         IterableInterval<T> img, IterableInterval<UnsignedByteType> mask,
+         int nComponents, int sampleBitDepth, int binCountPowerOf2, boolean isROI) {
+      PowerOf2BinMapper<T> binMapper =
+            PowerOf2BinMapper.create(sampleBitDepth, binCountPowerOf2);
+      @SuppressWarnings("unchecked")
+      Histogram1d<T>[] histograms = new Histogram1d[nComponents];
+      long[] counts = new long[nComponents];
+      long[] countsExcludingZeros = new long[nComponents];
+      long[] minima = new long[nComponents];
+      long[] minimaExcludingZeros = new long[nComponents];
+      long[] maxima = new long[nComponents];
+      long[] sums = new long[nComponents];
+      long[] sumsOfSquares = new long[nComponents];
+      for (int component = 0; component < nComponents; ++component) {
+         histograms[component] = new Histogram1d<>(binMapper);
+         minima[component] = Long.MAX_VALUE;
+         minimaExcludingZeros[component] = Long.MAX_VALUE;
+         maxima[component] = Long.MIN_VALUE;
+      }
+      Cursor<T> dataCursor = img.localizingCursor();
+      Cursor<UnsignedByteType> maskCursor = mask.cursor();
+      for (int i = 0; dataCursor.hasNext(); ++i) {
+         int component = i % nComponents;
+         T dataSample = dataCursor.next();
+         UnsignedByteType maskSample = maskCursor.next();
+         if (maskSample.getInteger() < MASK_THRESH) {
+            continue;
+         }
+         long dataValue = dataSample.getIntegerLong();
+         histograms[component].increment(dataSample);
+         counts[component]++;
+         if (dataValue > 0) {
+            countsExcludingZeros[component]++;
+         }
+         if (dataValue < minima[component]) {
+            minima[component] = dataValue;
+         }
+         if (dataValue < minimaExcludingZeros[component] && dataValue > 0) {
+            minimaExcludingZeros[component] = dataValue;
+         }
+         if (dataValue > maxima[component]) {
+            maxima[component] = dataValue;
+         }
+         sums[component] += dataValue;
+         sumsOfSquares[component] += dataValue * dataValue;
+      }
+      IntegerComponentStats[] componentStats = new IntegerComponentStats[nComponents];
+      for (int component = 0; component < nComponents; ++component) {
+         componentStats[component] = IntegerComponentStats.builder()
+               .histogram(histograms[component].toLongArray(),
+                     Math.max(0, sampleBitDepth - binCountPowerOf2))
+               .pixelCount(counts[component])
+               .pixelCountExcludingZeros(countsExcludingZeros[component])
+               .usedROI(isROI)
+               .minimum(minima[component])
+               .minimumExcludingZeros(minimaExcludingZeros[component])
+               .maximum(maxima[component])
+               .sum(sums[component])
+               .sumOfSquares(sumsOfSquares[component])
+               .build();
+      }
+      return componentStats;
+   }
+
+   private static <T extends IntegerType<T>> IterableInterval<T> clipToRect(
+         Img<T> fullImg, int nComponents, Rectangle statsBounds) {
+      return Views.interval(fullImg, Intervals.createMinSize(
+            0, statsBounds.x, statsBounds.y,
+            nComponents, statsBounds.width, statsBounds.height));
+   }
+
+   private static IterableInterval<UnsignedByteType> wrapROIMask(
+         byte[] rawMask, int nComponents, Rectangle maskBounds, Rectangle statsBounds) {
+      if (rawMask == null) {
+         return Views.iterable(ConstantUtils.constantRandomAccessibleInterval(
+               new UnsignedByteType(255), 3,
+               Intervals.createMinSize(0, statsBounds.x, statsBounds.y,
+                     nComponents, statsBounds.width, statsBounds.height)));
+      }
+      IntervalView<UnsignedByteType> mask = Views.translate(
+            ArrayImgs.unsignedBytes(rawMask, maskBounds.width, maskBounds.height),
+            maskBounds.x, maskBounds.y);
+      long[] min = {0, statsBounds.x, statsBounds.y};
+      long[] max = {nComponents - 1, statsBounds.x + statsBounds.width - 1,
+            statsBounds.y + statsBounds.height - 1};
+      MixedTransform t = new MixedTransform(3, 2);
+      t.setComponentMapping(new int[] {1, 2});
+      return Views.iterable(Views.interval(
+            new MixedTransformView<>(mask, t), min, max));
+   }
+
+   private static long withCursors(Object pixels, byte[] mask, Rectangle bounds,
+                                   int bitDepth) {
+      IterableInterval<UnsignedByteType> wrappedMask = wrapROIMask(mask, 1, bounds, bounds);
+      IntegerComponentStats[] stats;
+      if (pixels instanceof byte[]) {
+         Img<UnsignedByteType> img = ArrayImgs.unsignedBytes((byte[]) pixels, 1, WIDTH, HEIGHT);
+         stats = computeWithCursors(clipToRect(img, 1, bounds), wrappedMask,
+               1, bitDepth, BIN_COUNT_POWER_OF_2, mask != null);
+      } else {
+         Img<UnsignedShortType> img =
+               ArrayImgs.unsignedShorts((short[]) pixels, 1, WIDTH, HEIGHT);
+         stats = computeWithCursors(clipToRect(img, 1, bounds), wrappedMask,
+               1, bitDepth, BIN_COUNT_POWER_OF_2, mask != null);
+      }
+      return stats[0].getMaxIntensity();
+   }
+
+   private static long withKernels(Object pixels, byte[] mask, Rectangle bounds,
+                                   int bitDepth) {
+      int[][] counts = pixels instanceof byte[]
+            ? IntegerStatsKernels.countSamples((byte[]) pixels, 1, WIDTH,
+                  bounds, mask, bounds, 1)
+            : IntegerStatsKernels.countSamples((short[]) pixels, 1, WIDTH,
+                  bounds, mask, bounds, 1);
+      return IntegerStatsKernels.summarize(counts[0], bitDepth,
+            BIN_COUNT_POWER_OF_2, mask != null).getMaxIntensity();
+   }
+
+   private static byte[] createEllipseMask() {
+      byte[] mask = new byte[WIDTH * HEIGHT];
+      for (int y = 0; y < HEIGHT; ++y) {
+         for (int x = 0; x < WIDTH; ++x) {
+            double dx = (x - WIDTH / 2.0) / (WIDTH / 2.0);
+            double dy = (y - HEIGHT / 2.0) / (HEIGHT / 2.0);
+            mask[y * WIDTH + x] = (byte) (dx * dx + dy * dy <= 1.0 ? 255 : 0);
+         }
+      }
+      return mask;
+   }
+
+   private static void compare(String name, Object pixels, byte[] mask, int bitDepth) {
+      final Rectangle bounds = new Rectangle(0, 0, WIDTH, HEIGHT);
+      if (withCursors(pixels, mask, bounds, bitDepth)
+            != withKernels(pixels, mask, bounds, bitDepth)) {
+         throw new AssertionError("Results differ for " + name);
+      }
+      HelperTimingHarness.time(name + ": ImgLib2 cursors", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += withCursors(pixels, mask, bounds, bitDepth);
+         }
+         return sum;
+      });
+      HelperTimingHarness.time(name + ": IntegerStatsKernels", OPERATIONS, n -> {
+         long sum = 0;
+         for (int i = 0; i < n; ++i) {
+            sum += withKernels(pixels, mask, bounds, bitDepth);
+         }
+         return sum;
+      });
+   }
+
+   public static void main(String[] args) {
+      Random random = new Random(42);
+      short[] shorts = new short[WIDTH * HEIGHT];
+      byte[] bytes = new byte[WIDTH * HEIGHT];
+      for (int i = 0; i < shorts.length; ++i) {
+         // Camera-like: an offset plus noise, within 12 bits
+         shorts[i] = (short) (100 + random.nextInt(4000));
+         bytes[i] = (byte) random.nextInt(256);
+      }
+      byte[] mask = createEllipseMask();
+
+      compare("16-bit, whole image", shorts, null, 16);
+      compare("16-bit, ROI mask", shorts, mask, 16);
+      compare("8-bit, whole image", bytes, null, 8);
+   }
+}
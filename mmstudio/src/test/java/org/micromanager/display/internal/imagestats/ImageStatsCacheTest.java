@@ -0,0 +1,79 @@
+package org.micromanager.display.internal.imagestats;
+
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.PropertyMap;
+import org.micromanager.PropertyMaps;
+import org.micromanager.data.Coords;
+import org.micromanager.data.Image;
+import org.micromanager.data.internal.DefaultCoords;
+import org.micromanager.data.internal.DefaultDatastore;
+import org.micromanager.data.internal.DefaultImage;
+import org.micromanager.data.internal.DefaultMetadata;
+import org.micromanager.data.internal.PixelType;
+import org.micromanager.data.internal.PropertyKey;
+
+public class ImageStatsCacheTest {
+
+   private static Image createImage(short[] pixels) {
+      ByteBuffer buffer = ByteBuffer.allocate(2 * pixels.length);
+      buffer.asShortBuffer().put(pixels);
+      PropertyMap format = PropertyMaps.builder()
+            .putInteger(PropertyKey.WIDTH.key(), pixels.length)
+            .putInteger(PropertyKey.HEIGHT.key(), 1)
+            .putEnumAsString(PropertyKey.PIXEL_TYPE.key(), PixelType.GRAY16)
+            .build();
+      Coords coords = new DefaultCoords.Builder().c(1).t(2).build();
+      DefaultMetadata metadata = new DefaultMetadata.Builder()
+            .generateUUID().bitDepth(12).build();
+      return new DefaultImage(buffer, format, coords, () -> metadata);
+   }
+
+   private static ImageStatsRequest createRequest(Image image) {
+      return ImageStatsRequest.create(image.getCoords(),
+            Collections.singletonList(image), BoundsRectAndMask.unselected());
+   }
+
+   private static ImageStatsCache openCache(File dir) {
+      DefaultDatastore store = new DefaultDatastore(null);
+      store.setSavePath(dir.getPath());
+      return ImageStatsCache.forDataProvider(store);
+   }
+
+   @Test
+   public void writtenStatsAreReadBack() throws IOException {
+      File dir = Files.createTempDir();
+      Image image = createImage(new short[] {100, 4000, 100, 7, 2500});
+      ImageStatsCache.StatsFileWriter writer = ImageStatsCache.StatsFileWriter.create(dir);
+      writer.add(image, ImageStatsCache.computeWholeImageStats(image));
+      writer.close();
+
+      ImageStats stats = openCache(dir).get(image, createRequest(image), 0);
+      Assert.assertNotNull(stats);
+      IntegerComponentStats component = stats.getComponentStats(0);
+      Assert.assertEquals(5, component.getPixelCount());
+      Assert.assertEquals(7, component.getMinIntensity());
+      Assert.assertEquals(4000, component.getMaxIntensity());
+      Assert.assertEquals(6707, component.getSum());
+      Assert.assertEquals(1 << 12, component.getHistogramBinCount());
+      Assert.assertEquals(2, component.getInRangeHistogram()[100]);
+   }
+
+   @Test
+   public void statsFileIsOnlyCreatedWhenClosed() throws IOException {
+      File dir = Files.createTempDir();
+      Image image = createImage(new short[] {1, 2, 3});
+      ImageStatsCache.StatsFileWriter writer = ImageStatsCache.StatsFileWriter.create(dir);
+      writer.add(image, ImageStatsCache.computeWholeImageStats(image));
+
+      Assert.assertFalse(new File(dir, ImageStatsCache.STATS_FILE_NAME).exists());
+      Assert.assertNull(openCache(dir).get(image, createRequest(image), 0));
+      writer.close();
+      Assert.assertTrue(new File(dir, ImageStatsCache.STATS_FILE_NAME).exists());
+   }
+}
@@ -0,0 +1,201 @@
+package org.micromanager.display.internal.imagestats;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Test;
+
+public class IntegerStatsKernelsTest {
+   private static final int WIDTH = 37;
+   private static final int HEIGHT = 23;
+
+   /**
+    * Straightforward sample-by-sample computation, as done before the kernels
+    * were introduced.
+    */
+   private static IntegerComponentStats reference(long[] samples, int nComponents,
+                                                  int component, Rectangle bounds,
+                                                  byte[] mask, Rectangle maskBounds,
+                                                  int bitDepth, int binCountPowerOf2) {
+      int shift = Math.max(0, bitDepth - binCountPowerOf2);
+      long endOfRange = (1L << bitDepth) - 1;
+      long[] histogram = new long[(1 << binCountPowerOf2) + 2];
+      long count = 0;
+      long countExcludingZeros = 0;
+      long min = Long.MAX_VALUE;
+      long minExcludingZeros = Long.MAX_VALUE;
+      long max = Long.MIN_VALUE;
+      long sum = 0;
+      long sumOfSquares = 0;
+      for (int y = bounds.y; y < bounds.y + bounds.height; ++y) {
+         for (int x = bounds.x; x < bounds.x + bounds.width; ++x) {
+            if (mask != null && (mask[(y - maskBounds.y) * maskBounds.width
+                  + x - maskBounds.x] & 0xff) < 128) {
+               continue;
+            }
+            long v = samples[(y * WIDTH + x) * nComponents + component];
+            histogram[v > endOfRange ? histogram.length - 1 : (int) (v >> shift) + 1]++;
+            count++;
+            if (v > 0) {
+               countExcludingZeros++;
+               minExcludingZeros = Math.min(minExcludingZeros, v);
+            }
+            min = Math.min(min, v);
+            max = Math.max(max, v);
+            sum += v;
+            sumOfSquares += v * v;
+         }
+      }
+      return IntegerComponentStats.builder()
+            .histogram(histogram, shift)
+            .pixelCount(count)
+            .pixelCountExcludingZeros(countExcludingZeros)
+            .minimum(min)
+            .minimumExcludingZeros(minExcludingZeros)
+            .maximum(max)
+            .sum(sum)
+            .sumOfSquares(sumOfSquares)
+            .build();
+   }
+
+   private static void assertStatsEqual(IntegerComponentStats expected,
+                                        IntegerComponentStats actual) {
+      assertArrayEquals(expected.getInRangeHistogram(), actual.getInRangeHistogram());
+      assertEquals(expected.getPixelCountBelowRange(), actual.getPixelCountBelowRange());
+      assertEquals(expected.getPixelCountAboveRange(), actual.getPixelCountAboveRange());
+      assertEquals(expected.getHistogramBinWidth(), actual.getHistogramBinWidth());
+      assertEquals(expected.getPixelCount(), actual.getPixelCount());
+      assertEquals(expected.getPixelCountExcludingZeros(),
+            actual.getPixelCountExcludingZeros());
+      assertEquals(expected.getMinIntensity(), actual.getMinIntensity());
+      assertEquals(expected.getMinIntensityExcludingZeros(),
+            actual.getMinIntensityExcludingZeros());
+      assertEquals(expected.getMaxIntensity(), actual.getMaxIntensity());
+      assertEquals(expected.getMeanIntensity(), actual.getMeanIntensity());
+      assertEquals(expected.getStandardDeviation(), actual.getStandardDeviation(), 0.0);
+   }
+
+   private static byte[] randomMask(Random random, Rectangle maskBounds) {
+      byte[] mask = new byte[maskBounds.width * maskBounds.height];
+      for (int i = 0; i < mask.length; ++i) {
+         mask[i] = random.nextBoolean() ? (byte) 255 : (byte) random.nextInt(128);
+      }
+      return mask;
+   }
+
+   private void check16Bit(int nComponents, int bitDepth, int binCountPowerOf2,
+                           Rectangle bounds, byte[] mask, Rectangle maskBounds,
+                           Random random) {
+      short[] pixels = new short[WIDTH * HEIGHT * nComponents];
+      long[] samples = new long[pixels.length];
+      for (int i = 0; i < pixels.length; ++i) {
+         // Include values beyond the bit depth
+         pixels[i] = (short) random.nextInt(1 << Math.min(16, bitDepth + 1));
+         samples[i] = pixels[i] & 0xffff;
+      }
+      int[][] counts = IntegerStatsKernels.countSamples(pixels, nComponents,
+            WIDTH, bounds, mask, maskBounds, 1);
+      for (int c = 0; c < nComponents; ++c) {
+         assertStatsEqual(
+               reference(samples, nComponents, c, bounds, mask, maskBounds,
+                     bitDepth, binCountPowerOf2),
+               IntegerStatsKernels.summarize(counts[c], bitDepth, binCountPowerOf2,
+                     mask != null));
+      }
+   }
+
+   private void check8Bit(int nComponents, Rectangle bounds, byte[] mask,
+                          Rectangle maskBounds, Random random) {
+      byte[] pixels = new byte[WIDTH * HEIGHT * nComponents];
+      random.nextBytes(pixels);
+      long[] samples = new long[pixels.length];
+      for (int i = 0; i < pixels.length; ++i) {
+         samples[i] = pixels[i] & 0xff;
+      }
+      int[][] counts = IntegerStatsKernels.countSamples(pixels, nComponents,
+            WIDTH, bounds, mask, maskBounds, 1);
+      for (int c = 0; c < nComponents; ++c) {
+         assertStatsEqual(
+               reference(samples, nComponents, c, bounds, mask, maskBounds, 8, 8),
+               IntegerStatsKernels.summarize(counts[c], 8, 8, mask != null));
+      }
+   }
+
+   @Test
+   public void testWholeImageMatchesReference() {
+      Random random = new Random(1);
+      Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+      check8Bit(1, all, null, null, random);
+      check8Bit(3, all, null, null, random);
+      check16Bit(1, 16, 8, all, null, null, random);
+      check16Bit(1, 12, 8, all, null, null, random);
+      check16Bit(1, 11, 11, all, null, null, random);
+   }
+
+   @Test
+   public void testROIMatchesReference() {
+      Random random = new Random(2);
+      Rectangle maskBounds = new Rectangle(5, 3, 20, 15);
+      Rectangle bounds = new Rectangle(5, 3, 20, 15);
+      byte[] mask = randomMask(random, maskBounds);
+      check8Bit(1, bounds, mask, maskBounds, random);
+      check8Bit(4, bounds, mask, maskBounds, random);
+      check16Bit(1, 14, 8, bounds, mask, maskBounds, random);
+      check16Bit(1, 16, 10, bounds, null, null, random);
+   }
+
+   @Test
+   public void testClippedMaskMatchesReference() {
+      Random random = new Random(3);
+      // Mask extending beyond the right and bottom edges of the image
+      Rectangle maskBounds = new Rectangle(30, 20, 10, 10);
+      Rectangle bounds = new Rectangle(30, 20, WIDTH - 30, HEIGHT - 20);
+      byte[] mask = randomMask(random, maskBounds);
+      check16Bit(1, 16, 8, bounds, mask, maskBounds, random);
+   }
+
+   @Test
+   public void testSampleStride() {
+      short[] pixels = new short[WIDTH * HEIGHT];
+      for (int i = 0; i < pixels.length; ++i) {
+         pixels[i] = (short) i;
+      }
+      Rectangle bounds = new Rectangle(1, 2, 10, 7);
+      int[][] counts = IntegerStatsKernels.countSamples(pixels, 1, WIDTH,
+            bounds, null, null, 3);
+      long total = 0;
+      for (int count : counts[0]) {
+         total += count;
+      }
+      // Rows 2, 5, 8 and columns 1, 4, 7, 10
+      assertEquals(12, total);
+      assertEquals(1, counts[0][2 * WIDTH + 1]);
+      assertEquals(1, counts[0][8 * WIDTH + 10]);
+      assertEquals(0, counts[0][2 * WIDTH + 2]);
+      assertEquals(0, counts[0][3 * WIDTH + 1]);
+
+      byte[] mask = new byte[bounds.width * bounds.height];
+      Arrays.fill(mask, (byte) 255);
+      int[][] maskedCounts = IntegerStatsKernels.countSamples(pixels, 1, WIDTH,
+            bounds, mask, bounds, 3);
+      assertArrayEquals(counts[0], maskedCounts[0]);
+   }
+
+   @Test
+   public void testIsMaskEmpty() {
+      Rectangle maskBounds = new Rectangle(2, 2, 4, 4);
+      byte[] mask = new byte[16];
+      assertTrue(IntegerStatsKernels.isMaskEmpty(mask, maskBounds, maskBounds));
+      assertFalse(IntegerStatsKernels.isMaskEmpty(null, maskBounds, maskBounds));
+      mask[15] = (byte) 128;
+      assertFalse(IntegerStatsKernels.isMaskEmpty(mask, maskBounds, maskBounds));
+      // The selected pixel is outside the checked bounds
+      assertTrue(IntegerStatsKernels.isMaskEmpty(mask, maskBounds,
+            new Rectangle(2, 2, 3, 3)));
+   }
+}
@@ -0,0 +1,201 @@
+package org.micromanager.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import mmcorej.TaggedImage;
+import mmcorej.org.json.JSONException;
+import mmcorej.org.json.JSONObject;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.micromanager.data.Image;
+
+public class SequenceBufferDrainServiceTest {
+   private static final long TIMEOUT_MS = 5000;
+
+   /**
+    * A sequence buffer whose images and running state are set by the test.
+    */
+   private static final class FakeSequenceBuffer
+         implements SequenceBufferDrainService.SequenceBuffer {
+      private final Deque<TaggedImage> images_ = new ArrayDeque<>();
+      private boolean running_ = false;
+
+      synchronized void insert(int first, int count) throws JSONException {
+         for (int frame = first; frame < first + count; ++frame) {
+            JSONObject tags = new JSONObject();
+            tags.put("Width", 2);
+            tags.put("Height", 1);
+            tags.put("PixelType", "GRAY8");
+            tags.put("FrameIndex", frame);
+            images_.add(new TaggedImage(new byte[] {(byte) frame, 0}, tags));
+         }
+      }
+
+      synchronized void setRunning(boolean running) {
+         running_ = running;
+      }
+
+      @Override
+      public synchronized boolean isSequenceRunning() {
+         return running_;
+      }
+
+      @Override
+      public synchronized int getRemainingImageCount() {
+         return images_.size();
+      }
+
+      @Override
+      public synchronized TaggedImage popNextTaggedImage() throws Exception {
+         if (images_.isEmpty()) {
+            throw new Exception("Circular buffer is empty");
+         }
+         return images_.poll();
+      }
+
+      @Override
+      public int getBufferTotalCapacity() {
+         return 100;
+      }
+
+      @Override
+      public synchronized int getBufferFreeCapacity() {
+         return 100 - images_.size();
+      }
+   }
+
+   private final FakeSequenceBuffer buffer_ = new FakeSequenceBuffer();
+   private final SequenceBufferDrainService service_ =
+         new SequenceBufferDrainService(buffer_);
+
+   @After
+   public void shutDown() {
+      service_.shutdown();
+   }
+
+   private static void await(BooleanSupplier condition) throws InterruptedException {
+      long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+      while (!condition.getAsBoolean()) {
+         Assert.assertTrue("Timed out", System.currentTimeMillis() < deadline);
+         Thread.sleep(1);
+      }
+   }
+
+   private static List<Integer> pollFrames(SequenceBufferDrainService.Subscription images) {
+      List<Integer> frames = new ArrayList<>();
+      for (Image image = images.poll(); image != null; image = images.poll()) {
+         frames.add(image.getCoords().getT());
+      }
+      return frames;
+   }
+
+   private static List<Integer> range(int first, int count) {
+      List<Integer> frames = new ArrayList<>();
+      for (int frame = first; frame < first + count; ++frame) {
+         frames.add(frame);
+      }
+      return frames;
+   }
+
+   @Test
+   public void dropNewestKeepsFirstImages() throws Exception {
+      SequenceBufferDrainService.Subscription images = service_.subscribe(
+            2, SequenceBufferDrainService.DropPolicy.DROP_NEWEST);
+      buffer_.insert(0, 5);
+      await(images::isSequenceFinished);
+
+      Assert.assertEquals(range(0, 2), pollFrames(images));
+      Assert.assertEquals(3, images.getDroppedCount());
+      Assert.assertEquals(0, buffer_.getRemainingImageCount());
+   }
+
+   @Test
+   public void dropOldestKeepsLastImages() throws Exception {
+      SequenceBufferDrainService.Subscription images = service_.subscribe(
+            2, SequenceBufferDrainService.DropPolicy.DROP_OLDEST);
+      buffer_.insert(0, 5);
+      await(images::isSequenceFinished);
+
+      Assert.assertEquals(range(3, 2), pollFrames(images));
+      Assert.assertEquals(3, images.getDroppedCount());
+   }
+
+   @Test
+   public void blockDeliversAllImagesInOrder() throws Exception {
+      SequenceBufferDrainService.Subscription images = service_.subscribe(
+            1, SequenceBufferDrainService.DropPolicy.BLOCK);
+      buffer_.setRunning(true);
+      buffer_.insert(0, 10);
+      List<Integer> frames = new ArrayList<>();
+      while (frames.size() < 10) {
+         Image image = images.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+         Assert.assertNotNull(image);
+         frames.add(image.getCoords().getT());
+      }
+      Assert.assertEquals(range(0, 10), frames);
+      Assert.assertEquals(0, images.getDroppedCount());
+      Assert.assertEquals(10, service_.getDrainedCount());
+   }
+
+   @Test
+   public void sequenceFinishesOnlyWhenStoppedAndDrained() throws Exception {
+      SequenceBufferDrainService.Subscription images = service_.subscribe(
+            1, SequenceBufferDrainService.DropPolicy.BLOCK);
+      buffer_.setRunning(true);
+      buffer_.insert(0, 3);
+      Assert.assertNotNull(images.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      buffer_.setRunning(false);
+
+      // The drain thread is blocked on the full queue, with images left
+      Thread.sleep(20);
+      Assert.assertFalse(images.isSequenceFinished());
+
+      List<Integer> frames = new ArrayList<>();
+      while (!(images.isSequenceFinished() && images.isEmpty())) {
+         Image image = images.poll(1, TimeUnit.MILLISECONDS);
+         if (image != null) {
+            frames.add(image.getCoords().getT());
+         }
+      }
+      Assert.assertEquals(range(1, 2), frames);
+
+      // A new sequence is not finished until it stops again
+      buffer_.setRunning(true);
+      await(() -> !images.isSequenceFinished());
+      buffer_.setRunning(false);
+      await(images::isSequenceFinished);
+   }
+
+   @Test
+   public void bufferIsDrainedOnlyAfterLaterImagesAreQueued() throws Exception {
+      SequenceBufferDrainService.Subscription images = service_.subscribe(
+            1, SequenceBufferDrainService.DropPolicy.BLOCK);
+      buffer_.insert(0, 2);
+      long stoppedNs = System.nanoTime();
+      Assert.assertFalse(images.isBufferDrainedSince(stoppedNs));
+
+      Assert.assertNotNull(images.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      Assert.assertNotNull(images.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+      await(() -> images.isBufferDrainedSince(stoppedNs));
+      Assert.assertTrue(images.isEmpty());
+   }
+
+   @Test
+   public void closedSubscriptionReceivesNoImages() throws Exception {
+      SequenceBufferDrainService.Subscription open = service_.subscribe(
+            10, SequenceBufferDrainService.DropPolicy.BLOCK);
+      SequenceBufferDrainService.Subscription closed = service_.subscribe(
+            10, SequenceBufferDrainService.DropPolicy.BLOCK);
+      closed.close();
+      buffer_.insert(0, 3);
+      await(open::isSequenceFinished);
+
+      Assert.assertEquals(range(0, 3), pollFrames(open));
+      Assert.assertTrue(closed.isEmpty());
+   }
+}
@@ -0,0 +1,81 @@
+package org.micromanager.internal.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Arrays;
+
+/**
+ * Minimal timing harness for the Helper*Timing classes, which are run by
+ * hand (their main() methods) rather than by the unit tests.
+ *
+ * <p>Each workload is run for a number of warm-up rounds, so that it gets
+ * JIT-compiled, and then for a number of measured rounds. The median time
+ * per operation and the bytes allocated per operation (when the JVM can
+ * report per-thread allocation) are printed. This is no substitute for JMH,
+ * but is enough to compare two implementations of the same operation run
+ * in the same JVM.</p>
+ *
+ * <p>Class names starting with "Helper" are excluded from the junit
+ * batchtest.</p>
+ */
+public final class HelperTimingHarness {
+   private static final int WARMUP_ROUNDS = 5;
+   private static final int MEASURED_ROUNDS = 7;
+
+   /**
+    * An operation to be timed.
+    */
+   public interface Workload {
+      /**
+       * Runs the operation the given number of times.
+       *
+       * @return any value depending on the results, so that the work cannot
+       *     be optimized away
+       */
+      long run(int operations);
+   }
+
+   private static volatile long sink_;
+
+   private HelperTimingHarness() {
+   }
+
+   /**
+    * Times a workload and prints the result on one line.
+    *
+    * @param name       Label to print
+    * @param operations Number of operations per round
+    * @param workload   The operation to time
+    * @return the median time per operation, in nanoseconds
+    */
+   public static double time(String name, int operations, Workload workload) {
+      for (int i = 0; i < WARMUP_ROUNDS; ++i) {
+         sink_ += workload.run(operations);
+      }
+      double[] nsPerOp = new double[MEASURED_ROUNDS];
+      long allocatedBytes = 0;
+      for (int i = 0; i < MEASURED_ROUNDS; ++i) {
+         long startBytes = getAllocatedBytes();
+         long startNs = System.nanoTime();
+         sink_ += workload.run(operations);
+         nsPerOp[i] = (double) (System.nanoTime() - startNs) / operations;
+         allocatedBytes += getAllocatedBytes() - startBytes;
+      }
+      Arrays.sort(nsPerOp);
+      double median = nsPerOp[MEASURED_ROUNDS / 2];
+      String allocation = getAllocatedBytes() < 0 ? "n/a"
+            : String.format("%.1f", (double) allocatedBytes / MEASURED_ROUNDS / operations);
+      System.out.println(String.format("%-50s %10.1f ns/op %10s B/op",
+            name, median, allocation));
+      return median;
+   }
+
+   private static long getAllocatedBytes() {
+      ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+      if (bean instanceof com.sun.management.ThreadMXBean) {
+         return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+               Thread.currentThread().getId());
+      }
+      return -1;
+   }
+}
@@ -0,0 +1,110 @@
+package org.micromanager.internal.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.eventbus.Subscribe;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class PrioritizedEventBusTest {
+
+   public static final class ChannelEvent {
+      final int time_;
+      final int channel_;
+
+      ChannelEvent(int time, int channel) {
+         time_ = time;
+         channel_ = channel;
+      }
+
+      @Override
+      public String toString() {
+         return "t" + time_ + "c" + channel_;
+      }
+   }
+
+   public static final class BlockingSubscriber {
+      final List<ChannelEvent> received_ =
+            Collections.synchronizedList(new ArrayList<>());
+      final CountDownLatch firstReceived_ = new CountDownLatch(1);
+      final CountDownLatch release_ = new CountDownLatch(1);
+      final CountDownLatch lastReceived_ = new CountDownLatch(1);
+      final ChannelEvent last_;
+
+      BlockingSubscriber(ChannelEvent last) {
+         last_ = last;
+      }
+
+      @Subscribe
+      public void onEvent(ChannelEvent event) throws InterruptedException {
+         received_.add(event);
+         if (received_.size() == 1) {
+            firstReceived_.countDown();
+            release_.await();
+         }
+         if (event == last_) {
+            lastReceived_.countDown();
+         }
+      }
+   }
+
+   @Test
+   public void groupedCoalescingKeepsChannelsOfATimePointTogether()
+         throws InterruptedException {
+      final int numTimePoints = 5;
+      final int numChannels = 2;
+      ChannelEvent last = new ChannelEvent(numTimePoints - 1, numChannels - 1);
+      BlockingSubscriber subscriber = new BlockingSubscriber(last);
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.registerCoalescing(subscriber, event -> ((ChannelEvent) event).time_,
+            true, 0);
+
+      // Block the subscriber in the first event, so that the others queue up
+      bus.post(new ChannelEvent(0, 0));
+      assertTrue(subscriber.firstReceived_.await(10, TimeUnit.SECONDS));
+      for (int t = 0; t < numTimePoints; ++t) {
+         for (int c = 0; c < numChannels; ++c) {
+            if (t == numTimePoints - 1 && c == numChannels - 1) {
+               bus.post(last);
+            } else if (t > 0 || c > 0) {
+               bus.post(new ChannelEvent(t, c));
+            }
+         }
+      }
+      subscriber.release_.countDown();
+      assertTrue(subscriber.lastReceived_.await(10, TimeUnit.SECONDS));
+      bus.shutDown();
+
+      // The remaining channel of t0 and all of t1 to t3 were superseded; all
+      // channels of the last time point arrive together, in order
+      assertEquals("[t0c0, t4c0, t4c1]", subscriber.received_.toString());
+      assertEquals(1 + 2 * (numTimePoints - 2), bus.getNumCoalescedEvents());
+   }
+
+   @Test
+   public void coalescingMovesReplacedEventsToTheEnd() throws InterruptedException {
+      ChannelEvent last = new ChannelEvent(2, 0);
+      BlockingSubscriber subscriber = new BlockingSubscriber(last);
+      PrioritizedEventBus bus = new PrioritizedEventBus(false);
+      bus.registerCoalescing(subscriber, event -> ((ChannelEvent) event).channel_, 0);
+
+      bus.post(new ChannelEvent(0, 0));
+      assertTrue(subscriber.firstReceived_.await(10, TimeUnit.SECONDS));
+      bus.post(new ChannelEvent(1, 0));
+      bus.post(new ChannelEvent(1, 1));
+      bus.post(last);
+      subscriber.release_.countDown();
+      assertTrue(subscriber.lastReceived_.await(10, TimeUnit.SECONDS));
+      bus.shutDown();
+
+      // Only the latest event per key is delivered, after the events that
+      // were queued before it, so channels of different time points mix
+      assertEquals("[t0c0, t1c1, t2c0]", subscriber.received_.toString());
+      assertEquals(1, bus.getNumCoalescedEvents());
+   }
+}
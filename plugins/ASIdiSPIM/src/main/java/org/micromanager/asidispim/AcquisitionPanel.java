@@ -49,6 +49,7 @@ import java.awt.event.ActionListener;
 import java.io.File;
 import java.text.ParseException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 
 import javax.swing.JCheckBox;
 import javax.swing.JComponent;
@@ -70,7 +71,6 @@ import mmcorej.org.json.JSONException;
 
 import mmcorej.CMMCore;
 import mmcorej.StrVector;
-import mmcorej.TaggedImage;
 
 import java.awt.event.ItemEvent;
 import java.awt.event.ItemListener;
@@ -109,6 +109,8 @@ import org.micromanager.display.DisplayWindow;
 import org.micromanager.display.ChannelDisplaySettings;
 import org.micromanager.display.DisplaySettings;
 
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.SequenceBufferDrainService;
 import org.micromanager.internal.dialogs.ComponentTitledBorder;
 import org.micromanager.internal.utils.FileDialogs;
 import org.micromanager.internal.utils.NumberUtils;
@@ -134,6 +136,10 @@ import org.micromanager.asidispim.utils.SPIMFrame;
 @SuppressWarnings("serial")
 public class AcquisitionPanel extends ListeningJPanel implements DevicesListenerInterface {
 
+    // images queued between the sequence buffer and the datastore; the drain
+    //   thread waits when the queue is full, so no images are dropped
+    private static final int DRAIN_QUEUE_CAPACITY = 16;
+
     private final Devices devices_;
     private final Properties props_;
     private final Cameras cameras_;
@@ -2651,6 +2657,11 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                         // usually just once, but will be the number of channels if we have
                         //  multiple channels and aren't using PLogic to change between them
                         for (int channelNum = 0; channelNum < nrChannelsSoftware; channelNum++) {
+                            // images are drained from the sequence buffer on a separate thread;
+                            //   the subscription must be open before the cameras start
+                            SequenceBufferDrainService.Subscription images =
+                                    ((MMStudio) gui_).getSequenceBufferDrainService().subscribe(
+                                            DRAIN_QUEUE_CAPACITY, SequenceBufferDrainService.DropPolicy.BLOCK);
                             try {
                                 // flag that we are using the cameras/controller
                                 ASIdiSPIM.getFrame().setHardwareInUse(true);
@@ -2693,7 +2704,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                 final long timeout = Math.max(3000,
                                         Math.round(10 * sliceDuration + 2 * acqSettings.delayBeforeSide))
                                         + extraStageScanTimeout + extraMultiXYTimeout;
-                                while (core_.getRemainingImageCount() == 0 && (now - start < timeout)
+                                while (images.isEmpty() && (now - start < timeout)
                                         && !cancelAcquisition_.get()) {
                                     now = System.currentTimeMillis();
                                     Thread.sleep(5);
@@ -2726,14 +2737,12 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
 
                                 start = System.currentTimeMillis();
                                 long last = start;
+                                long camerasStoppedNs = -1;  // when the cameras were first seen stopped
                                 try {
-                                    while ((core_.getRemainingImageCount() > 0
-                                            || core_.isSequenceRunning(firstCamera)
-                                            || (twoSided && core_.isSequenceRunning(secondCamera)))
-                                            && !done) {
+                                    while (!done) {
                                         now = System.currentTimeMillis();
-                                        if (core_.getRemainingImageCount() > 0) {  // we have an image to grab
-                                            TaggedImage timg = core_.popNextTaggedImage();
+                                        Image timg = images.poll(1, TimeUnit.MILLISECONDS);
+                                        if (timg != null) {  // we have an image to grab
 
                                             if (checkForSkips && imagesToSkip != 0) {
                                                 imagesToSkip--;
@@ -2745,7 +2754,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             // channel indexes will go from 0 to (nrSides * nrChannels - 1) 
                                             // if double-sided then second camera gets odd channel indexes (1, 3, etc.) 
                                             //    and adjacent pairs will be same color (e.g. 0 and 1 will be from first color, 2 and 3 from second, etc.) String camera = (String) timg.tags.get("Camera");
-                                            String camera = (String) timg.tags.get("Camera");
+                                            String camera = timg.getMetadata().getCamera();
                                             int cameraIndex = camera.equals(firstCamera) ? 0 : 1;
                                             int channelIndex_tmp;
                                             switch (acqSettings.channelMode) {
@@ -2828,8 +2837,18 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                             last = now;  // keep track of last image timestamp
 
                                         } else {  // no image ready yet
+                                            if (!core_.isSequenceRunning(firstCamera)
+                                                    && !(twoSided && core_.isSequenceRunning(secondCamera))) {
+                                                // once the drain thread has found the buffer empty after
+                                                //   the cameras stopped, all their images have been queued
+                                                if (camerasStoppedNs == -1) {
+                                                    camerasStoppedNs = System.nanoTime();
+                                                } else if (images.isBufferDrainedSince(camerasStoppedNs)
+                                                        && images.isEmpty()) {
+                                                    break;
+                                                }
+                                            }
                                             done = cancelAcquisition_.get();
-                                            Thread.sleep(1);
                                             if (now - last >= timeout2) {
                                                 ReportingUtils.logError("Camera did not send all expected images within"
                                                         + " a reasonable period for timepoint " + (timePoint + 1) + ".  Continuing anyway.");
@@ -2880,6 +2899,7 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
                                 if (twoSided && core_.isSequenceRunning(secondCamera)) {
                                     core_.stopSequenceAcquisition(secondCamera);
                                 }
+                                images.close();
                             }
                         }
 
@@ -3165,20 +3185,19 @@ public class AcquisitionPanel extends ListeningJPanel implements DevicesListener
      * @param slice - (z) slice at which to insert image
      * @param position - position at which to insert image
      * @param ms - Time stamp to be added to the image metadata
-     * @param taggedImg - image + metadata to be added
+     * @param img - image + metadata to be added
      * @throws mmcorej.org.json.JSONException
      * @throws org.micromanager.data.DatastoreFrozenException
      * @throws org.micromanager.data.DatastoreRewriteException
      */
     private void addImageToAcquisition(Datastore store, int frame, int channel,
-            int slice, int position, long ms, TaggedImage taggedImg) throws
+            int slice, int position, long ms, Image img) throws
             JSONException, DatastoreFrozenException,
             DatastoreRewriteException, Exception {
 
         CoordsBuilder cb = Coordinates.builder();
 
         Coords coord = cb.time(frame).channel(channel).z(slice).stagePosition(position).build();
-        Image img = gui_.data().convertTaggedImage(taggedImg);
         Metadata md = img.getMetadata();
         Metadata.Builder mdb = md.copyBuilderWithNewUUID();
         PropertyMap ud = md.getUserData();
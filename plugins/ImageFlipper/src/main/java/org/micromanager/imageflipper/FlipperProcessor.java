@@ -26,6 +26,8 @@ import org.micromanager.PropertyMaps;
 import org.micromanager.Studio;
 import org.micromanager.data.Image;
 import org.micromanager.data.Metadata;
+import org.micromanager.data.PixelBufferPool;
+import org.micromanager.data.PixelBufferPools;
 import org.micromanager.data.Processor;
 import org.micromanager.data.ProcessorContext;
 
@@ -72,8 +74,16 @@ public class FlipperProcessor implements Processor {
             return;
          }
       }
-      context.outputImage(
-            transformImage(studio_, image, isMirrored_, rotation_));
+      context.outputImage(transformImage(studio_, image, isMirrored_, rotation_,
+            context.getPixelBufferPool()));
+   }
+
+   /**
+    * Each image is transformed independently.
+    */
+   @Override
+   public boolean isStateless() {
+      return true;
    }
 
    /**
@@ -88,6 +98,39 @@ public class FlipperProcessor implements Processor {
     */
    public static Image transformImage(Studio studio, Image image,
                                       boolean isMirrored, int rotation) {
+      return transformImage(studio, image, isMirrored, rotation,
+            PixelBufferPools.unpooled());
+   }
+
+   /**
+    * Executes image transformation, taking the pixels of 8 and 16-bit
+    * results from the given pool.
+    *
+    * @param studio
+    * @param image      Image to be transformed.
+    * @param isMirrored Whether or not to mirror the image.
+    * @param rotation   Degrees to rotate by (R0, R90, R180, R270)
+    * @param pool       Pool to borrow the pixel array of the result from
+    * @return - Transformed Image, otherwise a copy of the input
+    */
+   public static Image transformImage(Studio studio, Image image,
+                                      boolean isMirrored, int rotation,
+                                      PixelBufferPool pool) {
+      // Insert some metadata to indicate what we did to the image.
+      PropertyMap.Builder builder;
+      PropertyMap userData = image.getMetadata().getUserData();
+      if (userData != null) {
+         builder = userData.copyBuilder();
+      } else {
+         builder = PropertyMaps.builder();
+      }
+      builder.putInteger("ImageFlipper-Rotation", rotation);
+      builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
+      Metadata newMetadata =
+            image.getMetadata().copyBuilderPreservingUUID().userData(builder.build()).build();
+      if (image.getNumComponents() == 1 && image.getBytesPerPixel() <= 2) {
+         return transformGrayImage(studio, image, isMirrored, rotation, newMetadata, pool);
+      }
 
       ImageProcessor proc = studio.data().ij().createProcessor(image);
 
@@ -104,20 +147,74 @@ public class FlipperProcessor implements Processor {
       if (rotation == R270) {
          proc = proc.rotateLeft();
       }
-      // Insert some metadata to indicate what we did to the image.
-      PropertyMap.Builder builder;
-      PropertyMap userData = image.getMetadata().getUserData();
-      if (userData != null) {
-         builder = userData.copyBuilder();
-      } else {
-         builder = PropertyMaps.builder();
-      }
-      builder.putInteger("ImageFlipper-Rotation", rotation);
-      builder.putString("ImageFlipper-Mirror", isMirrored ? "On" : "Off");
-      Metadata newMetadata =
-            image.getMetadata().copyBuilderPreservingUUID().userData(builder.build()).build();
       Image result = studio.data().ij().createImage(proc, image.getCoords(),
             newMetadata);
       return result;
    }
+
+   /**
+    * Mirrors and rotates in a single pass into an array borrowed from the
+    * pixel buffer pool, instead of copying the image three times via
+    * ImageJ.
+    */
+   private static Image transformGrayImage(Studio studio, Image image,
+                                           boolean isMirrored, int rotation,
+                                           Metadata metadata, PixelBufferPool pool) {
+      final int width = image.getWidth();
+      final int height = image.getHeight();
+      final boolean swapsAxes = rotation == R90 || rotation == R270;
+      final int newWidth = swapsAxes ? height : width;
+      final int newHeight = swapsAxes ? width : height;
+      Object source = image.getRawPixels();
+      Object target = pool.borrowLike(image);
+      for (int y = 0; y < newHeight; ++y) {
+         // Along a row of the result, the source index changes by a constant
+         // step (+-1 or +-width)
+         int sourceIndex = sourceIndex(0, y, width, height, isMirrored, rotation);
+         int step = sourceIndex(1, y, width, height, isMirrored, rotation) - sourceIndex;
+         int targetIndex = y * newWidth;
+         if (source instanceof byte[]) {
+            byte[] in = (byte[]) source;
+            byte[] out = (byte[]) target;
+            for (int x = 0; x < newWidth; ++x, sourceIndex += step) {
+               out[targetIndex + x] = in[sourceIndex];
+            }
+         } else {
+            short[] in = (short[]) source;
+            short[] out = (short[]) target;
+            for (int x = 0; x < newWidth; ++x, sourceIndex += step) {
+               out[targetIndex + x] = in[sourceIndex];
+            }
+         }
+      }
+      return studio.data().wrapImage(target, newWidth, newHeight,
+            image.getBytesPerPixel(), 1, image.getCoords(), metadata);
+   }
+
+   /**
+    * Index in the source image of pixel (x, y) of the result: undo the
+    * rotation, then the mirroring.
+    */
+   private static int sourceIndex(int x, int y, int width, int height,
+                                  boolean isMirrored, int rotation) {
+      int sourceX;
+      int sourceY;
+      if (rotation == R90) {
+         sourceX = y;
+         sourceY = height - 1 - x;
+      } else if (rotation == R180) {
+         sourceX = width - 1 - x;
+         sourceY = height - 1 - y;
+      } else if (rotation == R270) {
+         sourceX = width - 1 - y;
+         sourceY = x;
+      } else {
+         sourceX = x;
+         sourceY = y;
+      }
+      if (isMirrored) {
+         sourceX = width - 1 - sourceX;
+      }
+      return sourceY * width + sourceX;
+   }
 }
@@ -78,7 +78,8 @@ public class ImageCollection {
       return background_.get(baseImage_);
    }
 
-   public ImagePlusInfo getBackground(int binning, Rectangle roi)
+   // synchronized, as the shading processor may run on several threads
+   public synchronized ImagePlusInfo getBackground(int binning, Rectangle roi)
          throws ShadingException {
       String key = makeKey(binning, roi);
       if (background_.containsKey(key)) {
@@ -202,7 +203,8 @@ public class ImageCollection {
       return flatFields_.get(preset).get(baseImage_);
    }
 
-   public ImagePlusInfo getFlatField(String preset, int binning, Rectangle roi)
+   public synchronized ImagePlusInfo getFlatField(String preset, int binning,
+                                                 Rectangle roi)
          throws ShadingException {
       String key = makeKey(binning, roi);
       if (flatFields_.get(preset).containsKey(key)) {
@@ -36,9 +36,9 @@ import coremem.enums.NativeTypeEnum;
 import ij.process.ImageProcessor;
 import java.awt.Rectangle;
 import java.io.IOException;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
 import org.micromanager.data.Image;
@@ -67,7 +67,7 @@ public class ShadingProcessor implements Processor {
    private ClearCLProgram cclProgram_;
    private Boolean isAcqRunning_ = false;
 
-   private final Set<Class<?>> alertSet_ = new HashSet<>();
+   private final Set<Class<?>> alertSet_ = ConcurrentHashMap.newKeySet();
 
    /**
     * Constructor of the Image Processor.
@@ -150,6 +150,12 @@ public class ShadingProcessor implements Processor {
    private static class ErrorInOpenCLClass {
    }
 
+   @Override
+   public boolean isStateless() {
+      // The OpenCL context is shared and is not used from several threads
+      return !useOpenCL_;
+   }
+
    @Override
    public SummaryMetadata processSummaryMetadata(SummaryMetadata source) {
       isAcqRunning_ = studio_.acquisitions().isAcquisitionRunning();
@@ -359,7 +365,7 @@ public class ShadingProcessor implements Processor {
 
 
       if (image.getBytesPerPixel() == 1) {
-         byte[] newPixels = new byte[width * height];
+         byte[] newPixels = context.getPixelBufferPool().borrowBytes(width * height);
          byte[] oldPixels = (byte[]) image.getRawPixels();
          int length = oldPixels.length;
          float[] flatFieldPixels = (float[]) flatFieldImage.getProcessor().getPixels();
@@ -371,11 +377,12 @@ public class ShadingProcessor implements Processor {
             }
             newPixels[index] = (byte) (newValue);
          }
-         result = studio_.data().createImage(newPixels, width, height,
+         // newPixels is ours alone, so it need not be copied
+         result = studio_.data().wrapImage(newPixels, width, height,
                1, 1, image.getCoords(), metadata);
          context.outputImage(result);
       } else if (image.getBytesPerPixel() == 2) {
-         short[] newPixels = new short[width * height];
+         short[] newPixels = context.getPixelBufferPool().borrowShorts(width * height);
          short[] oldPixels = (short[]) image.getRawPixels();
          int length = oldPixels.length;
          for (int index = 0; index < length; index++) {
@@ -389,7 +396,7 @@ public class ShadingProcessor implements Processor {
             }
             newPixels[index] = (short) (((int) newValue) & 0x0000ffff);
          }
-         result = studio_.data().createImage(newPixels, width, height,
+         result = studio_.data().wrapImage(newPixels, width, height,
                2, 1, image.getCoords(), metadata);
          context.outputImage(result);
       }
@@ -40,12 +40,12 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.SwingUtilities;
 import mmcorej.CMMCore;
-import mmcorej.TaggedImage;
 import net.miginfocom.swing.MigLayout;
 import org.micromanager.PropertyMap;
 import org.micromanager.Studio;
@@ -54,6 +54,8 @@ import org.micromanager.data.Coords;
 import org.micromanager.data.Datastore;
 import org.micromanager.data.Image;
 import org.micromanager.data.SummaryMetadata;
+import org.micromanager.internal.MMStudio;
+import org.micromanager.internal.SequenceBufferDrainService;
 import org.micromanager.internal.utils.NumberUtils;
 import org.micromanager.internal.utils.ReportingUtils;
 import org.micromanager.internal.utils.WindowPositioning;
@@ -284,16 +286,20 @@ public class PtcToolsExecutor extends Thread {
                             double exposure) throws Exception {
       final Coords.Builder cb = Coordinates.builder().c(1).p(1).t(1).z(1);
       core.setExposure(exposure);
-      core.startSequenceAcquisition(nrFrames, 0.0, true);
-      int frCounter = 0;
-      // TODO: this can hang
-      while (core.isSequenceRunning() || core.getRemainingImageCount() > 0) {
-         if (core.getRemainingImageCount() > 0) {
-            TaggedImage nextImage = core.popNextTaggedImage();
-            if (nextImage != null) {
-               Image img = studio_.data().convertTaggedImage(nextImage);
+      try (SequenceBufferDrainService.Subscription images =
+                 ((MMStudio) studio_).getSequenceBufferDrainService().subscribe(
+                       nrFrames, SequenceBufferDrainService.DropPolicy.BLOCK)) {
+         core.startSequenceAcquisition(nrFrames, 0.0, true);
+         int frCounter = 0;
+         // TODO: this can hang
+         while (frCounter < nrFrames) {
+            Image img = images.poll(100, TimeUnit.MILLISECONDS);
+            if (img != null) {
                store.putImage(img.copyAtCoords(cb.t(frCounter).build()));
                frCounter++;
+            } else if (images.isSequenceFinished() && images.isEmpty()) {
+               // Sequence stopped early; all of its images have been received
+               break;
             }
          }
       }
@@ -52,6 +52,7 @@ import org.micromanager.acquisition.AcquisitionStartedEvent;
 import org.micromanager.data.DataProvider;
 import org.micromanager.data.DataProviderHasNewImageEvent;
 import org.micromanager.data.Image;
+import org.micromanager.data.ImageEventCoalescing;
 import org.micromanager.display.DataViewer;
 import org.micromanager.events.LiveModeEvent;
 import org.micromanager.internal.utils.WindowPositioning;
@@ -228,7 +229,10 @@ public class RTIntensitiesFrame extends JFrame {
       }
       title_.setText("Set");
       delayedStart_ = true;
-      event.getDatastore().registerForEvents(RThandler_);
+      // Only the latest image of each channel is of interest; do not fall
+      // behind (or hold up the datastore) at high frame rates
+      event.getDatastore().registerForEvents(RThandler_,
+            ImageEventCoalescing.latestChannelGroup());
    }
 
    @Subscribe
@@ -327,7 +331,8 @@ public class RTIntensitiesFrame extends JFrame {
       });
       if (!delayedStart_) {
          title_.setText("Waiting for images...");
-         dataProvider_.registerForEvents(RThandler_);
+         dataProvider_.registerForEvents(RThandler_,
+               ImageEventCoalescing.latestChannelGroup());
       } else {
          delayedStart_ = false;
       }
@@ -100,8 +100,17 @@ public class SplitViewProcessor implements Processor {
       return sb.build();
    }
 
+   @Override
+   public boolean isStateless() {
+      return true;
+   }
+
    @Override
    public void processImage(Image image, ProcessorContext context) {
+      if (image.getNumComponents() == 1 && image.getBytesPerPixel() <= 2) {
+         splitGrayImage(image, context);
+         return;
+      }
       ImageProcessor proc = studio_.data().ij().createProcessor(image);
 
       int width = image.getWidth();
@@ -128,4 +137,39 @@ public class SplitViewProcessor implements Processor {
          context.outputImage(output);
       }
    }
+
+   /**
+    * Copies the rows of each part into an array borrowed from the pixel
+    * buffer pool, without going through (and copying) ImageJ processors.
+    */
+   private void splitGrayImage(Image image, ProcessorContext context) {
+      final int fullWidth = image.getWidth();
+      int width = fullWidth;
+      int height = image.getHeight();
+      int xStep = 0;
+      int yStep = 0;
+      if (orientation_.equals(SplitViewFrame.TB)) {
+         height /= numSplits_;
+         yStep = height;
+      } else {
+         width /= numSplits_;
+         xStep = width;
+      }
+
+      Object pixels = image.getRawPixels();
+      int channelIndex = image.getCoords().getChannel();
+      for (int i = 0; i < numSplits_; ++i) {
+         Object part = image.getBytesPerPixel() == 1
+               ? context.getPixelBufferPool().borrowBytes(width * height)
+               : context.getPixelBufferPool().borrowShorts(width * height);
+         for (int y = 0; y < height; ++y) {
+            System.arraycopy(pixels, (i * yStep + y) * fullWidth + i * xStep,
+                  part, y * width, width);
+         }
+         Coords coords = image.getCoords().copy()
+               .channel(channelIndex * numSplits_ + i).build();
+         context.outputImage(studio_.data().wrapImage(part, width, height,
+               image.getBytesPerPixel(), 1, coords, image.getMetadata()));
+      }
+   }
 }